@@ -6,55 +6,92 @@
 
 package org.openmrs.module.xdsbrepository;
 
+import org.openmrs.module.xdsbrepository.hl7.CompositeField;
+
 /**
  * Borrowed from openhim-mediator-xds:
  * https://github.com/jembi/openhim-mediator-xds/blob/master/src/main/java/org/openhim/mediator/datatypes/AssigningAuthority.java
+ * <p/>
+ * Instances are immutable; the HL7 form and hash code are computed once on construction so that
+ * authorities are cheap to compare and safe to use as map keys. Use {@link #valueOf(String, String, String)}
+ * or {@link #parse(String)} to obtain a shared canonical instance.
  */
-public class AssigningAuthority {
-    private String assigningAuthority;
-    private String assigningAuthorityId;
-    private String assigningAuthorityIdType;
+public final class AssigningAuthority {
+
+    private static final CanonicalCache<AssigningAuthority> CANONICAL = new CanonicalCache<AssigningAuthority>(1024);
+
+    private final String assigningAuthority;
+    private final String assigningAuthorityId;
+    private final String assigningAuthorityIdType;
+
+    private final String hl7;
+    private final int hash;
 
     public AssigningAuthority() {
+        this(null, null, null);
     }
 
     public AssigningAuthority(String assigningAuthority) {
-        this.assigningAuthority = assigningAuthority;
+        this(assigningAuthority, null, null);
     }
 
     public AssigningAuthority(String assigningAuthority, String assigningAuthorityId) {
-        this.assigningAuthority = assigningAuthority;
-        this.assigningAuthorityId = assigningAuthorityId;
+        this(assigningAuthority, assigningAuthorityId, null);
     }
 
     public AssigningAuthority(String assigningAuthority, String assigningAuthorityId, String assigningAuthorityIdType) {
         this.assigningAuthority = assigningAuthority;
         this.assigningAuthorityId = assigningAuthorityId;
         this.assigningAuthorityIdType = assigningAuthorityIdType;
+        this.hl7 = buildHL7(assigningAuthority, assigningAuthorityId, assigningAuthorityIdType);
+        this.hash = hl7.hashCode();
     }
 
-    public String getAssigningAuthority() {
-        return assigningAuthority;
+    /**
+     * @return the canonical instance for these values
+     */
+    public static AssigningAuthority valueOf(String assigningAuthority, String assigningAuthorityId, String assigningAuthorityIdType) {
+        return intern(new AssigningAuthority(assigningAuthority, assigningAuthorityId, assigningAuthorityIdType));
     }
 
-    public void setAssigningAuthority(String assigningAuthority) {
-        this.assigningAuthority = assigningAuthority;
+    /**
+     * @return the canonical instance equal to authority
+     */
+    public static AssigningAuthority intern(AssigningAuthority authority) {
+        AssigningAuthority existing = CANONICAL.get(authority.hl7);
+        return existing != null ? existing : CANONICAL.intern(authority.hl7, authority);
     }
 
-    public String getAssigningAuthorityId() {
-        return assigningAuthorityId;
+    /**
+     * Parse an HL7 HD value, e.g. <code>&amp;1.2.3&amp;ISO</code>, into a canonical instance
+     */
+    public static AssigningAuthority parse(String hd) {
+        return fromComponent(CompositeField.parse(hd), 0);
     }
 
-    public void setAssigningAuthorityId(String assigningAuthorityId) {
-        this.assigningAuthorityId = assigningAuthorityId;
+    /**
+     * Build a canonical assigning authority from the subcomponents of an already tokenized composite field
+     */
+    static AssigningAuthority fromComponent(CompositeField field, int component) {
+        return valueOf(emptyToNull(field.getSubcomponent(component, 0)),
+                emptyToNull(field.getSubcomponent(component, 1)),
+                emptyToNull(field.getSubcomponent(component, 2)));
     }
 
-    public String getAssigningAuthorityIdType() {
-        return assigningAuthorityIdType;
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
     }
 
-    public void setAssigningAuthorityIdType(String assigningAuthorityIdType) {
-        this.assigningAuthorityIdType = assigningAuthorityIdType;
+    public String getAssigningAuthority() {
+        return assigningAuthority;
+    }
+
+    public String getAssigningAuthorityId() {
+        return assigningAuthorityId;
+    }
+
+    public String getAssigningAuthorityIdType() {
+        return assigningAuthorityIdType;
     }
 
     @Override
@@ -63,32 +100,33 @@ public class AssigningAuthority {
         if (o == null || getClass() != o.getClass()) return false;
 
         AssigningAuthority authority = (AssigningAuthority) o;
-        return toHL7().equals(authority.toHL7());
+        return hash == authority.hash && hl7.equals(authority.hl7);
     }
 
     @Override
     public int hashCode() {
-        int result = assigningAuthority != null ? assigningAuthority.hashCode() : 0;
-        result = 31 * result + (assigningAuthorityId != null ? assigningAuthorityId.hashCode() : 0);
-        result = 31 * result + (assigningAuthorityIdType != null ? assigningAuthorityIdType.hashCode() : 0);
-        return result;
+        return hash;
     }
 
     public String toHL7() {
-        String res = "";
+        return hl7;
+    }
+
+    private static String buildHL7(String assigningAuthority, String assigningAuthorityId, String assigningAuthorityIdType) {
+        StringBuilder res = new StringBuilder();
         if (assigningAuthority!=null && !assigningAuthority.trim().isEmpty()) {
-            res += assigningAuthority;
+            res.append(assigningAuthority);
         }
         if (assigningAuthorityId!=null && !assigningAuthorityId.trim().isEmpty()) {
-            res += "&" + assigningAuthorityId;
+            res.append('&').append(assigningAuthorityId);
         }
         if (assigningAuthorityIdType!=null && !assigningAuthorityIdType.trim().isEmpty()) {
             if (assigningAuthorityId==null || assigningAuthorityId.trim().isEmpty()) {
-                res += "&";
+                res.append('&');
             }
-            res += "&" + assigningAuthorityIdType;
+            res.append('&').append(assigningAuthorityIdType);
         }
-        return res;
+        return res.toString();
     }
 
     @Override
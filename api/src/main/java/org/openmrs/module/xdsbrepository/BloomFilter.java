@@ -0,0 +1,140 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe Bloom filter of strings. {@link #mightContain(String)} never returns false for a string that
+ * has been added, and returns true for a string that has not been added with roughly the false positive
+ * rate the filter was sized for, as long as no more than the expected number of strings are added.
+ */
+public final class BloomFilter {
+
+	private static final double LN2 = Math.log(2);
+
+	private final AtomicLongArray words;
+
+	private final long bitCount;
+
+	private final int hashCount;
+
+	private final long expectedInsertions;
+
+	private final AtomicLong insertions = new AtomicLong();
+
+	/**
+	 * @param expectedInsertions - the number of strings the filter is sized for
+	 * @param falsePositiveRate - the false positive rate wanted at the expected number of insertions
+	 * @param maxBytes - upper bound on the size of the bit array, the false positive rate is higher than asked
+	 *                 for if it does not fit
+	 */
+	public BloomFilter(long expectedInsertions, double falsePositiveRate, long maxBytes) {
+		if (expectedInsertions < 1) {
+			throw new IllegalArgumentException("expectedInsertions must be positive");
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+		}
+		long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (LN2 * LN2));
+		// the bits are held in a long array indexed by int
+		bits = Math.min(bits, Math.min(maxBytes * 8, Integer.MAX_VALUE * 64L));
+		long wordCount = Math.max(1, (bits + 63) / 64);
+
+		this.words = new AtomicLongArray((int) wordCount);
+		this.bitCount = wordCount * 64;
+		this.hashCount = (int) Math.max(1, Math.min(30, Math.round((double) bitCount / expectedInsertions * LN2)));
+		this.expectedInsertions = expectedInsertions;
+	}
+
+	public void put(String value) {
+		long hash = hash(value);
+		long hash1 = hash;
+		long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+		boolean changed = false;
+		for (int i = 0; i < hashCount; i++) {
+			long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+			changed |= setBit(bit);
+		}
+		if (changed) {
+			insertions.incrementAndGet();
+		}
+	}
+
+	public boolean mightContain(String value) {
+		long hash = hash(value);
+		long hash1 = hash;
+		long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true once more strings have been added than the filter was sized for, from then on the false
+	 * positive rate climbs quickly
+	 */
+	public boolean isSaturated() {
+		return insertions.get() > expectedInsertions;
+	}
+
+	public long getBitCount() {
+		return bitCount;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	/**
+	 * @return the number of distinct strings added, give or take the strings that were taken for duplicates
+	 */
+	public long getInsertions() {
+		return insertions.get();
+	}
+
+	private boolean setBit(long bit) {
+		int index = (int) (bit >>> 6);
+		long mask = 1L << bit;
+		while (true) {
+			long word = words.get(index);
+			if ((word & mask) != 0) {
+				return false;
+			}
+			if (words.compareAndSet(index, word, word | mask)) {
+				return true;
+			}
+		}
+	}
+
+	static long hash(String value) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+		}
+		return mix(hash ^ value.length());
+	}
+
+	// MurmurHash3 finaliser, spreads the FNV hash over all 64 bits
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
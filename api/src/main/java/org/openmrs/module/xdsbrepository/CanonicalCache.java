@@ -0,0 +1,45 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded, thread-safe map of canonical instances keyed by their string form. When the bound is
+ * reached the cache is simply dropped and refilled; this keeps lookups lock-free and memory bounded
+ * while still collapsing the identifiers repeated within and across submissions onto one instance.
+ */
+class CanonicalCache<V> {
+
+    private final ConcurrentMap<String, V> instances = new ConcurrentHashMap<String, V>();
+
+    private final int maxSize;
+
+    CanonicalCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    V get(String key) {
+        return instances.get(key);
+    }
+
+    /**
+     * @return the canonical instance for key, which is value unless another one was registered first
+     */
+    V intern(String key, V value) {
+        if (instances.size() >= maxSize) {
+            instances.clear();
+        }
+        V existing = instances.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+
+    void clear() {
+        instances.clear();
+    }
+}
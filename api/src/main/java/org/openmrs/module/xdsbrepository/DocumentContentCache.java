@@ -0,0 +1,301 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import org.openmrs.module.shr.contenthandler.api.Content;
+import org.openmrs.module.xdsbrepository.metrics.CacheStatistics;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches the content of the documents that are retrieved most, within a budget of bytes. Consumers often
+ * retrieve a document right after it has been registered and a few recent documents get most of the
+ * retrievals, so documents are added when they are registered as well as when they are retrieved.
+ * <p/>
+ * New documents go into a window of the most recently used tenth of the budget. A document that falls out
+ * of the window only gets into the rest of the cache if it has been asked for more often, as estimated by a
+ * {@link FrequencySketch}, than each of the least recently used documents it would evict there. A large
+ * document needs many documents evicted, so one that is not asked for often can not flush the ones that are.
+ * Documents larger than the window are not cached.
+ * <p/>
+ * Concurrent lookups of a document that is not cached wait for a single load. Documents are only added once
+ * the transaction they were stored or read in has committed, and are removed when their registration is
+ * compensated.
+ */
+public final class DocumentContentCache {
+
+	// an estimate of the memory taken by the Content object and the entry, besides the payload
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private static final int WINDOW_FRACTION = 10;
+
+	// guards the two maps, their sizes and the sketch
+	private static final Object lock = new Object();
+
+	// both in access order, least recently used first
+	private static final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private static final LinkedHashMap<String, Entry> main = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private static long windowBytes;
+
+	private static long mainBytes;
+
+	private static FrequencySketch sketch;
+
+	private static long sketchBudget;
+
+	private static final ConcurrentMap<String, FutureTask<Content>> loading = new ConcurrentHashMap<String, FutureTask<Content>>();
+
+	private static final CacheStatistics statistics = new CacheStatistics("documentContent");
+
+	private DocumentContentCache() {
+	}
+
+	/**
+	 * Get the content of a document from the cache, or from the loader if it is not cached. Only one of the
+	 * threads that ask for the same document at the same time runs its loader, the others wait for its result.
+	 *
+	 * @param loader - loads the content, or returns null if there is no such document
+	 */
+	public static Content get(String documentUniqueId, Callable<Content> loader) throws Exception {
+		long budget = getBudget();
+		if (budget <= 0) {
+			return loader.call();
+		}
+
+		Content content = getIfPresent(documentUniqueId, budget);
+		if (content != null) {
+			statistics.hit();
+			return content;
+		}
+		statistics.miss();
+
+		FutureTask<Content> task = new FutureTask<Content>(loader);
+		FutureTask<Content> running = loading.putIfAbsent(documentUniqueId, task);
+		if (running != null) {
+			return getResult(running);
+		}
+		try {
+			task.run();
+			content = getResult(task);
+		} finally {
+			// unless the document was invalidated while it was loaded
+			if (loading.remove(documentUniqueId, task) && content != null) {
+				put(documentUniqueId, content);
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * Add the content of a document, once the current transaction has committed if there is one
+	 */
+	public static void put(final String documentUniqueId, final Content content) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					add(documentUniqueId, content);
+				}
+			});
+		} else {
+			add(documentUniqueId, content);
+		}
+	}
+
+	/**
+	 * Remove a document, and make a load of it that is running meanwhile not add it
+	 */
+	public static void invalidate(String documentUniqueId) {
+		loading.remove(documentUniqueId);
+		synchronized (lock) {
+			Entry entry = window.remove(documentUniqueId);
+			if (entry != null) {
+				windowBytes -= entry.weight;
+			}
+			entry = main.remove(documentUniqueId);
+			if (entry != null) {
+				mainBytes -= entry.weight;
+			}
+		}
+	}
+
+	public static void clear() {
+		loading.clear();
+		synchronized (lock) {
+			window.clear();
+			main.clear();
+			windowBytes = 0;
+			mainBytes = 0;
+			sketch = null;
+		}
+	}
+
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return the estimated memory in bytes taken by the cached documents
+	 */
+	public static long getSize() {
+		synchronized (lock) {
+			return windowBytes + mainBytes;
+		}
+	}
+
+	public static int getDocumentCount() {
+		synchronized (lock) {
+			return window.size() + main.size();
+		}
+	}
+
+	private static long getBudget() {
+		return XDSbRepositoryConfiguration.get().getDocumentCacheMaxMemory() * 1024L * 1024L;
+	}
+
+	private static Content getIfPresent(String documentUniqueId, long budget) {
+		synchronized (lock) {
+			getSketch(budget).increment(documentUniqueId);
+			Entry entry = window.get(documentUniqueId);
+			if (entry == null) {
+				entry = main.get(documentUniqueId);
+			}
+			return entry == null ? null : entry.content;
+		}
+	}
+
+	private static void add(String documentUniqueId, Content content) {
+		long budget = getBudget();
+		long weight = (long) content.getPayload().length + documentUniqueId.length() * 2 + ENTRY_OVERHEAD;
+		if (weight > budget / WINDOW_FRACTION) {
+			return;
+		}
+		synchronized (lock) {
+			FrequencySketch frequencies = getSketch(budget);
+			Entry previous = main.remove(documentUniqueId);
+			if (previous != null) {
+				mainBytes -= previous.weight;
+			} else {
+				previous = window.remove(documentUniqueId);
+				if (previous != null) {
+					windowBytes -= previous.weight;
+				} else {
+					// storing a document counts as asking for it
+					frequencies.increment(documentUniqueId);
+				}
+			}
+			window.put(documentUniqueId, new Entry(documentUniqueId, content, weight));
+			windowBytes += weight;
+			evict(budget, frequencies);
+		}
+	}
+
+	/**
+	 * Move the documents that no longer fit in the window to the main part of the cache, if they are asked
+	 * for more often than what they would evict there. The caller holds the lock.
+	 */
+	private static void evict(long budget, FrequencySketch frequencies) {
+		long windowBudget = budget / WINDOW_FRACTION;
+		long mainBudget = budget - windowBudget;
+		while (windowBytes > windowBudget) {
+			Iterator<Entry> eldest = window.values().iterator();
+			Entry candidate = eldest.next();
+			eldest.remove();
+			windowBytes -= candidate.weight;
+			admit(candidate, mainBudget, frequencies);
+		}
+		// the budget may have been lowered
+		Iterator<Entry> eldest = main.values().iterator();
+		while (mainBytes > mainBudget && eldest.hasNext()) {
+			mainBytes -= eldest.next().weight;
+			eldest.remove();
+		}
+	}
+
+	private static void admit(Entry candidate, long mainBudget, FrequencySketch frequencies) {
+		long needed = mainBytes + candidate.weight - mainBudget;
+		if (needed > 0) {
+			int frequency = frequencies.frequency(candidate.documentUniqueId);
+			List<Entry> victims = new ArrayList<Entry>();
+			long freed = 0;
+			// iterating the values does not count as access
+			for (Entry victim : main.values()) {
+				if (freed >= needed) {
+					break;
+				}
+				if (frequencies.frequency(victim.documentUniqueId) >= frequency) {
+					return;
+				}
+				victims.add(victim);
+				freed += victim.weight;
+			}
+			if (freed < needed) {
+				return;
+			}
+			for (Entry victim : victims) {
+				main.remove(victim.documentUniqueId);
+				mainBytes -= victim.weight;
+			}
+		}
+		main.put(candidate.documentUniqueId, candidate);
+		mainBytes += candidate.weight;
+	}
+
+	/**
+	 * The caller holds the lock
+	 */
+	private static FrequencySketch getSketch(long budget) {
+		if (sketch == null || sketchBudget != budget) {
+			// sized for documents of about 4 KB
+			sketch = new FrequencySketch((int) Math.min(budget / 4096, Integer.MAX_VALUE));
+			sketchBudget = budget;
+		}
+		return sketch;
+	}
+
+	private static Content getResult(FutureTask<Content> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static final class Entry {
+
+		private final String documentUniqueId;
+
+		private final Content content;
+
+		private final long weight;
+
+		private Entry(String documentUniqueId, Content content, long weight) {
+			this.documentUniqueId = documentUniqueId;
+			this.content = content;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.xdsbrepository.metrics.CacheStatistics;
+
+/**
+ * An in-memory {@link BloomFilter} of the documentUniqueIds registered in this repository, so that the
+ * duplicate check of a new document only queries the database when the id might already be registered.
+ * <p/>
+ * The filter is built from the <code>xdsbrepository_dochandlers</code> table by
+ * {@link XDSbService#rebuildDocumentIdIndex()} and every id registered afterwards is added to it. Until a
+ * build has finished every id is reported as possibly registered, so the exact check is always made. Ids
+ * cannot be removed from the filter, an unregistered id just stays a false positive. Documents registered
+ * by another server sharing the database are not seen, the unique index on doc_id still rejects those.
+ */
+public final class DocumentIdIndex {
+
+	private static final Log log = LogFactory.getLog(DocumentIdIndex.class);
+
+	private static final Object lock = new Object();
+
+	// the filter that registered ids are added to, it may still be being built
+	private static volatile BloomFilter filter;
+
+	private static volatile boolean ready;
+
+	private static volatile boolean saturationLogged;
+
+	// a hit is a duplicate check answered without querying the database
+	private static final CacheStatistics statistics = new CacheStatistics("documentIdIndex");
+
+	private DocumentIdIndex() {
+	}
+
+	/**
+	 * @return false only if the documentUniqueId is certainly not registered
+	 */
+	public static boolean mightBeRegistered(String documentUniqueId) {
+		BloomFilter current = filter;
+		if (!ready || current == null || current.mightContain(documentUniqueId)) {
+			statistics.miss();
+			return true;
+		}
+		statistics.hit();
+		return false;
+	}
+
+	/**
+	 * Record a newly registered documentUniqueId
+	 */
+	public static void add(String documentUniqueId) {
+		BloomFilter current = filter;
+		if (current == null) {
+			return;
+		}
+		current.put(documentUniqueId);
+		if (current.isSaturated() && !saturationLogged) {
+			saturationLogged = true;
+			log.warn("The documentUniqueId index holds more than the " + current.getExpectedInsertions()
+					+ " ids it was sized for, duplicate checks will query the database more often until it is rebuilt");
+		}
+	}
+
+	/**
+	 * Start building a new filter. Ids registered from now on are added to it, while it is filled with the
+	 * ids that are already registered.
+	 */
+	public static void startBuild(BloomFilter newFilter) {
+		synchronized (lock) {
+			filter = newFilter;
+			ready = false;
+			saturationLogged = false;
+		}
+	}
+
+	/**
+	 * Start answering from a filter once it holds every registered id, unless a newer build has started since
+	 */
+	public static void finishBuild(BloomFilter builtFilter) {
+		synchronized (lock) {
+			if (filter == builtFilter) {
+				ready = true;
+			}
+		}
+	}
+
+	public static boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @return the filter in use, or null if the index has not been built
+	 */
+	public static BloomFilter getFilter() {
+		return filter;
+	}
+
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	public static void clear() {
+		synchronized (lock) {
+			filter = null;
+			ready = false;
+		}
+	}
+}
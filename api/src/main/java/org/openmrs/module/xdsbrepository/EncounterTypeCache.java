@@ -0,0 +1,119 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import org.openmrs.EncounterType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.metrics.CacheStatistics;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the encounter type of a document by its UUID or class code without searching for it every time.
+ * <p/>
+ * Only ids are kept, the encounter type itself is loaded by id, so cached entries never hold on to a closed
+ * session. A UUID that no encounter type has is remembered too, as most documents name one that does not
+ * exist and fall back to their class code. An id is only cached once the transaction that found it has committed, and the whole cache is
+ * dropped whenever an encounter type is saved, retired or purged, see
+ * {@link org.openmrs.module.xdsbrepository.advice.EncounterTypeChangeAdvice}.
+ */
+public final class EncounterTypeCache {
+
+	// cached for a UUID that no encounter type has
+	private static final Integer UNKNOWN = -1;
+
+	private static final ConcurrentMap<String, Integer> idsByKey = new ConcurrentHashMap<String, Integer>();
+
+	private static final CacheStatistics statistics = new CacheStatistics("encounterType");
+
+	private EncounterTypeCache() {
+	}
+
+	public static EncounterType getByUuid(String uuid) {
+		return get("uuid:" + uuid);
+	}
+
+	public static EncounterType getByClassCode(String classCode) {
+		return get("classCode:" + classCode);
+	}
+
+	/**
+	 * @return true if no encounter type had this UUID when it was last searched for
+	 */
+	public static boolean isUnknownUuid(String uuid) {
+		boolean unknown = UNKNOWN.equals(idsByKey.get("uuid:" + uuid));
+		if (unknown) {
+			statistics.hit();
+		}
+		return unknown;
+	}
+
+	public static void putUuid(String uuid, EncounterType encounterType) {
+		put("uuid:" + uuid, encounterType.getId());
+	}
+
+	/**
+	 * Remember that no encounter type has this UUID, so that it is not searched for again
+	 */
+	public static void putUnknownUuid(String uuid) {
+		put("uuid:" + uuid, UNKNOWN);
+	}
+
+	public static void putClassCode(String classCode, EncounterType encounterType) {
+		put("classCode:" + classCode, encounterType.getId());
+	}
+
+	public static void clear() {
+		idsByKey.clear();
+	}
+
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private static EncounterType get(String key) {
+		Integer id = idsByKey.get(key);
+		if (UNKNOWN.equals(id)) {
+			// counted by isUnknownUuid
+			return null;
+		}
+		if (id == null) {
+			statistics.miss();
+			return null;
+		}
+		EncounterType encounterType = Context.getEncounterService().getEncounterType(id);
+		if (encounterType == null) {
+			// removed behind our back, e.g. directly in the database
+			idsByKey.remove(key, id);
+			statistics.miss();
+		} else {
+			statistics.hit();
+		}
+		return encounterType;
+	}
+
+	private static void put(final String key, final Integer id) {
+		if (id == null) {
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			// the encounter type may have been created, or not found, in this transaction, which could still roll back
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					idsByKey.put(key, id);
+				}
+			});
+		} else {
+			idsByKey.put(key, id);
+		}
+	}
+}
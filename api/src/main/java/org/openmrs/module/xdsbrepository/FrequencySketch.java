@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+/**
+ * Estimates how often each string has been seen recently, in a fixed amount of memory. A count-min sketch
+ * of four rows of 4-bit counters: a string's frequency is the smallest of its four counters, which may be
+ * too high because of collisions but is never too low. Every counter is halved once ten times as many
+ * strings as the sketch was sized for have been counted, so that what was popular a while ago fades.
+ * <p/>
+ * Not thread safe, the caller synchronizes.
+ */
+final class FrequencySketch {
+
+	private static final int ROWS = 4;
+
+	private static final int MAX_COUNT = 15;
+
+	// the low bit of every counter, cleared when halving
+	private static final long HALVE_MASK = 0x7777777777777777L;
+
+	// 16 counters of 4 bits to a long
+	private final long[] table;
+
+	private final int width;
+
+	private final int sampleSize;
+
+	private int additions;
+
+	/**
+	 * @param expectedEntries - about how many strings are worth telling apart, e.g. the number of entries of
+	 * the cache the sketch decides admission to
+	 */
+	FrequencySketch(int expectedEntries) {
+		int size = Math.max(64, Math.min(expectedEntries, 1 << 24));
+		width = Integer.highestOneBit(size - 1) << 1;
+		table = new long[ROWS * width / 16];
+		sampleSize = 10 * size;
+	}
+
+	void increment(String value) {
+		long hash = BloomFilter.hash(value);
+		long hash2 = (hash >>> 32) | 1;
+		boolean added = false;
+		for (int row = 0; row < ROWS; row++) {
+			int counter = index(row, hash + row * hash2);
+			int shift = (counter & 15) << 2;
+			if (((table[counter >>> 4] >>> shift) & 0xF) < MAX_COUNT) {
+				table[counter >>> 4] += 1L << shift;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			halve();
+		}
+	}
+
+	/**
+	 * @return the estimated number of times the string was counted recently, at most 15
+	 */
+	int frequency(String value) {
+		long hash = BloomFilter.hash(value);
+		long hash2 = (hash >>> 32) | 1;
+		int frequency = MAX_COUNT;
+		for (int row = 0; row < ROWS; row++) {
+			int counter = index(row, hash + row * hash2);
+			frequency = Math.min(frequency, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xF));
+		}
+		return frequency;
+	}
+
+	private int index(int row, long hash) {
+		return row * width + (int) ((hash & Long.MAX_VALUE) & (width - 1));
+	}
+
+	private void halve() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & HALVE_MASK;
+		}
+		additions /= 2;
+	}
+}
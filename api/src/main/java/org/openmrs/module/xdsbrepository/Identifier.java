@@ -8,101 +8,112 @@ package org.openmrs.module.xdsbrepository;
 
 
 import org.openmrs.module.xdsbrepository.exceptions.CXParseException;
+import org.openmrs.module.xdsbrepository.hl7.CX;
 
 /**
  * Borrowed from openhim-mediator-xds:
  * https://github.com/jembi/openhim-mediator-xds/blob/master/src/main/java/org/openhim/mediator/datatypes/Identifier.java
+ * <p/>
+ * Instances are immutable; the CX form and hash code are computed once on construction so that
+ * identifiers are cheap to compare and safe to use as map keys. {@link #valueOf(String)} returns a
+ * shared canonical instance for repeated CX values.
  */
-public class Identifier {
-    private String identifier;
-    private AssigningAuthority assigningAuthority;
-    private String typeCode;
+public final class Identifier {
+
+    private static final CanonicalCache<Identifier> CANONICAL = new CanonicalCache<Identifier>(10000);
+
+    private final String identifier;
+    private final AssigningAuthority assigningAuthority;
+    private final String typeCode;
+
+    private final String cx;
+    private final int hash;
 
     public Identifier(String identifier, AssigningAuthority assigningAuthority) {
-        this.assigningAuthority = assigningAuthority;
-        this.identifier = identifier;
+        this(identifier, assigningAuthority, null);
     }
 
     public Identifier(String identifier, AssigningAuthority assigningAuthority, String typeCode) {
-        this.assigningAuthority = assigningAuthority;
         this.identifier = identifier;
+        this.assigningAuthority = assigningAuthority != null ? AssigningAuthority.intern(assigningAuthority) : null;
         this.typeCode = typeCode;
+        this.cx = buildCX(identifier, this.assigningAuthority, typeCode);
+        this.hash = cx.hashCode();
     }
 
-    public Identifier(String CX) throws CXParseException {
-        if (CX.trim().isEmpty()) {
+    public Identifier(String cxValue) throws CXParseException {
+        if (cxValue.trim().isEmpty()) {
             throw new CXParseException("Empty CX string");
         }
 
-        String[] tokens = CX.split("\\^");
-
-        if (tokens.length>0 && !tokens[0].isEmpty()) {
-            identifier = tokens[0];
-        }
-
-        if (tokens.length>3 && !tokens[3].isEmpty()) {
-            String[] authTokens = tokens[3].split("&");
-            AssigningAuthority auth = new AssigningAuthority();
+        CX parsed = CX.parse(cxValue);
 
-            if (authTokens.length>0 && !authTokens[0].isEmpty()) {
-                auth.setAssigningAuthority(authTokens[0]);
-            }
-            if (authTokens.length>1 && !authTokens[1].isEmpty()) {
-                auth.setAssigningAuthorityId(authTokens[1]);
-            }
-            if (authTokens.length>2 && !authTokens[2].isEmpty()) {
-                auth.setAssigningAuthorityIdType(authTokens[2]);
-            }
+        identifier = parsed.getField().hasComponent(CX.ID_NUMBER) ? parsed.getIdNumber() : null;
+        assigningAuthority = parsed.hasAssigningAuthority()
+                ? AssigningAuthority.fromComponent(parsed.getField(), CX.ASSIGNING_AUTHORITY) : null;
+        typeCode = parsed.getField().hasComponent(CX.IDENTIFIER_TYPE_CODE) ? parsed.getIdentifierTypeCode() : null;
+        cx = buildCX(identifier, assigningAuthority, typeCode);
+        hash = cx.hashCode();
+    }
 
-            assigningAuthority = auth;
+    /**
+     * Parse a CX value, returning the canonical instance when an equal identifier has been seen before.
+     * Both the raw value and the normalised CX form are remembered so that repeated submissions of the
+     * same value skip parsing altogether.
+     */
+    public static Identifier valueOf(String cxValue) throws CXParseException {
+        Identifier cached = CANONICAL.get(cxValue);
+        if (cached != null) {
+            return cached;
         }
-
-        if (tokens.length>4 && !tokens[4].isEmpty()) {
-            typeCode = tokens[4];
+        Identifier canonical = intern(new Identifier(cxValue));
+        if (!cxValue.equals(canonical.cx)) {
+            CANONICAL.intern(cxValue, canonical);
         }
+        return canonical;
     }
 
-    public AssigningAuthority getAssigningAuthority() {
-        return assigningAuthority;
+    /**
+     * @return the canonical instance equal to id
+     */
+    public static Identifier intern(Identifier id) {
+        Identifier existing = CANONICAL.get(id.cx);
+        return existing != null ? existing : CANONICAL.intern(id.cx, id);
     }
 
-    public void setAssigningAuthority(AssigningAuthority assigningAuthority) {
-        this.assigningAuthority = assigningAuthority;
+    public AssigningAuthority getAssigningAuthority() {
+        return assigningAuthority;
     }
 
     public String getIdentifier() {
         return identifier;
     }
 
-    public void setIdentifier(String identifier) {
-        this.identifier = identifier;
-    }
-
     public String getTypeCode() {
         return typeCode;
     }
 
-    public void setTypeCode(String typeCode) {
-        this.typeCode = typeCode;
-    }
-
     public String toString() {
         return toCX();
     }
 
     public String toCX() {
-        String res = identifier;
+        return cx;
+    }
+
+    private static String buildCX(String identifier, AssigningAuthority assigningAuthority, String typeCode) {
+        StringBuilder res = new StringBuilder().append(identifier);
         if (assigningAuthority!=null) {
-            res += "^^^" + assigningAuthority.toHL7();
+            res.append("^^^").append(assigningAuthority.toHL7());
         }
         if (typeCode!=null && !typeCode.trim().isEmpty()) {
             if (assigningAuthority==null) {
-                res += "^^^^" + typeCode;
+                res.append("^^^^").append(typeCode);
             } else {
-                res += "^" + typeCode;
+                res.append('^').append(typeCode);
             }
         }
-        return res;
+        return res.toString();
     }
 
     public String toXCN() {
@@ -125,14 +136,11 @@ public class Identifier {
         if (o == null || getClass() != o.getClass()) return false;
 
         Identifier that = (Identifier) o;
-        return toCX().equals(that.toCX());
+        return hash == that.hash && cx.equals(that.cx);
     }
 
     @Override
     public int hashCode() {
-        int result = identifier != null ? identifier.hashCode() : 0;
-        result = 31 * result + (assigningAuthority != null ? assigningAuthority.hashCode() : 0);
-        result = 31 * result + (typeCode != null ? typeCode.hashCode() : 0);
-        return result;
+        return hash;
     }
 }
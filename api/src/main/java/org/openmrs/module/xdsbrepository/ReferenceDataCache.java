@@ -0,0 +1,196 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import org.openmrs.Form;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.metrics.CacheStatistics;
+import org.openmrs.util.OpenmrsConstants;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the locations and forms that documents are stored against. Ingest from a few facilities keeps
+ * asking for the same handful of rows, by UUID or name, for every document.
+ * <p/>
+ * Only ids are kept: a hit loads the object by id, which is answered from the Hibernate session or
+ * second-level cache and, unlike a search by UUID or name, never flushes the session. Entries expire after
+ * the configured time to live, and are dropped straight away when a location or form is changed through the
+ * API (see {@link org.openmrs.module.xdsbrepository.advice.ReferenceDataChangeAdvice}) or when the default
+ * location property changes.
+ */
+public final class ReferenceDataCache {
+
+	private static final String DEFAULT_LOCATION_KEY = "location:default";
+
+	private static final ConcurrentMap<String, CachedId> idsByKey = new ConcurrentHashMap<String, CachedId>();
+
+	private static final CacheStatistics statistics = new CacheStatistics("referenceData");
+
+	private ReferenceDataCache() {
+	}
+
+	public static Location getLocationByUuid(final String uuid) {
+		return get("location:uuid:" + uuid, new LocationLookup() {
+
+			@Override
+			Location find() {
+				return Context.getLocationService().getLocationByUuid(uuid);
+			}
+		});
+	}
+
+	public static Location getLocationByName(final String name) {
+		return get("location:name:" + name, new LocationLookup() {
+
+			@Override
+			Location find() {
+				return Context.getLocationService().getLocation(name);
+			}
+		});
+	}
+
+	public static Location getDefaultLocation() {
+		return get(DEFAULT_LOCATION_KEY, new LocationLookup() {
+
+			@Override
+			Location find() {
+				return Context.getLocationService().getDefaultLocation();
+			}
+		});
+	}
+
+	public static Form getFormByUuid(final String uuid) {
+		return get("form:uuid:" + uuid, new Lookup<Form>() {
+
+			@Override
+			Form find() {
+				return Context.getFormService().getFormByUuid(uuid);
+			}
+
+			@Override
+			Form load(Integer id) {
+				return Context.getFormService().getForm(id);
+			}
+		});
+	}
+
+	public static void clearLocations() {
+		clear("location:");
+	}
+
+	public static void clearForms() {
+		clear("form:");
+	}
+
+	public static void clear() {
+		idsByKey.clear();
+	}
+
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private static void clear(String prefix) {
+		for (String key : idsByKey.keySet()) {
+			if (key.startsWith(prefix)) {
+				idsByKey.remove(key);
+			}
+		}
+	}
+
+	private static <T extends OpenmrsObject> T get(String key, Lookup<T> lookup) {
+		long now = System.currentTimeMillis();
+		CachedId cached = idsByKey.get(key);
+		if (cached != null && cached.expires > now) {
+			T value = lookup.load(cached.id);
+			if (value != null) {
+				statistics.hit();
+				return value;
+			}
+		}
+
+		statistics.miss();
+		T value = lookup.find();
+		if (value != null && value.getId() != null) {
+			long ttl = XDSbRepositoryConfiguration.get().getReferenceDataCacheTtl() * 1000L;
+			put(key, new CachedId(value.getId(), now + ttl));
+		} else if (cached != null) {
+			idsByKey.remove(key, cached);
+		}
+		return value;
+	}
+
+	private static void put(final String key, final CachedId cachedId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			// only cache what has been committed, as EncounterTypeCache does
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					idsByKey.put(key, cachedId);
+				}
+			});
+		} else {
+			idsByKey.put(key, cachedId);
+		}
+	}
+
+	private static final class CachedId {
+
+		private final Integer id;
+		private final long expires;
+
+		CachedId(Integer id, long expires) {
+			this.id = id;
+			this.expires = expires;
+		}
+	}
+
+	private abstract static class Lookup<T> {
+
+		abstract T find();
+
+		abstract T load(Integer id);
+	}
+
+	private abstract static class LocationLookup extends Lookup<Location> {
+
+		@Override
+		Location load(Integer id) {
+			return Context.getLocationService().getLocation(id);
+		}
+	}
+
+	/**
+	 * Drops the cached default location when the default location property changes
+	 */
+	public static class DefaultLocationListener implements GlobalPropertyListener {
+
+		@Override
+		public boolean supportsPropertyName(String propertyName) {
+			return OpenmrsConstants.GLOBAL_PROPERTY_DEFAULT_LOCATION_NAME.equals(propertyName);
+		}
+
+		@Override
+		public void globalPropertyChanged(GlobalProperty newValue) {
+			idsByKey.remove(DEFAULT_LOCATION_KEY);
+		}
+
+		@Override
+		public void globalPropertyDeleted(String propertyName) {
+			idsByKey.remove(DEFAULT_LOCATION_KEY);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that string keys are hashed onto, so that work on the same key is serialised without
+ * keeping a lock per key. Unrelated keys may share a stripe, which only costs some concurrency.
+ * <p/>
+ * Several keys are locked at once in stripe order, so two threads locking overlapping sets of keys can not
+ * deadlock.
+ */
+public final class StripedLocks {
+
+	private final Lock[] stripes;
+
+	public StripedLocks(int stripes) {
+		this.stripes = new Lock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Lock the stripes of all the keys, blocking until they are all held.
+	 *
+	 * @return the locks that are held, to be passed to {@link #unlock(List)}
+	 */
+	public List<Lock> lock(Collection<String> keys) {
+		TreeSet<Integer> indexes = new TreeSet<Integer>();
+		for (String key : keys) {
+			indexes.add(indexOf(key));
+		}
+
+		List<Lock> held = new ArrayList<Lock>(indexes.size());
+		try {
+			for (Integer index : indexes) {
+				stripes[index].lock();
+				held.add(stripes[index]);
+			}
+		} catch (RuntimeException e) {
+			unlock(held);
+			throw e;
+		}
+		return held;
+	}
+
+	public void unlock(List<Lock> held) {
+		for (int i = held.size() - 1; i >= 0; i--) {
+			held.get(i).unlock();
+		}
+	}
+
+	private int indexOf(String key) {
+		int h = key.hashCode();
+		// spread the high bits, string hash codes of similar keys differ mostly in the low ones
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % stripes.length;
+	}
+}
@@ -1,22 +1,72 @@
 package org.openmrs.module.xdsbrepository;
 
-import org.openmrs.api.AdministrationService;
+import java.util.concurrent.TimeUnit;
+
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
 
 public class Utils {
 
+    // the service account is authenticated again after this long, so that a change to its roles, or its
+    // retirement, is picked up without restarting the module
+    private static final long SERVICE_ACCOUNT_MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    // shared by the threads that serve the module (web service threads and the queue processors), so the
+    // service account's password is only checked once rather than for every session
+    private static volatile ServiceAccount serviceAccount;
+
     /**
-     * Start an OpenMRS Session
+     * Start an OpenMRS Session, authenticated as the module's service account. The user context of the last
+     * authentication is reused as long as the configured credentials have not changed.
      */
     public static void startSession() {
-        AdministrationService as = Context.getAdministrationService();
         Context.openSession();
 
         if (!Context.isAuthenticated()) {
-            String username = as.getGlobalProperty(XDSbServiceConstants.WS_USERNAME_GP);
-            String password = as.getGlobalProperty(XDSbServiceConstants.WS_PASSWORD_GP);
-            Context.authenticate(username, password);
+            XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+            long now = System.currentTimeMillis();
+
+            ServiceAccount account = serviceAccount;
+            if (account != null && account.isValidFor(config, now)) {
+                Context.setUserContext(account.userContext);
+            } else {
+                Context.authenticate(config.getWsUsername(), config.getWsPassword());
+                serviceAccount = new ServiceAccount(config, Context.getUserContext(), now + SERVICE_ACCOUNT_MAX_AGE);
+            }
         }
     }
 
+    /**
+     * Forget the service account's user context, the next session will authenticate again
+     */
+    public static void clearServiceAccountSessions() {
+        serviceAccount = null;
+    }
+
+    private static class ServiceAccount {
+
+        // the configuration that was authenticated with, the credentials are compared with its own
+        private final XDSbRepositoryConfiguration config;
+        private final UserContext userContext;
+        private final long expires;
+
+        ServiceAccount(XDSbRepositoryConfiguration config, UserContext userContext, long expires) {
+            this.config = config;
+            this.userContext = userContext;
+            this.expires = expires;
+        }
+
+        boolean isValidFor(XDSbRepositoryConfiguration current, long now) {
+            if (now >= expires || !userContext.isAuthenticated()) {
+                return false;
+            }
+            // a new snapshot is taken whenever any of the module's properties changes
+            return current == config || (equal(current.getWsUsername(), config.getWsUsername())
+                    && equal(current.getWsPassword(), config.getWsPassword()));
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
 }
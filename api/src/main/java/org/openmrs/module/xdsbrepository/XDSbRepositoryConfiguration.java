@@ -0,0 +1,469 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.xdsbrepository;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.storage.CompressionPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the module's global properties.
+ * <p/>
+ * The snapshot is loaded from the database once, on first use, and replaced as a whole by
+ * {@link XDSbRepositoryConfigurationListener} whenever a <code>xds-b-repository.*</code> property is saved
+ * or deleted, so reading configuration on the request path never queries the database.
+ */
+public final class XDSbRepositoryConfiguration {
+
+	public static final String PROPERTY_PREFIX = "xds-b-repository.";
+
+	/**
+	 * Documents are saved by the default unstructured content handler, as before
+	 */
+	public static final String STORAGE_BACKEND_CONTENT_HANDLER = "contentHandler";
+
+	/**
+	 * Documents are saved once per SHA-1 hash in the module's own content store
+	 */
+	public static final String STORAGE_BACKEND_CONTENT_ADDRESSED = "contentAddressed";
+
+	/**
+	 * The content-addressed store keeps each payload in a file of its own
+	 */
+	public static final String BLOB_STORE_FILES = "files";
+
+	/**
+	 * The content-addressed store appends payloads to large segment files
+	 */
+	public static final String BLOB_STORE_SEGMENTS = "segments";
+
+	private static final Log log = LogFactory.getLog(XDSbRepositoryConfiguration.class);
+
+	private static final Object lock = new Object();
+
+	private static volatile XDSbRepositoryConfiguration current;
+
+	private static XDSbRepositoryConfigurationListener listener;
+
+	private final Map<String, String> properties;
+
+	private final String registryUrl;
+	private final String repositoryUniqueId;
+	private final String homeCommunityId;
+	private final String wsUsername;
+	private final String wsPassword;
+	private final boolean autoCreatePatients;
+	private final boolean discreteHandlerAsync;
+	private final int discreteHandlerAsyncPollingPeriod;
+	private final int discreteHandlerAsyncMaxTasks;
+	private final boolean streamingIngest;
+	private final boolean registryPassThrough;
+	private final double soapLoggingSampleRate;
+	private final boolean cdaImportAsync;
+	private final int cdaImportAsyncPollingPeriod;
+	private final int cdaImportAsyncMaxTasks;
+	private final int cdaImportMaxAttempts;
+	private final int cdaImportRetryDelay;
+	private final int referenceDataCacheTtl;
+	private final boolean documentIdIndexEnabled;
+	private final double documentIdIndexFalsePositiveRate;
+	private final int documentIdIndexMaxMemory;
+	private final int queueStatisticsReconcilePeriod;
+	private final boolean metricsEnabled;
+	private final boolean contentAddressedStorage;
+	private final String storageDirectory;
+	private final boolean segmentStorage;
+	private final int storageSegmentSize;
+	private final double storageCompactionThreshold;
+	private final CompressionPolicy compressionPolicy;
+	private final int documentCacheMaxMemory;
+	private final List<String> localPatientIdentifierTypeMap;
+
+	XDSbRepositoryConfiguration(Map<String, String> properties) {
+		this.properties = Collections.unmodifiableMap(new HashMap<String, String>(properties));
+
+		registryUrl = properties.get(XDSbServiceConstants.XDS_REGISTRY_URL_GP);
+		repositoryUniqueId = properties.get(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP);
+		homeCommunityId = properties.get(XDSbServiceConstants.XDS_HOME_COMMUNITY_ID);
+		wsUsername = properties.get(XDSbServiceConstants.WS_USERNAME_GP);
+		wsPassword = properties.get(XDSbServiceConstants.WS_PASSWORD_GP);
+		autoCreatePatients = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, false);
+		discreteHandlerAsync = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC, false);
+		discreteHandlerAsyncPollingPeriod = getInt(XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_POLL_PERIOD, 100);
+		discreteHandlerAsyncMaxTasks = getInt(XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_MAX_TASKS, 6);
+		streamingIngest = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_INGEST_STREAMING, false);
+		registryPassThrough = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_REGISTRY_PASS_THROUGH, false);
+		soapLoggingSampleRate = getDouble(XDSbServiceConstants.XDS_REPOSITORY_SOAP_LOGGING_SAMPLE_RATE, 1.0);
+		cdaImportAsync = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_ASYNC, false);
+		cdaImportAsyncPollingPeriod = getInt(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_ASYNC_POLL_PERIOD, 500);
+		cdaImportAsyncMaxTasks = getInt(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_ASYNC_MAX_TASKS, 2);
+		cdaImportMaxAttempts = getInt(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_MAX_ATTEMPTS, 5);
+		cdaImportRetryDelay = getInt(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_RETRY_DELAY, 30000);
+		referenceDataCacheTtl = getInt(XDSbServiceConstants.XDS_REPOSITORY_REFERENCE_DATA_CACHE_TTL, 300);
+		documentIdIndexEnabled = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_DOCUMENT_ID_INDEX_ENABLED, true);
+		documentIdIndexFalsePositiveRate = getDouble(XDSbServiceConstants.XDS_REPOSITORY_DOCUMENT_ID_INDEX_FALSE_POSITIVE_RATE, 0.01);
+		documentIdIndexMaxMemory = getInt(XDSbServiceConstants.XDS_REPOSITORY_DOCUMENT_ID_INDEX_MAX_MEMORY, 64);
+		queueStatisticsReconcilePeriod = getInt(XDSbServiceConstants.XDS_REPOSITORY_QUEUE_STATISTICS_RECONCILE_PERIOD, 60);
+		metricsEnabled = getBoolean(XDSbServiceConstants.XDS_REPOSITORY_METRICS_ENABLED, false);
+		contentAddressedStorage = STORAGE_BACKEND_CONTENT_ADDRESSED.equalsIgnoreCase(
+				getProperty(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_BACKEND, STORAGE_BACKEND_CONTENT_HANDLER).trim());
+		String directory = properties.get(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_DIRECTORY);
+		storageDirectory = directory == null || directory.trim().isEmpty() ? null : directory.trim();
+		segmentStorage = BLOB_STORE_SEGMENTS.equalsIgnoreCase(
+				getProperty(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_BLOB_STORE, BLOB_STORE_FILES).trim());
+		storageSegmentSize = getInt(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_SEGMENT_SIZE, 256);
+		storageCompactionThreshold = getDouble(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_COMPACTION_THRESHOLD, 0.5);
+		compressionPolicy = parseCompressionPolicy(
+				getProperty(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_COMPRESSION, CompressionPolicy.DEFAULT));
+		documentCacheMaxMemory = getInt(XDSbServiceConstants.XDS_REPOSITORY_DOCUMENT_CACHE_MAX_MEMORY, 64);
+
+		List<String> idTypeMap = new ArrayList<String>();
+		for (Map.Entry<String, String> property : this.properties.entrySet()) {
+			if (property.getKey().startsWith(XDSbServiceConstants.GP_LOCAL_PATIENT_IDENTIFIER_TYPE_MAP)
+					&& property.getValue() != null) {
+				idTypeMap.add(property.getValue());
+			}
+		}
+		localPatientIdentifierTypeMap = Collections.unmodifiableList(idTypeMap);
+	}
+
+	/**
+	 * @return the current configuration, loading it and registering the change listener on first use
+	 */
+	public static XDSbRepositoryConfiguration get() {
+		XDSbRepositoryConfiguration snapshot = current;
+		if (snapshot == null) {
+			synchronized (lock) {
+				if (current == null) {
+					current = load();
+				}
+				snapshot = current;
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Unregister the change listener and drop the snapshot, it is reloaded on next use
+	 */
+	public static void reset() {
+		synchronized (lock) {
+			if (listener != null) {
+				Context.getAdministrationService().removeGlobalPropertyListener(listener);
+				listener = null;
+			}
+			current = null;
+		}
+	}
+
+	/**
+	 * Use a snapshot of the given properties without loading them from the database or listening for changes,
+	 * for code that runs outside of OpenMRS such as unit tests and the benchmarks. {@link #reset()} drops it.
+	 */
+	public static void install(Map<String, String> properties) {
+		synchronized (lock) {
+			current = new XDSbRepositoryConfiguration(properties);
+		}
+	}
+
+	/**
+	 * Swap in a new snapshot with a single property changed, a null value removes the property
+	 */
+	static void update(String name, String value) {
+		synchronized (lock) {
+			if (current == null) {
+				return;
+			}
+			Map<String, String> properties = new HashMap<String, String>(current.properties);
+			if (value == null) {
+				properties.remove(name);
+			} else {
+				properties.put(name, value);
+			}
+			current = new XDSbRepositoryConfiguration(properties);
+		}
+		log.debug("Reloaded XDS.b repository configuration after change to " + name);
+	}
+
+	private static XDSbRepositoryConfiguration load() {
+		AdministrationService as = Context.getAdministrationService();
+		if (listener == null) {
+			// register first so that no change made while loading is missed
+			listener = new XDSbRepositoryConfigurationListener();
+			as.addGlobalPropertyListener(listener);
+		}
+
+		Map<String, String> properties = new HashMap<String, String>();
+		for (GlobalProperty gp : as.getGlobalPropertiesByPrefix(PROPERTY_PREFIX)) {
+			properties.put(gp.getProperty(), gp.getPropertyValue());
+		}
+		log.info("Loaded " + properties.size() + " XDS.b repository global properties");
+		return new XDSbRepositoryConfiguration(properties);
+	}
+
+	/**
+	 * @return the raw value of any module global property or null if it is not set
+	 */
+	public String getProperty(String name) {
+		return properties.get(name);
+	}
+
+	public String getProperty(String name, String defaultValue) {
+		String value = properties.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	public boolean getBoolean(String name, boolean defaultValue) {
+		String value = properties.get(name);
+		return value == null || value.trim().isEmpty() ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	public int getInt(String name, int defaultValue) {
+		String value = properties.get(name);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid integer value '" + value + "' for global property " + name + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private static CompressionPolicy parseCompressionPolicy(String value) {
+		try {
+			return CompressionPolicy.parse(value);
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid value '" + value + "' for global property "
+					+ XDSbServiceConstants.XDS_REPOSITORY_STORAGE_COMPRESSION + ", using " + CompressionPolicy.DEFAULT, e);
+			return CompressionPolicy.parse(CompressionPolicy.DEFAULT);
+		}
+	}
+
+	public double getDouble(String name, double defaultValue) {
+		String value = properties.get(name);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid decimal value '" + value + "' for global property " + name + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public String getRegistryUrl() {
+		return registryUrl;
+	}
+
+	public String getRepositoryUniqueId() {
+		return repositoryUniqueId;
+	}
+
+	public String getHomeCommunityId() {
+		return homeCommunityId;
+	}
+
+	public String getWsUsername() {
+		return wsUsername;
+	}
+
+	public String getWsPassword() {
+		return wsPassword;
+	}
+
+	public boolean isAutoCreatePatients() {
+		return autoCreatePatients;
+	}
+
+	public boolean isDiscreteHandlerAsync() {
+		return discreteHandlerAsync;
+	}
+
+	public int getDiscreteHandlerAsyncPollingPeriod() {
+		return discreteHandlerAsyncPollingPeriod;
+	}
+
+	public int getDiscreteHandlerAsyncMaxTasks() {
+		return discreteHandlerAsyncMaxTasks;
+	}
+
+	/**
+	 * @return true if Provide and Register requests are read with the streaming metadata parser instead of
+	 * being unmarshalled
+	 */
+	public boolean isStreamingIngest() {
+		return streamingIngest;
+	}
+
+	/**
+	 * @return true if metadata read by the streaming parser is forwarded to the registry as raw XML instead of
+	 * being marshalled from the object model
+	 */
+	public boolean isRegistryPassThrough() {
+		return registryPassThrough;
+	}
+
+	/**
+	 * @return the fraction (0.0 - 1.0) of SOAP requests that are summarised in the debug log
+	 */
+	public double getSoapLoggingSampleRate() {
+		return soapLoggingSampleRate;
+	}
+
+	/**
+	 * @return true if stored documents are queued for CDA import by background workers instead of being
+	 * imported before the Provide and Register response is sent
+	 */
+	public boolean isCdaImportAsync() {
+		return cdaImportAsync;
+	}
+
+	public int getCdaImportAsyncPollingPeriod() {
+		return cdaImportAsyncPollingPeriod;
+	}
+
+	public int getCdaImportAsyncMaxTasks() {
+		return cdaImportAsyncMaxTasks;
+	}
+
+	/**
+	 * @return the number of times a queued CDA import is attempted before it is marked as failed
+	 */
+	public int getCdaImportMaxAttempts() {
+		return cdaImportMaxAttempts;
+	}
+
+	/**
+	 * @return the delay in ms before the first retry of a failed CDA import, it doubles with every attempt
+	 */
+	public int getCdaImportRetryDelay() {
+		return cdaImportRetryDelay;
+	}
+
+	/**
+	 * @return the time in seconds that locations and forms are cached for, see {@link ReferenceDataCache}
+	 */
+	public int getReferenceDataCacheTtl() {
+		return referenceDataCacheTtl;
+	}
+
+	/**
+	 * @return true if the duplicate check of new documents is answered from the {@link DocumentIdIndex} where
+	 * possible
+	 */
+	public boolean isDocumentIdIndexEnabled() {
+		return documentIdIndexEnabled;
+	}
+
+	public double getDocumentIdIndexFalsePositiveRate() {
+		double rate = documentIdIndexFalsePositiveRate;
+		return rate > 0 && rate < 1 ? rate : 0.01;
+	}
+
+	/**
+	 * @return the most memory in MB that the {@link DocumentIdIndex} may use
+	 */
+	public int getDocumentIdIndexMaxMemory() {
+		return documentIdIndexMaxMemory;
+	}
+
+	/**
+	 * @return the period in seconds at which the queue depths reported by
+	 * {@link XDSbService#getQueueStatistics()} are reconciled with the database, 0 to never reconcile them
+	 */
+	public int getQueueStatisticsReconcilePeriod() {
+		return queueStatisticsReconcilePeriod;
+	}
+
+	/**
+	 * @return true if the module's metrics are served to Prometheus, see
+	 * {@link org.openmrs.module.xdsbrepository.metrics.PrometheusExposition}
+	 */
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	/**
+	 * @return true if documents are saved in the module's content-addressed store rather than by the default
+	 * unstructured content handler, see {@link #STORAGE_BACKEND_CONTENT_ADDRESSED}
+	 */
+	public boolean isContentAddressedStorage() {
+		return contentAddressedStorage;
+	}
+
+	/**
+	 * @return the directory of the content-addressed store, null for <code>xdsbrepository/content</code> in the
+	 * OpenMRS application data directory
+	 */
+	public String getStorageDirectory() {
+		return storageDirectory;
+	}
+
+	/**
+	 * @return true if the content-addressed store appends payloads to segment files rather than keeping a file
+	 * per payload, see {@link org.openmrs.module.xdsbrepository.storage.SegmentBlobStore}
+	 */
+	public boolean isSegmentStorage() {
+		return segmentStorage;
+	}
+
+	/**
+	 * @return the size in MB at which a segment file is sealed and a new one started
+	 */
+	public int getStorageSegmentSize() {
+		int size = storageSegmentSize;
+		return size > 0 && size < 2048 ? size : 256;
+	}
+
+	/**
+	 * @return the fraction of a segment that must be superseded or deleted payloads before it is compacted
+	 */
+	public double getStorageCompactionThreshold() {
+		double threshold = storageCompactionThreshold;
+		return threshold > 0 && threshold <= 1 ? threshold : 0.5;
+	}
+
+	/**
+	 * @return the codec new payloads of the content-addressed store are stored with, by mime type
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return compressionPolicy;
+	}
+
+	/**
+	 * @return the memory in MB that the {@link DocumentContentCache} may use, 0 if it is disabled
+	 */
+	public int getDocumentCacheMaxMemory() {
+		return Math.max(0, documentCacheMaxMemory);
+	}
+
+	/**
+	 * @return the values of the <code>xds-b-repository.local_patient_identifierTypeMap.*</code> properties
+	 */
+	public List<String> getLocalPatientIdentifierTypeMap() {
+		return localPatientIdentifierTypeMap;
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.xdsbrepository;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps {@link XDSbRepositoryConfiguration} in step with changes to the module's global properties. A change
+ * made in a transaction is only applied once that transaction commits, so that a rollback does not leave the
+ * configuration out of step with the database.
+ */
+class XDSbRepositoryConfigurationListener implements GlobalPropertyListener {
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return propertyName != null && propertyName.startsWith(XDSbRepositoryConfiguration.PROPERTY_PREFIX);
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		updateAfterCommit(newValue.getProperty(), newValue.getPropertyValue());
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		updateAfterCommit(propertyName, null);
+	}
+
+	private static void updateAfterCommit(final String name, final String value) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			// as EncounterTypeCache and ReferenceDataCache only take what has been committed
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					XDSbRepositoryConfiguration.update(name, value);
+				}
+			});
+		} else {
+			XDSbRepositoryConfiguration.update(name, value);
+		}
+	}
+}
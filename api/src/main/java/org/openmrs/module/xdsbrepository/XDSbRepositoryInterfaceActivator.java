@@ -18,16 +18,26 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dcm4che3.audit.AuditMessages.EventTypeCode;
 import org.dcm4chee.xds2.common.audit.XDSAudit;
-import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.ModuleActivator;
 import org.openmrs.module.shr.atna.api.AtnaAuditService;
 import org.openmrs.module.shr.atna.configuration.AtnaConfiguration;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+import org.openmrs.module.xdsbrepository.infoset.RegistryPortPool;
+import org.openmrs.module.xdsbrepository.metrics.IngestMetrics;
+import org.openmrs.module.xdsbrepository.metrics.QueueMetrics;
+import org.openmrs.module.xdsbrepository.metrics.RetrieveMetrics;
+import org.openmrs.module.xdsbrepository.metrics.StorageMetrics;
+import org.openmrs.module.xdsbrepository.storage.ContentStorage;
+import org.openmrs.module.xdsbrepository.tasks.CdaImportProcessorTask;
+import org.openmrs.module.xdsbrepository.tasks.CreationClaimPurgeTask;
 import org.openmrs.module.xdsbrepository.tasks.DiscreteDataProcessorTask;
+import org.openmrs.module.xdsbrepository.tasks.QueueStatisticsTask;
 import org.openmrs.scheduler.SchedulerException;
 import org.openmrs.scheduler.SchedulerService;
 import org.openmrs.scheduler.TaskDefinition;
 
+import javax.xml.bind.JAXBException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -38,7 +48,12 @@ import java.util.concurrent.TimeUnit;
  */
 public class XDSbRepositoryInterfaceActivator implements ModuleActivator {
 
+	// creation claims expire after ten minutes
+	private static final long CLAIM_PURGE_PERIOD = 10;
+
 	private ScheduledExecutorService scheduledExecutorService;
+
+	private ReferenceDataCache.DefaultLocationListener defaultLocationListener;
 	
 	protected Log log = LogFactory.getLog(getClass());
 		
@@ -72,24 +87,69 @@ public class XDSbRepositoryInterfaceActivator implements ModuleActivator {
 				true);
 		log.info("XDSb Repository Interface Module started");
 
-		AdministrationService as = Context.getAdministrationService();
-		boolean async = Boolean.parseBoolean(as.getGlobalProperty(
-				XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC));
-		int pollPeriod = Integer.parseInt(Context.getAdministrationService().getGlobalProperty(
-				XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_POLL_PERIOD, "100"));
-
-		if (async) {
-			Integer maxTasks = Integer.parseInt(as.getGlobalProperty(
-					XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_MAX_TASKS));
-			ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(maxTasks);
-			// for each thread schedule a recurring task
-			for (int i = 0; i < maxTasks; i++) {
-				scheduledExecutorService.scheduleWithFixedDelay(new DiscreteDataProcessorTask(), pollPeriod, pollPeriod,
-						TimeUnit.MILLISECONDS);
-			}
+		try {
+			InfosetJaxbContext.warmUp();
+		} catch (JAXBException e) {
+			log.warn("Could not warm up the XDS infoset JAXB context, it will be created on first use", e);
+		}
+
+		defaultLocationListener = new ReferenceDataCache.DefaultLocationListener();
+		Context.getAdministrationService().addGlobalPropertyListener(defaultLocationListener);
+
+		XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+		if (config.isDocumentIdIndexEnabled()) {
+			startDocumentIdIndexBuild();
+		}
+
+		int discreteTasks = config.isDiscreteHandlerAsync() ? config.getDiscreteHandlerAsyncMaxTasks() : 0;
+		// imports that fail while importing synchronously are queued to be retried, so one worker is always needed
+		int cdaImportTasks = config.isCdaImportAsync() ? config.getCdaImportAsyncMaxTasks() : 1;
+		int reconcilePeriod = config.getQueueStatisticsReconcilePeriod();
+		// and one thread that purges the expired creation claims
+		int threads = discreteTasks + cdaImportTasks + (reconcilePeriod > 0 ? 1 : 0) + 1;
+
+		scheduledExecutorService = Executors.newScheduledThreadPool(threads);
+		// for each thread schedule a recurring task
+		int pollPeriod = config.getDiscreteHandlerAsyncPollingPeriod();
+		for (int i = 0; i < discreteTasks; i++) {
+			scheduledExecutorService.scheduleWithFixedDelay(new DiscreteDataProcessorTask(), pollPeriod, pollPeriod,
+					TimeUnit.MILLISECONDS);
+		}
+		int cdaImportPollPeriod = config.getCdaImportAsyncPollingPeriod();
+		for (int i = 0; i < cdaImportTasks; i++) {
+			scheduledExecutorService.scheduleWithFixedDelay(new CdaImportProcessorTask(), cdaImportPollPeriod,
+					cdaImportPollPeriod, TimeUnit.MILLISECONDS);
 		}
+		if (reconcilePeriod > 0) {
+			scheduledExecutorService.scheduleWithFixedDelay(new QueueStatisticsTask(), 0, reconcilePeriod,
+					TimeUnit.SECONDS);
+		}
+		scheduledExecutorService.scheduleWithFixedDelay(new CreationClaimPurgeTask(), CLAIM_PURGE_PERIOD,
+				CLAIM_PURGE_PERIOD, TimeUnit.MINUTES);
 	}
 	
+	/**
+	 * Build the documentUniqueId index in the background, duplicate checks query the database until it is done
+	 */
+	private void startDocumentIdIndexBuild() {
+		Thread builder = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Utils.startSession();
+					Context.getService(XDSbService.class).rebuildDocumentIdIndex();
+				} catch (RuntimeException e) {
+					log.error("Could not build the documentUniqueId index, duplicate checks will query the database", e);
+				} finally {
+					Context.closeSession();
+				}
+			}
+		}, "xdsbrepository-document-id-index");
+		builder.setDaemon(true);
+		builder.start();
+	}
+
 	/**
 	 * @see ModuleActivator#willStop()
 	 */
@@ -97,14 +157,17 @@ public class XDSbRepositoryInterfaceActivator implements ModuleActivator {
 		log.info("Stopping XDSb Repository Interface Module");
 
 		if (scheduledExecutorService != null) {
+			// stop scheduling new runs, queued items that are not picked up stay queued for the next start
+			scheduledExecutorService.shutdown();
 			try {
 				if (!scheduledExecutorService.awaitTermination(60, TimeUnit.SECONDS)) {
 					// timeout waiting for tasks to complete
-					log.error("Timeout waiting for discrete data processor tasks to terminate before module shutdown.");
+					log.error("Timeout waiting for discrete data and CDA import tasks to terminate before module shutdown.");
 				}
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
+			scheduledExecutorService = null;
 		}
 	}
 	
@@ -116,6 +179,23 @@ public class XDSbRepositoryInterfaceActivator implements ModuleActivator {
 		XDSAudit.setAuditLogger(Context.getService(AtnaAuditService.class).getLogger());
 		XDSAudit.logApplicationActivity(AtnaConfiguration.getInstance().getDeviceName(), EventTypeCode.ApplicationStop,
 				true);
+		Utils.clearServiceAccountSessions();
+		RegistryPortPool.clear();
+		InfosetJaxbContext.clear();
+		EncounterTypeCache.clear();
+		if (defaultLocationListener != null) {
+			Context.getAdministrationService().removeGlobalPropertyListener(defaultLocationListener);
+			defaultLocationListener = null;
+		}
+		ReferenceDataCache.clear();
+		DocumentIdIndex.clear();
+		DocumentContentCache.clear();
+		IngestMetrics.reset();
+		QueueMetrics.reset();
+		RetrieveMetrics.reset();
+		StorageMetrics.reset();
+		ContentStorage.clear();
+		XDSbRepositoryConfiguration.reset();
 		log.info("XDSb Repository Interface Module stopped");
 	}
 		
@@ -5,11 +5,18 @@ import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
 import org.dcm4chee.xds2.infoset.rim.RegistryResponseType;
 import org.dcm4chee.xds2.infoset.rim.SubmitObjectsRequest;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.shr.contenthandler.api.Content;
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
 import org.openmrs.module.shr.contenthandler.api.ContentHandlerException;
+import org.openmrs.module.xdsbrepository.ingest.StagedDocument;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
+import org.openmrs.module.xdsbrepository.metrics.QueueStatistics;
+import org.openmrs.module.xdsbrepository.metrics.StageTimer;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
 
 import java.net.MalformedURLException;
+import java.util.List;
 import java.util.Map;
 
 public interface XDSbService extends OpenmrsService {
@@ -36,7 +43,24 @@ public interface XDSbService extends OpenmrsService {
 	 * @throws MalformedURLException 
 	 */
 	RegistryResponseType registerDocuments(Map<String, Class<? extends ContentHandler>> contentHandlers, SubmitObjectsRequest submitObjectRequest) throws XDSException;
+
+	/**
+	 * Registers the documents of a submission, forwarding its raw metadata to the registry when that is
+	 * available and enabled, and stores a mapping from documentUniqueId to ContentHandler class for each document.
+	 *
+	 * @param contentHandlers - the map of document unique IDs to Content Handler class to be stored
+	 * @return The response from the XDS registry
+	 */
+	RegistryResponseType registerDocuments(Map<String, Class<? extends ContentHandler>> contentHandlers, SubmissionMetadata metadata) throws XDSException;
 	
+	/**
+	 * Records the content handlers of documents without contacting the registry, e.g. to back-load documents
+	 * that are already registered. The mappings are inserted in JDBC batches.
+	 *
+	 * @param contentHandlers - a map of documentUniqueIds to the content handler that can retrieve each document
+	 */
+	void registerDocumentHandlers(Map<String, Class<? extends ContentHandler>> contentHandlers);
+
 	/**
 	 * Fetches the content handler class that can retrieve the given documentUniqueId.
 	 * 
@@ -46,10 +70,83 @@ public interface XDSbService extends OpenmrsService {
 	 */
 	Class<? extends ContentHandler> getDocumentHandlerClass(String documentUniqueId) throws ClassNotFoundException;
 
+	/**
+	 * Checks if a content handler has been registered for the given documentUniqueId, without loading the
+	 * handler class.
+	 *
+	 * @param documentUniqueId - the unique id of the document in question.
+	 * @return true if the document has been registered
+	 */
+	boolean isDocumentRegistered(String documentUniqueId);
+
+	/**
+	 * Fetches a document that was saved in the content-addressed store, see
+	 * {@link XDSbRepositoryConfiguration#isContentAddressedStorage()}. Documents saved by a content handler have
+	 * to be fetched from that handler.
+	 *
+	 * @param documentUniqueId - the unique id of the document in question.
+	 * @return The content of the document or null if it is not in the content-addressed store.
+	 */
+	Content getStoredContent(String documentUniqueId);
+
+	/**
+	 * Deletes content from the content-addressed store once no document references it any more
+	 *
+	 * @param hash - the SHA-1 hash of the content
+	 * @return true if the content was deleted
+	 */
+	boolean deleteUnreferencedContent(String hash);
+
+	/**
+	 * Deletes a blob from the content-addressed store that has no stored content, one written by a submission
+	 * that was rolled back. It runs in a transaction of its own.
+	 *
+	 * @param hash - the SHA-1 hash of the content
+	 * @return true if the blob was deleted
+	 */
+	boolean deleteUnrecordedContent(String hash);
+
+	/**
+	 * Builds the {@link DocumentIdIndex} from the registered documentUniqueIds, replacing the current index
+	 */
+	void rebuildDocumentIdIndex();
+
 	/**
 	 * Processes an XDS.b Provide and register document request
 	 */
 	RegistryResponseType provideAndRegisterDocumentSetB(ProvideAndRegisterDocumentSetRequestType request) throws XDSException, ContentHandlerException;
+
+	/**
+	 * Processes an XDS.b Provide and register document request that has been read by the
+	 * {@link org.openmrs.module.xdsbrepository.ingest.SubmissionMetadataParser}
+	 */
+	RegistryResponseType provideAndRegisterDocumentSetB(SubmissionMetadata metadata) throws XDSException, ContentHandlerException;
+
+	/**
+	 * First ingest stage: finds or creates the patient, providers and encounter type of each document.
+	 * Runs in its own short transaction so that these shared rows are not locked while the documents are
+	 * stored and registered.
+	 *
+	 * @param documents - the documents of a submission, updated with the reference data that was found or created
+	 */
+	void resolveReferenceData(List<StagedDocument> documents) throws XDSException;
+
+	/**
+	 * Second ingest stage: saves each document with its content handlers and records the handler mapping
+	 * of its documentUniqueId. Runs in its own short transaction, before the documents are registered.
+	 *
+	 * @param documents - documents that have been through {@link #resolveReferenceData(List)}
+	 */
+	void storeDocuments(List<StagedDocument> documents) throws XDSException, ContentHandlerException;
+
+	/**
+	 * Undoes {@link #storeDocuments(List)} for documents that could not be registered: voids the encounters
+	 * they were stored in, removes their handler mappings and their references to stored content and cancels
+	 * their queued processing.
+	 *
+	 * @param documents - the documents of the submission that failed
+	 */
+	void compensateStoredDocuments(List<StagedDocument> documents);
 	
 	/**
 	 * @param qi - the QueueItem to add to  the queue.
@@ -71,4 +168,59 @@ public interface XDSbService extends OpenmrsService {
 	 */
 	QueueItem completeQueueItem(QueueItem qi, boolean successful);
 
+	/**
+	 * Queue a stored document for import by the CDA handler.
+	 * @param documentUniqueId - the unique id of a document that has been saved by the default unstructured handler
+	 * @return The CdaImportQueueItem that was saved to the queue.
+	 */
+	CdaImportQueueItem queueCdaImport(String documentUniqueId);
+
+	/**
+	 * Returns the oldest queued CDA import that is due for processing, marked as processing.
+	 * @return The CdaImportQueueItem to be processed or null if there is none.
+	 */
+	CdaImportQueueItem dequeueNextCdaImport();
+
+	/**
+	 * Completes a CDA import. A failed import is queued again, after a delay that doubles with every attempt,
+	 * until the configured number of attempts has been made, after which it is marked as failed.
+	 * @param item - the CdaImportQueueItem to complete.
+	 * @param error - null if the import was successful, otherwise a description of the error
+	 * @return the updated CdaImportQueueItem
+	 */
+	CdaImportQueueItem completeCdaImport(CdaImportQueueItem item, String error);
+
+	/**
+	 * @param documentUniqueId - the unique id of the document in question.
+	 * @return The latest CDA import queue item of the document, or null if it was never queued for import.
+	 */
+	CdaImportQueueItem getCdaImportStatus(String documentUniqueId);
+
+	/**
+	 * @return the latency timers of the Provide and Register stages, one per stage, outcome and error code, see
+	 * {@link org.openmrs.module.xdsbrepository.metrics.IngestMetrics}
+	 */
+	List<StageTimer> getIngestStageTimers();
+
+	/**
+	 * @return live statistics of the discrete data and CDA import queues: depth per status, age of the oldest
+	 * queued item, rates, and processing times and failures per handler
+	 */
+	List<QueueStatistics> getQueueStatistics();
+
+	/**
+	 * Replaces the queue depths kept in memory with the counts in the database, see
+	 * {@link QueueStatistics#reconcile(Map, java.util.Date, long)}
+	 */
+	void reconcileQueueStatistics();
+
+	/**
+	 * Deletes the claims on the creation of reference data that have expired. A claim is only deleted when
+	 * the same reference data is claimed again, so without this the claims of everything ever created would
+	 * be kept.
+	 *
+	 * @return the number of claims deleted
+	 */
+	int purgeExpiredCreationClaims();
+
 }
@@ -16,6 +16,27 @@ public class XDSbServiceConstants {
 	public static final String XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC = "xds-b-repository.discreteHandler.async";
 	public static final String XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_POLL_PERIOD = "xds-b-repository.discreteHandler.asyncPollingPeriod";
 	public static final String XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_MAX_TASKS = "xds-b-repository.discreteHandler.asyncMaxTasks";
+	public static final String XDS_REPOSITORY_SOAP_LOGGING_SAMPLE_RATE = "xds-b-repository.soapLogging.sampleRate";
+	public static final String XDS_REPOSITORY_INGEST_STREAMING = "xds-b-repository.ingest.streaming";
+	public static final String XDS_REPOSITORY_REGISTRY_PASS_THROUGH = "xds-b-repository.registry.passThrough";
+	public static final String XDS_REPOSITORY_CDA_IMPORT_ASYNC = "xds-b-repository.cdaImport.async";
+	public static final String XDS_REPOSITORY_CDA_IMPORT_ASYNC_POLL_PERIOD = "xds-b-repository.cdaImport.asyncPollingPeriod";
+	public static final String XDS_REPOSITORY_CDA_IMPORT_ASYNC_MAX_TASKS = "xds-b-repository.cdaImport.asyncMaxTasks";
+	public static final String XDS_REPOSITORY_CDA_IMPORT_MAX_ATTEMPTS = "xds-b-repository.cdaImport.maxAttempts";
+	public static final String XDS_REPOSITORY_CDA_IMPORT_RETRY_DELAY = "xds-b-repository.cdaImport.retryDelay";
+	public static final String XDS_REPOSITORY_REFERENCE_DATA_CACHE_TTL = "xds-b-repository.referenceDataCache.ttl";
+	public static final String XDS_REPOSITORY_DOCUMENT_ID_INDEX_ENABLED = "xds-b-repository.documentIdIndex.enabled";
+	public static final String XDS_REPOSITORY_DOCUMENT_ID_INDEX_FALSE_POSITIVE_RATE = "xds-b-repository.documentIdIndex.falsePositiveRate";
+	public static final String XDS_REPOSITORY_DOCUMENT_ID_INDEX_MAX_MEMORY = "xds-b-repository.documentIdIndex.maxMemory";
+	public static final String XDS_REPOSITORY_QUEUE_STATISTICS_RECONCILE_PERIOD = "xds-b-repository.queueStatistics.reconcilePeriod";
+	public static final String XDS_REPOSITORY_METRICS_ENABLED = "xds-b-repository.metrics.enabled";
+	public static final String XDS_REPOSITORY_STORAGE_BACKEND = "xds-b-repository.storage.backend";
+	public static final String XDS_REPOSITORY_STORAGE_DIRECTORY = "xds-b-repository.storage.directory";
+	public static final String XDS_REPOSITORY_STORAGE_BLOB_STORE = "xds-b-repository.storage.blobStore";
+	public static final String XDS_REPOSITORY_STORAGE_SEGMENT_SIZE = "xds-b-repository.storage.segmentSize";
+	public static final String XDS_REPOSITORY_STORAGE_COMPACTION_THRESHOLD = "xds-b-repository.storage.compactionThreshold";
+	public static final String XDS_REPOSITORY_STORAGE_COMPRESSION = "xds-b-repository.storage.compression";
+	public static final String XDS_REPOSITORY_DOCUMENT_CACHE_MAX_MEMORY = "xds-b-repository.documentCache.maxMemory";
 	 // JF: Severity 
 	public static final String SEVERITY_ERROR = "urn:oasis:names:tc:ebxml-regrep:ErrorSeverityType:Error"; 
 	public static final String SEVERITY_WARNING = "urn:oasis:names:tc:ebxml-regrep:ErrorSeverityType:Warning"; 
@@ -25,4 +46,6 @@ public class XDSbServiceConstants {
 	public static final String XDS_HOME_COMMUNITY_ID = "xds-b-repository.homeCommunityId"; 
 
 	public static final String GP_LOCAL_PATIENT_IDENTIFIER_TYPE_MAP = "xds-b-repository.local_patient_identifierTypeMap.";
+
+	public static final String PRIV_VIEW_METRICS = "View XDS.b Repository Metrics";
 }
@@ -0,0 +1,27 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.advice;
+
+import org.openmrs.module.xdsbrepository.EncounterTypeCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Advice on the EncounterService that drops the {@link EncounterTypeCache} whenever an encounter type changes
+ */
+public class EncounterTypeChangeAdvice implements AfterReturningAdvice {
+
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (name.equals("saveEncounterType") || name.equals("retireEncounterType")
+				|| name.equals("unretireEncounterType") || name.equals("purgeEncounterType")) {
+			EncounterTypeCache.clear();
+		}
+	}
+}
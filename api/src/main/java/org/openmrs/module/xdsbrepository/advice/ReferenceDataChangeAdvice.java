@@ -0,0 +1,35 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.advice;
+
+import org.openmrs.api.FormService;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.xdsbrepository.ReferenceDataCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Advice on the LocationService and FormService that drops the matching part of the
+ * {@link ReferenceDataCache} whenever a location or form changes
+ */
+public class ReferenceDataChangeAdvice implements AfterReturningAdvice {
+
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (!(name.startsWith("save") || name.startsWith("retire") || name.startsWith("unretire")
+				|| name.startsWith("purge"))) {
+			return;
+		}
+		if (target instanceof LocationService) {
+			ReferenceDataCache.clearLocations();
+		} else if (target instanceof FormService) {
+			ReferenceDataCache.clearForms();
+		}
+	}
+}
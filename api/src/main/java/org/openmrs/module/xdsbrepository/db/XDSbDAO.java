@@ -1,19 +1,106 @@
 package org.openmrs.module.xdsbrepository.db;
 
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
+import org.openmrs.module.xdsbrepository.model.StoredContent;
+import org.openmrs.module.xdsbrepository.model.StoredDocument;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Date;
+import java.util.Map;
+
 @Transactional
 public interface XDSbDAO {
 	
 	void registerDocument(String docId, Class<? extends ContentHandler> contentHandler);
+
+	/**
+	 * Insert the mappings of many documents, in JDBC batches
+	 */
+	void registerDocuments(Map<String, Class<? extends ContentHandler>> contentHandlers);
 	
 	Class<? extends ContentHandler> getDocumentHandlerClass(String documentUniqueId) throws ClassNotFoundException;
 
+	boolean isDocumentRegistered(String documentUniqueId);
+
+	long countRegisteredDocuments();
+
+	/**
+	 * Pass every registered documentUniqueId to the visitor, reading them a page at a time
+	 * @return the number of ids visited
+	 */
+	long scanDocumentIds(DocumentIdVisitor visitor);
+
+	void unregisterDocument(String docId);
+
+	void claimCreation(String claimKey, Date expiredBefore);
+
+	/**
+	 * Delete the creation claims that were made before a date
+	 * @return the number of claims deleted
+	 */
+	int purgeExpiredClaims(Date expiredBefore);
+
+	/**
+	 * Add a reference to stored content
+	 * @return false if there is no content with this hash
+	 */
+	boolean addContentReference(String hash);
+
+	/**
+	 * Remove a reference to stored content, the reference count never drops below 0
+	 */
+	void removeContentReference(String hash);
+
+	/**
+	 * Insert new content, failing with a constraint violation if content with the same hash has been inserted
+	 * by another transaction
+	 */
+	void saveContent(StoredContent content);
+
+	StoredContent getContent(String hash);
+
+	/**
+	 * Delete content if it is no longer referenced
+	 * @return true if it was deleted
+	 */
+	boolean deleteUnreferencedContent(String hash);
+
+	void saveStoredDocument(StoredDocument document);
+
+	StoredDocument getStoredDocument(String documentUniqueId);
+
+	void deleteStoredDocument(String documentUniqueId);
+
 	QueueItem queueDiscreteDataProcessing(QueueItem qi);
 
 	QueueItem dequeueNextDiscreteDataForProcessing();
 
 	QueueItem updateQueueItem(QueueItem qi);
+
+	CdaImportQueueItem saveCdaImportQueueItem(CdaImportQueueItem item);
+
+	CdaImportQueueItem dequeueNextCdaImport(Date now);
+
+	CdaImportQueueItem getCdaImportQueueItem(String documentUniqueId);
+
+	int cancelQueuedProcessing(String documentUniqueId, Date now);
+
+	/**
+	 * @param queueItemClass - QueueItem or CdaImportQueueItem
+	 * @return the number of items of the queue in each status
+	 */
+	Map<QueueItem.Status, Long> countQueueItemsByStatus(Class<?> queueItemClass);
+
+	/**
+	 * @param queueItemClass - QueueItem or CdaImportQueueItem
+	 * @return when the oldest item still queued was added, null if none is queued
+	 */
+	Date getOldestQueuedDate(Class<?> queueItemClass);
+
+	interface DocumentIdVisitor {
+
+		void visit(String documentUniqueId);
+	}
 }
@@ -5,14 +5,28 @@ import org.openmrs.api.context.Context;
 import org.openmrs.api.db.hibernate.DbSessionFactory;
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
 import org.openmrs.module.xdsbrepository.db.XDSbDAO;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
+import org.openmrs.module.xdsbrepository.model.CreationClaim;
 import org.openmrs.module.xdsbrepository.model.DocHandlerMapping;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
+import org.openmrs.module.xdsbrepository.model.StoredContent;
+import org.openmrs.module.xdsbrepository.model.StoredDocument;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 
 public class HibernateXDSbDAO implements XDSbDAO {
 
+    // mappings inserted per flush, the inserts are only sent in JDBC batches when hibernate.jdbc.batch_size is set
+    private static final int REGISTER_BATCH_SIZE = 50;
+
+    // rows read per query when scanning all registered documentUniqueIds
+    private static final int SCAN_PAGE_SIZE = 10000;
+
     private DbSessionFactory sessionFactory;
 
 	@Override
@@ -25,6 +39,38 @@ public class HibernateXDSbDAO implements XDSbDAO {
 		
 	}
 
+	@Override
+	public void registerDocuments(Map<String, Class<? extends ContentHandler>> contentHandlers) {
+		List<DocHandlerMapping> batch = new ArrayList<DocHandlerMapping>(REGISTER_BATCH_SIZE);
+		for (Map.Entry<String, Class<? extends ContentHandler>> entry : contentHandlers.entrySet()) {
+			DocHandlerMapping docMap = new DocHandlerMapping();
+			docMap.setDocId(entry.getKey());
+			docMap.setHandlerClass(entry.getValue().getName());
+			sessionFactory.getCurrentSession().save(docMap);
+			batch.add(docMap);
+			if (batch.size() == REGISTER_BATCH_SIZE) {
+				flushBatch(batch);
+			}
+		}
+		flushBatch(batch);
+	}
+
+	/**
+	 * Send the pending inserts as one JDBC batch and stop tracking the inserted mappings, so that a back-load
+	 * of millions of documents does not fill the session. The mappings are evicted rather than the session
+	 * cleared, which would also detach the caller's entities.
+	 */
+	private void flushBatch(List<DocHandlerMapping> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		sessionFactory.getCurrentSession().flush();
+		for (DocHandlerMapping docMap : batch) {
+			sessionFactory.getCurrentSession().evict(docMap);
+		}
+		batch.clear();
+	}
+
 	@Override
 	public Class<? extends ContentHandler> getDocumentHandlerClass(
 			String documentUniqueId) throws ClassNotFoundException {
@@ -36,6 +82,117 @@ public class HibernateXDSbDAO implements XDSbDAO {
         return (Class<? extends ContentHandler>) Context.loadClass(docMap.getHandlerClass());
 	}
 
+	@Override
+	public boolean isDocumentRegistered(String documentUniqueId) {
+		Query query = sessionFactory.getCurrentSession().createQuery("select id from DocHandlerMapping where docId = :documentUniqueId");
+		return query.setString("documentUniqueId", documentUniqueId).setMaxResults(1).uniqueResult() != null;
+	}
+
+	@Override
+	public long countRegisteredDocuments() {
+		Query query = sessionFactory.getCurrentSession().createQuery("select count(*) from DocHandlerMapping");
+		return ((Number) query.uniqueResult()).longValue();
+	}
+
+	@Override
+	public long scanDocumentIds(DocumentIdVisitor visitor) {
+		// page by primary key rather than by offset, so each page is a short index range scan and only one page
+		// of ids is held in memory at a time
+		Query query = sessionFactory.getCurrentSession().createQuery("select id, docId from DocHandlerMapping"
+				+ " where id > :lastId order by id").setMaxResults(SCAN_PAGE_SIZE);
+		int lastId = 0;
+		long count = 0;
+		while (true) {
+			List<Object[]> page = query.setInteger("lastId", lastId).list();
+			for (Object[] row : page) {
+				lastId = (Integer) row[0];
+				visitor.visit((String) row[1]);
+			}
+			count += page.size();
+			if (page.size() < SCAN_PAGE_SIZE) {
+				return count;
+			}
+		}
+	}
+
+	@Override
+	public void unregisterDocument(String docId) {
+		sessionFactory.getCurrentSession().createQuery("delete from DocHandlerMapping where docId = :docId")
+				.setString("docId", docId).executeUpdate();
+	}
+
+	@Override
+	public void claimCreation(String claimKey, Date expiredBefore) {
+		sessionFactory.getCurrentSession().createQuery("delete from CreationClaim where claimKey = :claimKey and dateCreated < :expiredBefore")
+				.setString("claimKey", claimKey).setTimestamp("expiredBefore", expiredBefore).executeUpdate();
+
+		CreationClaim claim = new CreationClaim();
+		claim.setClaimKey(claimKey);
+		claim.setDateCreated(new Date());
+		sessionFactory.getCurrentSession().save(claim);
+		// flush now so that a conflicting claim fails here, or waits for the transaction that holds it
+		sessionFactory.getCurrentSession().flush();
+	}
+
+	@Override
+	public int purgeExpiredClaims(Date expiredBefore) {
+		return sessionFactory.getCurrentSession().createQuery("delete from CreationClaim where dateCreated < :expiredBefore")
+				.setTimestamp("expiredBefore", expiredBefore).executeUpdate();
+	}
+
+	@Override
+	public boolean addContentReference(String hash) {
+		// a single update rather than a read and a write, so concurrent references can't get lost and the row
+		// is locked against a purge until the transaction ends
+		return sessionFactory.getCurrentSession().createQuery("update StoredContent set refCount = refCount + 1"
+				+ " where hash = :hash").setString("hash", hash).executeUpdate() > 0;
+	}
+
+	@Override
+	public void removeContentReference(String hash) {
+		sessionFactory.getCurrentSession().createQuery("update StoredContent set refCount = refCount - 1"
+				+ " where hash = :hash and refCount > 0").setString("hash", hash).executeUpdate();
+	}
+
+	@Override
+	public void saveContent(StoredContent content) {
+		sessionFactory.getCurrentSession().save(content);
+		// flush now so that a conflicting insert fails here, and a second document with the same content in
+		// this transaction finds the row to add its reference to
+		sessionFactory.getCurrentSession().flush();
+	}
+
+	@Override
+	public StoredContent getContent(String hash) {
+		Query query = sessionFactory.getCurrentSession().createQuery("from StoredContent where hash = :hash");
+		return (StoredContent) query.setString("hash", hash).uniqueResult();
+	}
+
+	@Override
+	public boolean deleteUnreferencedContent(String hash) {
+		return sessionFactory.getCurrentSession().createQuery("delete from StoredContent where hash = :hash"
+				+ " and refCount = 0").setString("hash", hash).executeUpdate() > 0;
+	}
+
+	@Override
+	public void saveStoredDocument(StoredDocument document) {
+		sessionFactory.getCurrentSession().save(document);
+	}
+
+	@Override
+	public StoredDocument getStoredDocument(String documentUniqueId) {
+		Query query = sessionFactory.getCurrentSession().createQuery("from StoredDocument where docId = :documentUniqueId");
+		return (StoredDocument) query.setString("documentUniqueId", documentUniqueId).uniqueResult();
+	}
+
+	@Override
+	public void deleteStoredDocument(String documentUniqueId) {
+		// flush first, the document may have been saved in this session
+		sessionFactory.getCurrentSession().flush();
+		sessionFactory.getCurrentSession().createQuery("delete from StoredDocument where docId = :documentUniqueId")
+				.setString("documentUniqueId", documentUniqueId).executeUpdate();
+	}
+
 	@Override
 	public QueueItem queueDiscreteDataProcessing(QueueItem qi) {
 		sessionFactory.getCurrentSession().save(qi);
@@ -60,6 +217,57 @@ public class HibernateXDSbDAO implements XDSbDAO {
 		return qi;
 	}
 
+	@Override
+	public CdaImportQueueItem saveCdaImportQueueItem(CdaImportQueueItem item) {
+		sessionFactory.getCurrentSession().saveOrUpdate(item);
+		return item;
+	}
+
+	@Override
+	public CdaImportQueueItem dequeueNextCdaImport(Date now) {
+		Query query = sessionFactory.getCurrentSession().createQuery("from CdaImportQueueItem where status='QUEUED'"
+				+ " and (nextAttempt is null or nextAttempt <= :now) order by dateAdded");
+		// oldest item that is due (FIFO queue, failed imports wait for their retry delay)
+		return (CdaImportQueueItem) query.setTimestamp("now", now).setMaxResults(1).uniqueResult();
+	}
+
+	@Override
+	public CdaImportQueueItem getCdaImportQueueItem(String documentUniqueId) {
+		Query query = sessionFactory.getCurrentSession().createQuery("from CdaImportQueueItem where docUniqueId = :documentUniqueId"
+				+ " order by dateAdded desc");
+		return (CdaImportQueueItem) query.setString("documentUniqueId", documentUniqueId).setMaxResults(1).uniqueResult();
+	}
+
+	@Override
+	public int cancelQueuedProcessing(String documentUniqueId, Date now) {
+		// flush first, the items may have been queued in this session
+		sessionFactory.getCurrentSession().flush();
+		int cancelled = sessionFactory.getCurrentSession().createQuery("update QueueItem set status='FAILED', dateUpdated = :now"
+				+ " where docUniqueId = :documentUniqueId and status='QUEUED'")
+				.setString("documentUniqueId", documentUniqueId).setTimestamp("now", now).executeUpdate();
+		cancelled += sessionFactory.getCurrentSession().createQuery("update CdaImportQueueItem set status='FAILED', dateUpdated = :now,"
+				+ " lastError = 'Registration failed', nextAttempt = null where docUniqueId = :documentUniqueId and status='QUEUED'")
+				.setString("documentUniqueId", documentUniqueId).setTimestamp("now", now).executeUpdate();
+		return cancelled;
+	}
+
+	@Override
+	public Map<QueueItem.Status, Long> countQueueItemsByStatus(Class<?> queueItemClass) {
+		List<Object[]> rows = sessionFactory.getCurrentSession().createQuery("select status, count(*) from "
+				+ queueItemClass.getSimpleName() + " group by status").list();
+		Map<QueueItem.Status, Long> counts = new EnumMap<QueueItem.Status, Long>(QueueItem.Status.class);
+		for (Object[] row : rows) {
+			counts.put((QueueItem.Status) row[0], ((Number) row[1]).longValue());
+		}
+		return counts;
+	}
+
+	@Override
+	public Date getOldestQueuedDate(Class<?> queueItemClass) {
+		return (Date) sessionFactory.getCurrentSession().createQuery("select min(dateAdded) from "
+				+ queueItemClass.getSimpleName() + " where status = 'QUEUED'").uniqueResult();
+	}
+
     public DbSessionFactory getSessionFactory() {
         return sessionFactory;
     }
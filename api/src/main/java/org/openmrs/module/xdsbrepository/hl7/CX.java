@@ -0,0 +1,61 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.hl7;
+
+/**
+ * HL7 v2 CX (extended composite ID with check digit), as used for XDS patient identifiers:
+ * <code>IDNumber^^^AssigningAuthorityNamespace&amp;UniversalId&amp;UniversalIdType^IdentifierTypeCode</code>
+ */
+public final class CX {
+
+    public static final int ID_NUMBER = 0;
+    public static final int ASSIGNING_AUTHORITY = 3;
+    public static final int IDENTIFIER_TYPE_CODE = 4;
+
+    private final CompositeField field;
+
+    private CX(CompositeField field) {
+        this.field = field;
+    }
+
+    public static CX parse(String value) {
+        return new CX(CompositeField.parse(value));
+    }
+
+    public CompositeField getField() {
+        return field;
+    }
+
+    public String getIdNumber() {
+        return field.getComponent(ID_NUMBER);
+    }
+
+    public boolean hasAssigningAuthority() {
+        return field.hasComponent(ASSIGNING_AUTHORITY);
+    }
+
+    public String getAssigningAuthorityNamespaceId() {
+        return field.getSubcomponent(ASSIGNING_AUTHORITY, 0);
+    }
+
+    public String getAssigningAuthorityUniversalId() {
+        return field.getSubcomponent(ASSIGNING_AUTHORITY, 1);
+    }
+
+    public String getAssigningAuthorityUniversalIdType() {
+        return field.getSubcomponent(ASSIGNING_AUTHORITY, 2);
+    }
+
+    public String getIdentifierTypeCode() {
+        return field.getComponent(IDENTIFIER_TYPE_CODE);
+    }
+
+    @Override
+    public String toString() {
+        return field.toString();
+    }
+}
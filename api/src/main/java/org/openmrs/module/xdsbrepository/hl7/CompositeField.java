@@ -0,0 +1,305 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.hl7;
+
+/**
+ * A tokenized HL7 v2 composite field such as a CX, XCN, XPN or XAD value.
+ * <p/>
+ * The source string is scanned once to record where each component starts; no regular expressions
+ * are used and nothing is copied until a component or subcomponent is asked for. Components that do
+ * not contain escape sequences are returned as plain substrings, and {@link #getComponentView(int)}
+ * exposes a component without copying it at all.
+ * <p/>
+ * XDS metadata frequently carries subcomponent separators XML-escaped as <code>&amp;amp;</code>, so that
+ * sequence is treated as a subcomponent separator as well.
+ */
+public final class CompositeField {
+
+    public static final char COMPONENT_SEPARATOR = '^';
+    public static final char SUBCOMPONENT_SEPARATOR = '&';
+    public static final char ESCAPE_CHARACTER = '\\';
+
+    private static final String ESCAPED_SUBCOMPONENT_SEPARATOR = "&amp;";
+
+    private final String source;
+
+    // start offset of every component followed by a sentinel of source.length() + 1, so that
+    // component i always spans [starts[i], starts[i + 1] - 1)
+    private final int[] starts;
+
+    private CompositeField(String source, int[] starts) {
+        this.source = source;
+        this.starts = starts;
+    }
+
+    /**
+     * Tokenize a composite field value.
+     *
+     * @param value the raw HL7 value, e.g. <code>1234^^^&amp;1.2.3&amp;ISO</code>
+     * @return the parsed field
+     */
+    public static CompositeField parse(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot parse a null HL7 value");
+        }
+
+        int length = value.length();
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) == COMPONENT_SEPARATOR) {
+                count++;
+            }
+        }
+
+        int[] starts = new int[count + 1];
+        int c = 1;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) == COMPONENT_SEPARATOR) {
+                starts[c++] = i + 1;
+            }
+        }
+        starts[count] = length + 1;
+
+        return new CompositeField(value, starts);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the number of components, including empty ones, present in the source
+     */
+    public int getComponentCount() {
+        return starts.length - 1;
+    }
+
+    /**
+     * @param component zero-based component index
+     * @return true if the component is present and not empty
+     */
+    public boolean hasComponent(int component) {
+        return component < getComponentCount() && start(component) < end(component);
+    }
+
+    /**
+     * @param component zero-based component index
+     * @return the unescaped component, an empty string if the component is present but empty or null
+     * if the source has fewer components
+     */
+    public String getComponent(int component) {
+        if (component >= getComponentCount()) {
+            return null;
+        }
+        return decode(source, start(component), end(component));
+    }
+
+    /**
+     * @param component zero-based component index
+     * @return a view over the raw (still escaped) component that does not copy the source, or null
+     * if the source has fewer components
+     */
+    public CharSequence getComponentView(int component) {
+        if (component >= getComponentCount()) {
+            return null;
+        }
+        return new Slice(source, start(component), end(component));
+    }
+
+    /**
+     * Compare a component against a value without copying it out of the source.
+     */
+    public boolean componentEquals(int component, String value) {
+        if (component >= getComponentCount()) {
+            return value == null;
+        }
+        int start = start(component);
+        int length = end(component) - start;
+        return value != null && value.length() == length && source.regionMatches(start, value, 0, length);
+    }
+
+    /**
+     * @param component zero-based component index
+     * @return the number of subcomponents in the component, or 0 if the component is absent
+     */
+    public int getSubcomponentCount(int component) {
+        if (component >= getComponentCount()) {
+            return 0;
+        }
+        int count = 1;
+        int end = end(component);
+        int i = start(component);
+        while (i < end) {
+            int sepLength = separatorLength(i);
+            if (sepLength > 0) {
+                count++;
+                i += sepLength;
+            } else {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param component    zero-based component index
+     * @param subcomponent zero-based subcomponent index
+     * @return the unescaped subcomponent, an empty string if it is present but empty or null if the
+     * component does not have that many subcomponents
+     */
+    public String getSubcomponent(int component, int subcomponent) {
+        if (component >= getComponentCount()) {
+            return null;
+        }
+
+        int end = end(component);
+        int from = start(component);
+        int current = 0;
+        int i = from;
+        while (i < end) {
+            int sepLength = separatorLength(i);
+            if (sepLength > 0) {
+                if (current == subcomponent) {
+                    return decode(source, from, i);
+                }
+                current++;
+                i += sepLength;
+                from = i;
+            } else {
+                i++;
+            }
+        }
+        return current == subcomponent ? decode(source, from, end) : null;
+    }
+
+    /**
+     * @return true if the subcomponent is present and not empty
+     */
+    public boolean hasSubcomponent(int component, int subcomponent) {
+        String value = getSubcomponent(component, subcomponent);
+        return value != null && !value.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private int start(int component) {
+        return starts[component];
+    }
+
+    private int end(int component) {
+        return starts[component + 1] - 1;
+    }
+
+    private int separatorLength(int index) {
+        if (source.charAt(index) != SUBCOMPONENT_SEPARATOR) {
+            return 0;
+        }
+        if (source.startsWith(ESCAPED_SUBCOMPONENT_SEPARATOR, index)) {
+            return ESCAPED_SUBCOMPONENT_SEPARATOR.length();
+        }
+        return 1;
+    }
+
+    /**
+     * Copy a range out of the source, resolving HL7 escape sequences (\F\, \S\, \T\, \R\, \E\) and
+     * XML-escaped ampersands. Ranges without either are returned as a plain substring.
+     */
+    static String decode(String source, int from, int to) {
+        boolean plain = true;
+        for (int i = from; i < to; i++) {
+            char ch = source.charAt(i);
+            if (ch == ESCAPE_CHARACTER || ch == SUBCOMPONENT_SEPARATOR) {
+                plain = false;
+                break;
+            }
+        }
+        if (plain) {
+            return source.substring(from, to);
+        }
+
+        StringBuilder sb = new StringBuilder(to - from);
+        int i = from;
+        while (i < to) {
+            char ch = source.charAt(i);
+            if (ch == SUBCOMPONENT_SEPARATOR && source.startsWith(ESCAPED_SUBCOMPONENT_SEPARATOR, i)
+                    && i + ESCAPED_SUBCOMPONENT_SEPARATOR.length() <= to) {
+                sb.append(SUBCOMPONENT_SEPARATOR);
+                i += ESCAPED_SUBCOMPONENT_SEPARATOR.length();
+            } else if (ch == ESCAPE_CHARACTER && i + 2 < to && source.charAt(i + 2) == ESCAPE_CHARACTER
+                    && unescape(source.charAt(i + 1)) != 0) {
+                sb.append(unescape(source.charAt(i + 1)));
+                i += 3;
+            } else {
+                sb.append(ch);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static char unescape(char code) {
+        switch (code) {
+            case 'F':
+                return '|';
+            case 'S':
+                return COMPONENT_SEPARATOR;
+            case 'T':
+                return SUBCOMPONENT_SEPARATOR;
+            case 'R':
+                return '~';
+            case 'E':
+                return ESCAPE_CHARACTER;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * A read-only window onto part of the source string.
+     */
+    private static final class Slice implements CharSequence {
+
+        private final String source;
+        private final int from;
+        private final int to;
+
+        Slice(String source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("index: " + index);
+            }
+            return source.charAt(from + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end);
+            }
+            return new Slice(source, from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            return source.substring(from, to);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.hl7;
+
+/**
+ * HL7 v2 XAD (extended address), as used in PID-11 of the XDS sourcePatientInfo slot:
+ * <code>Street^OtherDesignation^City^StateOrProvince^PostalCode^Country</code>
+ */
+public final class XAD {
+
+    public static final int STREET_ADDRESS = 0;
+    public static final int OTHER_DESIGNATION = 1;
+    public static final int CITY = 2;
+    public static final int STATE_OR_PROVINCE = 3;
+    public static final int POSTAL_CODE = 4;
+    public static final int COUNTRY = 5;
+
+    private final CompositeField field;
+
+    private XAD(CompositeField field) {
+        this.field = field;
+    }
+
+    public static XAD parse(String value) {
+        return new XAD(CompositeField.parse(value));
+    }
+
+    public CompositeField getField() {
+        return field;
+    }
+
+    public String getStreetAddress() {
+        return field.getComponent(STREET_ADDRESS);
+    }
+
+    public String getOtherDesignation() {
+        return field.getComponent(OTHER_DESIGNATION);
+    }
+
+    public String getCity() {
+        return field.getComponent(CITY);
+    }
+
+    public String getStateOrProvince() {
+        return field.getComponent(STATE_OR_PROVINCE);
+    }
+
+    public String getPostalCode() {
+        return field.getComponent(POSTAL_CODE);
+    }
+
+    public String getCountry() {
+        return field.getComponent(COUNTRY);
+    }
+
+    @Override
+    public String toString() {
+        return field.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.hl7;
+
+/**
+ * HL7 v2 XCN (extended composite ID number and name for persons), as used for the XDS authorPerson slot:
+ * <code>IDNumber^FamilyName^GivenName^SecondName^Suffix^Prefix^Degree</code>
+ */
+public final class XCN {
+
+    public static final int ID_NUMBER = 0;
+    public static final int FAMILY_NAME = 1;
+    public static final int GIVEN_NAME = 2;
+    public static final int SECOND_NAME = 3;
+    public static final int SUFFIX = 4;
+    public static final int PREFIX = 5;
+    public static final int DEGREE = 6;
+
+    private final CompositeField field;
+
+    private XCN(CompositeField field) {
+        this.field = field;
+    }
+
+    public static XCN parse(String value) {
+        return new XCN(CompositeField.parse(value));
+    }
+
+    public CompositeField getField() {
+        return field;
+    }
+
+    public String getIdNumber() {
+        return field.getComponent(ID_NUMBER);
+    }
+
+    public boolean hasIdNumber() {
+        return field.hasComponent(ID_NUMBER);
+    }
+
+    public String getFamilyName() {
+        return field.getComponent(FAMILY_NAME);
+    }
+
+    public String getGivenName() {
+        return field.getComponent(GIVEN_NAME);
+    }
+
+    public String getSecondName() {
+        return field.getComponent(SECOND_NAME);
+    }
+
+    public String getSuffix() {
+        return field.getComponent(SUFFIX);
+    }
+
+    public String getPrefix() {
+        return field.getComponent(PREFIX);
+    }
+
+    public String getDegree() {
+        return field.getComponent(DEGREE);
+    }
+
+    /**
+     * @return true if both a family and a given name are present
+     */
+    public boolean hasName() {
+        return field.hasComponent(FAMILY_NAME) && field.hasComponent(GIVEN_NAME);
+    }
+
+    @Override
+    public String toString() {
+        return field.toString();
+    }
+}
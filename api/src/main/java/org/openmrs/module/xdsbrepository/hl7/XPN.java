@@ -0,0 +1,72 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.hl7;
+
+/**
+ * HL7 v2 XPN (extended person name), as used in PID-5 of the XDS sourcePatientInfo slot:
+ * <code>FamilyName^GivenName^SecondName^Suffix^Prefix^Degree</code>
+ */
+public final class XPN {
+
+    public static final int FAMILY_NAME = 0;
+    public static final int GIVEN_NAME = 1;
+    public static final int SECOND_NAME = 2;
+    public static final int SUFFIX = 3;
+    public static final int PREFIX = 4;
+    public static final int DEGREE = 5;
+
+    private final CompositeField field;
+
+    private XPN(CompositeField field) {
+        this.field = field;
+    }
+
+    public static XPN parse(String value) {
+        return new XPN(CompositeField.parse(value));
+    }
+
+    public CompositeField getField() {
+        return field;
+    }
+
+    public String getFamilyName() {
+        return field.getComponent(FAMILY_NAME);
+    }
+
+    public boolean hasFamilyName() {
+        return field.hasComponent(FAMILY_NAME);
+    }
+
+    public String getGivenName() {
+        return field.getComponent(GIVEN_NAME);
+    }
+
+    public boolean hasGivenName() {
+        return field.hasComponent(GIVEN_NAME);
+    }
+
+    public String getSecondName() {
+        return field.getComponent(SECOND_NAME);
+    }
+
+    public String getSuffix() {
+        return field.getComponent(SUFFIX);
+    }
+
+    public String getPrefix() {
+        return field.getComponent(PREFIX);
+    }
+
+    public String getDegree() {
+        return field.getComponent(DEGREE);
+    }
+
+    @Override
+    public String toString() {
+        return field.toString();
+    }
+}
@@ -13,10 +13,10 @@ import org.dcm4chee.xds2.common.audit.XDSAudit;
 import org.dcm4chee.xds2.common.exception.XDSException;
 import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
 import org.dcm4chee.xds2.infoset.rim.*;
-import org.dcm4chee.xds2.infoset.util.DocumentRegistryPortTypeFactory;
 import org.dcm4chee.xds2.infoset.util.InfosetUtil;
 import org.dcm4chee.xds2.infoset.ws.registry.DocumentRegistryPortType;
 import org.dom4j.DocumentException;
+import org.hibernate.exception.ConstraintViolationException;
 import org.openmrs.*;
 import org.openmrs.api.*;
 import org.openmrs.api.context.Context;
@@ -26,30 +26,74 @@ import org.openmrs.module.shr.cdahandler.api.CdaImportService;
 import org.openmrs.module.shr.cdahandler.exception.DocumentImportException;
 import org.openmrs.module.shr.contenthandler.UnstructuredDataHandler;
 import org.openmrs.module.shr.contenthandler.api.*;
+import org.openmrs.module.xdsbrepository.BloomFilter;
+import org.openmrs.module.xdsbrepository.DocumentContentCache;
+import org.openmrs.module.xdsbrepository.DocumentIdIndex;
+import org.openmrs.module.xdsbrepository.EncounterTypeCache;
 import org.openmrs.module.xdsbrepository.Identifier;
+import org.openmrs.module.xdsbrepository.ReferenceDataCache;
+import org.openmrs.module.xdsbrepository.StripedLocks;
 import org.openmrs.module.xdsbrepository.XDSbService;
-import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 import org.openmrs.module.xdsbrepository.db.XDSbDAO;
 import org.openmrs.module.xdsbrepository.exceptions.CXParseException;
 import org.openmrs.module.xdsbrepository.exceptions.UnsupportedGenderException;
+import org.openmrs.module.xdsbrepository.hl7.XAD;
+import org.openmrs.module.xdsbrepository.hl7.XCN;
+import org.openmrs.module.xdsbrepository.hl7.XPN;
+import org.openmrs.module.xdsbrepository.ingest.DocumentEntry;
+import org.openmrs.module.xdsbrepository.ingest.PassThroughRegistryClient;
+import org.openmrs.module.xdsbrepository.ingest.StagedDocument;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
+import org.openmrs.module.xdsbrepository.infoset.InfosetSlots;
+import org.openmrs.module.xdsbrepository.infoset.RegistryPortPool;
 import org.openmrs.module.xdsbrepository.mapper.PatientIdentifierMapper;
+import org.openmrs.module.xdsbrepository.metrics.IngestMetrics;
+import org.openmrs.module.xdsbrepository.metrics.IngestStage;
+import org.openmrs.module.xdsbrepository.metrics.QueueMetrics;
+import org.openmrs.module.xdsbrepository.metrics.QueueStatistics;
+import org.openmrs.module.xdsbrepository.metrics.StageTimer;
+import org.openmrs.module.xdsbrepository.metrics.StorageMetrics;
+import org.openmrs.module.xdsbrepository.model.CreationClaim;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
+import org.openmrs.module.xdsbrepository.model.StoredContent;
+import org.openmrs.module.xdsbrepository.model.StoredDocument;
+import org.openmrs.module.xdsbrepository.storage.BlobStore;
+import org.openmrs.module.xdsbrepository.storage.ContentCodec;
+import org.openmrs.module.xdsbrepository.storage.ContentCodecs;
+import org.openmrs.module.xdsbrepository.storage.ContentStorage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.xml.bind.JAXBException;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
 import java.util.*;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 @Transactional
 public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
@@ -68,8 +112,46 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 
 	private static final String ERROR_FAILURE = "urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Failure";
 
+	private static final EventTypeCode EVENT_TYPE_REGISTER_ON_DEMAND = new EventTypeCode("ITI-61", "IHE Transactions", "Register On-Demand Document Entry");
+
 	private XDSbDAO dao;
 
+	// serialises find-or-create of the same reference data within this server, see resolveReferenceData
+	private static final StripedLocks referenceDataLocks = new StripedLocks(64);
+
+	private static final int MAX_REFERENCE_DATA_ATTEMPTS = 3;
+
+	// serialises storing the same content within this server, see storeDocuments
+	private static final StripedLocks contentLocks = new StripedLocks(64);
+
+	private static final int MAX_STORE_ATTEMPTS = 3;
+
+	private static final int MAX_CLAIM_KEY_LENGTH = 255;
+
+	private static final long CLAIM_EXPIRY = 10 * 60 * 1000;
+
+	// the unique constraints on the documentUniqueId, see liquibase.xml
+	private static final String DOCUMENT_HANDLER_ID_INDEX = "idx_doc_id";
+
+	private static final String STORED_DOCUMENT_ID_CONSTRAINT = "uq_stored_documents_doc_id";
+
+	// the document id index is sized for at least this many ids, and for twice the ids registered when it is built
+	private static final long MIN_DOCUMENT_ID_INDEX_SIZE = 1000000;
+
+	// immutable and thread safe, unlike SimpleDateFormat, so they can be shared by all requests. Fixed width
+	// fields so that trailing seconds in an HL7 DTM value are not read into the minutes
+	private static final DateTimeFormatter BIRTH_DATE_FORMAT = new DateTimeFormatterBuilder()
+			.appendValue(ChronoField.YEAR, 4)
+			.appendValue(ChronoField.MONTH_OF_YEAR, 2)
+			.appendValue(ChronoField.DAY_OF_MONTH, 2)
+			.toFormatter();
+
+	private static final DateTimeFormatter SERVICE_START_TIME_FORMAT = new DateTimeFormatterBuilder()
+			.append(BIRTH_DATE_FORMAT)
+			.appendValue(ChronoField.HOUR_OF_DAY, 2)
+			.appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+			.toFormatter();
+
 	@Autowired
 	@Qualifier("xdsbrepository.identifierMapper")
 	private PatientIdentifierMapper identifierMapper;
@@ -92,10 +174,7 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	 * @throws MalformedURLException
 	 */
 	private URL getRegistryUrl() throws MalformedURLException {
-		AdministrationService as = Context.getAdministrationService();
-		String url = as.getGlobalProperty(XDSbServiceConstants.XDS_REGISTRY_URL_GP);
-
-		return new URL(url);
+		return new URL(XDSbRepositoryConfiguration.get().getRegistryUrl());
 	}
 
 	@Transactional(readOnly = false, rollbackFor = XDSException.class)
@@ -105,7 +184,7 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 			RegistryResponseType retVal = sendMetadataToRegistry(getRegistryUrl(), submitObjectRequest);
 
 			if (retVal.getStatus().equals(XDSConstants.XDS_B_STATUS_SUCCESS)) {
-				dao.registerDocument(uniqueId, contentHandler);
+				registerDocumentHandler(uniqueId, contentHandler);
 			}
 
 			return retVal;
@@ -122,13 +201,25 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 
 		try {
 			RegistryResponseType retVal = sendMetadataToRegistry(getRegistryUrl(), submitObjectRequest);
+			if (retVal.getStatus().equals(XDSConstants.XDS_B_STATUS_SUCCESS)) {
+				registerDocumentHandlers(contentHandlers);
+			}
+			return retVal;
+		} catch (MalformedURLException ex) {
+			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
+		}
+	}
 
-			if(retVal.getStatus().equals(XDSConstants.XDS_B_STATUS_SUCCESS))
-			{
-				for (String id : contentHandlers.keySet()) {
-					Class<? extends ContentHandler> contentHandler = contentHandlers.get(id);
-					dao.registerDocument(id, contentHandler);
-				}
+	@Transactional(readOnly = false, rollbackFor = XDSException.class)
+	@Override
+	public RegistryResponseType registerDocuments(
+			Map<String, Class<? extends ContentHandler>> contentHandlers,
+			SubmissionMetadata metadata) throws XDSException {
+
+		try {
+			RegistryResponseType retVal = sendMetadataToRegistry(getRegistryUrl(), metadata);
+			if (retVal.getStatus().equals(XDSConstants.XDS_B_STATUS_SUCCESS)) {
+				registerDocumentHandlers(contentHandlers);
 			}
 			return retVal;
 		} catch (MalformedURLException ex) {
@@ -136,60 +227,165 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		}
 	}
 
+	@Transactional
+	@Override
+	public void registerDocumentHandlers(Map<String, Class<? extends ContentHandler>> contentHandlers) {
+		dao.registerDocuments(contentHandlers);
+		for (String id : contentHandlers.keySet()) {
+			DocumentIdIndex.add(id);
+		}
+	}
+
+	private void registerDocumentHandler(String documentUniqueId, Class<? extends ContentHandler> contentHandler) {
+		dao.registerDocument(documentUniqueId, contentHandler);
+		DocumentIdIndex.add(documentUniqueId);
+	}
+
 	@Transactional(readOnly = true)
 	@Override
 	public Class<? extends ContentHandler> getDocumentHandlerClass(String documentUniqueId) throws ClassNotFoundException {
 		return dao.getDocumentHandlerClass(documentUniqueId);
 	}
 
+	@Transactional(readOnly = true)
+	@Override
+	public boolean isDocumentRegistered(String documentUniqueId) {
+		return dao.isDocumentRegistered(documentUniqueId);
+	}
+
+	@Transactional(readOnly = true)
+	@Override
+	public void rebuildDocumentIdIndex() {
+		XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+		long registered = dao.countRegisteredDocuments();
+		// leave room for the documents registered until the next rebuild
+		long expected = Math.max(registered * 2, MIN_DOCUMENT_ID_INDEX_SIZE);
+		final BloomFilter filter = new BloomFilter(expected, config.getDocumentIdIndexFalsePositiveRate(),
+				config.getDocumentIdIndexMaxMemory() * 1024L * 1024L);
+
+		long start = System.currentTimeMillis();
+		DocumentIdIndex.startBuild(filter);
+		long scanned = dao.scanDocumentIds(new XDSbDAO.DocumentIdVisitor() {
+
+			@Override
+			public void visit(String documentUniqueId) {
+				filter.put(documentUniqueId);
+			}
+		});
+		DocumentIdIndex.finishBuild(filter);
+
+		log.info("Built the documentUniqueId index from " + scanned + " registered documents in "
+				+ (System.currentTimeMillis() - start) + " ms (" + filter.getBitCount() / 8 / 1024 + " KB)");
+	}
+
 
-	@Transactional(readOnly = false, rollbackFor = {XDSException.class, ContentHandlerException.class} )
+	@Transactional(propagation = Propagation.SUPPORTS)
 	@Override
 	public RegistryResponseType provideAndRegisterDocumentSetB(ProvideAndRegisterDocumentSetRequestType request) throws XDSException, ContentHandlerException {
+		return provideAndRegisterDocumentSetB(SubmissionMetadata.fromRequest(request));
+	}
+
+	/**
+	 * The submission is processed in stages rather than in one transaction: validation and hashing, the registry
+	 * call and CDA import run outside of any transaction, while reference data and storage each get a short
+	 * transaction of their own. Documents are stored before they are registered, so that a failed registration
+	 * can be compensated by {@link #compensateStoredDocuments(List)}. Discrete data processing and CDA imports
+	 * are only queued once the registration has succeeded, so the workers never see a document that is
+	 * compensated.
+	 * <p/>
+	 * When called within an existing transaction the stages all join it, as before.
+	 */
+	@Transactional(propagation = Propagation.SUPPORTS)
+	@Override
+	public RegistryResponseType provideAndRegisterDocumentSetB(SubmissionMetadata metadata) throws XDSException, ContentHandlerException {
 		boolean wasSuccess = false;
 
 		// Get the required elements for auditing
-		RegistryPackageType submissionSet = InfosetUtil.getRegistryPackage(request.getSubmitObjectsRequest(), XDSConstants.UUID_XDSSubmissionSet);
-		String submissionSetUID = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSSubmissionSet_uniqueId, submissionSet),
-				patID = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSSubmissionSet_patientId, submissionSet);
+		String submissionSetUID = metadata.getSubmissionSetUniqueId(),
+				patID = metadata.getSubmissionSetPatientId();
 		AuditRequestInfo info = new AuditRequestInfo(null, null);
 
 		RegistryResponseType response = new RegistryResponseType();
+		XDSbService xdsService = Context.getService(XDSbService.class);
+		List<StagedDocument> documents = new ArrayList<StagedDocument>();
+		long submissionStart = IngestMetrics.start();
+		// the stage that is running, for the failure metrics
+		IngestStage stage = IngestStage.VALIDATE;
+		long stageStart = submissionStart;
 
 		try {
 
-			List<ExtrinsicObjectType> extrinsicObjects = InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest());
+			List<DocumentEntry> documentEntries = metadata.getDocumentEntries();
 
-			SubmitObjectsRequest submitObjectRequest = request.getSubmitObjectsRequest();
-			XDSbService xdsService = Context.getService(XDSbService.class);
+			// validate and hash, no transaction needed
+			validateDocumentMatchMetadata(documentEntries, metadata.getDocuments().keySet());
 
-			validateDocumentMatchMetadata(extrinsicObjects, InfosetUtil.getDocuments(request));
+			for (DocumentEntry entry : documentEntries) {
+				byte[] document = metadata.getDocument(entry.getId());
+				stageStart = IngestMetrics.start();
+				this.processDocumentMetaData(entry, document);
+				IngestMetrics.success(IngestStage.VALIDATE, stageStart);
+				documents.add(new StagedDocument(entry, document));
+			}
 
-			Map<String, Class<? extends ContentHandler>> contentHandlers = new HashMap<String, Class<? extends ContentHandler>>();
-			for (ExtrinsicObjectType eot : extrinsicObjects) {
-				contentHandlers.put(this.processDocumentMetaData(eot, request), UnstructuredDataHandler.class);
+			stage = IngestStage.RESOLVE_REFERENCE_DATA;
+			stageStart = IngestMetrics.start();
+			resolveReferenceData(xdsService, documents);
+			IngestMetrics.success(stage, stageStart);
+
+			stage = IngestStage.STORE;
+			stageStart = IngestMetrics.start();
+			storeDocuments(xdsService, documents);
+			IngestMetrics.success(stage, stageStart);
+			// only now that the storage transaction has committed is there anything to compensate
+			for (StagedDocument document : documents) {
+				document.setStored(true);
 			}
 
-			response = xdsService.registerDocuments(contentHandlers, submitObjectRequest);
+			stage = IngestStage.REGISTER;
+			stageStart = IngestMetrics.start();
+			try {
+				response = sendMetadataToRegistry(getRegistryUrl(), metadata);
+			} catch (MalformedURLException ex) {
+				throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
+			}
 
-			// Save each document
-			if (response.getStatus().equals(XDSConstants.XDS_B_STATUS_SUCCESS)) {
-				for (ExtrinsicObjectType eot : extrinsicObjects) {
-					this.storeDocument(eot, request);
+			if (!response.getStatus().equals(XDSConstants.XDS_B_STATUS_SUCCESS)) {
+				String errorCode = registryErrorCode(response);
+				IngestMetrics.failure(stage, stageStart, errorCode);
+				IngestMetrics.failure(IngestStage.SUBMISSION, submissionStart, errorCode);
+				compensate(xdsService, documents);
+				return response;
+			}
+			IngestMetrics.success(stage, stageStart);
+
+			// the documents are now stored and registered, what is left can be retried
+			stage = null;
+			for (StagedDocument document : documents) {
+				queueDiscreteData(document);
+				importDocument(document);
+			}
+			// consumers often retrieve a document straight after it has been registered
+			for (StagedDocument document : documents) {
+				if (document.getContent() != null) {
+					DocumentContentCache.put(document.getDocUniqueId(), document.getContent());
 				}
 			}
 
 			wasSuccess = true;
-
-		} catch (UnsupportedGenderException ex) {
-			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
-		} catch (JAXBException ex) {
-			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
+			IngestMetrics.success(IngestStage.SUBMISSION, submissionStart);
+
+		} catch (XDSException ex) {
+			recordFailure(stage, stageStart, submissionStart, ex);
+			compensateUnlessRegistered(xdsService, stage, documents);
+			throw ex;
+		} catch (ContentHandlerException ex) {
+			recordFailure(stage, stageStart, submissionStart, ex);
+			compensateUnlessRegistered(xdsService, stage, documents);
+			throw ex;
 		} catch (RuntimeException ex) {
-			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
-		} catch (ParseException ex) {
-			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
-		} catch (DocumentImportException ex) {
+			recordFailure(stage, stageStart, submissionStart, ex);
+			compensateUnlessRegistered(xdsService, stage, documents);
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
 		} finally {
 			XDSAudit.setAuditLogger(Context.getService(AtnaAuditService.class).getLogger());
@@ -198,18 +394,331 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		return response;
 	}
 
+	private static void recordFailure(IngestStage stage, long stageStart, long submissionStart, Throwable ex) {
+		if (stage != null) {
+			IngestMetrics.failure(stage, stageStart, ex);
+		}
+		IngestMetrics.failure(IngestStage.SUBMISSION, submissionStart, ex);
+	}
+
+	/**
+	 * @return the error code of the first error the registry reported, for the failure metrics
+	 */
+	private static String registryErrorCode(RegistryResponseType response) {
+		if (response.getRegistryErrorList() != null && !response.getRegistryErrorList().getRegistryError().isEmpty()) {
+			String errorCode = response.getRegistryErrorList().getRegistryError().get(0).getErrorCode();
+			if (errorCode != null) {
+				return errorCode;
+			}
+		}
+		return "RegistryFailure";
+	}
+
+	/**
+	 * Once the documents are registered (stage is null) they must stay stored, whatever fails after that
+	 */
+	private void compensateUnlessRegistered(XDSbService xdsService, IngestStage stage, List<StagedDocument> documents) {
+		if (stage != null) {
+			compensate(xdsService, documents);
+		}
+	}
+
+	private void compensate(XDSbService xdsService, List<StagedDocument> documents) {
+		Set<String> contentHashes = new HashSet<String>();
+		for (StagedDocument document : documents) {
+			DocumentContentCache.invalidate(document.getDocUniqueId());
+			if (document.isStored() && document.getContentHash() != null) {
+				contentHashes.add(document.getContentHash());
+			}
+		}
+		try {
+			xdsService.compensateStoredDocuments(documents);
+		} catch (RuntimeException ex) {
+			// don't hide the original failure
+			log.error("Unable to remove the stored documents of a failed submission", ex);
+			return;
+		}
+		// content is only deleted once the references that were removed have been committed
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return;
+		}
+		for (String hash : contentHashes) {
+			try {
+				xdsService.deleteUnreferencedContent(hash);
+			} catch (RuntimeException ex) {
+				log.error("Unable to delete the unreferenced content " + hash, ex);
+			}
+		}
+	}
+
+	/**
+	 * Store the documents, when they go to the content-addressed store while holding the locks of their
+	 * content, so that concurrent submissions of the same content wait for each other instead of both
+	 * inserting it. The locks are held until the transaction has committed. Across servers the unique hash
+	 * does the same job: the submission that loses the race fails to insert and is retried, when it adds a
+	 * reference to what the other one stored.
+	 */
+	private void storeDocuments(XDSbService xdsService, List<StagedDocument> documents) throws XDSException, ContentHandlerException {
+		if (!XDSbRepositoryConfiguration.get().isContentAddressedStorage()) {
+			storeDocumentsOnce(xdsService, documents);
+			return;
+		}
+
+		Set<String> keys = new HashSet<String>();
+		for (StagedDocument document : documents) {
+			keys.add(getContentHash(document));
+		}
+		List<Lock> locks = contentLocks.lock(keys);
+		try {
+			for (int attempt = 1; ; attempt++) {
+				try {
+					storeDocumentsOnce(xdsService, documents);
+					return;
+				} catch (RuntimeException ex) {
+					// within an outer transaction there is nothing that can be retried
+					if (!isConstraintViolation(ex) || attempt >= MAX_STORE_ATTEMPTS
+							|| TransactionSynchronizationManager.isActualTransactionActive()) {
+						throw ex;
+					}
+					log.info("Content was stored concurrently by another submission, retrying (attempt " + attempt + ")");
+				}
+			}
+		} finally {
+			contentLocks.unlock(locks);
+		}
+	}
+
+	/**
+	 * Resolve the reference data of the documents while holding the locks for everything that may have to be
+	 * created, so that concurrent submissions for the same patient or author wait for each other instead of
+	 * both creating it. The locks are held until the transaction has committed. Across servers the
+	 * {@link CreationClaim}s do the same job: a submission that loses the race fails to claim and is retried,
+	 * when it finds what the other one created.
+	 */
+	private void resolveReferenceData(XDSbService xdsService, List<StagedDocument> documents) throws XDSException {
+		List<Lock> locks = referenceDataLocks.lock(referenceDataKeys(documents));
+		try {
+			for (int attempt = 1; ; attempt++) {
+				try {
+					xdsService.resolveReferenceData(documents);
+					return;
+				} catch (RuntimeException ex) {
+					// within an outer transaction there is nothing that can be retried
+					if (!isConstraintViolation(ex) || attempt >= MAX_REFERENCE_DATA_ATTEMPTS
+							|| TransactionSynchronizationManager.isActualTransactionActive()) {
+						throw ex;
+					}
+					log.info("Reference data was created concurrently by another submission, retrying (attempt " + attempt + ")");
+				}
+			}
+		} finally {
+			referenceDataLocks.unlock(locks);
+		}
+	}
+
+	/**
+	 * The documentUniqueIds are only checked against the documents this server knows of, one that another
+	 * server sharing the database registered meanwhile violates the unique index on the id. That is a
+	 * duplicate, not a conflict that can be retried.
+	 */
+	private void storeDocumentsOnce(XDSbService xdsService, List<StagedDocument> documents) throws XDSException, ContentHandlerException {
+		try {
+			xdsService.storeDocuments(documents);
+		} catch (RuntimeException ex) {
+			if (!isDocumentIdViolation(ex)) {
+				throw ex;
+			}
+			List<String> docUniqueIds = new ArrayList<String>();
+			for (StagedDocument document : documents) {
+				docUniqueIds.add(document.getDocUniqueId());
+			}
+			throw new XDSException(XDSException.XDS_ERR_DOCUMENT_UNIQUE_ID_ERROR, String.format(
+					"One of the document ids %s is duplicate", StringUtils.join(docUniqueIds, ", ")), ex);
+		}
+	}
+
+	private static boolean isDocumentIdViolation(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause()) {
+			String constraint = null;
+			if (t instanceof ConstraintViolationException) {
+				constraint = ((ConstraintViolationException) t).getConstraintName();
+			}
+			// not every dialect extracts the name of the constraint, the database's message names it too
+			if (constraint == null) {
+				constraint = t.getMessage();
+			}
+			if (constraint != null) {
+				constraint = constraint.toLowerCase();
+				if (constraint.contains(DOCUMENT_HANDLER_ID_INDEX) || constraint.contains(STORED_DOCUMENT_ID_CONSTRAINT)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isConstraintViolation(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause()) {
+			if (t instanceof ConstraintViolationException || t instanceof DataIntegrityViolationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the keys of the reference data that resolving the documents may create, the same keys that are
+	 * claimed when it is created
+	 */
+	private Set<String> referenceDataKeys(List<StagedDocument> documents) {
+		Set<String> keys = new HashSet<String>();
+		for (StagedDocument document : documents) {
+			DocumentEntry entry = document.getEntry();
+			addPatientKeys(keys, entry.getPatientId());
+			addPatientKeys(keys, entry.getSlotValue(XDSConstants.SLOT_NAME_SOURCE_PATIENT_ID));
+
+			DocumentEntry.Classification classCode = entry.getClassification(XDSConstants.UUID_XDSDocumentEntry_classCode);
+			if (classCode != null) {
+				keys.add("encounterType:" + classCode.getNodeRepresentation());
+			}
+
+			for (DocumentEntry.Classification author : entry.getClassifications(XDSConstants.UUID_XDSDocumentEntry_author)) {
+				if (author.hasSlot(XDSConstants.SLOT_NAME_AUTHOR_PERSON)) {
+					keys.add(providerKey(XCN.parse(author.getSlotValues(XDSConstants.SLOT_NAME_AUTHOR_PERSON).get(0))));
+				}
+				if (author.hasSlot(SLOT_NAME_AUTHOR_ROLE)) {
+					for (String role : author.getSlotValues(SLOT_NAME_AUTHOR_ROLE)) {
+						keys.add("encounterRole:" + role);
+					}
+				}
+			}
+		}
+		return keys;
+	}
+
+	private static void addPatientKeys(Set<String> keys, String cx) {
+		if (cx == null) {
+			return;
+		}
+		try {
+			Identifier id = Identifier.valueOf(cx);
+			if (id.getAssigningAuthority() != null) {
+				keys.add(patientKey(id));
+				keys.add(identifierTypeKey(id));
+			}
+		} catch (CXParseException e) {
+			// reported when the metadata is validated
+		}
+	}
+
+	private static String patientKey(Identifier id) {
+		return "patient:" + id.getIdentifier() + "^^^&" + id.getAssigningAuthority().getAssigningAuthorityId();
+	}
+
+	private static String identifierTypeKey(Identifier id) {
+		return "identifierType:" + id.getAssigningAuthority().getAssigningAuthorityId();
+	}
+
+	private static String providerKey(XCN xcn) {
+		if (xcn.hasIdNumber()) {
+			return "provider:" + xcn.getIdNumber();
+		}
+		return "provider:" + StringUtils.defaultString(xcn.getGivenName()) + "^" + StringUtils.defaultString(xcn.getFamilyName());
+	}
+
+	/**
+	 * Claim the creation of a piece of reference data, failing with a constraint violation if another
+	 * transaction has claimed it
+	 */
+	private void claimCreation(String key) {
+		// the impl is also used outside of the Spring context, without a DAO
+		if (dao == null) {
+			return;
+		}
+		if (key.length() > MAX_CLAIM_KEY_LENGTH) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				key = key.substring(0, MAX_CLAIM_KEY_LENGTH - 41) + "#" + bytesToHex(digest.digest(key.getBytes("UTF-8")));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		// a race is over in seconds, an older claim is left over from something that has since been removed
+		dao.claimCreation(key, new Date(System.currentTimeMillis() - CLAIM_EXPIRY));
+	}
+
+	@Transactional(readOnly = false, rollbackFor = XDSException.class)
+	@Override
+	public void resolveReferenceData(List<StagedDocument> documents) throws XDSException {
+		try {
+			for (StagedDocument document : documents) {
+				DocumentEntry entry = document.getEntry();
+				document.setPatient(findOrCreatePatient(entry));
+				document.setProvidersByRole(findOrCreateProvidersByRole(entry));
+				document.setEncounterType(findOrCreateEncounterType(entry));
+			}
+		} catch (UnsupportedGenderException ex) {
+			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
+		}
+	}
+
+	@Transactional(readOnly = false, rollbackFor = {XDSException.class, ContentHandlerException.class})
+	@Override
+	public void storeDocuments(List<StagedDocument> documents) throws XDSException, ContentHandlerException {
+		try {
+			Map<String, Class<? extends ContentHandler>> contentHandlers = new LinkedHashMap<String, Class<? extends ContentHandler>>();
+			for (StagedDocument document : documents) {
+				storeDocument(document);
+				contentHandlers.put(document.getDocUniqueId(), UnstructuredDataHandler.class);
+			}
+			registerDocumentHandlers(contentHandlers);
+		} catch (ParseException ex) {
+			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
+		}
+	}
+
+	@Transactional
+	@Override
+	public void compensateStoredDocuments(List<StagedDocument> documents) {
+		EncounterService es = Context.getEncounterService();
+		Date now = new Date();
+		for (StagedDocument document : documents) {
+			if (!document.isStored()) {
+				continue;
+			}
+			String docUniqueId = document.getDocUniqueId();
+			log.warn("Registration of document " + docUniqueId + " failed, removing the stored document");
+
+			Encounter encounter = document.getEncounter();
+			if (encounter != null && encounter.getId() != null && !encounter.isVoided()) {
+				es.voidEncounter(encounter, "Registration of XDS.b document " + docUniqueId + " failed");
+			}
+			dao.unregisterDocument(docUniqueId);
+			if (document.getContentHash() != null) {
+				dao.deleteStoredDocument(docUniqueId);
+				dao.removeContentReference(document.getContentHash());
+			}
+			dao.cancelQueuedProcessing(docUniqueId, now);
+			document.setStored(false);
+		}
+	}
+
 	protected void validateDocumentMatchMetadata(List<ExtrinsicObjectType> extrinsicObjects, Map<String, ProvideAndRegisterDocumentSetRequestType.Document> documents) throws XDSException {
+		validateDocumentMatchMetadata(toDocumentEntries(extrinsicObjects), documents.keySet());
+	}
+
+	protected void validateDocumentMatchMetadata(List<DocumentEntry> documentEntries, Set<String> documentIds) throws XDSException {
 		Set<String> metadataIds = new HashSet<String>();
-		for (ExtrinsicObjectType eot : extrinsicObjects) {
-			metadataIds.add(eot.getId());
+		for (DocumentEntry entry : documentEntries) {
+			metadataIds.add(entry.getId());
 		}
 
 		Set<String> allIds = new HashSet<String>();
 		allIds.addAll(metadataIds);
-		allIds.addAll(documents.keySet());
+		allIds.addAll(documentIds);
 
 		Set<String> missingDocs = new HashSet<String>(allIds);
-		missingDocs.removeAll(documents.keySet());
+		missingDocs.removeAll(documentIds);
 		Set<String> missingMetadata = new HashSet<String>(allIds);
 		missingMetadata.removeAll(metadataIds);
 
@@ -221,45 +730,57 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		}
 	}
 
+	private static List<DocumentEntry> toDocumentEntries(List<ExtrinsicObjectType> extrinsicObjects) {
+		List<DocumentEntry> entries = new ArrayList<DocumentEntry>(extrinsicObjects.size());
+		for (ExtrinsicObjectType eot : extrinsicObjects) {
+			entries.add(DocumentEntry.fromExtrinsicObject(eot));
+		}
+		return entries;
+	}
+
 	/**
 	 * Store a document and return its UUID
 	 */
-	protected String processDocumentMetaData(ExtrinsicObjectType eot, ProvideAndRegisterDocumentSetRequestType request) throws XDSException {
+	protected String processDocumentMetaData(DocumentEntry entry, byte[] document) throws XDSException {
 
-		validateMetadata(eot);
+		validateMetadata(entry);
 
-		String docUniqueId = getDocumentUniqueId(eot);
-		Content content = buildContentObjectFromDocument(docUniqueId, eot, request);
+		String docUniqueId = getDocumentUniqueId(entry);
+		Content content = buildContentObjectFromDocument(docUniqueId, entry, document);
 
-		validateContent(eot, content);
+		validateContent(entry, content);
 
-		addHashSlot(eot, content);
-		addSizeSlot(eot, content);
+		addHashSlot(entry, content);
+		addSizeSlot(entry, content);
 
 		return docUniqueId;
 	}
 
+	protected void validateMetadata(ExtrinsicObjectType eot) throws XDSException {
+		validateMetadata(DocumentEntry.fromExtrinsicObject(eot));
+	}
+
 	/**
 	 * Check that all the XDS.b metadata fields are present that are required in order to process the request
 	 *
 	 * @throws XDSException
 	 */
-	protected void validateMetadata(ExtrinsicObjectType eot) throws XDSException {
-		if (InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_uniqueId, eot) == null) {
+	protected void validateMetadata(DocumentEntry entry) throws XDSException {
+		if (entry.getUniqueId() == null) {
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "Document unique id not specified", null);
 		}
 
-		if (getClassificationFromExtrinsicObject(XDSConstants.UUID_XDSDocumentEntry_classCode, eot) == null) {
+		if (entry.getClassification(XDSConstants.UUID_XDSDocumentEntry_classCode) == null) {
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "DocumentEntry classCode not specified", null);
 		}
 
-		String id = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_patientId, eot);
+		String id = entry.getPatientId();
 		if (id == null) {
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "DocumentEntry patientId not specified", null);
 		}
 		parsePatientIdentifier(id);
 
-		id = InfosetUtil.getSlotValue(eot.getSlot(), XDSConstants.SLOT_NAME_SOURCE_PATIENT_ID, null);
+		id = entry.getSlotValue(XDSConstants.SLOT_NAME_SOURCE_PATIENT_ID);
 		if (id == null) {
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "Source patientId not specified", null);
 		}
@@ -267,7 +788,11 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	}
 
 	protected void validateContent(ExtrinsicObjectType eot, Content content) throws XDSException {
-		String hash = InfosetUtil.getSlotValue(eot.getSlot(), XDSConstants.SLOT_NAME_HASH, null);
+		validateContent(DocumentEntry.fromExtrinsicObject(eot), content);
+	}
+
+	protected void validateContent(DocumentEntry entry, Content content) throws XDSException {
+		String hash = entry.getSlotValue(XDSConstants.SLOT_NAME_HASH);
 		if (hash != null) {
 			// verify hash
 			try {
@@ -283,7 +808,7 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 			}
 		}
 
-		String sizeStr = InfosetUtil.getSlotValue(eot.getSlot(), XDSConstants.SLOT_NAME_SIZE, null);
+		String sizeStr = entry.getSlotValue(XDSConstants.SLOT_NAME_SIZE);
 		if (sizeStr != null) {
 			// verify size
 			try {
@@ -297,37 +822,21 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		}
 	}
 
-	protected String getDocumentUniqueId(ExtrinsicObjectType eot) throws XDSException {
-		String docUniqueId = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_uniqueId, eot);
+	protected String getDocumentUniqueId(DocumentEntry entry) throws XDSException {
+		String docUniqueId = entry.getUniqueId();
 
-		// Do not store duplicates
-		try {
-			if (Context.getService(XDSbService.class).getDocumentHandlerClass(docUniqueId) != null) {
-				throw new XDSException(XDSException.XDS_ERR_DOCUMENT_UNIQUE_ID_ERROR, String.format("Document id %s is duplicate", docUniqueId), null);
-			}
-		} catch (ClassNotFoundException e) {
-			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, e.getMessage(), e);
+		// Do not store duplicates, only ids that the index cannot rule out are looked up
+		if (DocumentIdIndex.mightBeRegistered(docUniqueId)
+				&& Context.getService(XDSbService.class).isDocumentRegistered(docUniqueId)) {
+			throw new XDSException(XDSException.XDS_ERR_DOCUMENT_UNIQUE_ID_ERROR, String.format("Document id %s is duplicate", docUniqueId), null);
 		}
 
 		return docUniqueId;
 	}
 
-	protected Content buildContentObjectFromDocument(String docUniqueId, ExtrinsicObjectType eot, ProvideAndRegisterDocumentSetRequestType request) throws XDSException {
-		CodedValue typeCode = null;
-		CodedValue formatCode = null;
-		String contentType = eot.getMimeType();
-		List<ClassificationType> classificationList = eot.getClassification();
-
-		for (ClassificationType ct : classificationList) {
-			if (ct.getClassificationScheme().equals(XDSConstants.UUID_XDSDocumentEntry_typeCode)) {
-				String codingScheme = InfosetUtil.getSlotValue(ct.getSlot(), SLOT_NAME_CODING_SCHEME, null);
-				typeCode = new CodedValue(ct.getNodeRepresentation(), codingScheme);
-			}
-			if (ct.getClassificationScheme().equals(XDSConstants.UUID_XDSDocumentEntry_formatCode)) {
-				String codingScheme = InfosetUtil.getSlotValue(ct.getSlot(), SLOT_NAME_CODING_SCHEME, null);
-				formatCode = new CodedValue(ct.getNodeRepresentation(), codingScheme);
-			}
-		}
+	protected Content buildContentObjectFromDocument(String docUniqueId, DocumentEntry entry, byte[] document) throws XDSException {
+		CodedValue typeCode = getCodedValue(entry, XDSConstants.UUID_XDSDocumentEntry_typeCode);
+		CodedValue formatCode = getCodedValue(entry, XDSConstants.UUID_XDSDocumentEntry_formatCode);
 
 		if (typeCode==null) {
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "DocumentEntry typeCode not specified", null);
@@ -337,103 +846,362 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "DocumentEntry formatCode not specified", null);
 		}
 
-		String docId = eot.getId();
-		Map<String, ProvideAndRegisterDocumentSetRequestType.Document> docs = InfosetUtil.getDocuments(request);
-		ProvideAndRegisterDocumentSetRequestType.Document document = docs.get(docId);
+		return new Content(docUniqueId, document, typeCode, formatCode, entry.getMimeType());
+	}
 
-		return new Content(docUniqueId, document.getValue(), typeCode, formatCode, contentType);
+	/**
+	 * @return the code of the last classification with this scheme, or null if there is none
+	 */
+	private CodedValue getCodedValue(DocumentEntry entry, String classificationScheme) {
+		CodedValue code = null;
+		for (DocumentEntry.Classification ct : entry.getClassifications(classificationScheme)) {
+			code = new CodedValue(ct.getNodeRepresentation(), ct.getSlotValue(SLOT_NAME_CODING_SCHEME));
+		}
+		return code;
 	}
 
-	protected void addHashSlot(ExtrinsicObjectType eot, Content content) {
-		String hashValue = InfosetUtil.getSlotValue(eot.getSlot(), SLOT_NAME_HASH, null);
+	protected void addHashSlot(DocumentEntry entry, Content content) {
+		String hashValue = entry.getSlotValue(SLOT_NAME_HASH);
 		if (hashValue == null) {
-			SlotType1 hashSlot = new SlotType1();
-			hashSlot.setName(SLOT_NAME_HASH);
-			hashSlot.setValueList(new ValueListType());
 			try {
 				MessageDigest digest = MessageDigest.getInstance("SHA-1");
 				digest.update(content.getPayload());
 
-				hashSlot.getValueList().getValue().add(bytesToHex(digest.digest()));
-				eot.getSlot().add(hashSlot);
+				entry.addSlot(SLOT_NAME_HASH, bytesToHex(digest.digest()));
 			} catch (NoSuchAlgorithmException e) {
 				throw new RuntimeException(e);
 			}
 		}
 	}
 
-	protected void addSizeSlot(ExtrinsicObjectType eot, Content content) {
-		String sizeValue = InfosetUtil.getSlotValue(eot.getSlot(), SLOT_NAME_SIZE, null);
+	protected void addSizeSlot(DocumentEntry entry, Content content) {
+		String sizeValue = entry.getSlotValue(SLOT_NAME_SIZE);
 		if (sizeValue == null) {
-			SlotType1 sizeSlot = new SlotType1();
-			sizeSlot.setName(SLOT_NAME_SIZE);
-			sizeSlot.setValueList(new ValueListType());
-			sizeSlot.getValueList().getValue().add(String.format("%d", content.getPayload().length));
-			eot.getSlot().add(sizeSlot);
+			entry.addSlot(SLOT_NAME_SIZE, String.format("%d", content.getPayload().length));
 		}
 	}
 
+	protected String storeDocument(ExtrinsicObjectType eot, ProvideAndRegisterDocumentSetRequestType request) throws XDSException, UnsupportedGenderException, ContentHandlerException,ParseException, DocumentImportException {
+		return storeDocument(DocumentEntry.fromExtrinsicObject(eot), InfosetUtil.getDocuments(request).get(eot.getId()).getValue());
+	}
 
 	/**
-	 * Store a document and return its UUID
+	 * Store a document and return its UUID, all stages of ingest but the registration are run for the one document
 	 */
-	protected String storeDocument(ExtrinsicObjectType eot, ProvideAndRegisterDocumentSetRequestType request) throws JAXBException, XDSException, UnsupportedGenderException, ContentHandlerException,ParseException, DocumentImportException {
-
-		String docId = eot.getId();
-		Map<String, ProvideAndRegisterDocumentSetRequestType.Document> docs = InfosetUtil.getDocuments(request);
-		ProvideAndRegisterDocumentSetRequestType.Document document = docs.get(docId);
-
-		String docUniqueId = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_uniqueId, eot);
-
-		CodedValue typeCode = null;
-		CodedValue formatCode = null;
-		String contentType = eot.getMimeType();
-		List<ClassificationType> classificationList = eot.getClassification();
-		for (ClassificationType ct : classificationList) {
-			if (ct.getClassificationScheme().equals(XDSConstants.UUID_XDSDocumentEntry_typeCode)) {
-				String codingScheme = InfosetUtil.getSlotValue(ct.getSlot(), SLOT_NAME_CODING_SCHEME, null);
-				typeCode = new CodedValue(ct.getNodeRepresentation(), codingScheme);
-			}
-			if (ct.getClassificationScheme().equals(XDSConstants.UUID_XDSDocumentEntry_formatCode)) {
-				String codingScheme = InfosetUtil.getSlotValue(ct.getSlot(), SLOT_NAME_CODING_SCHEME, null);
-				formatCode = new CodedValue(ct.getNodeRepresentation(), codingScheme);
-			}
-		}
+	protected String storeDocument(DocumentEntry entry, byte[] document) throws XDSException, UnsupportedGenderException, ContentHandlerException,ParseException, DocumentImportException {
+		StagedDocument staged = new StagedDocument(entry, document);
+		staged.setPatient(findOrCreatePatient(entry));
+		staged.setProvidersByRole(findOrCreateProvidersByRole(entry));
+		staged.setEncounterType(findOrCreateEncounterType(entry));
+
+		storeDocument(staged);
+		queueDiscreteData(staged);
+		importDocument(staged);
+
+		return staged.getDocUniqueId();
+	}
+
+	/**
+	 * Save a document with the default unstructured handler, or in the content-addressed store, and any
+	 * discrete handler for its type. The reference data of the document must have been resolved.
+	 */
+	protected void storeDocument(StagedDocument staged) throws XDSException, ContentHandlerException, ParseException {
+		DocumentEntry entry = staged.getEntry();
+		String docUniqueId = staged.getDocUniqueId();
 
-		Content content = new Content(docUniqueId, document.getValue(), typeCode, formatCode, contentType);
+		CodedValue typeCode = getCodedValue(entry, XDSConstants.UUID_XDSDocumentEntry_typeCode);
+		CodedValue formatCode = getCodedValue(entry, XDSConstants.UUID_XDSDocumentEntry_formatCode);
+
+		Content content = new Content(docUniqueId, staged.getDocument(), typeCode, formatCode, entry.getMimeType());
 		ContentHandlerService chs = Context.getService(ContentHandlerService.class);
-		CdaImportService service = Context.getService(CdaImportService.class);
 		ContentHandler defaultHandler = chs.getDefaultUnstructuredHandler();
 		ContentHandler discreteHandler = chs.getContentHandler(typeCode, formatCode);
 
-		Patient patient = findOrCreatePatient(eot);
-		Map<EncounterRole, Set<Provider>> providersByRole = findOrCreateProvidersByRole(eot);
-		EncounterType encounterType = findOrCreateEncounterType(eot);
-		Encounter encounter = createEncounter(eot);
+		Patient patient = staged.getPatient();
+		Map<EncounterRole, Set<Provider>> providersByRole = staged.getProvidersByRole();
+		EncounterType encounterType = staged.getEncounterType();
+		Encounter encounter = createEncounter(entry);
+		staged.setEncounter(encounter);
 
-		// always send to the default unstructured data handler
-		defaultHandler.saveContent(patient, providersByRole, encounterType, content, encounter);
+		// always send to the default unstructured data handler, unless the content-addressed store replaces it
+		long start = IngestMetrics.start();
+		try {
+			if (XDSbRepositoryConfiguration.get().isContentAddressedStorage()) {
+				saveEncounter(encounter, patient, providersByRole, encounterType);
+				storeContent(staged, content);
+			} else {
+				defaultHandler.saveContent(patient, providersByRole, encounterType, content, encounter);
+			}
+		} catch (XDSException ex) {
+			IngestMetrics.failure(IngestStage.STORE_CONTENT, start, ex);
+			throw ex;
+		} catch (ContentHandlerException ex) {
+			IngestMetrics.failure(IngestStage.STORE_CONTENT, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+			IngestMetrics.failure(IngestStage.STORE_CONTENT, start, ex);
+			throw ex;
+		}
+		IngestMetrics.success(IngestStage.STORE_CONTENT, start);
+		staged.setContent(content);
 		// If another handler exists send to that as well, do this async if config is set
 		if (discreteHandler != null) {
-			if (Context.getAdministrationService().getGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC, "false").equalsIgnoreCase("true")) {
+			if (XDSbRepositoryConfiguration.get().isDiscreteHandlerAsync()) {
 				QueueItem qi = new QueueItem();
 				qi.setDocUniqueId(docUniqueId);
 				qi.setPatient(patient);
 				qi.setEncounterType(encounterType);
 				String rolesProvidersStr = stringifyRoleProvidersMap(providersByRole);
 				qi.setRoleProviderMap(rolesProvidersStr);
+				// queued once the document is registered, so that it is never processed for a failed submission
+				staged.setDiscreteDataItem(qi);
+			} else {
+				start = IngestMetrics.start();
+				try {
+					discreteHandler.saveContent(patient, providersByRole, encounterType, content, encounter);
+				} catch (ContentHandlerException ex) {
+					IngestMetrics.failure(IngestStage.DISCRETE_HANDLER, start, ex);
+					throw ex;
+				} catch (RuntimeException ex) {
+					IngestMetrics.failure(IngestStage.DISCRETE_HANDLER, start, ex);
+					throw ex;
+				}
+				IngestMetrics.success(IngestStage.DISCRETE_HANDLER, start);
+			}
+		}
 
-				XDSbService xdsService = Context.getService(XDSbService.class);
-				xdsService.queueDiscreteDataProcessing(qi);
+	}
+
+	/**
+	 * Save the encounter of a document that is stored in the content-addressed store, with what the default
+	 * unstructured handler would have saved it with
+	 */
+	private void saveEncounter(Encounter encounter, Patient patient, Map<EncounterRole, Set<Provider>> providersByRole,
+							   EncounterType encounterType) {
+		encounter.setPatient(patient);
+		encounter.setEncounterType(encounterType);
+		for (Map.Entry<EncounterRole, Set<Provider>> role : providersByRole.entrySet()) {
+			for (Provider provider : role.getValue()) {
+				encounter.addProvider(role.getKey(), provider);
+			}
+		}
+		Context.getEncounterService().saveEncounter(encounter);
+	}
+
+	/**
+	 * Save the content of a document in the content-addressed store. Content that is already stored gets
+	 * another reference, only new content is written, encoded with the codec the compression policy gives its
+	 * mime type. The caller holds the lock of the content's hash.
+	 */
+	private void storeContent(StagedDocument staged, Content content) throws XDSException {
+		String hash = getContentHash(staged);
+		byte[] payload = content.getPayload();
+		BlobStore blobStore = ContentStorage.getBlobStore();
+		try {
+			if (dao.addContentReference(hash)) {
+				// the blob of a purge that failed before it committed may be gone
+				if (blobStore.contains(hash)) {
+					StorageMetrics.contentDeduplicated(payload.length);
+				} else {
+					log.warn("The stored content " + hash + " was missing, writing it again");
+					byte[] encoded = ContentCodecs.forName(dao.getContent(hash).getCodec()).encode(payload);
+					blobStore.put(hash, encoded);
+					StorageMetrics.contentWritten(payload.length, encoded.length);
+				}
 			} else {
-				discreteHandler.saveContent(patient, providersByRole, encounterType, content, encounter);
+				// the blob is written before the row that references it is committed, and deleted again if the
+				// transaction rolls back
+				ContentCodec codec = XDSbRepositoryConfiguration.get().getCompressionPolicy().getCodec(content.getContentType());
+				byte[] encoded = codec.encode(payload);
+				if (encoded.length >= payload.length) {
+					codec = ContentCodecs.NONE;
+					encoded = payload;
+				}
+				blobStore.put(hash, encoded);
+				deleteContentOnRollback(hash);
+				StoredContent stored = new StoredContent();
+				stored.setHash(hash);
+				stored.setSize(payload.length);
+				stored.setCodec(codec.getName());
+				stored.setStoredSize((long) encoded.length);
+				stored.setRefCount(1);
+				stored.setDateCreated(new Date());
+				dao.saveContent(stored);
+				StorageMetrics.contentWritten(payload.length, encoded.length);
 			}
+		} catch (IOException ex) {
+			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, "Unable to store the content of document "
+					+ staged.getDocUniqueId() + ": " + ex.getMessage(), ex);
 		}
 
-		InputStream myInputStream = new ByteArrayInputStream(document.getValue());
-		service.importDocument(myInputStream);
+		StoredDocument document = new StoredDocument();
+		document.setDocId(staged.getDocUniqueId());
+		document.setContentHash(hash);
+		document.setMimeType(content.getContentType());
+		if (content.getTypeCode() != null) {
+			document.setTypeCode(content.getTypeCode().getCode());
+			document.setTypeCodeScheme(content.getTypeCode().getCodingScheme());
+		}
+		if (content.getFormatCode() != null) {
+			document.setFormatCode(content.getFormatCode().getCode());
+			document.setFormatCodeScheme(content.getFormatCode().getCodingScheme());
+		}
+		document.setDateCreated(new Date());
+		dao.saveStoredDocument(document);
+		staged.setContentHash(hash);
+	}
 
-		return docUniqueId;
+	/**
+	 * Delete a blob that has just been written if the transaction that records it rolls back. The caller holds
+	 * the lock of the content's hash until the transaction has ended, so no other submission on this server
+	 * can have stored the same content meanwhile. One on another server that has committed it keeps the blob.
+	 */
+	private void deleteContentOnRollback(final String hash) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCompletion(int status) {
+				if (status != STATUS_ROLLED_BACK) {
+					return;
+				}
+				try {
+					Context.getService(XDSbService.class).deleteUnrecordedContent(hash);
+				} catch (RuntimeException e) {
+					log.error("Unable to delete the content " + hash + " of a rolled back submission", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the upper case hex SHA-1 of the document, from its hash slot which has been validated or added
+	 * by {@link #processDocumentMetaData(DocumentEntry, byte[])}
+	 */
+	private String getContentHash(StagedDocument staged) {
+		String hash = staged.getEntry().getSlotValue(SLOT_NAME_HASH);
+		if (hash == null) {
+			try {
+				hash = bytesToHex(MessageDigest.getInstance("SHA-1").digest(staged.getDocument()));
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return hash.trim().toUpperCase();
+	}
+
+	@Transactional(readOnly = true)
+	@Override
+	public Content getStoredContent(String documentUniqueId) {
+		StoredDocument document = dao.getStoredDocument(documentUniqueId);
+		if (document == null) {
+			return null;
+		}
+		StoredContent stored = dao.getContent(document.getContentHash());
+		byte[] payload = null;
+		try {
+			InputStream encoded = stored == null ? null : ContentStorage.getBlobStore().open(stored.getHash());
+			if (encoded != null) {
+				// decoded as it is read, straight into an array of the original size
+				payload = ContentCodecs.decode(ContentCodecs.forName(stored.getCodec()), encoded, stored.getSize());
+			}
+		} catch (IOException e) {
+			throw new APIException("Unable to read the content of document " + documentUniqueId, e);
+		}
+		if (payload == null) {
+			log.error("The content " + document.getContentHash() + " of document " + documentUniqueId + " is missing");
+			return null;
+		}
+		CodedValue typeCode = document.getTypeCode() == null ? null : new CodedValue(document.getTypeCode(), document.getTypeCodeScheme());
+		CodedValue formatCode = document.getFormatCode() == null ? null : new CodedValue(document.getFormatCode(), document.getFormatCodeScheme());
+		return new Content(documentUniqueId, payload, typeCode, formatCode, document.getMimeType());
+	}
+
+	/**
+	 * The row is deleted first, which locks it until the transaction ends, so a submission adding a reference
+	 * to the content meanwhile either got in first, and nothing is deleted, or finds no row and writes the
+	 * blob again after this has deleted it.
+	 */
+	@Transactional
+	@Override
+	public boolean deleteUnreferencedContent(String hash) {
+		if (!dao.deleteUnreferencedContent(hash)) {
+			return false;
+		}
+		try {
+			ContentStorage.getBlobStore().delete(hash);
+		} catch (IOException e) {
+			throw new APIException("Unable to delete the content " + hash, e);
+		}
+		StorageMetrics.contentPurged();
+		return true;
+	}
+
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	@Override
+	public boolean deleteUnrecordedContent(String hash) {
+		if (dao.getContent(hash) != null) {
+			return false;
+		}
+		try {
+			ContentStorage.getBlobStore().delete(hash);
+		} catch (IOException e) {
+			throw new APIException("Unable to delete the content " + hash, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Queue the discrete data processing of a stored document, if its discrete handler is left to the
+	 * workers. Like {@link #importDocument(StagedDocument)} this is called once the document has been
+	 * registered, and a failure does not fail the submission.
+	 */
+	protected void queueDiscreteData(StagedDocument staged) {
+		if (staged.getDiscreteDataItem() == null) {
+			return;
+		}
+		try {
+			Context.getService(XDSbService.class).queueDiscreteDataProcessing(staged.getDiscreteDataItem());
+		} catch (RuntimeException e) {
+			log.error("Unable to queue the discrete data processing of document " + staged.getDocUniqueId(), e);
+		}
+	}
+
+	/**
+	 * Import a stored document with the CDA handler, or queue it for the import workers if config is set. The
+	 * document has already been stored (and registered) when this is called, so that a worker never imports a
+	 * document whose registration fails, and an import that fails is queued to be retried rather than failing
+	 * the submission.
+	 */
+	protected void importDocument(StagedDocument staged) {
+		// CDA import is the slowest part of storing a document, so leave it to the import workers if config is set
+		if (XDSbRepositoryConfiguration.get().isCdaImportAsync()) {
+			try {
+				Context.getService(XDSbService.class).queueCdaImport(staged.getDocUniqueId());
+			} catch (RuntimeException e) {
+				log.error("Unable to queue the CDA import of document " + staged.getDocUniqueId(), e);
+			}
+			return;
+		}
+		long start = IngestMetrics.start();
+		try {
+			InputStream myInputStream = new ByteArrayInputStream(staged.getDocument());
+			Context.getService(CdaImportService.class).importDocument(myInputStream);
+			IngestMetrics.success(IngestStage.CDA_IMPORT, start);
+		} catch (Exception e) {
+			IngestMetrics.failure(IngestStage.CDA_IMPORT, start, e);
+			log.error("CDA import of document " + staged.getDocUniqueId() + " failed, queueing it to be retried", e);
+			try {
+				XDSbService xdsService = Context.getService(XDSbService.class);
+				CdaImportQueueItem item = xdsService.queueCdaImport(staged.getDocUniqueId());
+				item.setAttempts(1);
+				xdsService.completeCdaImport(item, e.getClass().getSimpleName() + ": " + e.getMessage());
+			} catch (RuntimeException ex) {
+				log.error("Unable to queue the CDA import of document " + staged.getDocUniqueId() + " to be retried", ex);
+			}
+		}
 	}
 
 	/**
@@ -464,62 +1232,94 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		return sb.toString();
 	}
 
+	protected EncounterType findOrCreateEncounterType(ExtrinsicObjectType eo) {
+		return findOrCreateEncounterType(DocumentEntry.fromExtrinsicObject(eo));
+	}
+
 	/**
 	 * Finds an existing encounter type or create a new one if one cannot be found
 	 *
-	 * @param eo the ExtrinsicObject that represents the document in question
+	 * @param entry the document entry that represents the document in question
 	 * @return an encounter type
-	 * @throws JAXBException
 	 */
-	protected EncounterType findOrCreateEncounterType(ExtrinsicObjectType eo) {
+	protected EncounterType findOrCreateEncounterType(DocumentEntry entry) {
 		// TODO: is it ok to only use classcode? should we use format code or type code as well?
-		ClassificationType classCodeCT = this.getClassificationFromExtrinsicObject(XDSConstants.UUID_XDSDocumentEntry_classCode, eo);
+		DocumentEntry.Classification classCodeCT = entry.getClassification(XDSConstants.UUID_XDSDocumentEntry_classCode);
 		String classCode = classCodeCT.getNodeRepresentation();
 
-		String encounter[] = eo.getId().split("/");
+		String encounter[] = entry.getId().split("/");
 
 		String encounterTypeUuid = encounter[2];
 
+		EncounterType encounterType = EncounterTypeCache.getByUuid(encounterTypeUuid);
+		if (encounterType != null) {
+			return encounterType;
+		}
+
 		EncounterService es = Context.getEncounterService();
-		EncounterType encounterType = es.getEncounterTypeByUuid(encounterTypeUuid);
+		if (!EncounterTypeCache.isUnknownUuid(encounterTypeUuid)) {
+			encounterType = es.getEncounterTypeByUuid(encounterTypeUuid);
+			if (encounterType != null) {
+				EncounterTypeCache.putUuid(encounterTypeUuid, encounterType);
+				return encounterType;
+			}
+			EncounterTypeCache.putUnknownUuid(encounterTypeUuid);
+		}
 
+		encounterType = EncounterTypeCache.getByClassCode(classCode);
 		if (encounterType == null) {
-			es.getEncounterType(classCode);
+			encounterType = es.getEncounterType(classCode);
 		}
 
 		if (encounterType == null) {
 			// create new encounter Type
+			claimCreation("encounterType:" + classCode);
 			encounterType = new EncounterType();
 			encounterType.setName(classCode);
 			encounterType.setDescription("Created by XDS.b module.");
 			encounterType = es.saveEncounterType(encounterType);
 		}
 
+		EncounterTypeCache.putClassCode(classCode, encounterType);
 		return encounterType;
 	}
 
-	protected Encounter createEncounter(ExtrinsicObjectType eo) throws ParseException, JAXBException {
-		Encounter encounter = new Encounter();
+	/**
+	 * Parse an HL7 date or date time in the system time zone. Anything after the pattern, e.g. seconds or a
+	 * time zone offset, is ignored.
+	 */
+	private static Date parseDate(String text, DateTimeFormatter format, boolean withTime) throws ParseException {
+		if (text == null) {
+			throw new ParseException("Unparseable date: null", 0);
+		}
+		ParsePosition position = new ParsePosition(0);
+		try {
+			TemporalAccessor parsed = format.parse(text, position);
+			LocalDateTime dateTime = withTime ? LocalDateTime.from(parsed) : LocalDate.from(parsed).atStartOfDay();
+			return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+		} catch (DateTimeParseException e) {
+			throw new ParseException("Unparseable date: \"" + text + "\"", e.getErrorIndex());
+		} catch (DateTimeException e) {
+			throw new ParseException("Unparseable date: \"" + text + "\"", position.getIndex());
+		}
+	}
 
-		Map<String, SlotType1> slots = InfosetUtil.getSlotsFromRegistryObject(eo);
-		SlotType1 timeSlot = slots.get(XDSConstants.SLOT_NAME_SERVICE_START_TIME);
-		timeSlot.getValueList().getValue().get(0);
+	protected Encounter createEncounter(DocumentEntry entry) throws ParseException {
+		Encounter encounter = new Encounter();
 
+		List<String> timeSlot = entry.getSlotValues(XDSConstants.SLOT_NAME_SERVICE_START_TIME);
 
-		String id[] = eo.getId().split("/");
+		String id[] = entry.getId().split("/");
 
-		LocationService locationService = Context.getLocationService();
-		Location encounterLocation = locationService.getLocationByUuid(id[0]);
+		Location encounterLocation = ReferenceDataCache.getLocationByUuid(id[0]);
 
-		SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyyMMddHHmm");
-		Date date = simpleDateFormat.parse(timeSlot.getValueList().getValue().get(0));
+		Date date = parseDate(timeSlot.get(0), SERVICE_START_TIME_FORMAT, true);
 		Date currentDate = new Date();
 
 		if(date.after(currentDate))
 			date  = currentDate;
 
-		FormService formService = Context.getFormService();
-		Form encounterForm = formService.getFormByUuid(id[3]);
+		Form encounterForm = ReferenceDataCache.getFormByUuid(id[3]);
 
 		encounter.setLocation(encounterLocation);
 		encounter.setEncounterDatetime(date);
@@ -528,35 +1328,39 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		return encounter;
 	}
 
+	protected Map<EncounterRole, Set<Provider>> findOrCreateProvidersByRole(ExtrinsicObjectType eo) throws XDSException {
+		return findOrCreateProvidersByRole(DocumentEntry.fromExtrinsicObject(eo));
+	}
+
 	/**
 	 * Extracts provider and role information from the document metadata and creates a
 	 * map of encounter roles to providers as needed by OpenMRS
 	 *
-	 * @param eo the ExtrinsicObject that represents the document in question
+	 * @param entry the document entry that represents the document in question
 	 * @return a map of encounter roles to a set of providers that participates in the encounter using that role
-	 * @throws JAXBException
+	 * @throws XDSException if an author has neither an id number nor a given and family name
 	 */
-	protected Map<EncounterRole, Set<Provider>> findOrCreateProvidersByRole(ExtrinsicObjectType eo) throws JAXBException {
+	protected Map<EncounterRole, Set<Provider>> findOrCreateProvidersByRole(DocumentEntry entry) throws XDSException {
 		EncounterService es = Context.getEncounterService();
 		EncounterRole unkownRole = es.getEncounterRoleByUuid(EncounterRole.UNKNOWN_ENCOUNTER_ROLE_UUID);
 
 		Map<EncounterRole, Set<Provider>> providersByRole = new HashMap<EncounterRole, Set<Provider>>();
 
-		List<Map<String, SlotType1>> authorClassSlots = this.getClassificationSlotsFromExtrinsicObject(XDSConstants.UUID_XDSDocumentEntry_author, eo);
-		for (Map<String, SlotType1> slotMap : authorClassSlots) {
+		List<DocumentEntry.Classification> authorClassifications = entry.getClassifications(XDSConstants.UUID_XDSDocumentEntry_author);
+		for (DocumentEntry.Classification author : authorClassifications) {
 			// find/create a provider for this classification instance
-			Provider provider = findOrCreateProvider(slotMap);
+			Provider provider = findOrCreateProvider(author);
 
-			if (slotMap.containsKey(SLOT_NAME_AUTHOR_ROLE)) {
+			if (author.hasSlot(SLOT_NAME_AUTHOR_ROLE)) {
 				// role(s) have been provided
-				SlotType1 slot = slotMap.get(SLOT_NAME_AUTHOR_ROLE);
-				List<String> valueList = slot.getValueList().getValue();
+				List<String> valueList = author.getSlotValues(SLOT_NAME_AUTHOR_ROLE);
 				for (String authorRole : valueList) {
 					// iterate though roles for this author and find/create a provider for those roles
 					// TODO: use the 'getEncounterRoleByName()' in the EncounterService when it is available (OMRS 1.11.0)
 					EncounterRole role = this.getEncounterRoleByName(authorRole);
 					if (role == null) {
 						// Create new encounter role
+						claimCreation("encounterRole:" + authorRole);
 						role = new EncounterRole();
 						role.setName(authorRole);
 						role.setDescription("Created by XDS.b module.");
@@ -605,37 +1409,43 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	/**
 	 * Find a provider or creates a new one if one cannot be found
 	 *
-	 * @param authorSlotMap a map of slot names to SLot objects from the author classification
-	 * @return
+	 * @param author the author classification
+	 * @return the provider, or null if the author is not a person
+	 * @throws XDSException if the author has neither an id number nor a given and family name
 	 */
-	private Provider findOrCreateProvider(Map<String, SlotType1> authorSlotMap) {
+	private Provider findOrCreateProvider(DocumentEntry.Classification author) throws XDSException {
 		ProviderService ps = Context.getProviderService();
 
-		if (authorSlotMap.containsKey(XDSConstants.SLOT_NAME_AUTHOR_PERSON)) {
-			SlotType1 slot = authorSlotMap.get(XDSConstants.SLOT_NAME_AUTHOR_PERSON);
-			String authorXCN = slot.getValueList().getValue().get(0);
-			String[] xcnComponents = authorXCN.split("\\^", -1);
+		if (author.hasSlot(XDSConstants.SLOT_NAME_AUTHOR_PERSON)) {
+			XCN authorXCN = XCN.parse(author.getSlotValues(XDSConstants.SLOT_NAME_AUTHOR_PERSON).get(0));
 
 			// attempt to find the provider
-			if (!xcnComponents[0].isEmpty()) {
+			if (authorXCN.hasIdNumber()) {
 				// there is an identifier
-				Provider pro = ps.getProviderByIdentifier(xcnComponents[0]);
+				Provider pro = ps.getProviderByIdentifier(authorXCN.getIdNumber());
 				if (pro != null) {
 					return pro;
 				}
-			} else {
+			} else if (authorXCN.hasName()) {
 				// we only have a name - this shouldn't happen under OpenHIE as we should always
 				// have a provider id (EPID) - Warning this could get slow...
+				String givenName = authorXCN.getGivenName();
+				String familyName = authorXCN.getFamilyName();
 				List<Provider> allProviders = ps.getAllProviders();
 				for (Provider pro : allProviders) {
-					if (pro.getName().startsWith(xcnComponents[2]) && pro.getName().contains(xcnComponents[1])) {
+					if (pro.getName().startsWith(givenName) && pro.getName().contains(familyName)) {
 						return pro;
 					}
 				}
+			} else {
+				// an empty name would match any provider
+				throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "Author person '" + authorXCN
+						+ "' has neither an id number nor a given and family name", null);
 			}
 
 			// no provider found - let's create one
-			return ps.saveProvider(createProvider(xcnComponents));
+			claimCreation(providerKey(authorXCN));
+			return ps.saveProvider(createProvider(authorXCN));
 		}
 
 		return null;
@@ -644,10 +1454,10 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	/**
 	 * Create a provider
 	 *
-	 * @param xcnComponents
+	 * @param authorXCN the author's XCN
 	 * @return a new provider object
 	 */
-	private Provider createProvider(String[] xcnComponents) {
+	private Provider createProvider(XCN authorXCN) {
 		Provider pro;
 		Person person;
 		PersonName name;
@@ -659,18 +1469,18 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 
 		names = new TreeSet<PersonName>();
 
-		pro.setIdentifier(xcnComponents[0]);
+		pro.setIdentifier(authorXCN.getIdNumber());
 
-		if (xcnComponents.length >= 3 && !xcnComponents[2].isEmpty() && !xcnComponents[1].isEmpty()) {
+		if (authorXCN.hasName()) {
 			// if there are name components
-			name = new PersonName(xcnComponents[2], "", xcnComponents[1]);
+			name = new PersonName(authorXCN.getGivenName(), "", authorXCN.getFamilyName());
 			names.add(name);
 			person.setNames(names);
 			person = Context.getPersonService().savePerson(person);
 			pro.setPerson(person);
 		} else {
 			// set the name to the id as that's add we have?
-			name = new PersonName(xcnComponents[0], "", xcnComponents[0]);
+			name = new PersonName(authorXCN.getIdNumber(), "", authorXCN.getIdNumber());
 			names.add(name);
 			person.setNames(names);
 			person = Context.getPersonService().savePerson(person);
@@ -680,56 +1490,20 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		return pro;
 	}
 
-	/**
-	 * @param classificationScheme - The classification scheme to look for
-	 * @param eo                   - The extrinsic object to process
-	 * @return A list of maps, each item in the list represents a classification definition for
-	 * this scheme. There may be multiple of these. Each list item contains a map of SlotType1
-	 * objects keyed by their slot name.
-	 * @throws JAXBException
-	 */
-	private List<Map<String, SlotType1>> getClassificationSlotsFromExtrinsicObject(String classificationScheme, ExtrinsicObjectType eo) throws JAXBException {
-		List<ClassificationType> classifications = eo.getClassification();
-
-		List<Map<String, SlotType1>> classificationMaps = new ArrayList<Map<String, SlotType1>>();
-		for (ClassificationType c : classifications) {
-			if (c.getClassificationScheme().equals(classificationScheme)) {
-				Map<String, SlotType1> slotsFromRegistryObject = InfosetUtil.getSlotsFromRegistryObject(c);
-				classificationMaps.add(slotsFromRegistryObject);
-			}
-		}
-		return classificationMaps;
-	}
-
-	/**
-	 * @param classificationScheme - The classification scheme to look for
-	 * @param eo                   - The extrinsic object to process
-	 * @return The first classification of this type found
-	 * @throws JAXBException
-	 */
-	private ClassificationType getClassificationFromExtrinsicObject(String classificationScheme, ExtrinsicObjectType eo) {
-		List<ClassificationType> allClassifications = eo.getClassification();
-
-		for (ClassificationType c : allClassifications) {
-			if (c.getClassificationScheme().equals(classificationScheme)) {
-				return c;
-			}
-		}
-		return null;
+	protected Patient findOrCreatePatient(ExtrinsicObjectType eo) throws PatientIdentifierException, UnsupportedGenderException, XDSException {
+		return findOrCreatePatient(DocumentEntry.fromExtrinsicObject(eo));
 	}
 
 	/**
 	 * Attempt to find a patient, if one doesn't exist it creates a new patient
 	 *
-	 * @param eo the ExtrinsicObject that represents the document in question
+	 * @param entry the document entry that represents the document in question
 	 * @return a patient
-	 * @throws PatientIdentifierException if there are multiple patient found with the id specified in eo
+	 * @throws PatientIdentifierException if there are multiple patient found with the id specified in the entry
 	 * @throws UnsupportedGenderException if the gender code is not supported by OpenMRS
-	 * @throws ParseException
-	 * @throws JAXBException
 	 */
-	protected Patient findOrCreatePatient(ExtrinsicObjectType eo) throws PatientIdentifierException, JAXBException, UnsupportedGenderException, XDSException {
-		String patCX = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_patientId, eo);
+	protected Patient findOrCreatePatient(DocumentEntry entry) throws PatientIdentifierException, UnsupportedGenderException, XDSException {
+		String patCX = entry.getPatientId();
 		Identifier id = parsePatientIdentifier(patCX);
 
 		PatientService ps = Context.getPatientService();
@@ -746,8 +1520,9 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		if (patients.size() > 1) {
 			throw new PatientIdentifierException("Multiple patients found for this identifier: " + id.getIdentifier() + ", with id type: " + id.getAssigningAuthority().getAssigningAuthorityId());
 		} else if (patients.size() < 1) {
-			if (Context.getAdministrationService().getGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS).equals("true")) {
-				retVal = ps.savePatient(this.createPatient(eo, id.getIdentifier(), idType));
+			if (XDSbRepositoryConfiguration.get().isAutoCreatePatients()) {
+				claimCreation(patientKey(id));
+				retVal = ps.savePatient(this.createPatient(entry, id.getIdentifier(), idType));
 			} else {
 				throw new XDSException(XDSException.XDS_ERR_UNKNOWN_PATID, String.format("Patient ID %s is not known to the repository", id.getIdentifier()), null);
 			}
@@ -759,16 +1534,16 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
             retVal = ps.getPatient(retVal.getPatientId());
 		}
 
-		this.addLocalIdentifierToPatient(eo, retVal);
+		this.addLocalIdentifierToPatient(entry, retVal);
 		return retVal;
 	}
 
 	/**
 	 * Add local identifier to the patient.
 	 */
-	private void addLocalIdentifierToPatient(ExtrinsicObjectType eo, Patient pat) throws XDSException {
+	private void addLocalIdentifierToPatient(DocumentEntry entry, Patient pat) throws XDSException {
 
-		String patCX = InfosetUtil.getSlotValue(eo.getSlot(), XDSConstants.SLOT_NAME_SOURCE_PATIENT_ID, null);
+		String patCX = entry.getSlotValue(XDSConstants.SLOT_NAME_SOURCE_PATIENT_ID);
 		Identifier id = parsePatientIdentifier(patCX);
 
 		PatientService ps = Context.getPatientService();
@@ -784,11 +1559,14 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 			hasId = pid.getIdentifierType().equals(pit) && pid.getIdentifier().equals(id.getIdentifier());
 			if (hasId) break;
 		}
-		if (!hasId)
-			pat.addIdentifier(new PatientIdentifier(id.getIdentifier(), pit, Context.getLocationService().getDefaultLocation()));
+		if (!hasId) {
+			claimCreation("patientIdentifier:" + pat.getUuid() + ":" + patientKey(id));
+			pat.addIdentifier(new PatientIdentifier(id.getIdentifier(), pit, ReferenceDataCache.getDefaultLocation()));
+		}
 	}
 
 	private PatientIdentifierType createIdentifierType(Identifier id, PatientService ps) {
+		claimCreation(identifierTypeKey(id));
 		PatientIdentifierType idType = new PatientIdentifierType();
 		idType.setName(id.getAssigningAuthority().getAssigningAuthorityId());
 		idType.setDescription("ID type for assigning authority: '" + id.getAssigningAuthority().getAssigningAuthorityId() + "'. Created by the xds-b-repository module.");
@@ -798,9 +1576,8 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 
 
 	private Identifier parsePatientIdentifier(String id) throws XDSException {
-		id = id.replaceAll("&amp;", "&");
 		try {
-			Identifier result = new Identifier(id);
+			Identifier result = Identifier.valueOf(id);
 
 			if (result.getIdentifier() == null) {
 				throw new CXParseException("Empty identifier");
@@ -840,60 +1617,54 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	/**
 	 * Create a new patient object from document metadata
 	 *
-	 * @param eo     the ExtrinsicObject that represents the document in question
+	 * @param entry  the document entry that represents the document in question
 	 * @param patId  the patients unique ID
 	 * @param idType the patient id type
 	 * @return a newly created patient object
-	 * @throws JAXBException
-	 * @throws ParseException
 	 * @throws UnsupportedGenderException
 	 */
-	private Patient createPatient(ExtrinsicObjectType eo, String patId, PatientIdentifierType idType)
-			throws JAXBException, UnsupportedGenderException, XDSException {
-		Map<String, SlotType1> slots = InfosetUtil.getSlotsFromRegistryObject(eo);
-		SlotType1 patInfoSlot = slots.get(XDSConstants.SLOT_NAME_SOURCE_PATIENT_INFO);
-		List<String> valueList = patInfoSlot.getValueList().getValue();
-		Location patientLocation = Context.getLocationService().getDefaultLocation();
-
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+	private Patient createPatient(DocumentEntry entry, String patId, PatientIdentifierType idType)
+			throws UnsupportedGenderException, XDSException {
+		List<String> valueList = entry.getSlotValues(XDSConstants.SLOT_NAME_SOURCE_PATIENT_INFO);
+		Location patientLocation = ReferenceDataCache.getDefaultLocation();
+
 		Patient pat = new Patient();
 
 		for (String val : valueList) {
 			if (val.startsWith("PID-3|")) {
 				// patient ID - ignore source patient id in favour of enterprise patient id
-				val = val.replace("PID-3|", "");
+				val = val.substring("PID-3|".length());
 				Identifier identifier = parsePatientIdentifier(val);
 				PatientIdentifierType identifierType = getIdentifierType(identifier, Context.getPatientService());
-				PatientIdentifier patientIdentifier = new PatientIdentifier(identifier.getIdentifier(), identifierType, Context.getLocationService().getDefaultLocation());
+				PatientIdentifier patientIdentifier = new PatientIdentifier(identifier.getIdentifier(), identifierType, ReferenceDataCache.getDefaultLocation());
 				pat.addIdentifier(patientIdentifier);
 			} else if (val.startsWith("PID-5|")) {
 				// patient name
-				val = val.replace("PID-5|", "");
-				String[] nameComponents = val.split("\\^", -1);
-				PersonName pn = createPatientName(nameComponents);
+				val = val.substring("PID-5|".length());
+				PersonName pn = createPatientName(XPN.parse(val));
 				pat.addName(pn);
 			} else if (val.startsWith("PID-7|")) {
 				// patient date of birth
 				try {
-					val = val.replace("PID-7|", "");
-					Date dob = sdf.parse(val);
+					val = val.substring("PID-7|".length());
+					Date dob = parseDate(val, BIRTH_DATE_FORMAT, false);
 					pat.setBirthdate(dob);
 				} catch (ParseException ex) {
 					throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, "Unparseable date of birth value found: " + val, null);
 				}
 			} else if (val.startsWith("PID-8|")) {
 				// patient gender
-				val = val.replace("PID-8|", "");
+				val = val.substring("PID-8|".length());
 				if (val.equalsIgnoreCase("O") || val.equalsIgnoreCase("U") || val.equalsIgnoreCase("A") || val.equalsIgnoreCase("N")) {
 					throw new UnsupportedGenderException("OpenMRS does not support genders other than male or female.");
 				}
 				pat.setGender(val);
 			} else if (val.startsWith("PID-11|")) {
 				// patient address
-				val = val.replace("PID-11|", "");
-				String[] addrComponents = val.split("\\^", -1);
-				patientLocation = Context.getLocationService().getLocation(addrComponents[0]);
-				PersonAddress pa = createPatientAddress(addrComponents);
+				val = val.substring("PID-11|".length());
+				XAD address = XAD.parse(val);
+				patientLocation = ReferenceDataCache.getLocationByName(address.getStreetAddress());
+				PersonAddress pa = createPatientAddress(address);
 				pat.addAddress(pa);
 			} else {
 				log.warn("Found an unknown value in the sourcePatientInfo slot: " + val);
@@ -916,60 +1687,47 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	/**
 	 * Create a patient name
 	 *
-	 * @param nameComponents
+	 * @param name the patient's XPN
 	 * @return
 	 */
-	private PersonName createPatientName(String[] nameComponents) {
-		if (nameComponents == null || nameComponents.length == 0) {
-			return new PersonName("*", "*", "*");
-		} else {
-			PersonName pn = new PersonName();
+	private PersonName createPatientName(XPN name) {
+		PersonName pn = new PersonName();
 
-			if (nameComponents[0] == null || "".equals(nameComponents[0])) {
-				pn.setFamilyName("*");
-			} else {
-				pn.setFamilyName(nameComponents[0]);
-			}
+		if (name.hasFamilyName()) {
+			pn.setFamilyName(name.getFamilyName());
+		} else {
+			pn.setFamilyName("*");
+		}
 
-			if (nameComponents.length == 1 || "".equals(nameComponents[1])) {
-				pn.setGivenName("*");
-			} else {
-				pn.setGivenName(nameComponents[1]);
-			}
+		if (name.hasGivenName()) {
+			pn.setGivenName(name.getGivenName());
+		} else {
+			pn.setGivenName("*");
+		}
 
-			try {
-				pn.setMiddleName(nameComponents[2]);
-				pn.setFamilyNameSuffix(nameComponents[3]);
-				pn.setPrefix(nameComponents[4]);
-				pn.setDegree(nameComponents[5]);
-			} catch (ArrayIndexOutOfBoundsException e) {
-				// ignore, these aren't important if they don't exist
-			}
+		// these aren't important if they don't exist
+		pn.setMiddleName(name.getSecondName());
+		pn.setFamilyNameSuffix(name.getSuffix());
+		pn.setPrefix(name.getPrefix());
+		pn.setDegree(name.getDegree());
 
-			return pn;
-		}
+		return pn;
 	}
 
 	/**
 	 * Create a patient address
 	 *
-	 * @param addrComponents
+	 * @param address the patient's XAD
 	 * @return
 	 */
-	private PersonAddress createPatientAddress(String[] addrComponents) {
+	private PersonAddress createPatientAddress(XAD address) {
 		PersonAddress pa = new PersonAddress();
-		try {
-
-			pa.setAddress1(addrComponents[0]);
-			pa.setAddress2(addrComponents[1]);
-			pa.setCityVillage(addrComponents[2]);
-			pa.setStateProvince(addrComponents[3]);
-			pa.setPostalCode(addrComponents[4]);
-			pa.setCountry(addrComponents[5]);
-		} catch (ArrayIndexOutOfBoundsException e) {
-			// ignore, these aren't important if they don't exist
-		}
-
+		pa.setAddress1(address.getStreetAddress());
+		pa.setAddress2(address.getOtherDesignation());
+		pa.setCityVillage(address.getCity());
+		pa.setStateProvince(address.getStateOrProvince());
+		pa.setPostalCode(address.getPostalCode());
+		pa.setCountry(address.getCountry());
 		return pa;
 	}
 
@@ -978,7 +1736,9 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	public QueueItem queueDiscreteDataProcessing(QueueItem qi) {
 		qi.setStatus(QueueItem.Status.QUEUED);
 		qi.setDateAdded(new Date());
-		return dao.queueDiscreteDataProcessing(qi);
+		dao.queueDiscreteDataProcessing(qi);
+		QueueMetrics.getDiscreteData().enqueued();
+		return qi;
 	}
 
 	@Override
@@ -988,7 +1748,9 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		if (qi != null) {
 			qi.setStatus(QueueItem.Status.PROCESSING);
 			qi.setDateUpdated(new Date());
-			return dao.updateQueueItem(qi);
+			dao.updateQueueItem(qi);
+			QueueMetrics.getDiscreteData().dequeued();
+			return qi;
 		} else {
 			return null;
 		}
@@ -1003,7 +1765,105 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 			qi.setStatus(QueueItem.Status.FAILED);
 		}
 		qi.setDateUpdated(new Date());
-		return dao.updateQueueItem(qi);
+		dao.updateQueueItem(qi);
+		QueueMetrics.getDiscreteData().completed(qi.getStatus());
+		return qi;
+	}
+
+	@Override
+	@Transactional
+	public CdaImportQueueItem queueCdaImport(String documentUniqueId) {
+		CdaImportQueueItem item = new CdaImportQueueItem();
+		item.setDocUniqueId(documentUniqueId);
+		item.setStatus(QueueItem.Status.QUEUED);
+		item.setAttempts(0);
+		item.setDateAdded(new Date());
+		dao.saveCdaImportQueueItem(item);
+		QueueMetrics.getCdaImport().enqueued();
+		return item;
+	}
+
+	@Override
+	@Transactional
+	public CdaImportQueueItem dequeueNextCdaImport() {
+		Date now = new Date();
+		CdaImportQueueItem item = dao.dequeueNextCdaImport(now);
+		if (item != null) {
+			item.setStatus(QueueItem.Status.PROCESSING);
+			item.setAttempts(item.getAttempts() + 1);
+			item.setDateUpdated(now);
+			dao.saveCdaImportQueueItem(item);
+			QueueMetrics.getCdaImport().dequeued();
+			return item;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	@Transactional
+	public CdaImportQueueItem completeCdaImport(CdaImportQueueItem item, String error) {
+		Date now = new Date();
+		if (error == null) {
+			item.setStatus(QueueItem.Status.SUCCESSFUL);
+			item.setLastError(null);
+			item.setNextAttempt(null);
+		} else {
+			XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+			item.setLastError(StringUtils.abbreviate(error, CdaImportQueueItem.MAX_ERROR_LENGTH));
+			if (item.getAttempts() < config.getCdaImportMaxAttempts()) {
+				// back off exponentially, the shift is capped so the delay can not overflow
+				long delay = (long) config.getCdaImportRetryDelay() << Math.max(0, Math.min(item.getAttempts() - 1, 16));
+				item.setStatus(QueueItem.Status.QUEUED);
+				item.setNextAttempt(new Date(now.getTime() + delay));
+			} else {
+				item.setStatus(QueueItem.Status.FAILED);
+				item.setNextAttempt(null);
+			}
+		}
+		item.setDateUpdated(now);
+		dao.saveCdaImportQueueItem(item);
+		QueueMetrics.getCdaImport().completed(item.getStatus());
+		return item;
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public CdaImportQueueItem getCdaImportStatus(String documentUniqueId) {
+		return dao.getCdaImportQueueItem(documentUniqueId);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS)
+	public List<StageTimer> getIngestStageTimers() {
+		return IngestMetrics.getTimers();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS)
+	public List<QueueStatistics> getQueueStatistics() {
+		return QueueMetrics.getAll();
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public void reconcileQueueStatistics() {
+		long now = System.currentTimeMillis();
+		QueueMetrics.getDiscreteData().reconcile(dao.countQueueItemsByStatus(QueueItem.class),
+				dao.getOldestQueuedDate(QueueItem.class), now);
+		QueueMetrics.getCdaImport().reconcile(dao.countQueueItemsByStatus(CdaImportQueueItem.class),
+				dao.getOldestQueuedDate(CdaImportQueueItem.class), now);
+	}
+
+	/**
+	 * Claims are not deleted when the transaction that made them commits: a transaction that looked for the
+	 * reference data before that commit could then claim and create it again. Once expired they are no longer
+	 * needed for that.
+	 */
+	@Override
+	@Transactional
+	public int purgeExpiredCreationClaims() {
+		return dao.purgeExpiredClaims(new Date(System.currentTimeMillis() - CLAIM_EXPIRY));
 	}
 
 	/**
@@ -1012,30 +1872,22 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 	*/
 	protected RegistryResponseType sendMetadataToRegistry(URL registryUrl, SubmitObjectsRequest submitObjectRequest) throws XDSException {
 		
-		DocumentRegistryPortType port = DocumentRegistryPortTypeFactory.getDocumentRegistryPortSoap12(registryUrl.toString());
+		DocumentRegistryPortType port = RegistryPortPool.borrow(registryUrl.toString());
 		log.info("XDS.b: Send register document-b request to registry:" + registryUrl);
 		// Auditing code
 		EventTypeCode eventTypeCode = EventTypeCode.ITI_42_RegisterDocumentSetB;
 		boolean wasSuccess = true;
 
 		
+		String repositoryUniqueId = XDSbRepositoryConfiguration.get().getRepositoryUniqueId();
+
 		// JF: Fix meta-data issue
 		for(ExtrinsicObjectType eot : InfosetUtil.getExtrinsicObjects(submitObjectRequest))
 		{
 			if(!eot.getObjectType().equals(XDSConstants.UUID_XDSDocumentEntry))
-				eventTypeCode = new EventTypeCode("ITI-61", "IHE Transactions", "Register On-Demand Document Entry");
+				eventTypeCode = EVENT_TYPE_REGISTER_ON_DEMAND;
 
-			try {
-				InfosetUtil.addOrOverwriteSlot(eot, SLOT_NAME_REPOSITORY_UNIQUE_ID, Context.getAdministrationService().getGlobalProperty(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP));
-			} catch (JAXBException e) {
-				e.printStackTrace();
-			}
-
-			//SlotType1 repositorySlot = new SlotType1();
-			//repositorySlot.setName(SLOT_NAME_REPOSITORY_UNIQUE_ID);
-			//repositorySlot.setValueList(new ValueListType());
-			//repositorySlot.getValueList().getValue().add(Context.getAdministrationService().getGlobalProperty(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP));
-			//eot.getSlot().add(repositorySlot);
+			InfosetSlots.addOrOverwriteSlot(eot, SLOT_NAME_REPOSITORY_UNIQUE_ID, repositoryUniqueId);
 		}
 				
 		RegistryResponseType rsp;
@@ -1045,11 +1897,11 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		RegistryPackageType submissionSet = InfosetUtil.getRegistryPackage(submitObjectRequest, XDSConstants.UUID_XDSSubmissionSet);
 		String submissionSetUID = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSSubmissionSet_uniqueId, submissionSet),
 				patID = InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSSubmissionSet_patientId, submissionSet);
-		AuditRequestInfo info = new AuditRequestInfo(null, null);
 
 		try {
 			
 			rsp = port.documentRegistryRegisterDocumentSetB(submitObjectRequest);
+			RegistryPortPool.release(registryUrl.toString(), port);
 			
 		} catch (Exception e) {
 			wasSuccess = false;
@@ -1057,12 +1909,59 @@ public class XDSbServiceImpl extends BaseOpenmrsService implements XDSbService {
 		}
 		finally
 		{
-			XDSAudit.setAuditLogger(Context.getService(AtnaAuditService.class).getLogger());
-			XDSAudit.logExport(eventTypeCode, submissionSetUID, patID, XDSConstants.WS_ADDRESSING_ANONYMOUS, AuditLogger.processID(), info.getLocalHost(), registryUrl.toExternalForm(), null, registryUrl.getHost(), null, null, wasSuccess);
+			auditRegistryExport(eventTypeCode, submissionSetUID, patID, registryUrl, wasSuccess);
 		}
 		return rsp;
 	}
 
+	/**
+	 * Register documents on the registry, forwarding the raw metadata of the submission with the
+	 * repositoryUniqueId, hash and size slots streamed into it when pass-through is enabled
+	 */
+	protected RegistryResponseType sendMetadataToRegistry(URL registryUrl, SubmissionMetadata metadata) throws XDSException {
+		if (metadata.getRawMetadata() == null || !XDSbRepositoryConfiguration.get().isRegistryPassThrough()) {
+			try {
+				return sendMetadataToRegistry(registryUrl, metadata.getSubmitObjectsRequest());
+			} catch (JAXBException ex) {
+				throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, ex.getMessage(), ex);
+			}
+		}
+
+		log.info("XDS.b: Forward register document-b request to registry:" + registryUrl);
+		EventTypeCode eventTypeCode = EventTypeCode.ITI_42_RegisterDocumentSetB;
+		boolean wasSuccess = true;
+
+		String repositoryUniqueId = XDSbRepositoryConfiguration.get().getRepositoryUniqueId();
+
+		Map<String, Map<String, String>> slotsById = new HashMap<String, Map<String, String>>();
+		for (DocumentEntry entry : metadata.getDocumentEntries()) {
+			if (!XDSConstants.UUID_XDSDocumentEntry.equals(entry.getObjectType()))
+				eventTypeCode = EVENT_TYPE_REGISTER_ON_DEMAND;
+
+			Map<String, String> slots = new LinkedHashMap<String, String>(entry.getAddedSlots());
+			slots.put(SLOT_NAME_REPOSITORY_UNIQUE_ID, repositoryUniqueId);
+			slotsById.put(entry.getId(), slots);
+		}
+
+		try {
+			return PassThroughRegistryClient.register(registryUrl, metadata, slotsById);
+		} catch (IOException e) {
+			wasSuccess = false;
+			throw new XDSException(XDSException.XDS_ERR_REG_NOT_AVAIL, "Document Registry not available: " + registryUrl, e);
+		} catch (XDSException e) {
+			wasSuccess = false;
+			throw e;
+		} finally {
+			auditRegistryExport(eventTypeCode, metadata.getSubmissionSetUniqueId(), metadata.getSubmissionSetPatientId(), registryUrl, wasSuccess);
+		}
+	}
+
+	private void auditRegistryExport(EventTypeCode eventTypeCode, String submissionSetUID, String patID, URL registryUrl, boolean wasSuccess) {
+		AuditRequestInfo info = new AuditRequestInfo(null, null);
+		XDSAudit.setAuditLogger(Context.getService(AtnaAuditService.class).getLogger());
+		XDSAudit.logExport(eventTypeCode, submissionSetUID, patID, XDSConstants.WS_ADDRESSING_ANONYMOUS, AuditLogger.processID(), info.getLocalHost(), registryUrl.toExternalForm(), null, registryUrl.getHost(), null, null, wasSuccess);
+	}
+
 	public XDSbDAO getDao() {
 		return dao;
 	}
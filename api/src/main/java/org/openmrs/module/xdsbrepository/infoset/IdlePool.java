@@ -0,0 +1,64 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.infoset;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Idle instances of something that is costly to create and used by one thread at a time, such as a JAXB
+ * marshaller. Unlike a thread local, nothing is left behind on the threads that used them, so the pool and
+ * what it holds can be dropped when the module is stopped. At most a fixed number of instances are kept.
+ */
+public final class IdlePool<T> {
+
+	private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	private final int maxIdle;
+
+	public IdlePool(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return an idle instance, or null if there is none and the caller has to create one
+	 */
+	public T poll() {
+		T instance = idle.poll();
+		if (instance != null) {
+			idleCount.decrementAndGet();
+		}
+		return instance;
+	}
+
+	/**
+	 * Keep an instance that is no longer used for the next caller, unless enough are kept already
+	 */
+	public void offer(T instance) {
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(instance);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Discard all idle instances
+	 */
+	public void clear() {
+		while (poll() != null) {
+			// drain
+		}
+	}
+
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.infoset;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+/**
+ * The single JAXB context for the dcm4chee XDS infoset (<code>ihe</code> and <code>rim</code> packages),
+ * shared by the SOAP endpoint, the registry client and the service.
+ * <p/>
+ * Creating a JAXB context means reflecting over every infoset class, so it is done once, from the module
+ * activator, followed by a warm-up pass over representative messages so that the first request does not
+ * pay for it either. Marshallers and unmarshallers are not thread-safe, so they are borrowed for a single
+ * use and given back afterwards, in a <code>finally</code> block, for the next caller. They are pooled rather
+ * than kept per thread so that {@link #clear()} can drop them, with the module's classes, when the module is
+ * stopped; the servlet container's threads outlive the module.
+ */
+public final class InfosetJaxbContext {
+
+	public static final String CONTEXT_PATH = "org.dcm4chee.xds2.infoset.ihe:org.dcm4chee.xds2.infoset.rim";
+
+	private static final Log log = LogFactory.getLog(InfosetJaxbContext.class);
+
+	private static volatile JAXBContext context;
+
+	// about as many as there are threads serving requests at the same time
+	private static final int MAX_IDLE = 32;
+
+	private static final IdlePool<Marshaller> marshallers = new IdlePool<Marshaller>(MAX_IDLE);
+
+	private static final IdlePool<Unmarshaller> unmarshallers = new IdlePool<Unmarshaller>(MAX_IDLE);
+
+	// one of each message the repository handles, used to exercise the JAXB accessors before the first request
+	private static final String[] WARM_UP_MESSAGES = {
+			"<xdsb:ProvideAndRegisterDocumentSetRequest xmlns:xdsb='urn:ihe:iti:xds-b:2007'"
+					+ " xmlns:lcm='urn:oasis:names:tc:ebxml-regrep:xsd:lcm:3.0' xmlns:rim='urn:oasis:names:tc:ebxml-regrep:xsd:rim:3.0'>"
+					+ "<lcm:SubmitObjectsRequest><rim:RegistryObjectList>"
+					+ "<rim:ExtrinsicObject id='Document01' mimeType='text/plain' objectType='urn:uuid:7edca82f-054d-47f2-a032-9b2a5b5186c1'>"
+					+ "<rim:Slot name='creationTime'><rim:ValueList><rim:Value>20150101</rim:Value></rim:ValueList></rim:Slot>"
+					+ "<rim:Name><rim:LocalizedString value='warm-up'/></rim:Name>"
+					+ "<rim:Classification id='cl01' classificationScheme='urn:uuid:41a5887f-8865-4c09-adf7-e362475b143a'"
+					+ " classifiedObject='Document01' nodeRepresentation='code'>"
+					+ "<rim:Slot name='codingScheme'><rim:ValueList><rim:Value>scheme</rim:Value></rim:ValueList></rim:Slot>"
+					+ "</rim:Classification>"
+					+ "<rim:ExternalIdentifier id='ei01' registryObject='Document01'"
+					+ " identificationScheme='urn:uuid:2e82c1f6-a085-4c72-9da3-8640a32e42ab' value='1.2.3'/>"
+					+ "</rim:ExtrinsicObject>"
+					+ "<rim:RegistryPackage id='SubmissionSet01'/>"
+					+ "<rim:Association id='as01' associationType='urn:oasis:names:tc:ebxml-regrep:AssociationType:HasMember'"
+					+ " sourceObject='SubmissionSet01' targetObject='Document01'/>"
+					+ "</rim:RegistryObjectList></lcm:SubmitObjectsRequest>"
+					+ "<xdsb:Document id='Document01'>d2FybS11cA==</xdsb:Document>"
+					+ "</xdsb:ProvideAndRegisterDocumentSetRequest>",
+			"<xdsb:RetrieveDocumentSetRequest xmlns:xdsb='urn:ihe:iti:xds-b:2007'><xdsb:DocumentRequest>"
+					+ "<xdsb:RepositoryUniqueId>1.2.3</xdsb:RepositoryUniqueId><xdsb:DocumentUniqueId>1.2.3.4</xdsb:DocumentUniqueId>"
+					+ "</xdsb:DocumentRequest></xdsb:RetrieveDocumentSetRequest>",
+			"<rs:RegistryResponse xmlns:rs='urn:oasis:names:tc:ebxml-regrep:xsd:rs:3.0'"
+					+ " status='urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Success'/>"
+	};
+
+	private InfosetJaxbContext() {
+	}
+
+	/**
+	 * @return the shared context, created on first use if {@link #warmUp()} has not been called
+	 */
+	public static JAXBContext getContext() throws JAXBException {
+		JAXBContext result = context;
+		if (result == null) {
+			synchronized (InfosetJaxbContext.class) {
+				if (context == null) {
+					long start = System.currentTimeMillis();
+					context = JAXBContext.newInstance(CONTEXT_PATH, InfosetJaxbContext.class.getClassLoader());
+					log.info("Created XDS infoset JAXB context in " + (System.currentTimeMillis() - start) + "ms");
+				}
+				result = context;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return an idle marshaller, or a new one if there is none. Give it back with {@link #release(Marshaller)}.
+	 */
+	public static Marshaller borrowMarshaller() throws JAXBException {
+		Marshaller marshaller = marshallers.poll();
+		return marshaller != null ? marshaller : getContext().createMarshaller();
+	}
+
+	/**
+	 * Give back a marshaller once it has been used, without any attachment marshaller set for that use
+	 */
+	public static void release(Marshaller marshaller) {
+		marshaller.setAttachmentMarshaller(null);
+		marshallers.offer(marshaller);
+	}
+
+	/**
+	 * @return an idle unmarshaller, or a new one if there is none. Give it back with
+	 * {@link #release(Unmarshaller)}.
+	 */
+	public static Unmarshaller borrowUnmarshaller() throws JAXBException {
+		Unmarshaller unmarshaller = unmarshallers.poll();
+		return unmarshaller != null ? unmarshaller : getContext().createUnmarshaller();
+	}
+
+	/**
+	 * Give back an unmarshaller once it has been used, without any attachment unmarshaller set for that use
+	 */
+	public static void release(Unmarshaller unmarshaller) {
+		unmarshaller.setAttachmentUnmarshaller(null);
+		unmarshallers.offer(unmarshaller);
+	}
+
+	/**
+	 * Drop the context and the idle marshallers and unmarshallers, e.g. when the module is stopped
+	 */
+	public static void clear() {
+		synchronized (InfosetJaxbContext.class) {
+			context = null;
+		}
+		marshallers.clear();
+		unmarshallers.clear();
+	}
+
+	/**
+	 * Create the context and round trip each of the warm-up messages through it
+	 */
+	public static void warmUp() throws JAXBException {
+		long start = System.currentTimeMillis();
+		Unmarshaller unmarshaller = borrowUnmarshaller();
+		Marshaller marshaller = borrowMarshaller();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (String message : WARM_UP_MESSAGES) {
+				Object element = unmarshaller.unmarshal(new StreamSource(new StringReader(message)));
+				out.reset();
+				marshaller.marshal(element, out);
+			}
+		} finally {
+			release(unmarshaller);
+			release(marshaller);
+		}
+		log.info("Warmed up XDS infoset JAXB context in " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.infoset;
+
+import org.dcm4chee.xds2.infoset.rim.RegistryObjectType;
+import org.dcm4chee.xds2.infoset.rim.SlotType1;
+import org.dcm4chee.xds2.infoset.rim.ValueListType;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Slot helpers equivalent to the ones in dcm4chee's <code>InfosetUtil</code>, which declare
+ * <code>JAXBException</code>, implemented as plain list operations on the infoset objects.
+ */
+public final class InfosetSlots {
+
+	private InfosetSlots() {
+	}
+
+	/**
+	 * @return the slots of a registry object keyed by name, when a name repeats the first slot wins
+	 */
+	public static Map<String, SlotType1> getSlotsByName(RegistryObjectType ro) {
+		List<SlotType1> slots = ro.getSlot();
+		if (slots == null || slots.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, SlotType1> slotsByName = new HashMap<String, SlotType1>(slots.size() * 2);
+		for (SlotType1 slot : slots) {
+			if (!slotsByName.containsKey(slot.getName())) {
+				slotsByName.put(slot.getName(), slot);
+			}
+		}
+		return slotsByName;
+	}
+
+	/**
+	 * Set the values of the named slot, replacing any values it already had or adding the slot if the
+	 * registry object does not have it
+	 */
+	public static void addOrOverwriteSlot(RegistryObjectType ro, String name, String... values) {
+		SlotType1 slot = null;
+		for (SlotType1 candidate : ro.getSlot()) {
+			if (name.equals(candidate.getName())) {
+				slot = candidate;
+				break;
+			}
+		}
+		if (slot == null) {
+			slot = new SlotType1();
+			slot.setName(name);
+			ro.getSlot().add(slot);
+		}
+
+		ValueListType valueList = new ValueListType();
+		for (String value : values) {
+			valueList.getValue().add(value);
+		}
+		slot.setValueList(valueList);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.infoset;
+
+import org.dcm4chee.xds2.infoset.util.DocumentRegistryPortTypeFactory;
+import org.dcm4chee.xds2.infoset.ws.registry.DocumentRegistryPortType;
+import org.openmrs.module.xdsbrepository.metrics.CacheStatistics;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reuses registry client ports instead of building a new JAX-WS proxy, with its bindings and handler
+ * chain, for every registration. A port is used by one thread at a time: borrow it, invoke it and give it
+ * back with {@link #release(String, DocumentRegistryPortType)}.
+ */
+public final class RegistryPortPool {
+
+	private static final int MAX_IDLE_PORTS_PER_URL = 16;
+
+	private static final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+	private static final CacheStatistics statistics = new CacheStatistics("registryPort");
+
+	private RegistryPortPool() {
+	}
+
+	public static DocumentRegistryPortType borrow(String registryUrl) {
+		Pool pool = pool(registryUrl);
+		DocumentRegistryPortType port = pool.idle.poll();
+		if (port != null) {
+			pool.idleCount.decrementAndGet();
+			statistics.hit();
+			return port;
+		}
+		statistics.miss();
+		return DocumentRegistryPortTypeFactory.getDocumentRegistryPortSoap12(registryUrl);
+	}
+
+	/**
+	 * Return a port after a successful call. Ports whose call failed should simply be dropped.
+	 */
+	public static void release(String registryUrl, DocumentRegistryPortType port) {
+		Pool pool = pool(registryUrl);
+		if (pool.idleCount.incrementAndGet() <= MAX_IDLE_PORTS_PER_URL) {
+			pool.idle.offer(port);
+		} else {
+			pool.idleCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Discard all idle ports, e.g. when the module is stopped
+	 */
+	public static void clear() {
+		pools.clear();
+	}
+
+	/**
+	 * @return how often a borrowed port was an idle one rather than a new proxy
+	 */
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return the number of idle ports over all registry URLs
+	 */
+	public static int getIdleCount() {
+		int count = 0;
+		for (Pool pool : pools.values()) {
+			count += pool.idleCount.get();
+		}
+		return count;
+	}
+
+	private static Pool pool(String registryUrl) {
+		Pool pool = pools.get(registryUrl);
+		if (pool == null) {
+			Pool created = new Pool();
+			pool = pools.putIfAbsent(registryUrl, created);
+			if (pool == null) {
+				pool = created;
+			}
+		}
+		return pool;
+	}
+
+	private static class Pool {
+
+		final Queue<DocumentRegistryPortType> idle = new ConcurrentLinkedQueue<DocumentRegistryPortType>();
+
+		final AtomicInteger idleCount = new AtomicInteger();
+	}
+}
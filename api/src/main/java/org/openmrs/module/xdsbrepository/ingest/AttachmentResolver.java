@@ -0,0 +1,21 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import java.io.IOException;
+
+/**
+ * Resolves the MTOM/XOP attachments that document content is carried in
+ */
+public interface AttachmentResolver {
+
+	/**
+	 * @param href the href of an <code>xop:Include</code> element, e.g. <code>cid:1.urn:uuid:...@apache.org</code>
+	 * @return the attachment content or null if there is no such attachment
+	 */
+	byte[] resolve(String href) throws IOException;
+}
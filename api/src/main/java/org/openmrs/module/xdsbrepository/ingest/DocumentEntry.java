@@ -0,0 +1,218 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.infoset.rim.ClassificationType;
+import org.dcm4chee.xds2.infoset.rim.ExternalIdentifierType;
+import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
+import org.dcm4chee.xds2.infoset.rim.SlotType1;
+import org.openmrs.module.xdsbrepository.infoset.InfosetSlots;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of an XDS DocumentEntry (an ExtrinsicObject) that the repository uses: its id, mime and object
+ * type, slots, external identifiers and classifications.
+ * <p/>
+ * An entry is either read straight from the request XML by {@link SubmissionMetadataParser} or copied from
+ * an unmarshalled {@link ExtrinsicObjectType}. Slots the repository adds, such as the hash and size, are
+ * remembered so they can be applied to the metadata that is sent to the registry.
+ */
+public class DocumentEntry {
+
+	private final String id;
+	private final String objectType;
+	private final String mimeType;
+	private final Map<String, List<String>> slots;
+	private final Map<String, String> externalIdentifiers;
+	private final List<Classification> classifications;
+
+	private final Map<String, String> addedSlots = new LinkedHashMap<String, String>();
+
+	// the unmarshalled object this entry describes, if there is one, added slots are written through to it
+	private ExtrinsicObjectType extrinsicObject;
+
+	DocumentEntry(String id, String objectType, String mimeType, Map<String, List<String>> slots,
+	              Map<String, String> externalIdentifiers, List<Classification> classifications) {
+		this.id = id;
+		this.objectType = objectType;
+		this.mimeType = mimeType;
+		this.slots = slots;
+		this.externalIdentifiers = externalIdentifiers;
+		this.classifications = classifications;
+	}
+
+	/**
+	 * Describe an unmarshalled ExtrinsicObject, slots added to the entry are added to eot as well
+	 */
+	public static DocumentEntry fromExtrinsicObject(ExtrinsicObjectType eot) {
+		Map<String, String> externalIdentifiers = new LinkedHashMap<String, String>();
+		for (ExternalIdentifierType ei : eot.getExternalIdentifier()) {
+			if (!externalIdentifiers.containsKey(ei.getIdentificationScheme())) {
+				externalIdentifiers.put(ei.getIdentificationScheme(), ei.getValue());
+			}
+		}
+
+		List<Classification> classifications = new ArrayList<Classification>(eot.getClassification().size());
+		for (ClassificationType ct : eot.getClassification()) {
+			classifications.add(new Classification(ct.getClassificationScheme(), ct.getNodeRepresentation(), slotValues(ct.getSlot())));
+		}
+
+		DocumentEntry entry = new DocumentEntry(eot.getId(), eot.getObjectType(), eot.getMimeType(), slotValues(eot.getSlot()),
+				externalIdentifiers, classifications);
+		entry.extrinsicObject = eot;
+		return entry;
+	}
+
+	private static Map<String, List<String>> slotValues(List<SlotType1> slots) {
+		Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+		for (SlotType1 slot : slots) {
+			if (!values.containsKey(slot.getName())) {
+				values.put(slot.getName(), slot.getValueList() != null ? slot.getValueList().getValue() : Collections.<String>emptyList());
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @return the id of the ExtrinsicObject, which is also the id of its Document in the request
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public String getObjectType() {
+		return objectType;
+	}
+
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * @return the first value of the named slot or null if there is no such slot
+	 */
+	public String getSlotValue(String name) {
+		List<String> values = slots.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * @return the values of the named slot or null if there is no such slot
+	 */
+	public List<String> getSlotValues(String name) {
+		return slots.get(name);
+	}
+
+	public String getExternalIdentifierValue(String identificationScheme) {
+		return externalIdentifiers.get(identificationScheme);
+	}
+
+	public String getUniqueId() {
+		return getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_uniqueId);
+	}
+
+	public String getPatientId() {
+		return getExternalIdentifierValue(XDSConstants.UUID_XDSDocumentEntry_patientId);
+	}
+
+	/**
+	 * @return the first classification with this scheme or null
+	 */
+	public Classification getClassification(String classificationScheme) {
+		for (Classification c : classifications) {
+			if (classificationScheme.equals(c.getClassificationScheme())) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return every classification with this scheme, e.g. one per author
+	 */
+	public List<Classification> getClassifications(String classificationScheme) {
+		List<Classification> result = new ArrayList<Classification>();
+		for (Classification c : classifications) {
+			if (classificationScheme.equals(c.getClassificationScheme())) {
+				result.add(c);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add a single valued slot, replacing any slot of the same name
+	 */
+	public void addSlot(String name, String value) {
+		slots.put(name, Collections.singletonList(value));
+		addedSlots.put(name, value);
+		if (extrinsicObject != null) {
+			InfosetSlots.addOrOverwriteSlot(extrinsicObject, name, value);
+		}
+	}
+
+	/**
+	 * @return the slots added with {@link #addSlot(String, String)}, by name
+	 */
+	public Map<String, String> getAddedSlots() {
+		return Collections.unmodifiableMap(addedSlots);
+	}
+
+	/**
+	 * Associate the entry with the ExtrinsicObject it was parsed from once that has been unmarshalled,
+	 * applying the slots added so far
+	 */
+	void attach(ExtrinsicObjectType eot) {
+		extrinsicObject = eot;
+		for (Map.Entry<String, String> slot : addedSlots.entrySet()) {
+			InfosetSlots.addOrOverwriteSlot(eot, slot.getKey(), slot.getValue());
+		}
+	}
+
+	/**
+	 * A classification of the document entry, e.g. its class code or one of its authors
+	 */
+	public static class Classification {
+
+		private final String classificationScheme;
+		private final String nodeRepresentation;
+		private final Map<String, List<String>> slots;
+
+		Classification(String classificationScheme, String nodeRepresentation, Map<String, List<String>> slots) {
+			this.classificationScheme = classificationScheme;
+			this.nodeRepresentation = nodeRepresentation;
+			this.slots = slots;
+		}
+
+		public String getClassificationScheme() {
+			return classificationScheme;
+		}
+
+		public String getNodeRepresentation() {
+			return nodeRepresentation;
+		}
+
+		public boolean hasSlot(String name) {
+			return slots.containsKey(name);
+		}
+
+		public String getSlotValue(String name) {
+			List<String> values = slots.get(name);
+			return values == null || values.isEmpty() ? null : values.get(0);
+		}
+
+		public List<String> getSlotValues(String name) {
+			return slots.get(name);
+		}
+	}
+}
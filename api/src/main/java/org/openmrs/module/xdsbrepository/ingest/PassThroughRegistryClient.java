@@ -0,0 +1,239 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import org.dcm4chee.xds2.common.exception.XDSException;
+import org.dcm4chee.xds2.infoset.rim.RegistryResponseType;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sends a Register Document Set-b request built from the raw metadata of a Provide and Register request,
+ * so the SubmitObjectsRequest never has to be unmarshalled and marshalled again on its way to the registry.
+ * <p/>
+ * The SOAP 1.2 envelope and WS-Addressing headers are the ones the JAX-WS registry port would send. The
+ * (small) RegistryResponse that comes back is unmarshalled as usual.
+ */
+public class PassThroughRegistryClient {
+
+	public static final String ACTION_REGISTER_DOCUMENT_SET_B = "urn:ihe:iti:2007:RegisterDocumentSet-b";
+
+	private static final String NS_SOAP12 = "http://www.w3.org/2003/05/soap-envelope";
+	private static final String NS_WSA = "http://www.w3.org/2005/08/addressing";
+	private static final String NS_RS = "urn:oasis:names:tc:ebxml-regrep:xsd:rs:3.0";
+	private static final String WSA_ANONYMOUS = "http://www.w3.org/2005/08/addressing/anonymous";
+
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 120000;
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	private static final DocumentBuilderFactory documentBuilderFactory = createDocumentBuilderFactory();
+
+	private PassThroughRegistryClient() {
+	}
+
+	private static DocumentBuilderFactory createDocumentBuilderFactory() {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setExpandEntityReferences(false);
+		try {
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		} catch (ParserConfigurationException ex) {
+			// not supported by this parser, entity references are still not expanded
+		}
+		return factory;
+	}
+
+	/**
+	 * @param registryUrl the registry endpoint
+	 * @param metadata    the submission, which must have raw metadata
+	 * @param slotsById   slots to set on the ExtrinsicObjects, by id, see {@link SlotInjectingWriter}
+	 * @return the registry's response
+	 * @throws IOException  if the registry can not be reached or its response can not be read
+	 * @throws XDSException if the registry responds with a SOAP fault
+	 */
+	public static RegistryResponseType register(URL registryUrl, SubmissionMetadata metadata,
+	                                            Map<String, Map<String, String>> slotsById) throws IOException, XDSException {
+		if (metadata.getRawMetadata() == null) {
+			throw new IllegalArgumentException("The submission has no raw metadata to forward");
+		}
+
+		HttpURLConnection connection = (HttpURLConnection) registryUrl.openConnection();
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			// the raw metadata is roughly the size of the body, so stream rather than buffer it a second time
+			connection.setChunkedStreamingMode(8192);
+			connection.setRequestProperty("Content-Type",
+					"application/soap+xml; charset=UTF-8; action=\"" + ACTION_REGISTER_DOCUMENT_SET_B + "\"");
+
+			OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+			try {
+				writeEnvelope(out, registryUrl, metadata.getRawMetadata(), slotsById);
+			} finally {
+				out.close();
+			}
+
+			int status = connection.getResponseCode();
+			InputStream in = status >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+			if (in == null) {
+				throw new IOException("Registry responded with HTTP " + status + " and no body");
+			}
+			byte[] body;
+			try {
+				body = readFully(in);
+			} finally {
+				in.close();
+			}
+			return readResponse(rootPart(body, connection.getContentType()), status);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	static void writeEnvelope(OutputStream out, URL registryUrl, byte[] rawMetadata,
+	                          Map<String, Map<String, String>> slotsById) throws IOException {
+		try {
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("s", "Envelope", NS_SOAP12);
+			writer.writeNamespace("s", NS_SOAP12);
+			writer.writeNamespace("a", NS_WSA);
+
+			writer.writeStartElement("s", "Header", NS_SOAP12);
+			writeHeader(writer, "Action", ACTION_REGISTER_DOCUMENT_SET_B);
+			writeHeader(writer, "MessageID", "urn:uuid:" + UUID.randomUUID());
+			writer.writeStartElement("a", "ReplyTo", NS_WSA);
+			writeHeader(writer, "Address", WSA_ANONYMOUS);
+			writer.writeEndElement();
+			writeHeader(writer, "To", registryUrl.toExternalForm());
+			writer.writeEndElement();
+
+			writer.writeStartElement("s", "Body", NS_SOAP12);
+			SlotInjectingWriter.write(rawMetadata, slotsById, writer);
+			writer.writeEndElement();
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+			writer.close();
+		} catch (XMLStreamException ex) {
+			throw new IOException("Unable to write the registry request: " + ex.getMessage(), ex);
+		}
+	}
+
+	private static void writeHeader(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+		writer.writeStartElement("a", name, NS_WSA);
+		writer.writeCharacters(value);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Registries that have MTOM enabled answer with a multipart/related message even when there are no
+	 * attachments, in which case the envelope is the first part
+	 */
+	static byte[] rootPart(byte[] body, String contentType) throws IOException {
+		if (contentType == null || !contentType.toLowerCase().startsWith("multipart/")) {
+			return body;
+		}
+		String boundary = null;
+		for (String parameter : contentType.split(";")) {
+			String p = parameter.trim();
+			if (p.toLowerCase().startsWith("boundary=")) {
+				boundary = p.substring("boundary=".length()).replace("\"", "");
+			}
+		}
+		if (boundary == null) {
+			throw new IOException("Multipart registry response without a boundary");
+		}
+
+		String text = new String(body, "ISO-8859-1");
+		int start = text.indexOf("--" + boundary);
+		if (start < 0) {
+			throw new IOException("Registry response does not contain its MIME boundary");
+		}
+		int headersEnd = text.indexOf("\r\n\r\n", start);
+		int end = text.indexOf("\r\n--" + boundary, headersEnd);
+		if (headersEnd < 0 || end < 0) {
+			throw new IOException("Unable to read the root part of the registry response");
+		}
+		return text.substring(headersEnd + 4, end).getBytes("ISO-8859-1");
+	}
+
+	private static RegistryResponseType readResponse(byte[] envelope, int status) throws IOException, XDSException {
+		Document document;
+		try {
+			DocumentBuilder builder;
+			synchronized (documentBuilderFactory) {
+				builder = documentBuilderFactory.newDocumentBuilder();
+			}
+			document = builder.parse(new ByteArrayInputStream(envelope));
+		} catch (ParserConfigurationException ex) {
+			throw new IOException(ex);
+		} catch (SAXException ex) {
+			throw new IOException("Registry responded with HTTP " + status + " and a body that is not XML", ex);
+		}
+
+		NodeList responses = document.getElementsByTagNameNS(NS_RS, "RegistryResponse");
+		if (responses.getLength() > 0) {
+			Unmarshaller unmarshaller = null;
+			try {
+				unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+				return unmarshaller.unmarshal(responses.item(0), RegistryResponseType.class).getValue();
+			} catch (JAXBException ex) {
+				throw new IOException("Unable to read the registry response: " + ex.getMessage(), ex);
+			} finally {
+				if (unmarshaller != null) {
+					InfosetJaxbContext.release(unmarshaller);
+				}
+			}
+		}
+
+		NodeList faults = document.getElementsByTagNameNS(NS_SOAP12, "Fault");
+		if (faults.getLength() > 0) {
+			NodeList reasons = ((Element) faults.item(0)).getElementsByTagNameNS(NS_SOAP12, "Text");
+			String reason = reasons.getLength() > 0 ? reasons.item(0).getTextContent() : "no reason given";
+			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_ERROR, "Registry responded with a SOAP fault: " + reason, null);
+		}
+		throw new IOException("Registry responded with HTTP " + status + " but no RegistryResponse");
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Copies raw SubmitObjectsRequest XML to an {@link XMLStreamWriter}, setting slots on ExtrinsicObjects
+ * on the way through. Nothing is unmarshalled: the metadata is read and written one event at a time.
+ * <p/>
+ * ebRIM requires the slots of a registry object to come before its other children, so injected slots are
+ * written after the last slot the object already has, and existing slots of the same name are dropped.
+ */
+public final class SlotInjectingWriter {
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
+	private SlotInjectingWriter() {
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		return factory;
+	}
+
+	/**
+	 * @param rawMetadata the SubmitObjectsRequest element, as kept by {@link SubmissionMetadata#getRawMetadata()}
+	 * @param slotsById   for each ExtrinsicObject id, the single valued slots to set by name
+	 * @param out         the writer to copy to, no start or end document events are written
+	 */
+	public static void write(byte[] rawMetadata, Map<String, Map<String, String>> slotsById, XMLStreamWriter out)
+			throws XMLStreamException {
+		XMLStreamReader in = inputFactory.createXMLStreamReader(new ByteArrayInputStream(rawMetadata));
+		try {
+			copy(in, slotsById, out);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void copy(XMLStreamReader in, Map<String, Map<String, String>> slotsById, XMLStreamWriter out)
+			throws XMLStreamException {
+		int depth = 0;
+
+		// state of the ExtrinsicObject being copied, if it has slots to inject
+		Map<String, String> pendingSlots = null;
+		int objectDepth = -1;
+		int skipUntilDepth = -1;
+		String rimPrefix = null;
+
+		while (in.hasNext()) {
+			int event = in.next();
+			switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					if (skipUntilDepth >= 0) {
+						break;
+					}
+					if (pendingSlots != null && depth == objectDepth + 1) {
+						boolean isSlot = SubmissionMetadataParser.NS_RIM.equals(in.getNamespaceURI()) && "Slot".equals(in.getLocalName());
+						if (isSlot && pendingSlots.containsKey(in.getAttributeValue(null, "name"))) {
+							// replaced by an injected slot
+							skipUntilDepth = depth;
+							break;
+						}
+						if (!isSlot) {
+							writeSlots(out, rimPrefix, pendingSlots);
+							pendingSlots = Collections.emptyMap();
+						}
+					}
+
+					copyStartElement(in, out);
+
+					if (SubmissionMetadataParser.NS_RIM.equals(in.getNamespaceURI()) && "ExtrinsicObject".equals(in.getLocalName())) {
+						Map<String, String> slots = slotsById.get(in.getAttributeValue(null, "id"));
+						if (slots != null && !slots.isEmpty()) {
+							pendingSlots = slots;
+							objectDepth = depth;
+							rimPrefix = in.getPrefix();
+						}
+					}
+					break;
+
+				case XMLStreamConstants.END_ELEMENT:
+					if (skipUntilDepth >= 0) {
+						if (depth == skipUntilDepth) {
+							skipUntilDepth = -1;
+						}
+						depth--;
+						break;
+					}
+					if (pendingSlots != null && depth == objectDepth) {
+						writeSlots(out, rimPrefix, pendingSlots);
+						pendingSlots = null;
+						objectDepth = -1;
+					}
+					out.writeEndElement();
+					depth--;
+					break;
+
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					if (skipUntilDepth < 0) {
+						out.writeCharacters(in.getTextCharacters(), in.getTextStart(), in.getTextLength());
+					}
+					break;
+
+				case XMLStreamConstants.CDATA:
+					if (skipUntilDepth < 0) {
+						out.writeCData(in.getText());
+					}
+					break;
+
+				case XMLStreamConstants.COMMENT:
+					if (skipUntilDepth < 0) {
+						out.writeComment(in.getText());
+					}
+					break;
+
+				default:
+					// the start and end of the document and processing instructions are left out
+					break;
+			}
+		}
+	}
+
+	private static void copyStartElement(XMLStreamReader in, XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(nullToEmpty(in.getPrefix()), in.getLocalName(), nullToEmpty(in.getNamespaceURI()));
+		for (int i = 0; i < in.getNamespaceCount(); i++) {
+			String prefix = in.getNamespacePrefix(i);
+			if (prefix == null || prefix.length() == 0) {
+				out.writeDefaultNamespace(in.getNamespaceURI(i));
+			} else {
+				out.writeNamespace(prefix, in.getNamespaceURI(i));
+			}
+		}
+		for (int i = 0; i < in.getAttributeCount(); i++) {
+			String namespace = in.getAttributeNamespace(i);
+			if (namespace == null || namespace.length() == 0) {
+				out.writeAttribute(in.getAttributeLocalName(i), in.getAttributeValue(i));
+			} else {
+				out.writeAttribute(nullToEmpty(in.getAttributePrefix(i)), namespace, in.getAttributeLocalName(i), in.getAttributeValue(i));
+			}
+		}
+	}
+
+	private static void writeSlots(XMLStreamWriter out, String prefix, Map<String, String> slots) throws XMLStreamException {
+		String p = nullToEmpty(prefix);
+		String ns = SubmissionMetadataParser.NS_RIM;
+		for (Map.Entry<String, String> slot : slots.entrySet()) {
+			out.writeStartElement(p, "Slot", ns);
+			out.writeAttribute("name", slot.getKey());
+			out.writeStartElement(p, "ValueList", ns);
+			out.writeStartElement(p, "Value", ns);
+			out.writeCharacters(slot.getValue());
+			out.writeEndElement();
+			out.writeEndElement();
+			out.writeEndElement();
+		}
+	}
+
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+}
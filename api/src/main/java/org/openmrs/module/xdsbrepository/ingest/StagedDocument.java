@@ -0,0 +1,139 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import org.openmrs.Encounter;
+import org.openmrs.EncounterRole;
+import org.openmrs.EncounterType;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.module.shr.contenthandler.api.Content;
+import org.openmrs.module.xdsbrepository.model.QueueItem;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A document of a Provide and Register request as it moves through the stages of ingest: the metadata and
+ * content, the reference data that was found or created for it and, once it has been stored, the encounter
+ * it was stored in.
+ * <p/>
+ * Each stage runs in its own short transaction, so this is what carries state from one to the next and what
+ * the compensation of a failed registration works from.
+ */
+public class StagedDocument {
+
+	private final DocumentEntry entry;
+	private final byte[] document;
+
+	private Patient patient;
+	private Map<EncounterRole, Set<Provider>> providersByRole;
+	private EncounterType encounterType;
+	private Encounter encounter;
+	private String contentHash;
+	private Content content;
+	private QueueItem discreteDataItem;
+	private boolean stored;
+
+	public StagedDocument(DocumentEntry entry, byte[] document) {
+		this.entry = entry;
+		this.document = document;
+	}
+
+	public DocumentEntry getEntry() {
+		return entry;
+	}
+
+	public String getDocUniqueId() {
+		return entry.getUniqueId();
+	}
+
+	public byte[] getDocument() {
+		return document;
+	}
+
+	public Patient getPatient() {
+		return patient;
+	}
+
+	public void setPatient(Patient patient) {
+		this.patient = patient;
+	}
+
+	public Map<EncounterRole, Set<Provider>> getProvidersByRole() {
+		return providersByRole;
+	}
+
+	public void setProvidersByRole(Map<EncounterRole, Set<Provider>> providersByRole) {
+		this.providersByRole = providersByRole;
+	}
+
+	public EncounterType getEncounterType() {
+		return encounterType;
+	}
+
+	public void setEncounterType(EncounterType encounterType) {
+		this.encounterType = encounterType;
+	}
+
+	/**
+	 * @return the encounter the document was stored in, null until it has been stored
+	 */
+	public Encounter getEncounter() {
+		return encounter;
+	}
+
+	public void setEncounter(Encounter encounter) {
+		this.encounter = encounter;
+	}
+
+	/**
+	 * @return the hash of the document's content if it was saved in the content-addressed store, null if it
+	 * was saved by a content handler or has not been stored yet
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * @return the content as it was saved, null if it has not been stored yet
+	 */
+	public Content getContent() {
+		return content;
+	}
+
+	public void setContent(Content content) {
+		this.content = content;
+	}
+
+	/**
+	 * @return the discrete data processing to queue once the document has been registered, null if the
+	 * document has no discrete handler or it was processed while storing
+	 */
+	public QueueItem getDiscreteDataItem() {
+		return discreteDataItem;
+	}
+
+	public void setDiscreteDataItem(QueueItem discreteDataItem) {
+		this.discreteDataItem = discreteDataItem;
+	}
+
+	/**
+	 * @return true once the document and its handler mapping have been saved
+	 */
+	public boolean isStored() {
+		return stored;
+	}
+
+	public void setStored(boolean stored) {
+		this.stored = stored;
+	}
+}
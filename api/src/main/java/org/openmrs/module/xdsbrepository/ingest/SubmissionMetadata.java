@@ -0,0 +1,136 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
+import org.dcm4chee.xds2.infoset.rim.RegistryPackageType;
+import org.dcm4chee.xds2.infoset.rim.SubmitObjectsRequest;
+import org.dcm4chee.xds2.infoset.util.InfosetUtil;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the repository needs from a Provide and Register Document Set-b request: the document entries,
+ * the document content keyed by document id and the submission set ids used for auditing.
+ * <p/>
+ * The full {@link SubmitObjectsRequest} is only needed when the metadata is forwarded to the registry.
+ * For requests read by {@link SubmissionMetadataParser} it is kept as the raw XML of the
+ * SubmitObjectsRequest element and only unmarshalled if {@link #getSubmitObjectsRequest()} is called.
+ */
+public class SubmissionMetadata {
+
+	private final List<DocumentEntry> documentEntries;
+	private final Map<String, byte[]> documents;
+	private final String submissionSetUniqueId;
+	private final String submissionSetPatientId;
+	private final byte[] rawMetadata;
+
+	private SubmitObjectsRequest submitObjectsRequest;
+
+	SubmissionMetadata(List<DocumentEntry> documentEntries, Map<String, byte[]> documents, String submissionSetUniqueId,
+	                   String submissionSetPatientId, byte[] rawMetadata, SubmitObjectsRequest submitObjectsRequest) {
+		this.documentEntries = Collections.unmodifiableList(documentEntries);
+		this.documents = Collections.unmodifiableMap(documents);
+		this.submissionSetUniqueId = submissionSetUniqueId;
+		this.submissionSetPatientId = submissionSetPatientId;
+		this.rawMetadata = rawMetadata;
+		this.submitObjectsRequest = submitObjectsRequest;
+	}
+
+	/**
+	 * Describe an already unmarshalled request
+	 */
+	public static SubmissionMetadata fromRequest(ProvideAndRegisterDocumentSetRequestType request) {
+		SubmitObjectsRequest sor = request.getSubmitObjectsRequest();
+
+		List<DocumentEntry> entries = new ArrayList<DocumentEntry>();
+		for (ExtrinsicObjectType eot : InfosetUtil.getExtrinsicObjects(sor)) {
+			entries.add(DocumentEntry.fromExtrinsicObject(eot));
+		}
+
+		Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+		for (Map.Entry<String, ProvideAndRegisterDocumentSetRequestType.Document> doc : InfosetUtil.getDocuments(request).entrySet()) {
+			documents.put(doc.getKey(), doc.getValue().getValue());
+		}
+
+		RegistryPackageType submissionSet = InfosetUtil.getRegistryPackage(sor, XDSConstants.UUID_XDSSubmissionSet);
+		return new SubmissionMetadata(entries, documents,
+				InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSSubmissionSet_uniqueId, submissionSet),
+				InfosetUtil.getExternalIdentifierValue(XDSConstants.UUID_XDSSubmissionSet_patientId, submissionSet),
+				null, sor);
+	}
+
+	public List<DocumentEntry> getDocumentEntries() {
+		return documentEntries;
+	}
+
+	/**
+	 * @return the content of each document in the request keyed by document id
+	 */
+	public Map<String, byte[]> getDocuments() {
+		return documents;
+	}
+
+	public byte[] getDocument(String documentId) {
+		return documents.get(documentId);
+	}
+
+	public String getSubmissionSetUniqueId() {
+		return submissionSetUniqueId;
+	}
+
+	public String getSubmissionSetPatientId() {
+		return submissionSetPatientId;
+	}
+
+	/**
+	 * @return the SubmitObjectsRequest element exactly as it was read, UTF-8 encoded, or null if this
+	 * metadata was built from an unmarshalled request
+	 */
+	public byte[] getRawMetadata() {
+		return rawMetadata;
+	}
+
+	/**
+	 * @return the full SubmitObjectsRequest, unmarshalled from the raw metadata on first use. Slots added to
+	 * the document entries, before or after this call, are reflected in the returned object.
+	 */
+	public synchronized SubmitObjectsRequest getSubmitObjectsRequest() throws JAXBException {
+		if (submitObjectsRequest == null) {
+			Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+			try {
+				submitObjectsRequest = unmarshaller.unmarshal(
+						new StreamSource(new ByteArrayInputStream(rawMetadata)), SubmitObjectsRequest.class).getValue();
+			} finally {
+				InfosetJaxbContext.release(unmarshaller);
+			}
+
+			Map<String, ExtrinsicObjectType> byId = new LinkedHashMap<String, ExtrinsicObjectType>();
+			for (ExtrinsicObjectType eot : InfosetUtil.getExtrinsicObjects(submitObjectsRequest)) {
+				byId.put(eot.getId(), eot);
+			}
+			for (DocumentEntry entry : documentEntries) {
+				ExtrinsicObjectType eot = byId.get(entry.getId());
+				if (eot != null) {
+					entry.attach(eot);
+				}
+			}
+		}
+		return submitObjectsRequest;
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.ingest;
+
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.common.exception.XDSException;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a ProvideAndRegisterDocumentSetRequest in a single pass, extracting only what the repository uses
+ * (see {@link SubmissionMetadata}) instead of unmarshalling the whole ebRIM object graph.
+ * <p/>
+ * The request is consumed as SAX events so that the DOM the SOAP stack has already built can be walked
+ * without being serialized and parsed again; streamed sources work the same way. The SubmitObjectsRequest
+ * element is copied to bytes with a StAX writer as it goes past, so the registry submission can be
+ * forwarded or unmarshalled later without another look at the request.
+ */
+public class SubmissionMetadataParser {
+
+	static final String NS_RIM = "urn:oasis:names:tc:ebxml-regrep:xsd:rim:3.0";
+	static final String NS_LCM = "urn:oasis:names:tc:ebxml-regrep:xsd:lcm:3.0";
+	static final String NS_XDSB = "urn:ihe:iti:xds-b:2007";
+	static final String NS_XOP = "http://www.w3.org/2004/08/xop/include";
+
+	private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	private SubmissionMetadataParser() {
+	}
+
+	/**
+	 * @param source   the ProvideAndRegisterDocumentSetRequest element, or a document containing it
+	 * @param resolver resolves the attachments of MTOM encoded documents, may be null when documents are
+	 *                 inlined as base64 text
+	 * @throws XDSException with XDSRepositoryMetadataError if the request can not be read
+	 */
+	public static SubmissionMetadata parse(Source source, AttachmentResolver resolver) throws XDSException {
+		Handler handler = new Handler(resolver);
+		try {
+			newTransformer().transform(source, new SAXResult(handler));
+		} catch (TransformerException ex) {
+			Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+			throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR,
+					"Unable to read the submission: " + cause.getMessage(), cause);
+		}
+		return handler.toSubmissionMetadata();
+	}
+
+	private static Transformer newTransformer() throws TransformerConfigurationException {
+		synchronized (transformerFactory) {
+			return transformerFactory.newTransformer();
+		}
+	}
+
+	private static class Handler extends DefaultHandler {
+
+		private final AttachmentResolver resolver;
+
+		// in-scope namespace declarations of the request and of the copy being written
+		private final NamespaceSupport namespaces = new NamespaceSupport();
+		private final NamespaceSupport written = new NamespaceSupport();
+		private boolean namespaceContextPushed;
+
+		// local names of the open elements
+		private final Deque<String> path = new ArrayDeque<String>();
+
+		private final List<DocumentEntry> entries = new ArrayList<DocumentEntry>();
+		private final Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+		private String submissionSetUniqueId;
+		private String submissionSetPatientId;
+
+		// raw copy of the SubmitObjectsRequest
+		private ByteArrayOutputStream rawMetadata;
+		private XMLStreamWriter rawWriter;
+		private int rawDepth;
+
+		// the ExtrinsicObject being read
+		private String eoId;
+		private String eoObjectType;
+		private String eoMimeType;
+		private Map<String, List<String>> eoSlots;
+		private Map<String, String> eoExternalIdentifiers;
+		private List<DocumentEntry.Classification> eoClassifications;
+
+		// the Classification being read
+		private String classificationScheme;
+		private String classificationNode;
+		private Map<String, List<String>> classificationSlots;
+
+		// the Slot being read
+		private Map<String, List<String>> slotOwner;
+		private String slotName;
+		private List<String> slotValues;
+
+		private boolean inRegistryPackage;
+
+		// the Document being read
+		private String documentId;
+		private byte[] documentContent;
+
+		private StringBuilder text;
+
+		Handler(AttachmentResolver resolver) {
+			this.resolver = resolver;
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) {
+			if (!namespaceContextPushed) {
+				namespaces.pushContext();
+				namespaceContextPushed = true;
+			}
+			namespaces.declarePrefix(prefix, uri);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			if (!namespaceContextPushed) {
+				namespaces.pushContext();
+			}
+			namespaceContextPushed = false;
+
+			String parent = path.peek();
+			path.push(localName);
+
+			if (rawWriter == null && NS_LCM.equals(uri) && "SubmitObjectsRequest".equals(localName)) {
+				startRawCopy();
+			}
+			if (rawWriter != null) {
+				writeStartElement(uri, localName, qName, atts);
+			}
+
+			if (NS_RIM.equals(uri)) {
+				if ("ExtrinsicObject".equals(localName)) {
+					eoId = atts.getValue("id");
+					eoObjectType = atts.getValue("objectType");
+					eoMimeType = atts.getValue("mimeType");
+					eoSlots = new LinkedHashMap<String, List<String>>();
+					eoExternalIdentifiers = new LinkedHashMap<String, String>();
+					eoClassifications = new ArrayList<DocumentEntry.Classification>();
+				} else if ("Classification".equals(localName) && eoId != null && "ExtrinsicObject".equals(parent)) {
+					classificationScheme = atts.getValue("classificationScheme");
+					classificationNode = atts.getValue("nodeRepresentation");
+					classificationSlots = new LinkedHashMap<String, List<String>>();
+				} else if ("Slot".equals(localName)) {
+					if (classificationSlots != null && "Classification".equals(parent)) {
+						slotOwner = classificationSlots;
+					} else if (eoSlots != null && "ExtrinsicObject".equals(parent)) {
+						slotOwner = eoSlots;
+					}
+					if (slotOwner != null) {
+						slotName = atts.getValue("name");
+						slotValues = new ArrayList<String>();
+					}
+				} else if ("Value".equals(localName) && slotValues != null) {
+					text = new StringBuilder();
+				} else if ("ExternalIdentifier".equals(localName)) {
+					String scheme = atts.getValue("identificationScheme");
+					String value = atts.getValue("value");
+					if (eoId != null && "ExtrinsicObject".equals(parent)) {
+						if (!eoExternalIdentifiers.containsKey(scheme)) {
+							eoExternalIdentifiers.put(scheme, value);
+						}
+					} else if (inRegistryPackage) {
+						if (XDSConstants.UUID_XDSSubmissionSet_uniqueId.equals(scheme)) {
+							submissionSetUniqueId = value;
+						} else if (XDSConstants.UUID_XDSSubmissionSet_patientId.equals(scheme)) {
+							submissionSetPatientId = value;
+						}
+					}
+				} else if ("RegistryPackage".equals(localName)) {
+					inRegistryPackage = true;
+				}
+			} else if (NS_XDSB.equals(uri) && "Document".equals(localName)) {
+				documentId = atts.getValue("id");
+				documentContent = null;
+				text = new StringBuilder();
+			} else if (NS_XOP.equals(uri) && "Include".equals(localName) && documentId != null) {
+				documentContent = resolveAttachment(atts.getValue("href"));
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (text != null) {
+				text.append(ch, start, length);
+			}
+			if (rawWriter != null) {
+				try {
+					rawWriter.writeCharacters(ch, start, length);
+				} catch (XMLStreamException ex) {
+					throw new SAXException(ex);
+				}
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			path.pop();
+			namespaces.popContext();
+
+			if (rawWriter != null) {
+				writeEndElement();
+			}
+
+			if (NS_RIM.equals(uri)) {
+				if ("Value".equals(localName) && slotValues != null && text != null) {
+					slotValues.add(text.toString());
+					text = null;
+				} else if ("Slot".equals(localName) && slotOwner != null) {
+					if (!slotOwner.containsKey(slotName)) {
+						slotOwner.put(slotName, slotValues);
+					}
+					slotOwner = null;
+					slotName = null;
+					slotValues = null;
+				} else if ("Classification".equals(localName) && classificationSlots != null && "ExtrinsicObject".equals(path.peek())) {
+					eoClassifications.add(new DocumentEntry.Classification(classificationScheme, classificationNode, classificationSlots));
+					classificationScheme = null;
+					classificationNode = null;
+					classificationSlots = null;
+				} else if ("ExtrinsicObject".equals(localName) && eoId != null) {
+					entries.add(new DocumentEntry(eoId, eoObjectType, eoMimeType, eoSlots, eoExternalIdentifiers, eoClassifications));
+					eoId = null;
+					eoSlots = null;
+					eoExternalIdentifiers = null;
+					eoClassifications = null;
+				} else if ("RegistryPackage".equals(localName)) {
+					inRegistryPackage = false;
+				}
+			} else if (NS_XDSB.equals(uri) && "Document".equals(localName) && documentId != null) {
+				if (documentContent == null) {
+					documentContent = Base64.getMimeDecoder().decode(text.toString());
+				}
+				documents.put(documentId, documentContent);
+				documentId = null;
+				documentContent = null;
+				text = null;
+			}
+		}
+
+		private byte[] resolveAttachment(String href) throws SAXException {
+			if (resolver == null) {
+				throw new SAXException("Document " + documentId + " references attachment " + href + " but attachments are not available");
+			}
+			try {
+				byte[] content = resolver.resolve(href);
+				if (content == null) {
+					throw new SAXException("Document " + documentId + " references attachment " + href + " which is not in the request");
+				}
+				return content;
+			} catch (IOException ex) {
+				throw new SAXException("Unable to read attachment " + href, ex);
+			}
+		}
+
+		private void startRawCopy() throws SAXException {
+			rawMetadata = new ByteArrayOutputStream(8192);
+			try {
+				rawWriter = outputFactory.createXMLStreamWriter(rawMetadata, "UTF-8");
+			} catch (XMLStreamException ex) {
+				throw new SAXException(ex);
+			}
+			rawDepth = 0;
+		}
+
+		private void writeStartElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			try {
+				String prefix = prefixOf(qName);
+				rawWriter.writeStartElement(prefix, localName, uri);
+				written.pushContext();
+
+				if (rawDepth == 0) {
+					// the copy is a document of its own, so it needs every namespace in scope here, not
+					// only those declared on the element
+					Enumeration<?> prefixes = namespaces.getPrefixes();
+					while (prefixes.hasMoreElements()) {
+						String p = (String) prefixes.nextElement();
+						declare(p, namespaces.getURI(p));
+					}
+					String defaultNamespace = namespaces.getURI("");
+					if (defaultNamespace != null && defaultNamespace.length() > 0) {
+						declare("", defaultNamespace);
+					}
+				} else {
+					Enumeration<?> declared = namespaces.getDeclaredPrefixes();
+					while (declared.hasMoreElements()) {
+						String p = (String) declared.nextElement();
+						declare(p, namespaces.getURI(p));
+					}
+				}
+				if (!uri.equals(nullToEmpty(written.getURI(prefix)))) {
+					declare(prefix, uri);
+				}
+
+				for (int i = 0; i < atts.getLength(); i++) {
+					String attQName = atts.getQName(i);
+					if ("xmlns".equals(attQName) || attQName.startsWith("xmlns:")) {
+						continue;
+					}
+					String attUri = nullToEmpty(atts.getURI(i));
+					if (attUri.length() == 0) {
+						rawWriter.writeAttribute(atts.getLocalName(i), atts.getValue(i));
+					} else {
+						String attPrefix = prefixOf(attQName);
+						if (!attUri.equals(written.getURI(attPrefix))) {
+							declare(attPrefix, attUri);
+						}
+						rawWriter.writeAttribute(attPrefix, attUri, atts.getLocalName(i), atts.getValue(i));
+					}
+				}
+				rawDepth++;
+			} catch (XMLStreamException ex) {
+				throw new SAXException(ex);
+			}
+		}
+
+		private void writeEndElement() throws SAXException {
+			try {
+				rawWriter.writeEndElement();
+				written.popContext();
+				if (--rawDepth == 0) {
+					rawWriter.writeEndDocument();
+					rawWriter.close();
+					rawWriter = null;
+				}
+			} catch (XMLStreamException ex) {
+				throw new SAXException(ex);
+			}
+		}
+
+		private void declare(String prefix, String uri) throws XMLStreamException {
+			if (uri == null || uri.equals(written.getURI(prefix))) {
+				return;
+			}
+			if (prefix.length() == 0) {
+				rawWriter.writeDefaultNamespace(uri);
+			} else {
+				rawWriter.writeNamespace(prefix, uri);
+			}
+			written.declarePrefix(prefix, uri);
+		}
+
+		private static String prefixOf(String qName) {
+			int colon = qName.indexOf(':');
+			return colon < 0 ? "" : qName.substring(0, colon);
+		}
+
+		private static String nullToEmpty(String value) {
+			return value == null ? "" : value;
+		}
+
+		SubmissionMetadata toSubmissionMetadata() throws XDSException {
+			if (rawMetadata == null) {
+				throw new XDSException(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR,
+						"The request does not contain a SubmitObjectsRequest", null);
+			}
+			return new SubmissionMetadata(entries, documents, submissionSetUniqueId, submissionSetPatientId,
+					rawMetadata.toByteArray(), null);
+		}
+	}
+}
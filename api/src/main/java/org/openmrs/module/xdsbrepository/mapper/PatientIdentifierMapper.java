@@ -2,10 +2,8 @@ package org.openmrs.module.xdsbrepository.mapper;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.GlobalProperty;
 import org.openmrs.api.APIException;
-import org.openmrs.api.context.Context;
-import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -14,7 +12,9 @@ public class PatientIdentifierMapper {
 
     private final Log log = LogFactory.getLog(this.getClass());
     //first element ("key") - local, second element ("value") - mpi.
-    private List<IdentifierMapPair> MAPPED_ID;
+    private volatile List<IdentifierMapPair> MAPPED_ID;
+    // the configuration snapshot MAPPED_ID was built from, a new snapshot means the mappings may have changed
+    private volatile XDSbRepositoryConfiguration initializedFrom;
 
     public String getMappedLocalIdentifierTypeUuid(String mpiIdentifierTypeId) {
         validateInit();
@@ -47,32 +47,28 @@ public class PatientIdentifierMapper {
     }
 
     public List<String> getLocalMpiIdentifierTypeMap() {
-        String propertyPrefix = XDSbServiceConstants.GP_LOCAL_PATIENT_IDENTIFIER_TYPE_MAP;
-
-        List<String> result = new LinkedList<String>();
-        for (GlobalProperty property : Context.getAdministrationService().getGlobalPropertiesByPrefix(propertyPrefix)) {
-            result.add(property.getPropertyValue());
-        }
-        return result;
+        return XDSbRepositoryConfiguration.get().getLocalPatientIdentifierTypeMap();
     }
 
     private void validateInit() {
-        if (MAPPED_ID == null || MAPPED_ID.isEmpty()) {
+        if (MAPPED_ID == null || initializedFrom != XDSbRepositoryConfiguration.get()) {
             init();
         }
     }
 
     public void init() {
-        MAPPED_ID = new LinkedList<IdentifierMapPair>();
+        List<IdentifierMapPair> mappedIds = new LinkedList<IdentifierMapPair>();
         log.info("start init method of PatientIdentifierMapper");
-        List<String> properties = getLocalMpiIdentifierTypeMap();
-        for (String mappedIdentifiers : properties) {
+        XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+        for (String mappedIdentifiers : config.getLocalPatientIdentifierTypeMap()) {
             IdentifierMapPair pair = parseIdentifiers(mappedIdentifiers);
-            MAPPED_ID.add(pair);
+            mappedIds.add(pair);
 
             log.info("Initialized local:mpi identifier type pair. Local: " + pair.localIdentifierUuid
                     + " , MPI: " + pair.mpiIdentifierId);
         }
+        MAPPED_ID = mappedIds;
+        initializedFrom = config;
     }
 
     private IdentifierMapPair parseIdentifiers(String mappedIdentifiers) {
@@ -0,0 +1,101 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import org.dcm4chee.xds2.common.exception.XDSException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times each {@link IngestStage} of every submission and document, so that it can be seen where ingest time
+ * goes under production load without attaching a profiler. A stage is timed with
+ * <pre>
+ * long start = IngestMetrics.start();
+ * try {
+ *     ...
+ *     IngestMetrics.success(IngestStage.REGISTER, start);
+ * } catch (XDSException ex) {
+ *     IngestMetrics.failure(IngestStage.REGISTER, start, ex);
+ *     throw ex;
+ * }
+ * </pre>
+ * The timers live for as long as the module is started, see {@link #getTimers()}.
+ */
+public final class IngestMetrics {
+
+	private static final ConcurrentMap<String, StageTimer> timers = new ConcurrentHashMap<String, StageTimer>();
+
+	private IngestMetrics() {
+	}
+
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	public static void success(IngestStage stage, long start) {
+		timer(stage, StageTimer.SUCCESS, null).getHistogram().recordNanos(System.nanoTime() - start);
+	}
+
+	public static void failure(IngestStage stage, long start, Throwable error) {
+		failure(stage, start, errorCodeOf(error));
+	}
+
+	public static void failure(IngestStage stage, long start, String errorCode) {
+		timer(stage, StageTimer.FAILURE, errorCode).getHistogram().recordNanos(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the timers of every stage and outcome seen so far, in stage order
+	 */
+	public static List<StageTimer> getTimers() {
+		List<StageTimer> result = new ArrayList<StageTimer>(timers.values());
+		Collections.sort(result, new Comparator<StageTimer>() {
+
+			@Override
+			public int compare(StageTimer a, StageTimer b) {
+				int c = a.getStage().compareTo(b.getStage());
+				if (c == 0) {
+					c = a.getOutcome().compareTo(b.getOutcome());
+				}
+				if (c == 0) {
+					c = String.valueOf(a.getErrorCode()).compareTo(String.valueOf(b.getErrorCode()));
+				}
+				return c;
+			}
+		});
+		return result;
+	}
+
+	public static void reset() {
+		timers.clear();
+	}
+
+	static String errorCodeOf(Throwable error) {
+		if (error instanceof XDSException && ((XDSException) error).getErrorCode() != null) {
+			return ((XDSException) error).getErrorCode();
+		}
+		return error == null ? "Unknown" : error.getClass().getSimpleName();
+	}
+
+	private static StageTimer timer(IngestStage stage, String outcome, String errorCode) {
+		String key = stage.name() + '|' + outcome + '|' + errorCode;
+		StageTimer timer = timers.get(key);
+		if (timer == null) {
+			StageTimer created = new StageTimer(stage, outcome, errorCode);
+			timer = timers.putIfAbsent(key, created);
+			if (timer == null) {
+				timer = created;
+			}
+		}
+		return timer;
+	}
+}
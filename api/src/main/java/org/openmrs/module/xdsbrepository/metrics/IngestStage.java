@@ -0,0 +1,51 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+/**
+ * The stages of a Provide and Register (ITI-41) submission that are timed by {@link IngestMetrics}. Some are
+ * timed once per submission, the others once per document.
+ */
+public enum IngestStage {
+
+	/** reading the SOAP payload, by the streaming parser or the JAXB unmarshaller (per submission) */
+	UNMARSHAL(false),
+
+	/** validating the metadata, checking for duplicates and verifying the hash (per document) */
+	VALIDATE(true),
+
+	/** finding or creating patients, providers and encounter types, including the commit (per submission) */
+	RESOLVE_REFERENCE_DATA(false),
+
+	/** the storage transaction, including the commit (per submission) */
+	STORE(false),
+
+	/** saving the document with the default unstructured data handler (per document) */
+	STORE_CONTENT(true),
+
+	/** saving the document with its discrete data handler, here or by the background workers (per document) */
+	DISCRETE_HANDLER(true),
+
+	/** sending the metadata to the registry (per submission) */
+	REGISTER(false),
+
+	/** importing the document with the CDA handler, here or by the background workers (per document) */
+	CDA_IMPORT(true),
+
+	/** the whole submission, from validation to the response (per submission) */
+	SUBMISSION(false);
+
+	private final boolean perDocument;
+
+	IngestStage(boolean perDocument) {
+		this.perDocument = perDocument;
+	}
+
+	public boolean isPerDocument() {
+		return perDocument;
+	}
+}
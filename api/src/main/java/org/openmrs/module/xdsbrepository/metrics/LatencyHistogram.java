@@ -0,0 +1,144 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock free histogram of durations in the style of HdrHistogram. Durations are counted in
+ * microsecond buckets: one per microsecond below 16 us, then 16 buckets for every power of two, so any
+ * recorded value is reported to within 1/16 (6.25%) of itself. Recording is a few array increments, cheap
+ * enough to do for every document.
+ */
+public final class LatencyHistogram {
+
+	// buckets per power of two, as a power of two
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// durations of 2^40 us (about 12 days) and more all land in the last bucket
+	private static final int MAX_EXPONENT = 40;
+
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalMicros = new AtomicLong();
+
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void recordNanos(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(bucketOf(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max;
+		while (micros > (max = maxMicros.get())) {
+			if (maxMicros.compareAndSet(max, micros)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalMicros() {
+		return totalMicros.get();
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	public double getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) totalMicros.get() / n;
+	}
+
+	/**
+	 * @param percentile - between 0 and 100
+	 * @return the duration in us that the given percentage of recorded durations did not exceed, 0 if nothing
+	 * has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), maxMicros.get());
+			}
+		}
+		return maxMicros.get();
+	}
+
+	/**
+	 * @return the number of recorded durations of at most the given number of us, exact for durations below
+	 * 16 us and otherwise rounded down to a bucket boundary
+	 */
+	public long getCountAtOrBelow(long micros) {
+		long seen = 0;
+		for (int i = 0; i < BUCKETS && upperBoundOf(i) <= micros; i++) {
+			seen += counts.get(i);
+		}
+		return seen;
+	}
+
+	/**
+	 * @param bounds - durations in us, in ascending order
+	 * @return {@link #getCountAtOrBelow(long)} of each bound, in a single pass over the buckets
+	 */
+	public long[] getCountsAtOrBelow(long[] bounds) {
+		long[] result = new long[bounds.length];
+		long seen = 0;
+		int bound = 0;
+		for (int i = 0; i < BUCKETS && bound < bounds.length; i++) {
+			while (bound < bounds.length && upperBoundOf(i) > bounds[bound]) {
+				result[bound++] = seen;
+			}
+			seen += counts.get(i);
+		}
+		while (bound < bounds.length) {
+			result[bound++] = seen;
+		}
+		return result;
+	}
+
+	static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the largest duration in us that falls in the bucket
+	 */
+	static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import org.openmrs.module.xdsbrepository.BloomFilter;
+import org.openmrs.module.xdsbrepository.DocumentContentCache;
+import org.openmrs.module.xdsbrepository.DocumentIdIndex;
+import org.openmrs.module.xdsbrepository.EncounterTypeCache;
+import org.openmrs.module.xdsbrepository.ReferenceDataCache;
+import org.openmrs.module.xdsbrepository.infoset.RegistryPortPool;
+import org.openmrs.module.xdsbrepository.model.QueueItem;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the module's metrics in the Prometheus text exposition format (version 0.0.4): the timings of
+ * every ingest stage, including the registry call (stage REGISTER), and of retrieve requests, the state of
+ * the work queues, the hit counts of the in-memory caches, the JVM memory pools and the database connection
+ * pool. Everything is read from memory or JMX, so a scrape never queries the database.
+ */
+public final class PrometheusExposition {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	// the upper bounds of the exported histogram buckets in us, from 1 ms to 1 min
+	private static final long[] BUCKET_BOUNDS = { 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+			1000000, 2500000, 5000000, 10000000, 30000000, 60000000 };
+
+	private static final String C3P0_POOLS = "com.mchange.v2.c3p0:type=PooledDataSource,*";
+
+	private final Writer out;
+
+	private PrometheusExposition(Writer out) {
+		this.out = out;
+	}
+
+	public static void write(Writer out) throws IOException {
+		PrometheusExposition exposition = new PrometheusExposition(out);
+		exposition.writeIngest();
+		exposition.writeRetrieve();
+		exposition.writeStorage();
+		exposition.writeQueues();
+		exposition.writeCaches();
+		exposition.writeJvm();
+		exposition.writeConnectionPools();
+		out.flush();
+	}
+
+	private void writeIngest() throws IOException {
+		header("xdsb_ingest_stage_seconds", "histogram",
+				"Duration of each stage of Provide and Register submissions, REGISTER is the call to the registry");
+		for (StageTimer timer : IngestMetrics.getTimers()) {
+			histogram("xdsb_ingest_stage_seconds", timer.getHistogram(), "stage", timer.getStage().name(), "outcome",
+					timer.getOutcome(), "error_code", timer.getErrorCode() == null ? "" : timer.getErrorCode());
+		}
+	}
+
+	private void writeRetrieve() throws IOException {
+		header("xdsb_retrieve_request_seconds", "histogram", "Duration of Retrieve Document Set requests");
+		for (Map.Entry<String, LatencyHistogram> entry : RetrieveMetrics.getRequests().entrySet()) {
+			histogram("xdsb_retrieve_request_seconds", entry.getValue(), "outcome", entry.getKey());
+		}
+		counter("xdsb_retrieve_documents_total", "Documents returned by Retrieve Document Set requests",
+				RetrieveMetrics.getDocuments());
+		counter("xdsb_retrieve_bytes_total", "Bytes of document content returned by Retrieve Document Set requests",
+				RetrieveMetrics.getBytes());
+		counter("xdsb_retrieve_missing_documents_total", "Requested documents that could not be found",
+				RetrieveMetrics.getMissingDocuments());
+	}
+
+	private void writeStorage() throws IOException {
+		counter("xdsb_storage_documents_total", "Documents saved in the content-addressed store",
+				StorageMetrics.getDocuments());
+		counter("xdsb_storage_deduplicated_documents_total",
+				"Documents saved in the content-addressed store whose content was already stored",
+				StorageMetrics.getDeduplicatedDocuments());
+		counter("xdsb_storage_bytes_written_total", "Bytes of new content written to the content-addressed store",
+				StorageMetrics.getBytesWritten());
+		counter("xdsb_storage_bytes_stored_total",
+				"Bytes the new content took in the content-addressed store once compressed",
+				StorageMetrics.getBytesStored());
+		counter("xdsb_storage_bytes_deduplicated_total",
+				"Bytes of content that did not have to be written because they were already stored",
+				StorageMetrics.getBytesDeduplicated());
+		counter("xdsb_storage_purged_contents_total", "Unreferenced content deleted from the content-addressed store",
+				StorageMetrics.getPurgedContents());
+		counter("xdsb_storage_segment_syncs_total", "Syncs of the segment store to disk",
+				StorageMetrics.getSegmentSyncs());
+		counter("xdsb_storage_segment_synced_writes_total",
+				"Writes made durable by syncs of the segment store, several writes share a sync under load",
+				StorageMetrics.getSegmentSyncedWrites());
+		counter("xdsb_storage_segment_compactions_total", "Segments compacted", StorageMetrics.getSegmentCompactions());
+		counter("xdsb_storage_segment_reclaimed_bytes_total", "Bytes reclaimed by compacting segments",
+				StorageMetrics.getSegmentReclaimedBytes());
+	}
+
+	private void writeQueues() throws IOException {
+		List<QueueStatistics> queues = QueueMetrics.getAll();
+
+		header("xdsb_queue_items", "gauge", "Items in each status, as of the last reconciliation with the database");
+		for (QueueStatistics queue : queues) {
+			for (Map.Entry<QueueItem.Status, Long> depth : queue.getDepth().entrySet()) {
+				sample("xdsb_queue_items", depth.getValue(), "queue", queue.getQueue(), "status",
+						depth.getKey().name());
+			}
+		}
+		header("xdsb_queue_oldest_item_age_seconds", "gauge", "Age of the oldest queued item, 0 if none is queued");
+		for (QueueStatistics queue : queues) {
+			sample("xdsb_queue_oldest_item_age_seconds", queue.getOldestQueuedAge() / 1000.0, "queue", queue.getQueue());
+		}
+		header("xdsb_queue_enqueued_total", "counter", "Items queued by this server");
+		for (QueueStatistics queue : queues) {
+			sample("xdsb_queue_enqueued_total", queue.getEnqueued(), "queue", queue.getQueue());
+		}
+		header("xdsb_queue_dequeued_total", "counter", "Items taken from the queue by this server");
+		for (QueueStatistics queue : queues) {
+			sample("xdsb_queue_dequeued_total", queue.getDequeued(), "queue", queue.getQueue());
+		}
+		header("xdsb_queue_completed_total", "counter", "Items processed by this server, by result");
+		for (QueueStatistics queue : queues) {
+			sample("xdsb_queue_completed_total", queue.getSucceeded(), "queue", queue.getQueue(), "result", "succeeded");
+			sample("xdsb_queue_completed_total", queue.getFailed(), "queue", queue.getQueue(), "result", "failed");
+		}
+		header("xdsb_queue_handler_seconds", "histogram", "Duration of the handler processing an item successfully");
+		for (QueueStatistics queue : queues) {
+			for (QueueStatistics.HandlerTimer timer : queue.getHandlers().values()) {
+				histogram("xdsb_queue_handler_seconds", timer.getHistogram(), "queue", queue.getQueue(), "handler",
+						timer.getHandler());
+			}
+		}
+		header("xdsb_queue_handler_failures_total", "counter", "Items the handler failed to process");
+		for (QueueStatistics queue : queues) {
+			for (QueueStatistics.HandlerTimer timer : queue.getHandlers().values()) {
+				sample("xdsb_queue_handler_failures_total", timer.getFailures(), "queue", queue.getQueue(), "handler",
+						timer.getHandler());
+			}
+		}
+	}
+
+	private void writeCaches() throws IOException {
+		List<CacheStatistics> caches = Arrays.asList(EncounterTypeCache.getStatistics(),
+				ReferenceDataCache.getStatistics(), DocumentIdIndex.getStatistics(), RegistryPortPool.getStatistics(),
+				DocumentContentCache.getStatistics());
+
+		header("xdsb_cache_hits_total", "counter", "Lookups answered from an in-memory cache");
+		for (CacheStatistics cache : caches) {
+			sample("xdsb_cache_hits_total", cache.getHits(), "cache", cache.getCache());
+		}
+		header("xdsb_cache_misses_total", "counter", "Lookups that had to go to the database or create a new object");
+		for (CacheStatistics cache : caches) {
+			sample("xdsb_cache_misses_total", cache.getMisses(), "cache", cache.getCache());
+		}
+		header("xdsb_cache_hit_ratio", "gauge", "Fraction of lookups answered from the cache since the server started");
+		for (CacheStatistics cache : caches) {
+			sample("xdsb_cache_hit_ratio", cache.getHitRatio(), "cache", cache.getCache());
+		}
+
+		BloomFilter filter = DocumentIdIndex.getFilter();
+		header("xdsb_document_id_index_ready", "gauge", "1 once the documentUniqueId index has been built");
+		sample("xdsb_document_id_index_ready", DocumentIdIndex.isReady() ? 1 : 0);
+		header("xdsb_document_id_index_ids", "gauge", "Ids in the documentUniqueId index");
+		sample("xdsb_document_id_index_ids", filter == null ? 0 : filter.getInsertions());
+		header("xdsb_document_id_index_capacity", "gauge", "Ids the documentUniqueId index was sized for");
+		sample("xdsb_document_id_index_capacity", filter == null ? 0 : filter.getExpectedInsertions());
+
+		gauge("xdsb_document_cache_bytes", "Estimated memory taken by the cached document content",
+				DocumentContentCache.getSize());
+		gauge("xdsb_document_cache_documents", "Documents whose content is cached", DocumentContentCache.getDocumentCount());
+
+		gauge("xdsb_registry_ports_idle", "Registry client ports kept for reuse", RegistryPortPool.getIdleCount());
+	}
+
+	private void writeJvm() throws IOException {
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		header("jvm_memory_pool_bytes_used", "gauge", "Used bytes of a JVM memory pool");
+		for (MemoryPoolMXBean pool : pools) {
+			sample("jvm_memory_pool_bytes_used", pool.getUsage().getUsed(), "pool", pool.getName());
+		}
+		header("jvm_memory_pool_bytes_committed", "gauge", "Committed bytes of a JVM memory pool");
+		for (MemoryPoolMXBean pool : pools) {
+			sample("jvm_memory_pool_bytes_committed", pool.getUsage().getCommitted(), "pool", pool.getName());
+		}
+		header("jvm_memory_pool_bytes_max", "gauge", "Max bytes of a JVM memory pool, -1 if undefined");
+		for (MemoryPoolMXBean pool : pools) {
+			sample("jvm_memory_pool_bytes_max", pool.getUsage().getMax(), "pool", pool.getName());
+		}
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		header("jvm_memory_bytes_used", "gauge", "Used bytes of the JVM heap");
+		sample("jvm_memory_bytes_used", heap.getUsed(), "area", "heap");
+		header("jvm_memory_bytes_max", "gauge", "Max bytes of the JVM heap, -1 if undefined");
+		sample("jvm_memory_bytes_max", heap.getMax(), "area", "heap");
+
+		header("jvm_gc_collection_seconds", "summary", "Time spent in a JVM garbage collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample("jvm_gc_collection_seconds_count", gc.getCollectionCount(), "gc", gc.getName());
+			sample("jvm_gc_collection_seconds_sum", gc.getCollectionTime() / 1000.0, "gc", gc.getName());
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		gauge("jvm_threads_current", "Current thread count of the JVM", threads.getThreadCount());
+		gauge("jvm_threads_daemon", "Daemon thread count of the JVM", threads.getDaemonThreadCount());
+	}
+
+	/**
+	 * The connection pool figures are read from the MBeans c3p0, the pool OpenMRS uses by default, registers
+	 * for each pool. Nothing is written for a pool that does not publish them.
+	 */
+	private void writeConnectionPools() throws IOException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names;
+		try {
+			names = server.queryNames(new ObjectName(C3P0_POOLS), null);
+		} catch (JMException e) {
+			return;
+		}
+
+		// read every pool first, the samples of a family must follow its header
+		List<PoolStatistics> pools = new ArrayList<PoolStatistics>();
+		for (ObjectName name : names) {
+			String pool = name.getKeyProperty("name") != null ? name.getKeyProperty("name")
+					: name.getKeyProperty("identityToken");
+			try {
+				Number busy = (Number) server.getAttribute(name, "numBusyConnectionsDefaultUser");
+				Number idle = (Number) server.getAttribute(name, "numIdleConnectionsDefaultUser");
+				Number max = (Number) server.getAttribute(name, "maxPoolSize");
+				Number waiting = (Number) server.getAttribute(name, "numThreadsAwaitingCheckoutDefaultUser");
+				pools.add(new PoolStatistics(pool, busy.longValue(), idle.longValue(), max.longValue(),
+						waiting.longValue()));
+			} catch (JMException e) {
+				// the pool may have been closed since it was listed
+			} catch (RuntimeException e) {
+				// or publish the attributes under other names or types in another c3p0 version
+			}
+		}
+
+		header("xdsb_db_pool_connections", "gauge", "Database connections, by state");
+		for (PoolStatistics pool : pools) {
+			sample("xdsb_db_pool_connections", pool.busy, "pool", pool.name, "state", "busy");
+			sample("xdsb_db_pool_connections", pool.idle, "pool", pool.name, "state", "idle");
+		}
+		header("xdsb_db_pool_max_connections", "gauge", "Most database connections the pool will open");
+		for (PoolStatistics pool : pools) {
+			sample("xdsb_db_pool_max_connections", pool.max, "pool", pool.name);
+		}
+		header("xdsb_db_pool_threads_awaiting_checkout", "gauge", "Threads waiting for a database connection");
+		for (PoolStatistics pool : pools) {
+			sample("xdsb_db_pool_threads_awaiting_checkout", pool.waiting, "pool", pool.name);
+		}
+	}
+
+	private static class PoolStatistics {
+
+		private final String name;
+
+		private final long busy;
+
+		private final long idle;
+
+		private final long max;
+
+		private final long waiting;
+
+		private PoolStatistics(String name, long busy, long idle, long max, long waiting) {
+			this.name = name;
+			this.busy = busy;
+			this.idle = idle;
+			this.max = max;
+			this.waiting = waiting;
+		}
+	}
+
+	private void histogram(String name, LatencyHistogram histogram, String... labels) throws IOException {
+		long[] counts = histogram.getCountsAtOrBelow(BUCKET_BOUNDS);
+		long count = histogram.getCount();
+		double sum = histogram.getTotalMicros() / 1000000.0;
+		// recording may carry on while we read, keep the buckets cumulative
+		if (counts.length > 0) {
+			count = Math.max(count, counts[counts.length - 1]);
+		}
+
+		String[] bucketLabels = Arrays.copyOf(labels, labels.length + 2);
+		bucketLabels[labels.length] = "le";
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			bucketLabels[labels.length + 1] = Double.toString(BUCKET_BOUNDS[i] / 1000000.0);
+			sample(name + "_bucket", counts[i], bucketLabels);
+		}
+		bucketLabels[labels.length + 1] = "+Inf";
+		sample(name + "_bucket", count, bucketLabels);
+		sample(name + "_sum", sum, labels);
+		sample(name + "_count", count, labels);
+	}
+
+	private void counter(String name, String help, long value) throws IOException {
+		header(name, "counter", help);
+		sample(name, value);
+	}
+
+	private void gauge(String name, String help, long value) throws IOException {
+		header(name, "gauge", help);
+		sample(name, value);
+	}
+
+	private void header(String name, String type, String help) throws IOException {
+		out.write("# HELP ");
+		out.write(name);
+		out.write(' ');
+		out.write(help.replace("\\", "\\\\").replace("\n", "\\n"));
+		out.write("\n# TYPE ");
+		out.write(name);
+		out.write(' ');
+		out.write(type);
+		out.write('\n');
+	}
+
+	private void sample(String name, long value, String... labels) throws IOException {
+		sampleName(name, labels);
+		out.write(Long.toString(value));
+		out.write('\n');
+	}
+
+	private void sample(String name, double value, String... labels) throws IOException {
+		sampleName(name, labels);
+		if (Double.isNaN(value)) {
+			out.write("NaN");
+		} else if (Double.isInfinite(value)) {
+			out.write(value > 0 ? "+Inf" : "-Inf");
+		} else {
+			out.write(Double.toString(value));
+		}
+		out.write('\n');
+	}
+
+	private void sampleName(String name, String... labels) throws IOException {
+		out.write(name);
+		if (labels.length > 0) {
+			out.write('{');
+			for (int i = 0; i < labels.length; i += 2) {
+				if (i > 0) {
+					out.write(',');
+				}
+				out.write(labels[i]);
+				out.write("=\"");
+				out.write(escape(labels[i + 1]));
+				out.write('"');
+			}
+			out.write('}');
+		}
+		out.write(' ');
+	}
+
+	static String escape(String value) {
+		if (value == null) {
+			return "";
+		}
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@link QueueStatistics} of the discrete data queue (<code>xdsbrepository_queue</code>) and of the CDA
+ * import queue (<code>xdsbrepository_cda_import_queue</code>)
+ */
+public final class QueueMetrics {
+
+	public static final String DISCRETE_DATA = "discreteData";
+
+	public static final String CDA_IMPORT = "cdaImport";
+
+	private static volatile QueueStatistics discreteData = new QueueStatistics(DISCRETE_DATA);
+
+	private static volatile QueueStatistics cdaImport = new QueueStatistics(CDA_IMPORT);
+
+	private QueueMetrics() {
+	}
+
+	public static QueueStatistics getDiscreteData() {
+		return discreteData;
+	}
+
+	public static QueueStatistics getCdaImport() {
+		return cdaImport;
+	}
+
+	public static List<QueueStatistics> getAll() {
+		return Arrays.asList(discreteData, cdaImport);
+	}
+
+	public static void reset() {
+		discreteData = new QueueStatistics(DISCRETE_DATA);
+		cdaImport = new QueueStatistics(CDA_IMPORT);
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import org.openmrs.module.xdsbrepository.model.QueueItem;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics of one of the module's work queues. The counters are kept in memory as items are queued,
+ * taken and completed on this server. The depth per status is adjusted along with them, and replaced by
+ * the counts in the database whenever {@link #reconcile(Map, Date, long)} runs, which also picks up the work of
+ * other servers sharing the database.
+ */
+public final class QueueStatistics {
+
+	private static final long MINUTE = 60 * 1000;
+
+	private final String queue;
+
+	private final AtomicLong enqueued = new AtomicLong();
+
+	private final AtomicLong dequeued = new AtomicLong();
+
+	private final AtomicLong succeeded = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final Map<QueueItem.Status, AtomicLong> depth = new EnumMap<QueueItem.Status, AtomicLong>(QueueItem.Status.class);
+
+	private final ConcurrentMap<String, HandlerTimer> handlers = new ConcurrentHashMap<String, HandlerTimer>();
+
+	private volatile Date oldestQueued;
+
+	private volatile Date lastReconciled;
+
+	private volatile double enqueueRate;
+
+	private volatile double dequeueRate;
+
+	// counter values at the last reconciliation, guarded by this
+	private long lastEnqueued;
+
+	private long lastDequeued;
+
+	private long lastRateTime = System.currentTimeMillis();
+
+	QueueStatistics(String queue) {
+		this.queue = queue;
+		for (QueueItem.Status status : QueueItem.Status.values()) {
+			depth.put(status, new AtomicLong());
+		}
+	}
+
+	public void enqueued() {
+		enqueued.incrementAndGet();
+		depth.get(QueueItem.Status.QUEUED).incrementAndGet();
+	}
+
+	public void dequeued() {
+		dequeued.incrementAndGet();
+		decrement(QueueItem.Status.QUEUED);
+		depth.get(QueueItem.Status.PROCESSING).incrementAndGet();
+	}
+
+	/**
+	 * @param status - the status the item was left in, QUEUED if it is to be retried
+	 */
+	public void completed(QueueItem.Status status) {
+		decrement(QueueItem.Status.PROCESSING);
+		depth.get(status).incrementAndGet();
+		if (status == QueueItem.Status.SUCCESSFUL) {
+			succeeded.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Record how long a handler took to process an item
+	 */
+	public void recordHandler(String handler, long nanos, boolean successful) {
+		HandlerTimer timer = handlers.get(handler);
+		if (timer == null) {
+			HandlerTimer created = new HandlerTimer(handler);
+			timer = handlers.putIfAbsent(handler, created);
+			if (timer == null) {
+				timer = created;
+			}
+		}
+		if (successful) {
+			timer.histogram.recordNanos(nanos);
+		} else {
+			timer.failures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Replace the depth per status with the counts from the database and work out the rates since the last
+	 * reconciliation
+	 */
+	public synchronized void reconcile(Map<QueueItem.Status, Long> counts, Date oldestQueued, long now) {
+		for (QueueItem.Status status : QueueItem.Status.values()) {
+			Long count = counts.get(status);
+			depth.get(status).set(count != null ? count : 0);
+		}
+		this.oldestQueued = oldestQueued;
+
+		long elapsed = now - lastRateTime;
+		if (elapsed > 0) {
+			long enqueuedNow = enqueued.get();
+			long dequeuedNow = dequeued.get();
+			enqueueRate = (double) (enqueuedNow - lastEnqueued) * MINUTE / elapsed;
+			dequeueRate = (double) (dequeuedNow - lastDequeued) * MINUTE / elapsed;
+			lastEnqueued = enqueuedNow;
+			lastDequeued = dequeuedNow;
+			lastRateTime = now;
+		}
+		lastReconciled = new Date(now);
+	}
+
+	public String getQueue() {
+		return queue;
+	}
+
+	public long getEnqueued() {
+		return enqueued.get();
+	}
+
+	public long getDequeued() {
+		return dequeued.get();
+	}
+
+	public long getSucceeded() {
+		return succeeded.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the number of items in each status
+	 */
+	public Map<QueueItem.Status, Long> getDepth() {
+		Map<QueueItem.Status, Long> result = new EnumMap<QueueItem.Status, Long>(QueueItem.Status.class);
+		for (Map.Entry<QueueItem.Status, AtomicLong> entry : depth.entrySet()) {
+			result.put(entry.getKey(), Math.max(0, entry.getValue().get()));
+		}
+		return result;
+	}
+
+	public long getQueuedCount() {
+		return Math.max(0, depth.get(QueueItem.Status.QUEUED).get());
+	}
+
+	/**
+	 * @return the age in ms of the oldest queued item as of the last reconciliation, 0 if none was queued
+	 */
+	public long getOldestQueuedAge() {
+		Date oldest = oldestQueued;
+		return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getTime());
+	}
+
+	/**
+	 * @return items queued per minute on this server, between the last two reconciliations
+	 */
+	public double getEnqueueRate() {
+		return enqueueRate;
+	}
+
+	/**
+	 * @return items taken from the queue per minute on this server, between the last two reconciliations
+	 */
+	public double getDequeueRate() {
+		return dequeueRate;
+	}
+
+	public Date getLastReconciled() {
+		return lastReconciled;
+	}
+
+	/**
+	 * @return the processing times of each handler, by handler class name
+	 */
+	public Map<String, HandlerTimer> getHandlers() {
+		return Collections.unmodifiableMap(new TreeMap<String, HandlerTimer>(handlers));
+	}
+
+	private void decrement(QueueItem.Status status) {
+		depth.get(status).decrementAndGet();
+	}
+
+	/**
+	 * The processing times of the items a handler processed successfully, and the number it failed
+	 */
+	public static final class HandlerTimer {
+
+		private final String handler;
+
+		private final LatencyHistogram histogram = new LatencyHistogram();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		HandlerTimer(String handler) {
+			this.handler = handler;
+		}
+
+		public String getHandler() {
+			return handler;
+		}
+
+		public LatencyHistogram getHistogram() {
+			return histogram;
+		}
+
+		public long getFailures() {
+			return failures.get();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times Retrieve Document Set (ITI-43) requests by the status of their response, and counts the documents
+ * and bytes returned. Like {@link IngestMetrics} the figures live for as long as the module is started.
+ */
+public final class RetrieveMetrics {
+
+	public static final String PARTIAL_SUCCESS = "partialSuccess";
+
+	private static final ConcurrentMap<String, LatencyHistogram> requests = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private static final AtomicLong documents = new AtomicLong();
+
+	private static final AtomicLong bytes = new AtomicLong();
+
+	private static final AtomicLong missingDocuments = new AtomicLong();
+
+	private RetrieveMetrics() {
+	}
+
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param outcome - {@link StageTimer#SUCCESS}, {@link #PARTIAL_SUCCESS} or {@link StageTimer#FAILURE}
+	 */
+	public static void completed(long start, String outcome) {
+		LatencyHistogram histogram = requests.get(outcome);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = requests.putIfAbsent(outcome, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.recordNanos(System.nanoTime() - start);
+	}
+
+	public static void documentRetrieved(long size) {
+		documents.incrementAndGet();
+		bytes.addAndGet(size);
+	}
+
+	public static void documentMissing() {
+		missingDocuments.incrementAndGet();
+	}
+
+	/**
+	 * @return the request durations by outcome
+	 */
+	public static Map<String, LatencyHistogram> getRequests() {
+		return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(requests));
+	}
+
+	public static long getDocuments() {
+		return documents.get();
+	}
+
+	public static long getBytes() {
+		return bytes.get();
+	}
+
+	public static long getMissingDocuments() {
+		return missingDocuments.get();
+	}
+
+	public static void reset() {
+		requests.clear();
+		documents.set(0);
+		bytes.set(0);
+		missingDocuments.set(0);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+/**
+ * The durations of one {@link IngestStage} with one outcome. Failures are kept apart by error code: the
+ * XDS error code of an XDSException, otherwise the simple name of the exception class.
+ */
+public final class StageTimer {
+
+	public static final String SUCCESS = "success";
+
+	public static final String FAILURE = "failure";
+
+	private final IngestStage stage;
+
+	private final String outcome;
+
+	private final String errorCode;
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	StageTimer(IngestStage stage, String outcome, String errorCode) {
+		this.stage = stage;
+		this.outcome = outcome;
+		this.errorCode = errorCode;
+	}
+
+	public IngestStage getStage() {
+		return stage;
+	}
+
+	public String getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return the error code of a failure, null for successes
+	 */
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	public long getCount() {
+		return histogram.getCount();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the documents saved in the content-addressed store, and how many of their bytes had to be written
+ * and how many were already stored, and how many bytes the written content took once compressed. Like {@link IngestMetrics} the figures live for as long as the module is
+ * started, and they include documents whose storage transaction was rolled back.
+ */
+public final class StorageMetrics {
+
+	private static final AtomicLong documents = new AtomicLong();
+
+	private static final AtomicLong deduplicatedDocuments = new AtomicLong();
+
+	private static final AtomicLong bytesWritten = new AtomicLong();
+
+	private static final AtomicLong bytesStored = new AtomicLong();
+
+	private static final AtomicLong bytesDeduplicated = new AtomicLong();
+
+	private static final AtomicLong purgedContents = new AtomicLong();
+
+	private static final AtomicLong segmentSyncs = new AtomicLong();
+
+	private static final AtomicLong segmentSyncedWrites = new AtomicLong();
+
+	private static final AtomicLong segmentCompactions = new AtomicLong();
+
+	private static final AtomicLong segmentReclaimedBytes = new AtomicLong();
+
+	private StorageMetrics() {
+	}
+
+	/**
+	 * A document whose content was not stored yet, and had to be written
+	 *
+	 * @param size - the size of the content
+	 * @param storedSize - the size of the content as written, after encoding
+	 */
+	public static void contentWritten(long size, long storedSize) {
+		documents.incrementAndGet();
+		bytesWritten.addAndGet(size);
+		bytesStored.addAndGet(storedSize);
+	}
+
+	/**
+	 * A document whose content was already stored
+	 */
+	public static void contentDeduplicated(long size) {
+		documents.incrementAndGet();
+		deduplicatedDocuments.incrementAndGet();
+		bytesDeduplicated.addAndGet(size);
+	}
+
+	public static void contentPurged() {
+		purgedContents.incrementAndGet();
+	}
+
+	/**
+	 * One fsync of the segment store, which made the given number of writes durable
+	 */
+	public static void segmentSynced(long writes) {
+		segmentSyncs.incrementAndGet();
+		segmentSyncedWrites.addAndGet(writes);
+	}
+
+	public static void segmentCompacted(long reclaimedBytes) {
+		segmentCompactions.incrementAndGet();
+		segmentReclaimedBytes.addAndGet(reclaimedBytes);
+	}
+
+	public static long getDocuments() {
+		return documents.get();
+	}
+
+	public static long getDeduplicatedDocuments() {
+		return deduplicatedDocuments.get();
+	}
+
+	public static long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public static long getBytesStored() {
+		return bytesStored.get();
+	}
+
+	public static long getBytesDeduplicated() {
+		return bytesDeduplicated.get();
+	}
+
+	public static long getPurgedContents() {
+		return purgedContents.get();
+	}
+
+	public static long getSegmentSyncs() {
+		return segmentSyncs.get();
+	}
+
+	public static long getSegmentSyncedWrites() {
+		return segmentSyncedWrites.get();
+	}
+
+	public static long getSegmentCompactions() {
+		return segmentCompactions.get();
+	}
+
+	public static long getSegmentReclaimedBytes() {
+		return segmentReclaimedBytes.get();
+	}
+
+	public static void reset() {
+		documents.set(0);
+		deduplicatedDocuments.set(0);
+		bytesWritten.set(0);
+		bytesStored.set(0);
+		bytesDeduplicated.set(0);
+		purgedContents.set(0);
+		segmentSyncs.set(0);
+		segmentSyncedWrites.set(0);
+		segmentCompactions.set(0);
+		segmentReclaimedBytes.set(0);
+	}
+}
@@ -0,0 +1,124 @@
+package org.openmrs.module.xdsbrepository.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * A stored document waiting to be imported by the CDA handler. The document itself is not kept here, it is
+ * fetched from the default unstructured handler when the item is processed.
+ */
+@Entity
+@Table(name = "xdsbrepository_cda_import_queue")
+public class CdaImportQueueItem {
+
+    public static final int MAX_ERROR_LENGTH = 1024;
+
+    @Id
+    @GeneratedValue
+    @Column(name = "id")
+    private Integer id;
+
+    @Basic
+    @Column(name = "doc_id")
+    private String docUniqueId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private QueueItem.Status status;
+
+    @Basic
+    @Column(name = "attempts")
+    private Integer attempts = 0;
+
+    @Basic
+    @Column(name = "last_error", length = MAX_ERROR_LENGTH)
+    private String lastError;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "date_added")
+    private Date dateAdded;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "date_updated")
+    private Date dateUpdated;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "next_attempt")
+    private Date nextAttempt;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getDocUniqueId() {
+        return docUniqueId;
+    }
+
+    public void setDocUniqueId(String docUniqueId) {
+        this.docUniqueId = docUniqueId;
+    }
+
+    public QueueItem.Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(QueueItem.Status status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getDateAdded() {
+        return dateAdded;
+    }
+
+    public void setDateAdded(Date dateAdded) {
+        this.dateAdded = dateAdded;
+    }
+
+    public Date getDateUpdated() {
+        return dateUpdated;
+    }
+
+    public void setDateUpdated(Date dateUpdated) {
+        this.dateUpdated = dateUpdated;
+    }
+
+    /**
+     * @return when a failed import may be retried, null if the item can be processed straight away
+     */
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+}
@@ -0,0 +1,58 @@
+package org.openmrs.module.xdsbrepository.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * Records that the module created the reference data (patient, provider, encounter type...) identified by a
+ * key. The key is unique in the database, so when two submissions, possibly on different servers, try to
+ * create the same thing only one of them can commit.
+ */
+@Entity
+@Table(name = "xdsbrepository_creation_claim")
+public class CreationClaim {
+
+    @Id
+    @GeneratedValue
+    @Column(name = "id")
+    private Integer id;
+
+    @Basic
+    @Column(name = "claim_key", unique = true)
+    private String claimKey;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "date_created")
+    private Date dateCreated;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getClaimKey() {
+        return claimKey;
+    }
+
+    public void setClaimKey(String claimKey) {
+        this.claimKey = claimKey;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+}
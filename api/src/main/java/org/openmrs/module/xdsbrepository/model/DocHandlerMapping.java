@@ -1,5 +1,7 @@
 package org.openmrs.module.xdsbrepository.model;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.openmrs.BaseOpenmrsData;
 
 import javax.persistence.*;
@@ -9,8 +11,17 @@ import javax.print.attribute.IntegerSyntax;
 @Table(name = "xdsbrepository_dochandlers")
 public class DocHandlerMapping {
 
+	// ids are handed out a block at a time from a table, rather than by the database on insert, so that
+	// Hibernate can batch the inserts
 	@Id
-    @GeneratedValue
+    @GeneratedValue(generator = "xdsbrepository_dochandlers_id")
+    @GenericGenerator(name = "xdsbrepository_dochandlers_id", strategy = "org.hibernate.id.enhanced.TableGenerator",
+            parameters = {
+                    @Parameter(name = "table_name", value = "xdsbrepository_id_generator"),
+                    @Parameter(name = "segment_value", value = "xdsbrepository_dochandlers"),
+                    @Parameter(name = "increment_size", value = "100"),
+                    @Parameter(name = "optimizer", value = "pooled-lo")
+            })
     @Column(name = "id")
 	private Integer id;
 
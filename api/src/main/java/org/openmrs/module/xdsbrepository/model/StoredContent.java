@@ -0,0 +1,118 @@
+package org.openmrs.module.xdsbrepository.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * A document payload in the content-addressed store, saved once however many documents have it. The hash is
+ * the SHA-1 of the payload, as in the document's hash slot, and names the blob the payload is kept in. The
+ * reference count is the number of {@link StoredDocument}s with this content, content that is no longer
+ * referenced is purged. The payload is stored encoded with the codec recorded with it, the size is that of
+ * the original payload.
+ */
+@Entity
+@Table(name = "xdsbrepository_content")
+public class StoredContent {
+
+    @Id
+    @GeneratedValue
+    @Column(name = "id")
+    private Integer id;
+
+    @Basic
+    @Column(name = "hash", unique = true)
+    private String hash;
+
+    @Basic
+    @Column(name = "size")
+    private long size;
+
+    @Basic
+    @Column(name = "codec")
+    private String codec;
+
+    @Basic
+    @Column(name = "stored_size")
+    private Long storedSize;
+
+    @Basic
+    @Column(name = "ref_count")
+    private int refCount;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "date_created")
+    private Date dateCreated;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * @return the size of the payload in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the name of the {@link org.openmrs.module.xdsbrepository.storage.ContentCodec} the payload is
+     * stored with, null if it was stored before codecs were recorded and is stored as it is
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return the size of the payload as stored, after encoding, or null if it was stored before this was recorded
+     */
+    public Long getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+}
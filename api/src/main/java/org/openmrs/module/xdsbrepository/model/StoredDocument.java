@@ -0,0 +1,129 @@
+package org.openmrs.module.xdsbrepository.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * A document saved in the content-addressed store: the hash of its {@link StoredContent} and the metadata
+ * needed to return it as a {@link org.openmrs.module.shr.contenthandler.api.Content} again.
+ */
+@Entity
+@Table(name = "xdsbrepository_stored_documents")
+public class StoredDocument {
+
+    @Id
+    @GeneratedValue
+    @Column(name = "id")
+    private Integer id;
+
+    @Basic
+    @Column(name = "doc_id", unique = true)
+    private String docId;
+
+    @Basic
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Basic
+    @Column(name = "mime_type")
+    private String mimeType;
+
+    @Basic
+    @Column(name = "type_code")
+    private String typeCode;
+
+    @Basic
+    @Column(name = "type_code_scheme")
+    private String typeCodeScheme;
+
+    @Basic
+    @Column(name = "format_code")
+    private String formatCode;
+
+    @Basic
+    @Column(name = "format_code_scheme")
+    private String formatCodeScheme;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "date_created")
+    private Date dateCreated;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public void setDocId(String docId) {
+        this.docId = docId;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getTypeCode() {
+        return typeCode;
+    }
+
+    public void setTypeCode(String typeCode) {
+        this.typeCode = typeCode;
+    }
+
+    public String getTypeCodeScheme() {
+        return typeCodeScheme;
+    }
+
+    public void setTypeCodeScheme(String typeCodeScheme) {
+        this.typeCodeScheme = typeCodeScheme;
+    }
+
+    public String getFormatCode() {
+        return formatCode;
+    }
+
+    public void setFormatCode(String formatCode) {
+        this.formatCode = formatCode;
+    }
+
+    public String getFormatCodeScheme() {
+        return formatCodeScheme;
+    }
+
+    public void setFormatCodeScheme(String formatCodeScheme) {
+        this.formatCodeScheme = formatCodeScheme;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps the payloads of the content-addressed store, named by the upper case hex SHA-1 of the payload. Whether
+ * a payload is referenced is recorded in the database, a blob store only reads and writes bytes.
+ * <p/>
+ * Implementations must be thread safe. Putting a blob that is already stored must leave it readable
+ * throughout, since the content of a key never changes.
+ */
+public interface BlobStore extends Closeable {
+
+	void put(String key, byte[] data) throws IOException;
+
+	/**
+	 * @return the blob or null if there is none with this key
+	 */
+	byte[] get(String key) throws IOException;
+
+	/**
+	 * @return a stream of the blob, which the caller closes, or null if there is none with this key
+	 */
+	InputStream open(String key) throws IOException;
+
+	boolean contains(String key);
+
+	/**
+	 * Delete a blob, deleting one that does not exist is not an error
+	 */
+	void delete(String key) throws IOException;
+}
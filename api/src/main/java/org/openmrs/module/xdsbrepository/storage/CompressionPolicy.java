@@ -0,0 +1,120 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Which {@link ContentCodec} payloads are stored with, by mime type. A policy is a comma separated list of
+ * <code>pattern=codec</code> rules, the first rule whose pattern matches the document's mime type applies. A
+ * pattern is a mime type in which the type, the subtype or the start of the subtype may be <code>*</code>,
+ * e.g. <code>text/*</code> or <code>application/*+xml</code>, or just <code>*</code>. Payloads that no rule
+ * matches are stored as they are.
+ */
+public final class CompressionPolicy {
+
+	public static final String DEFAULT = "text/*=deflate,application/xml=deflate,application/*+xml=deflate,"
+			+ "application/json=deflate,*=none";
+
+	private final List<Rule> rules;
+
+	private CompressionPolicy(List<Rule> rules) {
+		this.rules = Collections.unmodifiableList(rules);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a rule is not <code>pattern=codec</code> or names an unknown codec
+	 */
+	public static CompressionPolicy parse(String policy) {
+		List<Rule> rules = new ArrayList<Rule>();
+		for (String rule : policy.split(",")) {
+			if (rule.trim().isEmpty()) {
+				continue;
+			}
+			int separator = rule.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Compression rule '" + rule.trim() + "' is not pattern=codec");
+			}
+			String pattern = rule.substring(0, separator).trim().toLowerCase(Locale.ENGLISH);
+			if (!pattern.equals("*") && pattern.indexOf('/') < 0) {
+				throw new IllegalArgumentException("Compression rule '" + rule.trim() + "' does not have a mime type pattern");
+			}
+			rules.add(new Rule(pattern, ContentCodecs.forName(rule.substring(separator + 1))));
+		}
+		return new CompressionPolicy(rules);
+	}
+
+	/**
+	 * @param mimeType - a mime type, which may have parameters, or null
+	 */
+	public ContentCodec getCodec(String mimeType) {
+		String type = "";
+		String subtype = "";
+		if (mimeType != null) {
+			String normalized = mimeType.toLowerCase(Locale.ENGLISH);
+			int parameters = normalized.indexOf(';');
+			if (parameters >= 0) {
+				normalized = normalized.substring(0, parameters);
+			}
+			int separator = normalized.indexOf('/');
+			if (separator >= 0) {
+				type = normalized.substring(0, separator).trim();
+				subtype = normalized.substring(separator + 1).trim();
+			}
+		}
+		for (Rule rule : rules) {
+			if (rule.matches(type, subtype)) {
+				return rule.codec;
+			}
+		}
+		return ContentCodecs.NONE;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder policy = new StringBuilder();
+		for (Rule rule : rules) {
+			if (policy.length() > 0) {
+				policy.append(',');
+			}
+			policy.append(rule.pattern).append('=').append(rule.codec.getName());
+		}
+		return policy.toString();
+	}
+
+	private static final class Rule {
+
+		private final String pattern;
+
+		private final String type;
+
+		private final String subtype;
+
+		private final ContentCodec codec;
+
+		private Rule(String pattern, ContentCodec codec) {
+			this.pattern = pattern;
+			int separator = pattern.indexOf('/');
+			this.type = separator < 0 ? "*" : pattern.substring(0, separator).trim();
+			this.subtype = separator < 0 ? "*" : pattern.substring(separator + 1).trim();
+			this.codec = codec;
+		}
+
+		private boolean matches(String mimeType, String mimeSubtype) {
+			if (!type.equals("*") && !type.equals(mimeType)) {
+				return false;
+			}
+			if (subtype.startsWith("*")) {
+				return mimeSubtype.endsWith(subtype.substring(1));
+			}
+			return subtype.equals(mimeSubtype);
+		}
+	}
+}
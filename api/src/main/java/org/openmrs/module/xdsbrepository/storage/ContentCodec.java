@@ -0,0 +1,29 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Encodes document payloads before they are put in a {@link BlobStore}, and decodes them as they are read.
+ * The codec of each payload is recorded with it, see {@link ContentCodecs#forName(String)}.
+ */
+public interface ContentCodec {
+
+	/**
+	 * @return the name the codec is recorded and configured by
+	 */
+	String getName();
+
+	byte[] encode(byte[] data) throws IOException;
+
+	/**
+	 * @return a stream of the original bytes, decoded as it is read
+	 */
+	InputStream decode(InputStream encoded) throws IOException;
+}
@@ -0,0 +1,131 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs that payloads can be stored with
+ */
+public final class ContentCodecs {
+
+	/**
+	 * Stores payloads as they are, for formats that are already compressed such as PDF and images
+	 */
+	public static final ContentCodec NONE = new ContentCodec() {
+
+		@Override
+		public String getName() {
+			return "none";
+		}
+
+		@Override
+		public byte[] encode(byte[] data) {
+			return data;
+		}
+
+		@Override
+		public InputStream decode(InputStream encoded) {
+			return encoded;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	};
+
+	/**
+	 * zlib (RFC 1950) deflate, which includes a checksum of the original bytes. XML and CDA documents usually
+	 * shrink to a fifth or less.
+	 */
+	public static final ContentCodec DEFLATE = new ContentCodec() {
+
+		@Override
+		public String getName() {
+			return "deflate";
+		}
+
+		@Override
+		public byte[] encode(byte[] data) {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			try {
+				deflater.setInput(data);
+				deflater.finish();
+				ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				return out.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		@Override
+		public InputStream decode(InputStream encoded) {
+			return new InflaterInputStream(encoded);
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	};
+
+	private ContentCodecs() {
+	}
+
+	/**
+	 * @param name - a codec name, null for payloads stored before codecs were recorded
+	 * @throws IllegalArgumentException if there is no codec of that name
+	 */
+	public static ContentCodec forName(String name) {
+		if (name == null || NONE.getName().equalsIgnoreCase(name.trim())) {
+			return NONE;
+		}
+		if (DEFLATE.getName().equalsIgnoreCase(name.trim())) {
+			return DEFLATE;
+		}
+		throw new IllegalArgumentException("Unknown content codec '" + name + "'");
+	}
+
+	/**
+	 * Decode a payload straight into an array of its original size
+	 *
+	 * @throws IOException if the decoded payload is not of that size
+	 */
+	public static byte[] decode(ContentCodec codec, InputStream encoded, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("A payload of " + size + " bytes is too large to be read");
+		}
+		InputStream in = codec.decode(encoded);
+		try {
+			byte[] data = new byte[(int) size];
+			int offset = 0;
+			while (offset < data.length) {
+				int read = in.read(data, offset, data.length - offset);
+				if (read < 0) {
+					throw new EOFException("The payload ended after " + offset + " of " + size + " bytes");
+				}
+				offset += read;
+			}
+			if (in.read() >= 0) {
+				throw new IOException("The payload is longer than " + size + " bytes");
+			}
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Holds the {@link BlobStore} of the content-addressed store. It is opened on first use, as configured at
+ * the time, and kept until the module is stopped.
+ */
+public final class ContentStorage {
+
+	private static final Log log = LogFactory.getLog(ContentStorage.class);
+
+	private static final String SEGMENTS_DIRECTORY = "segments";
+
+	private static final long COMPACTION_PERIOD = 5 * 60;
+
+	private static final Object lock = new Object();
+
+	private static volatile BlobStore blobStore;
+
+	private ContentStorage() {
+	}
+
+	public static BlobStore getBlobStore() {
+		BlobStore current = blobStore;
+		if (current == null) {
+			synchronized (lock) {
+				if (blobStore == null) {
+					blobStore = open(XDSbRepositoryConfiguration.get());
+					log.info("Storing document content in " + blobStore);
+				}
+				current = blobStore;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Open the configured store. Payloads written to the other kind of store in the same directory, before the
+	 * configuration was changed, can still be read.
+	 */
+	private static BlobStore open(XDSbRepositoryConfiguration config) {
+		File directory = getDirectory(config);
+		File segmentsDirectory = new File(directory, SEGMENTS_DIRECTORY);
+		BlobStore files = new FileBlobStore(directory);
+		try {
+			if (config.isSegmentStorage()) {
+				SegmentBlobStore segments = new SegmentBlobStore(segmentsDirectory,
+						config.getStorageSegmentSize() * 1024L * 1024L, config.getStorageCompactionThreshold());
+				segments.startCompaction(COMPACTION_PERIOD);
+				return new LayeredBlobStore(segments, files);
+			}
+			if (segmentsDirectory.isDirectory()) {
+				SegmentBlobStore segments = new SegmentBlobStore(segmentsDirectory,
+						config.getStorageSegmentSize() * 1024L * 1024L, config.getStorageCompactionThreshold());
+				return new LayeredBlobStore(files, segments);
+			}
+			return files;
+		} catch (IOException e) {
+			throw new APIException("Unable to open the content store in " + directory, e);
+		}
+	}
+
+	private static File getDirectory(XDSbRepositoryConfiguration config) {
+		if (config.getStorageDirectory() != null) {
+			return new File(config.getStorageDirectory());
+		}
+		return new File(OpenmrsUtil.getApplicationDataDirectory(), "xdsbrepository" + File.separator + "content");
+	}
+
+	/**
+	 * Close the store, it is opened again on next use
+	 */
+	public static void clear() {
+		synchronized (lock) {
+			if (blobStore != null) {
+				try {
+					blobStore.close();
+				} catch (IOException e) {
+					log.warn("Unable to close the content store", e);
+				}
+				blobStore = null;
+			}
+		}
+	}
+}
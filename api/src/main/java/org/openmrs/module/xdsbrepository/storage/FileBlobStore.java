@@ -0,0 +1,142 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Stores each blob in a file of its own, <code>&lt;directory&gt;/ab/abcdef...</code>, so that no directory
+ * holds more than a 256th of the files. A blob is written to a temporary file which is synced and then
+ * renamed into place, a reader sees either the whole blob or none. The directory is synced after the rename,
+ * so that the blob is still there after a crash.
+ */
+public class FileBlobStore implements BlobStore {
+
+	// keys are hashes, anything else could name a file outside of the directory
+	private static final Pattern KEY = Pattern.compile("[0-9A-Fa-f]{8,128}");
+
+	private static final AtomicLong tempFiles = new AtomicLong();
+
+	private final File directory;
+
+	public FileBlobStore(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public void put(String key, byte[] data) throws IOException {
+		File file = getFile(key);
+		File parent = file.getParentFile();
+		if (!parent.isDirectory()) {
+			if (!parent.mkdirs() && !parent.isDirectory()) {
+				throw new IOException("Could not create directory " + parent);
+			}
+			syncDirectory(directory);
+		}
+
+		File temp = new File(parent, key + ".tmp" + tempFiles.incrementAndGet());
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data);
+			// the database row that references the blob may be committed as soon as this returns
+			out.getFD().sync();
+		} catch (IOException e) {
+			out.close();
+			temp.delete();
+			throw e;
+		}
+		out.close();
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		// the rename is only durable once the directory entry is
+		syncDirectory(parent);
+	}
+
+	@Override
+	public byte[] get(String key) throws IOException {
+		try {
+			return Files.readAllBytes(getFile(key).toPath());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public InputStream open(String key) throws IOException {
+		try {
+			return new BufferedInputStream(new FileInputStream(getFile(key)), 64 * 1024);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return getFile(key).isFile();
+	}
+
+	@Override
+	public void delete(String key) throws IOException {
+		Files.deleteIfExists(getFile(key).toPath());
+	}
+
+	@Override
+	public void close() {
+	}
+
+	File getFile(String key) {
+		checkKey(key);
+		return new File(new File(directory, key.substring(0, 2).toLowerCase()), key);
+	}
+
+	private static void syncDirectory(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			// a directory can not be opened on Windows, which has no way to sync one
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	static void checkKey(String key) {
+		if (key == null || !KEY.matcher(key).matches()) {
+			throw new IllegalArgumentException("Invalid blob key: " + key);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileBlobStore[" + directory + "]";
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes new blobs to one store while still reading the blobs that were written to another before the
+ * configured store was changed. Deletes go to both.
+ */
+public class LayeredBlobStore implements BlobStore {
+
+	private final BlobStore current;
+
+	private final BlobStore previous;
+
+	public LayeredBlobStore(BlobStore current, BlobStore previous) {
+		this.current = current;
+		this.previous = previous;
+	}
+
+	public BlobStore getCurrent() {
+		return current;
+	}
+
+	@Override
+	public void put(String key, byte[] data) throws IOException {
+		current.put(key, data);
+	}
+
+	@Override
+	public byte[] get(String key) throws IOException {
+		byte[] data = current.get(key);
+		return data != null ? data : previous.get(key);
+	}
+
+	@Override
+	public InputStream open(String key) throws IOException {
+		InputStream in = current.open(key);
+		return in != null ? in : previous.open(key);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return current.contains(key) || previous.contains(key);
+	}
+
+	@Override
+	public void delete(String key) throws IOException {
+		current.delete(key);
+		previous.delete(key);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			current.close();
+		} finally {
+			previous.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return current + ", reading " + previous;
+	}
+}
@@ -0,0 +1,719 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.storage;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.xdsbrepository.metrics.StorageMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Stores blobs as records appended to large segment files, so that storing a document is a sequential write
+ * to one open file rather than the creation of a file of its own.
+ * <p/>
+ * A record is a header (magic, type, key and data length), the key, the data and a CRC32 of all of that.
+ * Deleting a blob appends a tombstone record. The location of the latest record of each key is kept in an
+ * in-memory index, which is rebuilt by scanning the segments when the store is opened. A torn record at the end of the
+ * last segment, left by a crash, is truncated.
+ * <p/>
+ * Writers append under a lock and then wait for their record to be synced. Whoever syncs first syncs the
+ * records of all the writers that appended before it, so under load many documents share one fsync.
+ * <p/>
+ * Once a segment reaches the segment size it is sealed and memory-mapped, and is read from the mapping from
+ * then on. Sealed segments whose records are mostly superseded or deleted are compacted in the background:
+ * their live records are appended again and the segment file is deleted.
+ */
+public class SegmentBlobStore implements BlobStore {
+
+	private static final Log log = LogFactory.getLog(SegmentBlobStore.class);
+
+	private static final int MAGIC = 0x58445342;
+
+	private static final byte PUT = 1;
+
+	private static final byte DELETE = 2;
+
+	// magic, type, key length, data length
+	private static final int HEADER_SIZE = 4 + 1 + 2 + 4;
+
+	private static final int TRAILER_SIZE = 4;
+
+	// a mapping can not be larger than this
+	private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".dat";
+
+	private static final Charset KEY_CHARSET = Charset.forName("US-ASCII");
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final File directory;
+
+	private final long segmentSize;
+
+	private final double compactionThreshold;
+
+	private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+	private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+
+	// guards appending, the active segment and the sequence numbers of the appended records
+	private final Object writeLock = new Object();
+
+	private final Object syncLock = new Object();
+
+	private Segment active;
+
+	private long appended;
+
+	private volatile long synced;
+
+	private volatile boolean closed;
+
+	private ScheduledExecutorService compactor;
+
+	/**
+	 * Open the store, creating the directory if need be and indexing the segments that are in it
+	 *
+	 * @param segmentSize - the size in bytes at which a segment is sealed and a new one started
+	 * @param compactionThreshold - the fraction of a sealed segment that must be superseded or deleted records
+	 * before it is compacted
+	 */
+	public SegmentBlobStore(File directory, long segmentSize, double compactionThreshold) throws IOException {
+		this.directory = directory;
+		this.segmentSize = Math.min(Math.max(segmentSize, 1024 * 1024), MAX_SEGMENT_SIZE);
+		this.compactionThreshold = compactionThreshold;
+		open();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+
+		List<Integer> ids = new ArrayList<Integer>();
+		String[] names = directory.list(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		for (String name : names) {
+			try {
+				ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+			} catch (NumberFormatException e) {
+				log.warn("Ignoring " + name + " in " + directory + ", it is not a segment");
+			}
+		}
+		Collections.sort(ids);
+
+		synchronized (writeLock) {
+			for (int i = 0; i < ids.size(); i++) {
+				boolean last = i == ids.size() - 1;
+				Segment segment = new Segment(ids.get(i), getSegmentFile(ids.get(i)));
+				segments.put(segment.id, segment);
+				scan(segment, last);
+				if (last) {
+					active = segment;
+				} else {
+					segment.seal();
+				}
+			}
+			if (active == null) {
+				roll();
+			}
+		}
+		log.info("Opened " + segments.size() + " segments holding " + index.size() + " blobs in " + directory);
+	}
+
+	/**
+	 * Index the records of a segment. The records of the last segment are checked against their CRC, since
+	 * its tail may have been torn by a crash, sealed segments were synced before they were sealed.
+	 */
+	private void scan(Segment segment, boolean last) throws IOException {
+		long size = segment.channel.size();
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (position + HEADER_SIZE + TRAILER_SIZE <= size) {
+			header.clear();
+			readFully(segment.channel, header, position);
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				break;
+			}
+			byte type = header.get();
+			int keyLength = header.getShort() & 0xFFFF;
+			int dataLength = header.getInt();
+			long recordSize = (long) HEADER_SIZE + keyLength + dataLength + TRAILER_SIZE;
+			if ((type != PUT && type != DELETE) || dataLength < 0 || position + recordSize > size) {
+				break;
+			}
+
+			byte[] key = new byte[keyLength];
+			readFully(segment.channel, ByteBuffer.wrap(key), position + HEADER_SIZE);
+			if (last && !checkCrc(segment.channel, position, recordSize)) {
+				break;
+			}
+
+			Location location = new Location(segment.id, position + HEADER_SIZE + keyLength, dataLength, (int) recordSize);
+			String keyString = new String(key, KEY_CHARSET);
+			Location previous = type == PUT ? index.put(keyString, location) : index.remove(keyString);
+			if (previous != null) {
+				addGarbage(previous);
+			}
+			if (type == DELETE) {
+				segment.garbage.addAndGet(recordSize);
+			}
+			position += recordSize;
+		}
+
+		if (position < size) {
+			if (last) {
+				log.warn("Truncating segment " + segment.file + " from " + size + " to " + position
+						+ " bytes, the last record was not completely written");
+				segment.channel.truncate(position);
+				segment.channel.force(true);
+			} else {
+				log.error("Segment " + segment.file + " is corrupt after offset " + position + ", ignoring the rest of it");
+			}
+		}
+		segment.size = position;
+	}
+
+	private static boolean checkCrc(FileChannel channel, long position, long recordSize) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(64 * 1024, recordSize));
+		long remaining = recordSize - TRAILER_SIZE;
+		long offset = position;
+		while (remaining > 0) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), remaining));
+			readFully(channel, buffer, offset);
+			crc.update(buffer.array(), 0, buffer.limit());
+			offset += buffer.limit();
+			remaining -= buffer.limit();
+		}
+		ByteBuffer stored = ByteBuffer.allocate(TRAILER_SIZE);
+		readFully(channel, stored, offset);
+		stored.flip();
+		return stored.getInt() == (int) crc.getValue();
+	}
+
+	@Override
+	public void put(String key, byte[] data) throws IOException {
+		FileBlobStore.checkKey(key);
+		long sequence;
+		synchronized (writeLock) {
+			checkOpen();
+			Location previous = index.put(key, append(PUT, key, data));
+			if (previous != null) {
+				addGarbage(previous);
+			}
+			sequence = appended;
+		}
+		awaitSynced(sequence);
+	}
+
+	@Override
+	public byte[] get(String key) throws IOException {
+		FileBlobStore.checkKey(key);
+		while (true) {
+			Location location = index.get(key);
+			if (location == null) {
+				return null;
+			}
+			Segment segment = segments.get(location.segmentId);
+			// otherwise the segment has been compacted since, and the index points at the copy
+			if (segment != null) {
+				return segment.read(location.dataPosition, location.length);
+			}
+		}
+	}
+
+	@Override
+	public InputStream open(String key) throws IOException {
+		FileBlobStore.checkKey(key);
+		while (true) {
+			Location location = index.get(key);
+			if (location == null) {
+				return null;
+			}
+			Segment segment = segments.get(location.segmentId);
+			if (segment != null) {
+				return segment.open(location.dataPosition, location.length);
+			}
+		}
+	}
+
+	@Override
+	public boolean contains(String key) {
+		FileBlobStore.checkKey(key);
+		return index.containsKey(key);
+	}
+
+	@Override
+	public void delete(String key) throws IOException {
+		FileBlobStore.checkKey(key);
+		long sequence;
+		synchronized (writeLock) {
+			checkOpen();
+			Location previous = index.remove(key);
+			if (previous == null) {
+				return;
+			}
+			addGarbage(previous);
+			addGarbage(append(DELETE, key, EMPTY));
+			sequence = appended;
+		}
+		awaitSynced(sequence);
+	}
+
+	/**
+	 * Append a record to the active segment, starting a new one if it would grow past the segment size. The
+	 * caller holds the write lock.
+	 */
+	private Location append(byte type, String key, byte[] data) throws IOException {
+		byte[] keyBytes = key.getBytes(KEY_CHARSET);
+		long recordSize = (long) HEADER_SIZE + keyBytes.length + data.length + TRAILER_SIZE;
+		if (recordSize > MAX_SEGMENT_SIZE) {
+			throw new IOException("A blob of " + data.length + " bytes is too large for a segment");
+		}
+		if (active.size > 0 && active.size + recordSize > segmentSize) {
+			roll();
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length);
+		header.putInt(MAGIC).put(type).putShort((short) keyBytes.length).putInt(data.length).put(keyBytes);
+		header.flip();
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 0, header.limit());
+		crc.update(data, 0, data.length);
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		trailer.putInt((int) crc.getValue());
+		trailer.flip();
+
+		// the data is written from the caller's array, it is not copied into one record buffer
+		long position = active.size;
+		ByteBuffer[] record = new ByteBuffer[] { header, ByteBuffer.wrap(data), trailer };
+		try {
+			active.channel.position(position);
+			while (record[2].hasRemaining()) {
+				active.channel.write(record);
+			}
+		} catch (IOException e) {
+			// don't leave a partial record for the next one to be appended after
+			active.channel.truncate(position);
+			throw e;
+		}
+		active.size = position + recordSize;
+		appended++;
+		return new Location(active.id, position + HEADER_SIZE + keyBytes.length, data.length, (int) recordSize);
+	}
+
+	/**
+	 * Seal the active segment and start a new one. The caller holds the write lock.
+	 */
+	private void roll() throws IOException {
+		int id = 1;
+		if (active != null) {
+			// everything appended so far is synced with it, whoever waits for those records finds them synced
+			active.channel.force(false);
+			synced = appended;
+			active.seal();
+			id = active.id + 1;
+		} else if (!segments.isEmpty()) {
+			id = segments.lastKey() + 1;
+		}
+		Segment segment = new Segment(id, getSegmentFile(id));
+		segments.put(id, segment);
+		active = segment;
+	}
+
+	/**
+	 * Wait until the record with the given sequence number has been synced, syncing it and every record
+	 * appended before the sync started if no one else has
+	 */
+	private void awaitSynced(long sequence) throws IOException {
+		if (synced >= sequence) {
+			return;
+		}
+		synchronized (syncLock) {
+			if (synced >= sequence) {
+				return;
+			}
+			long upTo;
+			Segment segment;
+			synchronized (writeLock) {
+				upTo = appended;
+				segment = active;
+			}
+			// records in segments that were sealed meanwhile were synced when they were sealed
+			segment.channel.force(false);
+			if (upTo > synced) {
+				StorageMetrics.segmentSynced(upTo - synced);
+				synced = upTo;
+			}
+		}
+	}
+
+	private void addGarbage(Location location) {
+		Segment segment = segments.get(location.segmentId);
+		if (segment != null) {
+			segment.garbage.addAndGet(location.recordSize);
+		}
+	}
+
+	/**
+	 * Compact every sealed segment in which the superseded and deleted records have reached the compaction
+	 * threshold
+	 *
+	 * @return the number of segments compacted
+	 */
+	public int compact() throws IOException {
+		int compacted = 0;
+		for (Segment segment : segments.values()) {
+			if (closed) {
+				break;
+			}
+			if (segment.isSealed() && (segment.size == 0
+					|| (double) segment.garbage.get() / segment.size >= compactionThreshold)) {
+				compact(segment);
+				compacted++;
+			}
+		}
+		return compacted;
+	}
+
+	/**
+	 * Append the records of a segment that are still live again, then delete it. Each record is moved under
+	 * the write lock, so it can not be overwritten or deleted while it is moved. Tombstones are moved too,
+	 * unless this is the oldest segment, since the record they delete may still be in an older segment.
+	 */
+	private void compact(Segment segment) throws IOException {
+		boolean oldest = segment.id == segments.firstKey();
+		long reclaimed = segment.size;
+		long position = 0;
+		while (position < segment.size) {
+			ByteBuffer header = segment.slice(position, HEADER_SIZE);
+			header.getInt();
+			byte type = header.get();
+			int keyLength = header.getShort() & 0xFFFF;
+			int dataLength = header.getInt();
+			byte[] keyBytes = new byte[keyLength];
+			segment.slice(position + HEADER_SIZE, keyLength).get(keyBytes);
+			String key = new String(keyBytes, KEY_CHARSET);
+			long dataPosition = position + HEADER_SIZE + keyLength;
+
+			synchronized (writeLock) {
+				checkOpen();
+				if (type == PUT) {
+					Location current = index.get(key);
+					if (current != null && current.segmentId == segment.id && current.dataPosition == dataPosition) {
+						Location moved = append(PUT, key, segment.read(dataPosition, dataLength));
+						index.put(key, moved);
+						reclaimed -= moved.recordSize;
+					}
+				} else if (!oldest && !index.containsKey(key)) {
+					Location moved = append(DELETE, key, EMPTY);
+					addGarbage(moved);
+					reclaimed -= moved.recordSize;
+				}
+			}
+			position += (long) HEADER_SIZE + keyLength + dataLength + TRAILER_SIZE;
+		}
+
+		// the moved records must be synced before the originals are gone
+		long sequence;
+		synchronized (writeLock) {
+			sequence = appended;
+		}
+		awaitSynced(sequence);
+
+		segments.remove(segment.id);
+		segment.close();
+		if (!segment.file.delete()) {
+			log.warn("Could not delete compacted segment " + segment.file);
+		}
+		StorageMetrics.segmentCompacted(reclaimed);
+		log.info("Compacted segment " + segment.file + ", reclaiming " + reclaimed + " bytes");
+	}
+
+	/**
+	 * Compact segments in the background at a fixed period
+	 */
+	public void startCompaction(long periodSeconds) {
+		synchronized (writeLock) {
+			if (compactor != null || closed) {
+				return;
+			}
+			compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "xdsbrepository-segment-compaction");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			compactor.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch (Exception e) {
+						if (!closed) {
+							log.error("Compaction of the segments in " + directory + " failed", e);
+						}
+					}
+				}
+			}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		ScheduledExecutorService stopping;
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			stopping = compactor;
+			compactor = null;
+		}
+		if (stopping != null) {
+			stopping.shutdown();
+			try {
+				stopping.awaitTermination(60, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (writeLock) {
+			active.channel.force(false);
+			for (Segment segment : segments.values()) {
+				segment.close();
+			}
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("The segment store in " + directory + " has been closed");
+		}
+	}
+
+	/**
+	 * @return the number of segments, including the active one
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return the bytes of all segments, including superseded and deleted records
+	 */
+	public long getSize() {
+		long size = 0;
+		for (Segment segment : segments.values()) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the bytes of superseded and deleted records, that compaction would reclaim
+	 */
+	public long getGarbage() {
+		long garbage = 0;
+		for (Segment segment : segments.values()) {
+			garbage += segment.garbage.get();
+		}
+		return garbage;
+	}
+
+	public int getBlobCount() {
+		return index.size();
+	}
+
+	private File getSegmentFile(int id) {
+		return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			offset += read;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SegmentBlobStore[" + directory + "]";
+	}
+
+	/**
+	 * Where the latest record of a key is
+	 */
+	private static final class Location {
+
+		private final int segmentId;
+
+		private final long dataPosition;
+
+		private final int length;
+
+		private final int recordSize;
+
+		private Location(int segmentId, long dataPosition, int length, int recordSize) {
+			this.segmentId = segmentId;
+			this.dataPosition = dataPosition;
+			this.length = length;
+			this.recordSize = recordSize;
+		}
+	}
+
+	private static final class Segment {
+
+		private final int id;
+
+		private final File file;
+
+		private final FileChannel channel;
+
+		// only changed under the write lock, and only while the segment is active
+		private volatile long size;
+
+		private final AtomicLong garbage = new AtomicLong();
+
+		private volatile MappedByteBuffer mapping;
+
+		private Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+		}
+
+		private boolean isSealed() {
+			return mapping != null;
+		}
+
+		private void seal() throws IOException {
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+
+		/**
+		 * @return a read-only view of part of a sealed segment
+		 */
+		private ByteBuffer slice(long position, int length) {
+			ByteBuffer slice = mapping.duplicate();
+			slice.position((int) position);
+			slice.limit((int) position + length);
+			return slice.slice();
+		}
+
+		private byte[] read(long position, int length) throws IOException {
+			byte[] data = new byte[length];
+			if (mapping != null) {
+				slice(position, length).get(data);
+			} else {
+				readFully(channel, ByteBuffer.wrap(data), position);
+			}
+			return data;
+		}
+
+		/**
+		 * @return a stream of part of the segment, read from the mapping if the segment is sealed
+		 */
+		private InputStream open(long position, int length) throws IOException {
+			if (mapping != null) {
+				return new MappedInputStream(slice(position, length));
+			}
+			return new ByteArrayInputStream(read(position, length));
+		}
+
+		private void close() throws IOException {
+			// the mapping stays valid for readers that still hold it, it is released when it is collected
+			channel.close();
+		}
+	}
+
+	private static final class MappedInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private MappedInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int read = Math.min(len, buffer.remaining());
+			buffer.get(b, off, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.openmrs.module.xdsbrepository.tasks;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.shr.cdahandler.api.CdaImportService;
+import org.openmrs.module.shr.cdahandler.exception.DocumentImportException;
+import org.openmrs.module.shr.contenthandler.api.Content;
+import org.openmrs.module.shr.contenthandler.api.ContentHandler;
+import org.openmrs.module.shr.contenthandler.api.ContentHandlerException;
+import org.openmrs.module.shr.contenthandler.api.ContentHandlerService;
+import org.openmrs.module.xdsbrepository.Utils;
+import org.openmrs.module.xdsbrepository.XDSbService;
+import org.openmrs.module.xdsbrepository.exceptions.XdsRepositoryException;
+import org.openmrs.module.xdsbrepository.metrics.IngestMetrics;
+import org.openmrs.module.xdsbrepository.metrics.IngestStage;
+import org.openmrs.module.xdsbrepository.metrics.QueueMetrics;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Imports documents queued by the Provide and Register transaction into the CDA handler, see
+ * {@link XDSbService#queueCdaImport(String)}
+ */
+public class CdaImportProcessorTask implements Runnable {
+
+    private static final Object lock = new Object();
+
+    private Log log = LogFactory.getLog(CdaImportProcessorTask.class);
+
+    @Override
+    public void run() {
+        XDSbService service = Context.getService(XDSbService.class);
+        Utils.startSession();
+
+        try {
+            CdaImportQueueItem currentItem;
+            // ensure that tasks don't dequeue the same queue item
+            synchronized (lock) {
+                currentItem = service.dequeueNextCdaImport();
+            }
+            if (currentItem != null) {
+                long start = IngestMetrics.start();
+                boolean imported = false;
+                try {
+                    processQueueItem(currentItem);
+                    IngestMetrics.success(IngestStage.CDA_IMPORT, start);
+                    imported = true;
+                } catch (Exception e) {
+                    IngestMetrics.failure(IngestStage.CDA_IMPORT, start, e);
+                    log.error("Error importing CDA document asynchronously for queue item " + currentItem.getId()
+                            + " for documentUniqueId " + currentItem.getDocUniqueId() + " (attempt "
+                            + currentItem.getAttempts() + ")", e);
+                    service.completeCdaImport(currentItem, e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+                // outside of the try above so that a failure to mark the import complete is not retried as a failed import
+                if (imported) {
+                    service.completeCdaImport(currentItem, null);
+                }
+            }
+        } catch (RuntimeException e) {
+            // an exception would stop the task from being scheduled again
+            log.error("Error processing the CDA import queue", e);
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+    protected void processQueueItem(CdaImportQueueItem item) throws ContentHandlerException, DocumentImportException, XdsRepositoryException {
+        ContentHandlerService chs = Context.getService(ContentHandlerService.class);
+        ContentHandler defaultHandler = chs.getDefaultUnstructuredHandler();
+
+        // fetch the stored document from the content-addressed store or the unstructured handler
+        Content content = Context.getService(XDSbService.class).getStoredContent(item.getDocUniqueId());
+        if (content == null) {
+            content = defaultHandler.fetchContent(item.getDocUniqueId());
+        }
+        if (content == null) {
+            throw new XdsRepositoryException("Document " + item.getDocUniqueId() + " could not be fetched for import");
+        }
+
+        long start = System.nanoTime();
+        boolean successful = false;
+        try {
+            Context.getService(CdaImportService.class).importDocument(new ByteArrayInputStream(content.getPayload()));
+            successful = true;
+        } finally {
+            QueueMetrics.getCdaImport().recordHandler(CdaImportService.class.getName(), System.nanoTime() - start,
+                    successful);
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.openmrs.module.xdsbrepository.tasks;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.Utils;
+import org.openmrs.module.xdsbrepository.XDSbService;
+
+/**
+ * Periodically deletes the expired claims on the creation of reference data, see
+ * {@link XDSbService#purgeExpiredCreationClaims()}
+ */
+public class CreationClaimPurgeTask implements Runnable {
+
+    private Log log = LogFactory.getLog(CreationClaimPurgeTask.class);
+
+    @Override
+    public void run() {
+        Utils.startSession();
+
+        try {
+            int purged = Context.getService(XDSbService.class).purgeExpiredCreationClaims();
+            if (purged > 0) {
+                log.debug("Purged " + purged + " expired creation claims");
+            }
+        } catch (RuntimeException e) {
+            // an exception would stop the task from being scheduled again
+            log.error("Error purging the expired creation claims", e);
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+}
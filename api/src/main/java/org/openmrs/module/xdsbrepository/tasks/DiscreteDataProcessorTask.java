@@ -18,10 +18,15 @@ import org.openmrs.module.xdsbrepository.Utils;
 import org.openmrs.module.xdsbrepository.XDSbService;
 import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
 import org.openmrs.module.xdsbrepository.exceptions.HydrateRoleProviderMapException;
+import org.openmrs.module.xdsbrepository.metrics.IngestMetrics;
+import org.openmrs.module.xdsbrepository.metrics.IngestStage;
+import org.openmrs.module.xdsbrepository.metrics.QueueMetrics;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -36,22 +41,27 @@ public class DiscreteDataProcessorTask implements Runnable {
         XDSbService service = Context.getService(XDSbService.class);
         Utils.startSession();
 
-        QueueItem currentQueueItem;
-        // ensure that tasks don't dequeue the same queue item
-        synchronized (lock) {
-            currentQueueItem = service.dequeueNextDiscreteDataForProcessing();
-        }
-        if (currentQueueItem != null) {
-            try {
-                processQueueItem(currentQueueItem);
-                service.completeQueueItem(currentQueueItem, true);
-            } catch (Exception e) {
-                log.error("Error processing discrete data asynchronously for queue item "
-                        + currentQueueItem.getId() + " for documentUniqueId " + currentQueueItem.getDocUniqueId(), e);
-                if (currentQueueItem != null) {
+        try {
+            QueueItem currentQueueItem;
+            // ensure that tasks don't dequeue the same queue item
+            synchronized (lock) {
+                currentQueueItem = service.dequeueNextDiscreteDataForProcessing();
+            }
+            if (currentQueueItem != null) {
+                long start = IngestMetrics.start();
+                try {
+                    processQueueItem(currentQueueItem);
+                    IngestMetrics.success(IngestStage.DISCRETE_HANDLER, start);
+                    service.completeQueueItem(currentQueueItem, true);
+                } catch (Exception e) {
+                    IngestMetrics.failure(IngestStage.DISCRETE_HANDLER, start, e);
+                    log.error("Error processing discrete data asynchronously for queue item "
+                            + currentQueueItem.getId() + " for documentUniqueId " + currentQueueItem.getDocUniqueId(), e);
                     service.completeQueueItem(currentQueueItem, false);
                 }
             }
+        } finally {
+            Context.closeSession();
         }
     }
 
@@ -59,8 +69,11 @@ public class DiscreteDataProcessorTask implements Runnable {
         ContentHandlerService chs = Context.getService(ContentHandlerService.class);
         ContentHandler defaultHandler = chs.getDefaultUnstructuredHandler();
 
-        // fetch content object from unstructured handler
-        Content content = defaultHandler.fetchContent(queueItem.getDocUniqueId());
+        // fetch content object from the content-addressed store or the unstructured handler
+        Content content = Context.getService(XDSbService.class).getStoredContent(queueItem.getDocUniqueId());
+        if (content == null) {
+            content = defaultHandler.fetchContent(queueItem.getDocUniqueId());
+        }
         ContentHandler discreteHandler = chs.getContentHandler(content.getTypeCode(), content.getFormatCode());
 
         // get metadata objects
@@ -70,41 +83,66 @@ public class DiscreteDataProcessorTask implements Runnable {
         Map<EncounterRole, Set<Provider>> providersByRole = hydrateRoleProviderMap(roleProviderMap);
 
         // attempt discrete save
-        discreteHandler.saveContent(patient, providersByRole, encounterType, content, null);
+        long start = System.nanoTime();
+        boolean successful = false;
+        try {
+            discreteHandler.saveContent(patient, providersByRole, encounterType, content, null);
+            successful = true;
+        } finally {
+            QueueMetrics.getDiscreteData().recordHandler(discreteHandler.getClass().getName(),
+                    System.nanoTime() - start, successful);
+        }
     }
 
     protected Map<EncounterRole, Set<Provider>> hydrateRoleProviderMap(String roleProviderMap) throws HydrateRoleProviderMapException {
-        // See https://regex101.com/r/wD9oZ4/2 for an explanation of the regex
-        boolean valid = roleProviderMap.matches("^(?:\\d+:\\d+(?:,\\d+)*)(?:\\|(?:\\d+:\\d+(?:,\\d+)*))*$");
-        if (!valid) {
-            throw new HydrateRoleProviderMapException("The RoleProviderMap does not appear to be in the correct format. A correct pattern is as follows: <role_id>:<provider_id>,<provider_id>,...|<role_id>:<provider_id>,<provider_id>,...|...");
-        }
-
         EncounterService es = Context.getEncounterService();
         ProviderService ps = Context.getProviderService();
         Map<EncounterRole, Set<Provider>> providersByRole = new LinkedHashMap<EncounterRole, Set<Provider>>();
 
-        String[] role2Providers = roleProviderMap.split("\\|");
-        for (int i = 0; i < role2Providers.length; i++) {
-            String[] split = role2Providers[i].split(":");
-            String[] providers = split[1].split(",");
-
+        for (Map.Entry<Integer, List<Integer>> role : parseRoleProviderMap(roleProviderMap).entrySet()) {
             Set<Provider> providersSet = new HashSet<Provider>();
-            for (int j = 0; j < providers.length; j++) {
+            for (Integer providerId : role.getValue()) {
                 try {
-                    providersSet.add(ps.getProvider(Integer.parseInt(providers[j])));
+                    providersSet.add(ps.getProvider(providerId));
                 } catch (ObjectNotFoundException e) {
-                    throw new HydrateRoleProviderMapException("Could not fetch provider with id: " + providers[j], e);
+                    throw new HydrateRoleProviderMapException("Could not fetch provider with id: " + providerId, e);
                 }
             }
 
-            EncounterRole encounterRole = es.getEncounterRole(Integer.parseInt(split[0]));
+            EncounterRole encounterRole = es.getEncounterRole(role.getKey());
             if (encounterRole == null) {
-                throw new HydrateRoleProviderMapException("Could not fetch encounter role with id: " + split[0]);
+                throw new HydrateRoleProviderMapException("Could not fetch encounter role with id: " + role.getKey());
             }
             providersByRole.put(encounterRole, providersSet);
         }
         return providersByRole;
     }
 
+    /**
+     * Check the format of a role to providers map and split it into ids, everything of
+     * {@link #hydrateRoleProviderMap(String)} but the database lookups
+     * @return the provider ids by encounter role id, in the order of the map
+     */
+    protected static Map<Integer, List<Integer>> parseRoleProviderMap(String roleProviderMap) throws HydrateRoleProviderMapException {
+        // See https://regex101.com/r/wD9oZ4/2 for an explanation of the regex
+        boolean valid = roleProviderMap.matches("^(?:\\d+:\\d+(?:,\\d+)*)(?:\\|(?:\\d+:\\d+(?:,\\d+)*))*$");
+        if (!valid) {
+            throw new HydrateRoleProviderMapException("The RoleProviderMap does not appear to be in the correct format. A correct pattern is as follows: <role_id>:<provider_id>,<provider_id>,...|<role_id>:<provider_id>,<provider_id>,...|...");
+        }
+
+        Map<Integer, List<Integer>> providerIdsByRoleId = new LinkedHashMap<Integer, List<Integer>>();
+        String[] role2Providers = roleProviderMap.split("\\|");
+        for (int i = 0; i < role2Providers.length; i++) {
+            String[] split = role2Providers[i].split(":");
+            String[] providers = split[1].split(",");
+
+            List<Integer> providerIds = new ArrayList<Integer>(providers.length);
+            for (int j = 0; j < providers.length; j++) {
+                providerIds.add(Integer.parseInt(providers[j]));
+            }
+            providerIdsByRoleId.put(Integer.parseInt(split[0]), providerIds);
+        }
+        return providerIdsByRoleId;
+    }
+
 }
@@ -0,0 +1,31 @@
+package org.openmrs.module.xdsbrepository.tasks;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.Utils;
+import org.openmrs.module.xdsbrepository.XDSbService;
+
+/**
+ * Periodically replaces the in-memory queue depths with the counts in the database, see
+ * {@link XDSbService#reconcileQueueStatistics()}
+ */
+public class QueueStatisticsTask implements Runnable {
+
+    private Log log = LogFactory.getLog(QueueStatisticsTask.class);
+
+    @Override
+    public void run() {
+        Utils.startSession();
+
+        try {
+            Context.getService(XDSbService.class).reconcileQueueStatistics();
+        } catch (RuntimeException e) {
+            // an exception would stop the task from being scheduled again
+            log.error("Error reconciling the queue statistics", e);
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+}
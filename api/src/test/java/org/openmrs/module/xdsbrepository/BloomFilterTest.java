@@ -0,0 +1,44 @@
+package org.openmrs.module.xdsbrepository;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void mightContain_shouldReturnTrueForEveryAddedValue() throws Exception {
+        BloomFilter filter = new BloomFilter(10000, 0.01, 1024 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("1.3.6.1.4.1.21367.2010.1.2." + i);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("1.3.6.1.4.1.21367.2010.1.2." + i));
+        }
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    public void mightContain_shouldRarelyReturnTrueForValuesThatWereNotAdded() throws Exception {
+        BloomFilter filter = new BloomFilter(10000, 0.01, 1024 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("1.3.6.1.4.1.21367.2010.1.2." + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("2.25." + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void bloomFilter_shouldNotUseMoreThanTheMemoryBudget() throws Exception {
+        BloomFilter filter = new BloomFilter(10000000, 0.01, 1024);
+
+        assertEquals(1024 * 8, filter.getBitCount());
+    }
+}
@@ -0,0 +1,193 @@
+package org.openmrs.module.xdsbrepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.shr.contenthandler.api.Content;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DocumentContentCacheTest {
+
+    @Before
+    public void setup() {
+        // a budget of 1 MB, the window is a tenth of that
+        XDSbRepositoryConfiguration.install(Collections.singletonMap(XDSbServiceConstants.XDS_REPOSITORY_DOCUMENT_CACHE_MAX_MEMORY, "1"));
+        DocumentContentCache.clear();
+    }
+
+    @After
+    public void teardown() {
+        DocumentContentCache.clear();
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    private static Content content(String id, int size) {
+        return new Content(id, new byte[size], null, null, "text/plain");
+    }
+
+    private static class CountingLoader implements Callable<Content> {
+
+        private final Content content;
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        private CountingLoader(Content content) {
+            this.content = content;
+        }
+
+        @Override
+        public Content call() throws Exception {
+            loads.incrementAndGet();
+            return content;
+        }
+    }
+
+    private static boolean isCached(String id) throws Exception {
+        CountingLoader loader = new CountingLoader(null);
+        DocumentContentCache.get(id, loader);
+        return loader.loads.get() == 0;
+    }
+
+    @Test
+    public void get_shouldOnlyLoadDocumentsThatAreNotCached() throws Exception {
+        CountingLoader loader = new CountingLoader(content("1.2.3", 100));
+
+        Content content = DocumentContentCache.get("1.2.3", loader);
+
+        assertSame(content, DocumentContentCache.get("1.2.3", loader));
+        assertEquals(1, loader.loads.get());
+        assertNull(DocumentContentCache.get("1.2.4", new CountingLoader(null)));
+        assertEquals(false, isCached("1.2.4"));
+        assertEquals(1, DocumentContentCache.getDocumentCount());
+    }
+
+    @Test
+    public void get_shouldLoadADocumentOnceForConcurrentLookups() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final Callable<Content> loader = new Callable<Content>() {
+
+            @Override
+            public Content call() throws Exception {
+                loads.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                return content("1.2.3", 100);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Content>> results = new ArrayList<Future<Content>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Content>() {
+
+                    @Override
+                    public Content call() throws Exception {
+                        return DocumentContentCache.get("1.2.3", loader);
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            Content first = results.get(0).get();
+            for (Future<Content> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void put_shouldNotLetADocumentThatIsRarelyAskedForEvictFrequentOnes() throws Exception {
+        for (int i = 1; i <= 22; i++) {
+            DocumentContentCache.get("hot-" + i, new CountingLoader(content("hot-" + i, 40 * 1024)));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 1; i <= 22; i++) {
+                assertEquals(true, isCached("hot-" + i));
+            }
+        }
+
+        DocumentContentCache.put("cold-1", content("cold-1", 90 * 1024));
+        // pushes cold-1 out of the window, there is no room for it without evicting hot documents
+        DocumentContentCache.put("cold-2", content("cold-2", 90 * 1024));
+
+        for (int i = 1; i <= 22; i++) {
+            assertEquals(true, isCached("hot-" + i));
+        }
+        assertEquals(false, isCached("cold-1"));
+        assertEquals(true, isCached("cold-2"));
+    }
+
+    @Test
+    public void put_shouldNotCacheDocumentsLargerThanTheWindow() throws Exception {
+        DocumentContentCache.put("1.2.3", content("1.2.3", 200 * 1024));
+
+        assertEquals(false, isCached("1.2.3"));
+        assertEquals(0, DocumentContentCache.getSize());
+    }
+
+    @Test
+    public void invalidate_shouldRemoveTheDocumentAndDropALoadThatIsRunning() throws Exception {
+        DocumentContentCache.put("1.2.3", content("1.2.3", 100));
+        DocumentContentCache.invalidate("1.2.3");
+        assertEquals(false, isCached("1.2.3"));
+
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Content> result = executor.submit(new Callable<Content>() {
+
+                @Override
+                public Content call() throws Exception {
+                    return DocumentContentCache.get("1.2.4", new Callable<Content>() {
+
+                        @Override
+                        public Content call() throws Exception {
+                            loading.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            return content("1.2.4", 100);
+                        }
+                    });
+                }
+            });
+            loading.await(10, TimeUnit.SECONDS);
+            DocumentContentCache.invalidate("1.2.4");
+            release.countDown();
+
+            assertEquals(100, result.get().getPayload().length);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(false, isCached("1.2.4"));
+    }
+
+    @Test
+    public void get_shouldAlwaysLoadWhenTheCacheIsDisabled() throws Exception {
+        XDSbRepositoryConfiguration.install(Collections.singletonMap(XDSbServiceConstants.XDS_REPOSITORY_DOCUMENT_CACHE_MAX_MEMORY, "0"));
+        CountingLoader loader = new CountingLoader(content("1.2.3", 100));
+
+        DocumentContentCache.get("1.2.3", loader);
+        DocumentContentCache.get("1.2.3", loader);
+
+        assertEquals(2, loader.loads.get());
+    }
+}
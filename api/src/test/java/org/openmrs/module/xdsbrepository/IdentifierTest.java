@@ -0,0 +1,44 @@
+package org.openmrs.module.xdsbrepository;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IdentifierTest {
+
+    @Test
+    public void valueOf_shouldReturnTheSameInstanceForEquivalentCXValues() throws Exception {
+        Identifier escaped = Identifier.valueOf("1111111111^^^&amp;1.2.3&amp;ISO");
+        Identifier plain = Identifier.valueOf("1111111111^^^&1.2.3&ISO");
+
+        assertSame(escaped, plain);
+        assertSame(escaped, Identifier.valueOf("1111111111^^^&amp;1.2.3&amp;ISO"));
+        assertSame(escaped.getAssigningAuthority(), AssigningAuthority.parse("&1.2.3&ISO"));
+    }
+
+    @Test
+    public void hashCode_shouldBeConsistentWithEquals() throws Exception {
+        Identifier parsed = new Identifier("1111111111^^^&1.2.3&ISO");
+        Identifier built = new Identifier("1111111111", new AssigningAuthority(null, "1.2.3", "ISO"));
+
+        assertEquals(parsed, built);
+        assertEquals(parsed.hashCode(), built.hashCode());
+
+        Map<Identifier, String> map = new HashMap<Identifier, String>();
+        map.put(parsed, "found");
+        assertEquals("found", map.get(built));
+
+        assertEquals(new AssigningAuthority("", "1.2.3", "ISO"), new AssigningAuthority(null, "1.2.3", "ISO"));
+        assertEquals(new AssigningAuthority("", "1.2.3", "ISO").hashCode(), new AssigningAuthority(null, "1.2.3", "ISO").hashCode());
+    }
+
+    @Test
+    public void toCX_shouldKeepTheExistingFormat() throws Exception {
+        assertEquals("12345^^^^PI", new Identifier("12345", null, "PI").toCX());
+        assertEquals("12345^^^ns&1.2&ISO^PI", new Identifier("12345^^^ns&1.2&ISO^PI").toCX());
+        assertEquals("&&ISO", new AssigningAuthority(null, null, "ISO").toHL7());
+    }
+}
@@ -0,0 +1,52 @@
+package org.openmrs.module.xdsbrepository;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+public class StripedLocksTest {
+
+    @Test
+    public void lock_shouldBlockOtherThreadsLockingTheSameKey() throws Exception {
+        final StripedLocks locks = new StripedLocks(16);
+        List<Lock> held = locks.lock(Arrays.asList("patient:1111111111^^^&1.2.3", "encounterType:34117-2"));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<Lock> otherHeld = locks.lock(Collections.singletonList("encounterType:34117-2"));
+                acquired.set(true);
+                locks.unlock(otherHeld);
+                done.countDown();
+            }
+        });
+        other.start();
+
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(acquired.get());
+
+        locks.unlock(held);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(acquired.get());
+    }
+
+    @Test
+    public void lock_shouldLockEachStripeOnceForKeysThatShareIt() throws Exception {
+        StripedLocks locks = new StripedLocks(1);
+
+        List<Lock> held = locks.lock(Arrays.asList("provider:1", "provider:2", "provider:3"));
+
+        assertEquals(1, held.size());
+        locks.unlock(held);
+    }
+}
@@ -0,0 +1,115 @@
+package org.openmrs.module.xdsbrepository;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UtilsTest extends BaseModuleContextSensitiveTest {
+
+    @After
+    public void tearDown() {
+        Utils.clearServiceAccountSessions();
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    private static void useServiceAccount(String username, String password) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(XDSbServiceConstants.WS_USERNAME_GP, username);
+        properties.put(XDSbServiceConstants.WS_PASSWORD_GP, password);
+        XDSbRepositoryConfiguration.install(properties);
+    }
+
+    /**
+     * Start a session on a thread of its own, as the web service threads and queue processors do
+     */
+    private static UserContext startSessionOnAnotherThread() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<UserContext>() {
+
+                @Override
+                public UserContext call() throws Exception {
+                    Utils.startSession();
+                    try {
+                        return Context.getUserContext();
+                    } finally {
+                        Context.closeSession();
+                    }
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void startSession_shouldAuthenticateAsTheServiceAccount() throws Exception {
+        useServiceAccount("admin", "test");
+
+        UserContext userContext = startSessionOnAnotherThread();
+
+        assertTrue(userContext.isAuthenticated());
+        assertEquals("admin", userContext.getAuthenticatedUser().getSystemId());
+    }
+
+    @Test
+    public void startSession_shouldShareTheServiceAccountsUserContextBetweenThreads() throws Exception {
+        useServiceAccount("admin", "test");
+
+        assertSame(startSessionOnAnotherThread(), startSessionOnAnotherThread());
+    }
+
+    @Test
+    public void startSession_shouldKeepTheUserContextWhenAnotherPropertyChanges() throws Exception {
+        useServiceAccount("admin", "test");
+        UserContext userContext = startSessionOnAnotherThread();
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(XDSbServiceConstants.WS_USERNAME_GP, "admin");
+        properties.put(XDSbServiceConstants.WS_PASSWORD_GP, "test");
+        properties.put(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "true");
+        XDSbRepositoryConfiguration.install(properties);
+
+        assertSame(userContext, startSessionOnAnotherThread());
+    }
+
+    @Test
+    public void startSession_shouldAuthenticateAgainWhenTheCredentialsChange() throws Exception {
+        useServiceAccount("admin", "test");
+        startSessionOnAnotherThread();
+
+        useServiceAccount("admin", "wrong");
+        try {
+            startSessionOnAnotherThread();
+            fail("Did not authenticate again");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ContextAuthenticationException);
+        }
+    }
+
+    @Test
+    public void clearServiceAccountSessions_shouldMakeTheNextSessionAuthenticateAgain() throws Exception {
+        useServiceAccount("admin", "test");
+        UserContext userContext = startSessionOnAnotherThread();
+
+        Utils.clearServiceAccountSessions();
+
+        assertNotSame(userContext, startSessionOnAnotherThread());
+    }
+}
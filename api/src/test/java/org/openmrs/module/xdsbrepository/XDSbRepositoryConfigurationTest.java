@@ -0,0 +1,89 @@
+package org.openmrs.module.xdsbrepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import static org.junit.Assert.*;
+
+public class XDSbRepositoryConfigurationTest extends BaseModuleContextSensitiveTest {
+
+    @Before
+    public void setup() throws Exception {
+        XDSbRepositoryConfiguration.reset();
+
+        AdministrationService as = Context.getAdministrationService();
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP, "1.19.6.24.109.42.1.5.1"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "true"));
+    }
+
+    @After
+    public void teardown() {
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    @Test
+    public void get_shouldReturnTheSameSnapshotUntilAPropertyChanges() throws Exception {
+        XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+
+        assertEquals("1.19.6.24.109.42.1.5.1", config.getRepositoryUniqueId());
+        assertTrue(config.isAutoCreatePatients());
+        assertSame(config, XDSbRepositoryConfiguration.get());
+
+        // outside of a transaction a change applies straight away
+        TestTransaction.end();
+        new XDSbRepositoryConfigurationListener().globalPropertyChanged(
+                new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "false"));
+
+        XDSbRepositoryConfiguration updated = XDSbRepositoryConfiguration.get();
+        assertNotSame(config, updated);
+        assertFalse(updated.isAutoCreatePatients());
+        assertEquals("1.19.6.24.109.42.1.5.1", updated.getRepositoryUniqueId());
+        // the old snapshot is never modified
+        assertTrue(config.isAutoCreatePatients());
+    }
+
+    @Test
+    public void get_shouldKeepTheSnapshotWhenTheTransactionThatChangedAPropertyRollsBack() throws Exception {
+        XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "false"));
+        assertSame(config, XDSbRepositoryConfiguration.get());
+        TestTransaction.end();
+
+        assertSame(config, XDSbRepositoryConfiguration.get());
+        assertTrue(XDSbRepositoryConfiguration.get().isAutoCreatePatients());
+    }
+
+    @Test
+    public void get_shouldApplyAChangeOnceItsTransactionCommits() throws Exception {
+        XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+        // a transaction of its own, without the property changes of the setup, which must not be committed
+        TestTransaction.end();
+        TestTransaction.start();
+
+        new XDSbRepositoryConfigurationListener().globalPropertyChanged(
+                new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "false"));
+        assertSame(config, XDSbRepositoryConfiguration.get());
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        assertFalse(XDSbRepositoryConfiguration.get().isAutoCreatePatients());
+    }
+
+    @Test
+    public void get_shouldFallBackToDefaultsForMissingOrInvalidValues() throws Exception {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC_POLL_PERIOD, "often"));
+
+        XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+
+        assertEquals(100, config.getDiscreteHandlerAsyncPollingPeriod());
+        assertFalse(config.isDiscreteHandlerAsync());
+        assertEquals(1.0, config.getSoapLoggingSampleRate(), 0);
+    }
+}
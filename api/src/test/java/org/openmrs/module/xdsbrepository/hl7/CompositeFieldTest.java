@@ -0,0 +1,100 @@
+package org.openmrs.module.xdsbrepository.hl7;
+
+import org.junit.Test;
+import org.openmrs.module.xdsbrepository.Identifier;
+
+import static org.junit.Assert.*;
+
+public class CompositeFieldTest {
+
+    @Test
+    public void parse_shouldTokenizeComponentsIncludingEmptyOnes() {
+        CompositeField field = CompositeField.parse("1111111111^^^&1.2.3&ISO");
+
+        assertEquals(4, field.getComponentCount());
+        assertEquals("1111111111", field.getComponent(0));
+        assertEquals("", field.getComponent(1));
+        assertFalse(field.hasComponent(2));
+        assertTrue(field.hasComponent(3));
+        assertNull(field.getComponent(4));
+    }
+
+    @Test
+    public void getSubcomponent_shouldSplitOnPlainAndXmlEscapedAmpersands() {
+        CompositeField plain = CompositeField.parse("1111111111^^^&1.2.3&ISO");
+        CompositeField escaped = CompositeField.parse("1111111111^^^&amp;1.2.3&amp;ISO");
+
+        for (CompositeField field : new CompositeField[] { plain, escaped }) {
+            assertEquals(3, field.getSubcomponentCount(3));
+            assertEquals("", field.getSubcomponent(3, 0));
+            assertEquals("1.2.3", field.getSubcomponent(3, 1));
+            assertEquals("ISO", field.getSubcomponent(3, 2));
+            assertNull(field.getSubcomponent(3, 3));
+        }
+        assertEquals("&1.2.3&ISO", escaped.getComponent(3));
+    }
+
+    @Test
+    public void getComponent_shouldResolveEscapeSequences() {
+        CompositeField field = CompositeField.parse("a\\S\\b\\T\\c\\E\\d^\\X\\");
+
+        assertEquals(2, field.getComponentCount());
+        assertEquals("a^b&c\\d", field.getComponent(0));
+        // unknown escapes are left as they are
+        assertEquals("\\X\\", field.getComponent(1));
+    }
+
+    @Test
+    public void getComponentView_shouldExposeTheRawComponentWithoutCopying() {
+        CompositeField field = CompositeField.parse("pro222^Provider^Jack^^^");
+
+        CharSequence view = field.getComponentView(1);
+        assertEquals(8, view.length());
+        assertEquals('P', view.charAt(0));
+        assertEquals("Provider", view.toString());
+        assertEquals("rov", view.subSequence(1, 4).toString());
+        assertTrue(field.componentEquals(2, "Jack"));
+        assertFalse(field.componentEquals(2, "Jac"));
+    }
+
+    @Test
+    public void parse_shouldSupportTheXdsDataTypes() {
+        XCN xcn = XCN.parse("pro222^Provider^Jack^^^");
+        assertEquals("pro222", xcn.getIdNumber());
+        assertEquals("Provider", xcn.getFamilyName());
+        assertEquals("Jack", xcn.getGivenName());
+        assertTrue(xcn.hasName());
+        assertNull(xcn.getDegree());
+
+        XPN xpn = XPN.parse("Doe^John^^^");
+        assertEquals("Doe", xpn.getFamilyName());
+        assertEquals("John", xpn.getGivenName());
+        assertEquals("", xpn.getSecondName());
+        assertNull(xpn.getDegree());
+
+        XAD xad = XAD.parse("100 Main St^^Metropolis^Il^44130^USA");
+        assertEquals("100 Main St", xad.getStreetAddress());
+        assertEquals("Metropolis", xad.getCity());
+        assertEquals("Il", xad.getStateOrProvince());
+        assertEquals("44130", xad.getPostalCode());
+        assertEquals("USA", xad.getCountry());
+
+        CX cx = CX.parse("a^^^ns&1.2&ISO^PI");
+        assertEquals("a", cx.getIdNumber());
+        assertEquals("ns", cx.getAssigningAuthorityNamespaceId());
+        assertEquals("1.2", cx.getAssigningAuthorityUniversalId());
+        assertEquals("ISO", cx.getAssigningAuthorityUniversalIdType());
+        assertEquals("PI", cx.getIdentifierTypeCode());
+    }
+
+    @Test
+    public void identifier_shouldParseAnXmlEscapedCX() throws Exception {
+        Identifier id = new Identifier("1111111111^^^&amp;1.2.3&amp;ISO");
+
+        assertEquals("1111111111", id.getIdentifier());
+        assertNull(id.getAssigningAuthority().getAssigningAuthority());
+        assertEquals("1.2.3", id.getAssigningAuthority().getAssigningAuthorityId());
+        assertEquals("ISO", id.getAssigningAuthority().getAssigningAuthorityIdType());
+        assertEquals("1111111111^^^&1.2.3&ISO", id.toCX());
+    }
+}
@@ -0,0 +1,289 @@
+package org.openmrs.module.xdsbrepository.impl;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.rim.ExternalIdentifierType;
+import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
+import org.dcm4chee.xds2.infoset.util.InfosetUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.shr.contenthandler.api.CodedValue;
+import org.openmrs.module.shr.contenthandler.api.ContentHandler;
+import org.openmrs.module.shr.contenthandler.api.ContentHandlerService;
+import org.openmrs.module.xdsbrepository.DocumentContentCache;
+import org.openmrs.module.xdsbrepository.DocumentIdIndex;
+import org.openmrs.module.xdsbrepository.EncounterTypeCache;
+import org.openmrs.module.xdsbrepository.ReferenceDataCache;
+import org.openmrs.module.xdsbrepository.Utils;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbService;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
+import org.openmrs.module.xdsbrepository.model.QueueItem;
+import org.openmrs.module.xdsbrepository.storage.ContentStorage;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.openmrs.util.OpenmrsConstants.GLOBAL_PROPERTY_COMPLEX_OBS_DIR;
+
+/**
+ * Runs Provide and Register requests the way the web service does, outside of the test transaction, so that
+ * every stage of ingest commits a transaction of its own and a failed registration has committed stages to
+ * compensate. The test data is committed rather than rolled back, and deleted after each test.
+ */
+public class XDSbServiceStagedIngestTest extends BaseModuleContextSensitiveTest {
+
+    private static final CodedValue TYPE_CODE = new CodedValue("testType", "testCodes", "Test Type");
+
+    private static final CodedValue FORMAT_CODE = new CodedValue("testFormat", "testCodes", "Test Format");
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(8089);
+
+    private static String registryResponse(String status) {
+        return "<s:Envelope xmlns:s='http://www.w3.org/2003/05/soap-envelope' xmlns:a='http://www.w3.org/2005/08/addressing'>"
+                + "  <s:Header>"
+                + "		<a:Action s:mustUnderstand='1'>urn:ihe:iti:2007:RegisterDocumentSet-bResponse</a:Action>"
+                + "		<a:RelatesTo>urn:uuid:1ec52e14-4aad-4ba1-b7d3-fc9812a21340</a:RelatesTo>"
+                + "	</s:Header>"
+                + "  <s:Body>"
+                + "		<rs:RegistryResponse status='" + status + "' xmlns:rs='urn:oasis:names:tc:ebxml-regrep:xsd:rs:3.0'/>"
+                + "	</s:Body>"
+                + "</s:Envelope>";
+    }
+
+    private void stubRegistry(String status) {
+        stubFor(post(urlEqualTo("/ws/xdsregistry"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/soap+xml")
+                        .withBody(registryResponse(status))));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProvideAndRegisterDocumentSetRequestType parseRequestFromResourceName(String resourceName, String uniqueId) throws Exception {
+        JAXBContext jaxbContext = JAXBContext.newInstance("org.dcm4chee.xds2.infoset.ihe:org.dcm4chee.xds2.infoset.rim");
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream(resourceName);
+        ProvideAndRegisterDocumentSetRequestType request = ((JAXBElement<ProvideAndRegisterDocumentSetRequestType>)
+                jaxbContext.createUnmarshaller().unmarshal(is)).getValue();
+        for (ExtrinsicObjectType eo : InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest())) {
+            for (ExternalIdentifierType ei : eo.getExternalIdentifier()) {
+                if (XDSConstants.UUID_XDSDocumentEntry_uniqueId.equals(ei.getIdentificationScheme())) {
+                    ei.setValue(uniqueId);
+                }
+            }
+        }
+        return request;
+    }
+
+    @Before
+    public void setup() throws Exception {
+        executeDataSet("provideAndRegRequest-dataset.xml");
+
+        AdministrationService as = Context.getAdministrationService();
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP, "1.19.6.24.109.42.1.5.1"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "true"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REGISTRY_URL_GP, "http://localhost:8089/ws/xdsregistry"));
+        // the submissions run on threads of their own, so the service starts a session as this account
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.WS_USERNAME_GP, "admin"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.WS_PASSWORD_GP, "test"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_DISCRETE_HANDLER_ASYNC, "true"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_ASYNC, "true"));
+        as.saveGlobalProperty(new GlobalProperty("shr.contenthandler.cacheConceptsByName", "false"));
+        as.saveGlobalProperty(new GlobalProperty("shr.contenthandler.unstructureddatahandler.key", "ContentObsHandler"));
+        as.saveGlobalProperty(new GlobalProperty(GLOBAL_PROPERTY_COMPLEX_OBS_DIR, "test_complex_obs"));
+
+        // a discrete handler, so that the documents have discrete data processing to queue
+        ContentHandler discreteHandler = mock(ContentHandler.class);
+        when(discreteHandler.cloneHandler()).thenReturn(discreteHandler);
+        Context.getService(ContentHandlerService.class).registerContentHandler(TYPE_CODE, FORMAT_CODE, discreteHandler);
+
+        // the stages only see committed data
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Context.getService(ContentHandlerService.class).deregisterContentHandler(TYPE_CODE, FORMAT_CODE);
+        // the caches hold on to reference data that is about to be deleted
+        EncounterTypeCache.clear();
+        ReferenceDataCache.clear();
+        DocumentIdIndex.clear();
+        DocumentContentCache.clear();
+        ContentStorage.clear();
+        XDSbRepositoryConfiguration.reset();
+        deleteAllData();
+    }
+
+    /**
+     * Run in a session of its own on another thread, outside of the test transaction
+     */
+    private static <T> T inSession(Callable<T> callable) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(withSession(callable)).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static <T> Callable<T> withSession(final Callable<T> callable) {
+        return new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                Utils.startSession();
+                try {
+                    return callable.call();
+                } finally {
+                    Context.closeSession();
+                }
+            }
+        };
+    }
+
+    private static Callable<String> submit(final ProvideAndRegisterDocumentSetRequestType request) {
+        return new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+                return Context.getService(XDSbService.class).provideAndRegisterDocumentSetB(request).getStatus();
+            }
+        };
+    }
+
+    private static int countEncounters() throws Exception {
+        return inSession(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                return Context.getEncounterService().getEncountersByPatientId(2).size();
+            }
+        });
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldCommitEachStageAndQueueProcessingOnceRegistered() throws Exception {
+        stubRegistry(XDSConstants.XDS_B_STATUS_SUCCESS);
+        int encounters = countEncounters();
+
+        String status = inSession(submit(parseRequestFromResourceName("provideAndRegRequest1.xml", "2009.9.1.2455")));
+
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, status);
+        assertEquals(encounters + 1, countEncounters());
+        inSession(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                XDSbService service = Context.getService(XDSbService.class);
+                assertTrue(service.isDocumentRegistered("2009.9.1.2455"));
+                CdaImportQueueItem cdaImport = service.getCdaImportStatus("2009.9.1.2455");
+                assertNotNull(cdaImport);
+                assertEquals(QueueItem.Status.QUEUED, cdaImport.getStatus());
+                QueueItem discreteData = service.dequeueNextDiscreteDataForProcessing();
+                assertNotNull(discreteData);
+                assertEquals("2009.9.1.2455", discreteData.getDocUniqueId());
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldCompensateCommittedStagesWithoutQueueingWhenRegistrationFails() throws Exception {
+        stubRegistry(XDSConstants.XDS_B_STATUS_FAILURE);
+        int encounters = countEncounters();
+
+        String status = inSession(submit(parseRequestFromResourceName("provideAndRegRequest1.xml", "2009.9.1.2455")));
+
+        assertFalse(XDSConstants.XDS_B_STATUS_SUCCESS.equals(status));
+        // the encounter the document was stored in has been voided
+        assertEquals(encounters, countEncounters());
+        inSession(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                XDSbService service = Context.getService(XDSbService.class);
+                assertFalse(service.isDocumentRegistered("2009.9.1.2455"));
+                assertNull(service.getCdaImportStatus("2009.9.1.2455"));
+                assertNull(service.dequeueNextDiscreteDataForProcessing());
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldCreateThePatientOnceForConcurrentSubmissions() throws Exception {
+        stubRegistry(XDSConstants.XDS_B_STATUS_SUCCESS);
+        int clients = 2;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<String>> statuses = new ArrayList<Future<String>>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                final Callable<String> submission = withSession(submit(
+                        parseRequestFromResourceName("provideAndRegRequest2.xml", "2009.9.1.250" + i)));
+                statuses.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        start.await();
+                        return submission.call();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<String> status : statuses) {
+                assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, status.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        inSession(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                // the submission that lost the claim on the new patient retried and found it
+                PatientService ps = Context.getPatientService();
+                PatientIdentifierType identifierType = ps.getPatientIdentifierTypeByName("1.2.4");
+                assertNotNull(identifierType);
+                assertEquals(1, ps.getPatientIdentifiers(null, Collections.singletonList(identifierType), null, null, null).size());
+                return null;
+            }
+        });
+    }
+
+}
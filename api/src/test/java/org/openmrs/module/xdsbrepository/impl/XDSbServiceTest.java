@@ -4,15 +4,22 @@ import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import org.dcm4chee.xds2.common.XDSConstants;
 import org.dcm4chee.xds2.common.exception.XDSException;
 import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.rim.ClassificationType;
+import org.dcm4chee.xds2.infoset.rim.ExternalIdentifierType;
 import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
 import org.dcm4chee.xds2.infoset.rim.RegistryResponseType;
+import org.dcm4chee.xds2.infoset.rim.SlotType1;
 import org.dcm4chee.xds2.infoset.util.InfosetUtil;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.openmrs.*;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.EncounterService;
+import org.openmrs.api.FormService;
+import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.shr.contenthandler.UnstructuredDataHandler;
@@ -20,23 +27,40 @@ import org.openmrs.module.shr.contenthandler.api.CodedValue;
 import org.openmrs.module.shr.contenthandler.api.Content;
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
 import org.openmrs.module.shr.contenthandler.api.ContentHandlerService;
+import org.openmrs.module.xdsbrepository.DocumentIdIndex;
+import org.openmrs.module.xdsbrepository.EncounterTypeCache;
+import org.openmrs.module.xdsbrepository.ReferenceDataCache;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 import org.openmrs.module.xdsbrepository.XDSbService;
 import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.advice.EncounterTypeChangeAdvice;
+import org.openmrs.module.xdsbrepository.advice.ReferenceDataChangeAdvice;
 import org.openmrs.module.xdsbrepository.exceptions.UnsupportedGenderException;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadataParser;
+import org.openmrs.module.xdsbrepository.model.CdaImportQueueItem;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
+import org.openmrs.module.xdsbrepository.storage.ContentStorage;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.util.OpenmrsConstants;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.test.context.transaction.TestTransaction;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.DatatypeConverter;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,6 +78,9 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
 	@Rule
 	public WireMockRule wireMockRule = new WireMockRule(8089);
 
+    @Rule
+    public TemporaryFolder contentFolder = new TemporaryFolder();
+
     private void stubRegistry() {
         stubFor(post(urlEqualTo("/ws/xdsregistry"))
                 .willReturn(aResponse()
@@ -62,6 +89,14 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
                         .withBody(registryResponse)));
     }
 
+    private void stubRegistryFailure() {
+        stubFor(post(urlEqualTo("/ws/xdsregistry"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/soap+xml")
+                        .withBody(registryResponse.replace("ResponseStatusType:Success", "ResponseStatusType:Failure"))));
+    }
+
 	private static final String registryResponse = "<s:Envelope xmlns:s='http://www.w3.org/2003/05/soap-envelope' xmlns:a='http://www.w3.org/2005/08/addressing'>"
 			+ "  <s:Header>"
 			+ "		<a:Action s:mustUnderstand='1'>urn:ihe:iti:2007:RegisterDocumentSet-bResponse</a:Action>"
@@ -101,6 +136,16 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         as.saveGlobalProperty(gp5);
         GlobalProperty gp6 = new GlobalProperty(GLOBAL_PROPERTY_COMPLEX_OBS_DIR, "test_complex_obs");
         as.saveGlobalProperty(gp6);
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    @After
+    public void tearDown() {
+        // the property changes of a test are rolled back, but not the configuration snapshot and content store
+        ContentStorage.clear();
+        XDSbRepositoryConfiguration.reset();
+        EncounterTypeCache.clear();
+        ReferenceDataCache.clear();
     }
 
 	@Test
@@ -119,6 +164,27 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
                 .withRequestBody(containing("1111111111^^^&amp;1.2.3&amp;ISO")));
 	}
 
+    @Test
+    public void sendMetadataToRegistry_shouldForwardRawMetadataWithInjectedSlots() throws Exception {
+        stubRegistry();
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_REGISTRY_PASS_THROUGH, "true");
+
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream("provideAndRegRequest1.xml");
+        SubmissionMetadata metadata = SubmissionMetadataParser.parse(new StreamSource(is), null);
+        metadata.getDocumentEntries().get(0).addSlot(XDSbServiceImpl.SLOT_NAME_HASH, "e543712c0e10501972de13a5bfcbe826c49feb75");
+
+        XDSbServiceImpl service = new XDSbServiceImpl();
+        RegistryResponseType res = service.sendMetadataToRegistry(new URL("http://localhost:8089/ws/xdsregistry"), metadata);
+
+        assertEquals("urn:oasis:names:tc:ebxml-regrep:ResponseStatusType:Success", res.getStatus());
+        com.github.tomakehurst.wiremock.client.WireMock.verify(postRequestedFor(urlEqualTo("/ws/xdsregistry"))
+                .withHeader("Content-Type", containing("application/soap+xml"))
+                .withRequestBody(containing("urn:ihe:iti:2007:RegisterDocumentSet-b"))
+                .withRequestBody(containing("<rim:Slot name=\"repositoryUniqueId\"><rim:ValueList><rim:Value>1.19.6.24.109.42.1.5.1</rim:Value>"))
+                .withRequestBody(containing("<rim:Value>e543712c0e10501972de13a5bfcbe826c49feb75</rim:Value>"))
+                .withRequestBody(containing("1111111111^^^&amp;1.2.3&amp;ISO")));
+    }
+
     @Test
 	public void sendMetadataToRegistry_shouldThrowAnExceptionIfTheRegistryIsUnreachable() throws Exception {
 		ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
@@ -201,6 +267,22 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         //TODO: find a way to verify the number of docs received?
     }
 
+    @Test
+    public void registerDocumentHandlers_shouldStoreMappingsForMoreDocumentsThanFitInABatch() throws Exception {
+        XDSbService service = Context.getService(XDSbService.class);
+
+        Map<String, Class<? extends ContentHandler>> docHandlerMap = new LinkedHashMap<String, Class<? extends ContentHandler>>();
+        for (int i = 0; i < 120; i++) {
+            docHandlerMap.put("backload-" + i, i % 2 == 0 ? TestContentHandler1.class : TestContentHandler2.class);
+        }
+
+        service.registerDocumentHandlers(docHandlerMap);
+
+        assertEquals(TestContentHandler1.class, service.getDocumentHandlerClass("backload-0"));
+        assertEquals(TestContentHandler2.class, service.getDocumentHandlerClass("backload-119"));
+        assertTrue(service.isDocumentRegistered("backload-60"));
+    }
+
     @Test
     public void getDocumentHandlerClass_shouldReturnTheMappedHandlerClass() throws Exception {
         //same as above
@@ -214,6 +296,23 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         assertNull(handlerClass);
     }
 
+    @Test
+    public void rebuildDocumentIdIndex_shouldIndexEveryRegisteredDocument() throws Exception {
+        registerDocument_shouldStoreTheDocumentMapping();
+        XDSbService service = Context.getService(XDSbService.class);
+
+        try {
+            service.rebuildDocumentIdIndex();
+
+            assertTrue(DocumentIdIndex.isReady());
+            assertTrue(DocumentIdIndex.mightBeRegistered("123456789"));
+            assertTrue(service.isDocumentRegistered("123456789"));
+            assertFalse(service.isDocumentRegistered("unkown_id"));
+        } finally {
+            DocumentIdIndex.clear();
+        }
+    }
+
     @Test
     public void sendMetadataToRegistry_shouldThrowErrorIfRegistryUnavailable() throws Exception {
         ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
@@ -346,6 +445,56 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         assertEquals("Will fail", qi.getDocUniqueId());
     }
 
+    @Test
+    public void queueCdaImport_shouldStoreItemInQueueWithQueuedStatus() {
+        XDSbService service = Context.getService(XDSbService.class);
+
+        CdaImportQueueItem item = service.queueCdaImport("1.2.3.4.5");
+
+        assertEquals("1.2.3.4.5", item.getDocUniqueId());
+        assertEquals(QueueItem.Status.QUEUED, item.getStatus());
+        assertEquals(new Integer(0), item.getAttempts());
+        assertNotNull(item.getDateAdded());
+        assertEquals(item.getId(), service.getCdaImportStatus("1.2.3.4.5").getId());
+    }
+
+    @Test
+    public void completeCdaImport_shouldRequeueFailedImportUntilMaxAttempts() {
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_MAX_ATTEMPTS, "2");
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_RETRY_DELAY, "0");
+        XDSbService service = Context.getService(XDSbService.class);
+
+        service.queueCdaImport("Will fail twice");
+
+        CdaImportQueueItem item = service.dequeueNextCdaImport();
+        assertEquals(QueueItem.Status.PROCESSING, item.getStatus());
+        item = service.completeCdaImport(item, "first failure");
+        assertEquals(QueueItem.Status.QUEUED, item.getStatus());
+        assertEquals("first failure", item.getLastError());
+
+        item = service.dequeueNextCdaImport();
+        assertEquals("Will fail twice", item.getDocUniqueId());
+        assertEquals(new Integer(2), item.getAttempts());
+        item = service.completeCdaImport(item, "second failure");
+
+        assertEquals(QueueItem.Status.FAILED, service.getCdaImportStatus("Will fail twice").getStatus());
+        assertNull(service.dequeueNextCdaImport());
+    }
+
+    @Test
+    public void dequeueNextCdaImport_shouldNotReturnItemsWaitingForRetry() {
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_RETRY_DELAY, "60000");
+        XDSbService service = Context.getService(XDSbService.class);
+
+        service.queueCdaImport("Will be retried later");
+        CdaImportQueueItem item = service.dequeueNextCdaImport();
+        item = service.completeCdaImport(item, "failure");
+
+        assertEquals(QueueItem.Status.QUEUED, item.getStatus());
+        assertNotNull(item.getNextAttempt());
+        assertNull(service.dequeueNextCdaImport());
+    }
+
     @Test
     public void stringifyRoleProvidersMap_shouldReturnAStringRepresentationOfTheMap() {
         XDSbServiceImpl service = new XDSbServiceImpl();
@@ -594,6 +743,37 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         }
     }
 
+    private static void setAuthorPerson(ExtrinsicObjectType eo, String xcn) {
+        for (ClassificationType classification : eo.getClassification()) {
+            if (XDSConstants.UUID_XDSDocumentEntry_author.equals(classification.getClassificationScheme())) {
+                for (SlotType1 slot : classification.getSlot()) {
+                    if (XDSConstants.SLOT_NAME_AUTHOR_PERSON.equals(slot.getName())) {
+                        slot.getValueList().getValue().set(0, xcn);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findOrCreateProvider_shouldRejectAnAuthorWithNeitherAnIdNumberNorAGivenAndFamilyName() throws Exception {
+        XDSbServiceImpl service = new XDSbServiceImpl();
+        int providerCount = Context.getProviderService().getAllProviders().size();
+
+        for (String xcn : new String[] { "^Smith", "^^Gerald", "" }) {
+            ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+            ExtrinsicObjectType eo = InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest()).get(0);
+            setAuthorPerson(eo, xcn);
+            try {
+                service.findOrCreateProvidersByRole(eo);
+                fail("Accepted author person '" + xcn + "'");
+            } catch (XDSException e) {
+                assertEquals(XDSException.XDS_ERR_REPOSITORY_METADATA_ERROR, e.getErrorCode());
+            }
+        }
+        assertEquals(providerCount, Context.getProviderService().getAllProviders().size());
+    }
+
     @Test
     public void findOrCreateEncounterType_shouldFindAnExistingEncounterType() throws Exception {
         XDSbServiceImpl service = new XDSbServiceImpl();
@@ -618,6 +798,172 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         assertEquals("History and Physical - non existing", encounterType.getName());
     }
 
+    @Test
+    public void findOrCreateEncounterType_shouldNotCreateTheSameEncounterTypeTwice() throws Exception {
+        XDSbServiceImpl service = new XDSbServiceImpl();
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest2.xml");
+        List<ExtrinsicObjectType> extrinsicObjects = InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest());
+        ExtrinsicObjectType eo = extrinsicObjects.get(0);
+
+        int encounterTypeCount = Context.getEncounterService().getAllEncounterTypes().size();
+        EncounterType created = service.findOrCreateEncounterType(eo);
+        EncounterType found = service.findOrCreateEncounterType(eo);
+
+        assertEquals(created.getId(), found.getId());
+        assertEquals(encounterTypeCount + 1, Context.getEncounterService().getAllEncounterTypes().size());
+    }
+
+    private ExtrinsicObjectType entryWithEncounterTypeUuid(String encounterTypeUuid) throws Exception {
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+        ExtrinsicObjectType eo = InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest()).get(0);
+        // <location uuid>/<patient>/<encounter type uuid>/<form uuid>
+        eo.setId("dc5c1fcc-0459-4201-bf70-0b90535ba362/1/" + encounterTypeUuid + "/c9aa0a7b-9c36-4a25-b8fd-29ec3fdb6b8a");
+        return eo;
+    }
+
+    private EncounterService mockEncounterTypeByClassCode(String classCode, EncounterType encounterType) {
+        EncounterService es = mock(EncounterService.class);
+        when(es.getEncounterType(classCode)).thenReturn(encounterType);
+        when(es.getEncounterType(encounterType.getId())).thenReturn(encounterType);
+        contextMockHelper.setService(EncounterService.class, es);
+        // the cache only takes what has been committed, outside of a transaction it takes it straight away
+        TestTransaction.end();
+        return es;
+    }
+
+    @Test
+    public void findOrCreateEncounterType_shouldOnlySearchForAnUnknownUuidOnce() throws Exception {
+        EncounterType encounterType = new EncounterType(7);
+        EncounterService es = mockEncounterTypeByClassCode("History and Physical", encounterType);
+        XDSbServiceImpl service = new XDSbServiceImpl();
+        ExtrinsicObjectType eo = entryWithEncounterTypeUuid("no-such-encounter-type");
+
+        assertSame(encounterType, service.findOrCreateEncounterType(eo));
+        assertSame(encounterType, service.findOrCreateEncounterType(eo));
+
+        verify(es, times(1)).getEncounterTypeByUuid("no-such-encounter-type");
+        verify(es, times(1)).getEncounterType("History and Physical");
+    }
+
+    @Test
+    public void findOrCreateEncounterType_shouldSearchAgainOnceAnEncounterTypeIsSaved() throws Exception {
+        EncounterType encounterType = new EncounterType(7);
+        EncounterService es = mockEncounterTypeByClassCode("History and Physical", encounterType);
+        // as the module's config.xml advises the encounter service
+        ProxyFactory proxyFactory = new ProxyFactory(es);
+        proxyFactory.addAdvice(new EncounterTypeChangeAdvice());
+        EncounterService advised = (EncounterService) proxyFactory.getProxy();
+        XDSbServiceImpl service = new XDSbServiceImpl();
+        ExtrinsicObjectType eo = entryWithEncounterTypeUuid("no-such-encounter-type");
+
+        service.findOrCreateEncounterType(eo);
+        advised.saveEncounterType(new EncounterType());
+        service.findOrCreateEncounterType(eo);
+
+        verify(es, times(2)).getEncounterTypeByUuid("no-such-encounter-type");
+        verify(es, times(2)).getEncounterType("History and Physical");
+    }
+
+    private static final String LOCATION_UUID = "dc5c1fcc-0459-4201-bf70-0b90535ba362";
+
+    private LocationService mockLocationByUuid(Location location) {
+        LocationService ls = mock(LocationService.class);
+        when(ls.getLocationByUuid(LOCATION_UUID)).thenReturn(location);
+        when(ls.getLocation(location.getId())).thenReturn(location);
+        contextMockHelper.setService(LocationService.class, ls);
+        return ls;
+    }
+
+    @Test
+    public void getLocationByUuid_shouldOnlySearchForALocationOnce() throws Exception {
+        Location location = new Location(3);
+        LocationService ls = mockLocationByUuid(location);
+        TestTransaction.end();
+        long misses = ReferenceDataCache.getStatistics().getMisses();
+        long hits = ReferenceDataCache.getStatistics().getHits();
+
+        assertSame(location, ReferenceDataCache.getLocationByUuid(LOCATION_UUID));
+        assertSame(location, ReferenceDataCache.getLocationByUuid(LOCATION_UUID));
+
+        verify(ls, times(1)).getLocationByUuid(LOCATION_UUID);
+        verify(ls, times(1)).getLocation(3);
+        assertEquals(misses + 1, ReferenceDataCache.getStatistics().getMisses());
+        assertEquals(hits + 1, ReferenceDataCache.getStatistics().getHits());
+    }
+
+    @Test
+    public void getLocationByUuid_shouldSearchAgainOnceTheEntryHasExpired() throws Exception {
+        LocationService ls = mockLocationByUuid(new Location(3));
+        TestTransaction.end();
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(XDSbServiceConstants.XDS_REPOSITORY_REFERENCE_DATA_CACHE_TTL, "0");
+        XDSbRepositoryConfiguration.install(properties);
+
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+
+        verify(ls, times(2)).getLocationByUuid(LOCATION_UUID);
+    }
+
+    @Test
+    public void getLocationByUuid_shouldNotCacheALocationFoundInATransactionThatRollsBack() throws Exception {
+        LocationService ls = mockLocationByUuid(new Location(3));
+
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        verify(ls, times(2)).getLocationByUuid(LOCATION_UUID);
+
+        TestTransaction.end();
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        verify(ls, times(3)).getLocationByUuid(LOCATION_UUID);
+    }
+
+    @Test
+    public void getLocationByUuid_shouldCacheALocationOnceItsTransactionCommits() throws Exception {
+        LocationService ls = mockLocationByUuid(new Location(3));
+        // a transaction of its own, the data of the setup must not be committed
+        TestTransaction.end();
+        TestTransaction.start();
+
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+
+        verify(ls, times(1)).getLocationByUuid(LOCATION_UUID);
+    }
+
+    @Test
+    public void getLocationByUuid_shouldSearchAgainOnceALocationIsSavedButNotWhenAFormIsSaved() throws Exception {
+        LocationService ls = mockLocationByUuid(new Location(3));
+        TestTransaction.end();
+        // as the module's config.xml advises the location and form services
+        ProxyFactory locationProxyFactory = new ProxyFactory(ls);
+        locationProxyFactory.addAdvice(new ReferenceDataChangeAdvice());
+        LocationService advisedLocationService = (LocationService) locationProxyFactory.getProxy();
+        ProxyFactory formProxyFactory = new ProxyFactory(mock(FormService.class));
+        formProxyFactory.addAdvice(new ReferenceDataChangeAdvice());
+        FormService advisedFormService = (FormService) formProxyFactory.getProxy();
+
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        advisedFormService.saveForm(new Form());
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        verify(ls, times(1)).getLocationByUuid(LOCATION_UUID);
+
+        advisedLocationService.saveLocation(new Location());
+        ReferenceDataCache.getLocationByUuid(LOCATION_UUID);
+        verify(ls, times(2)).getLocationByUuid(LOCATION_UUID);
+    }
+
+    @Test
+    public void purgeExpiredCreationClaims_shouldDeleteOnlyTheExpiredClaims() throws Exception {
+        executeDataSet("creationClaims-dataset.xml");
+        XDSbService service = Context.getService(XDSbService.class);
+
+        assertEquals(1, service.purgeExpiredCreationClaims());
+        assertEquals(0, service.purgeExpiredCreationClaims());
+    }
+
     @Test
     public void storeDocument_shouldReturnTheDocumentUniqueId() throws Exception {
         XDSbServiceImpl service = new XDSbServiceImpl();
@@ -851,4 +1197,170 @@ public class XDSbServiceTest extends BaseModuleContextSensitiveTest {
         assertEquals(2, patient.getIdentifiers().size());
     }
 
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldRemoveStoredDocumentsWhenRegistrationFails() throws Exception {
+        stubRegistryFailure();
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+
+        XDSbService service = Context.getService(XDSbService.class);
+        RegistryResponseType result = service.provideAndRegisterDocumentSetB(request);
+
+        assertFalse(XDSConstants.XDS_B_STATUS_SUCCESS.equals(result.getStatus()));
+        assertNull(service.getDocumentHandlerClass("2009.9.1.2455"));
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldQueueTheCdaImportOnceTheDocumentIsRegistered() throws Exception {
+        stubRegistry();
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_ASYNC, "true");
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+
+        XDSbService service = Context.getService(XDSbService.class);
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, service.provideAndRegisterDocumentSetB(request).getStatus());
+
+        CdaImportQueueItem item = service.getCdaImportStatus("2009.9.1.2455");
+        assertNotNull(item);
+        assertEquals(QueueItem.Status.QUEUED, item.getStatus());
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldNotQueueTheCdaImportWhenRegistrationFails() throws Exception {
+        stubRegistryFailure();
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_CDA_IMPORT_ASYNC, "true");
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+
+        XDSbService service = Context.getService(XDSbService.class);
+        RegistryResponseType result = service.provideAndRegisterDocumentSetB(request);
+
+        assertFalse(XDSConstants.XDS_B_STATUS_SUCCESS.equals(result.getStatus()));
+        assertNull(service.getCdaImportStatus("2009.9.1.2455"));
+    }
+
+    private void useContentAddressedStorage() {
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_BACKEND, "contentAddressed");
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_DIRECTORY, contentFolder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * The test transaction is never committed, so the configuration would not see the change unless it is
+     * reloaded
+     */
+    private static void saveGlobalProperty(String property, String value) {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(property, value));
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    private static void setDocumentUniqueId(ProvideAndRegisterDocumentSetRequestType request, String uniqueId) {
+        for (ExtrinsicObjectType eo : InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest())) {
+            for (ExternalIdentifierType ei : eo.getExternalIdentifier()) {
+                if (XDSConstants.UUID_XDSDocumentEntry_uniqueId.equals(ei.getIdentificationScheme())) {
+                    ei.setValue(uniqueId);
+                }
+            }
+        }
+    }
+
+    private static int countFiles(File directory) {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldStoreIdenticalContentOnce() throws Exception {
+        stubRegistry();
+        useContentAddressedStorage();
+        XDSbService service = Context.getService(XDSbService.class);
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+        byte[] payload = request.getDocument().get(0).getValue();
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, service.provideAndRegisterDocumentSetB(request).getStatus());
+
+        ProvideAndRegisterDocumentSetRequestType resent = parseRequestFromResourceName("provideAndRegRequest1.xml");
+        setDocumentUniqueId(resent, "2009.9.1.2456");
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, service.provideAndRegisterDocumentSetB(resent).getStatus());
+
+        assertArrayEquals(payload, service.getStoredContent("2009.9.1.2455").getPayload());
+        Content content = service.getStoredContent("2009.9.1.2456");
+        assertArrayEquals(payload, content.getPayload());
+        assertEquals("text/plain", content.getContentType());
+        assertEquals(1, countFiles(contentFolder.getRoot()));
+        assertEquals(UnstructuredDataHandler.class, service.getDocumentHandlerClass("2009.9.1.2456"));
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldCompressContentAsTheCompressionPolicySays() throws Exception {
+        stubRegistry();
+        useContentAddressedStorage();
+        XDSbService service = Context.getService(XDSbService.class);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("My test document, line ").append(i).append('\n');
+        }
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+        byte[] payload = text.toString().getBytes("UTF-8");
+        request.getDocument().get(0).setValue(payload);
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, service.provideAndRegisterDocumentSetB(request).getStatus());
+
+        saveGlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_STORAGE_COMPRESSION, "*=none");
+        ProvideAndRegisterDocumentSetRequestType storedRequest = parseRequestFromResourceName("provideAndRegRequest1.xml");
+        setDocumentUniqueId(storedRequest, "2009.9.1.2456");
+        byte[] stored = text.append("The end\n").toString().getBytes("UTF-8");
+        storedRequest.getDocument().get(0).setValue(stored);
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, service.provideAndRegisterDocumentSetB(storedRequest).getStatus());
+
+        assertTrue(getBlobFile(payload).length() < payload.length / 2);
+        assertEquals(stored.length, getBlobFile(stored).length());
+        assertArrayEquals(payload, service.getStoredContent("2009.9.1.2455").getPayload());
+        assertArrayEquals(stored, service.getStoredContent("2009.9.1.2456").getPayload());
+    }
+
+    private File getBlobFile(byte[] payload) throws Exception {
+        String hash = DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-1").digest(payload));
+        return new File(new File(contentFolder.getRoot(), hash.substring(0, 2).toLowerCase()), hash);
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldRemoveStoredContentReferencesWhenRegistrationFails() throws Exception {
+        stubRegistryFailure();
+        useContentAddressedStorage();
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+
+        XDSbService service = Context.getService(XDSbService.class);
+        RegistryResponseType result = service.provideAndRegisterDocumentSetB(request);
+
+        assertFalse(XDSConstants.XDS_B_STATUS_SUCCESS.equals(result.getStatus()));
+        assertNull(service.getStoredContent("2009.9.1.2455"));
+    }
+
+    @Test
+    public void provideAndRegisterDocumentSetB_shouldDeleteTheContentWrittenByATransactionThatRollsBack() throws Exception {
+        stubRegistry();
+        useContentAddressedStorage();
+        // loaded while the properties of the test transaction can still be seen
+        XDSbRepositoryConfiguration.get();
+
+        ProvideAndRegisterDocumentSetRequestType request = parseRequestFromResourceName("provideAndRegRequest1.xml");
+        byte[] payload = request.getDocument().get(0).getValue();
+        XDSbService service = Context.getService(XDSbService.class);
+        assertEquals(XDSConstants.XDS_B_STATUS_SUCCESS, service.provideAndRegisterDocumentSetB(request).getStatus());
+        assertTrue(getBlobFile(payload).isFile());
+
+        TestTransaction.end();
+
+        assertFalse(getBlobFile(payload).exists());
+    }
+
+    @Test
+    public void getStoredContent_shouldReturnNullForDocumentsSavedByAContentHandler() throws Exception {
+        assertNull(Context.getService(XDSbService.class).getStoredContent("2009.9.1.2455"));
+    }
+
 }
@@ -0,0 +1,38 @@
+package org.openmrs.module.xdsbrepository.infoset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class IdlePoolTest {
+
+    @Test
+    public void offer_shouldKeepNoMoreThanTheMaximumNumberOfIdleInstances() {
+        IdlePool<Object> pool = new IdlePool<Object>(2);
+        Object first = new Object();
+        Object second = new Object();
+
+        pool.offer(first);
+        pool.offer(second);
+        pool.offer(new Object());
+
+        assertEquals(2, pool.getIdleCount());
+        assertSame(first, pool.poll());
+        assertSame(second, pool.poll());
+        assertNull(pool.poll());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void clear_shouldDiscardAllIdleInstances() {
+        IdlePool<Object> pool = new IdlePool<Object>(2);
+        pool.offer(new Object());
+
+        pool.clear();
+
+        assertNull(pool.poll());
+        assertEquals(0, pool.getIdleCount());
+    }
+}
@@ -0,0 +1,95 @@
+package org.openmrs.module.xdsbrepository.infoset;
+
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.attachment.AttachmentMarshaller;
+import javax.xml.bind.attachment.AttachmentUnmarshaller;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class InfosetJaxbContextTest {
+
+    @Test
+    public void getContext_shouldCreateTheContextOnce() throws Exception {
+        assertSame(InfosetJaxbContext.getContext(), InfosetJaxbContext.getContext());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void borrowUnmarshaller_shouldUnmarshalAProvideAndRegisterRequest() throws Exception {
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream("provideAndRegRequest1.xml");
+        Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+        try {
+            JAXBElement<ProvideAndRegisterDocumentSetRequestType> request =
+                    (JAXBElement<ProvideAndRegisterDocumentSetRequestType>) unmarshaller.unmarshal(is);
+
+            assertEquals(1, request.getValue().getDocument().size());
+        } finally {
+            InfosetJaxbContext.release(unmarshaller);
+        }
+    }
+
+    @Test
+    public void borrowUnmarshaller_shouldNotLendTheSameUnmarshallerTwice() throws Exception {
+        Unmarshaller first = InfosetJaxbContext.borrowUnmarshaller();
+        Unmarshaller second = InfosetJaxbContext.borrowUnmarshaller();
+
+        assertNotSame(first, second);
+
+        InfosetJaxbContext.release(first);
+        InfosetJaxbContext.release(second);
+    }
+
+    @Test
+    public void release_shouldReuseTheUnmarshallerWithoutItsAttachmentUnmarshaller() throws Exception {
+        Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+        unmarshaller.setAttachmentUnmarshaller(mock(AttachmentUnmarshaller.class));
+        InfosetJaxbContext.release(unmarshaller);
+
+        Unmarshaller reused = InfosetJaxbContext.borrowUnmarshaller();
+        assertSame(unmarshaller, reused);
+        assertNull(reused.getAttachmentUnmarshaller());
+        InfosetJaxbContext.release(reused);
+    }
+
+    @Test
+    public void release_shouldReuseTheMarshallerWithoutItsAttachmentMarshaller() throws Exception {
+        Marshaller marshaller = InfosetJaxbContext.borrowMarshaller();
+        marshaller.setAttachmentMarshaller(mock(AttachmentMarshaller.class));
+        InfosetJaxbContext.release(marshaller);
+
+        Marshaller reused = InfosetJaxbContext.borrowMarshaller();
+        assertSame(marshaller, reused);
+        assertNull(reused.getAttachmentMarshaller());
+        InfosetJaxbContext.release(reused);
+    }
+
+    @Test
+    public void clear_shouldDropTheContextAndTheIdleUnmarshallers() throws Exception {
+        JAXBContext context = InfosetJaxbContext.getContext();
+        Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+        InfosetJaxbContext.release(unmarshaller);
+
+        InfosetJaxbContext.clear();
+
+        assertNotSame(context, InfosetJaxbContext.getContext());
+        Unmarshaller created = InfosetJaxbContext.borrowUnmarshaller();
+        assertNotSame(unmarshaller, created);
+        InfosetJaxbContext.release(created);
+    }
+
+    @Test
+    public void warmUp_shouldRoundTripTheWarmUpMessages() throws Exception {
+        InfosetJaxbContext.warmUp();
+    }
+}
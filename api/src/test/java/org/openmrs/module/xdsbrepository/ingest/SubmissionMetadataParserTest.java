@@ -0,0 +1,85 @@
+package org.openmrs.module.xdsbrepository.ingest;
+
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.common.exception.XDSException;
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
+import org.dcm4chee.xds2.infoset.rim.SubmitObjectsRequest;
+import org.dcm4chee.xds2.infoset.util.InfosetUtil;
+import org.junit.Test;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SubmissionMetadataParserTest {
+
+    private SubmissionMetadata parse(String resourceName) throws XDSException {
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream(resourceName);
+        return SubmissionMetadataParser.parse(new StreamSource(is), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProvideAndRegisterDocumentSetRequestType unmarshal(String resourceName) throws Exception {
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream(resourceName);
+        Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+        try {
+            return ((JAXBElement<ProvideAndRegisterDocumentSetRequestType>) unmarshaller.unmarshal(is)).getValue();
+        } finally {
+            InfosetJaxbContext.release(unmarshaller);
+        }
+    }
+
+    @Test
+    public void parse_shouldExtractTheSameMetadataAsTheUnmarshalledRequest() throws Exception {
+        SubmissionMetadata parsed = parse("provideAndRegRequest_multiDoc.xml");
+        SubmissionMetadata expected = SubmissionMetadata.fromRequest(unmarshal("provideAndRegRequest_multiDoc.xml"));
+
+        assertEquals(expected.getSubmissionSetUniqueId(), parsed.getSubmissionSetUniqueId());
+        assertEquals(expected.getSubmissionSetPatientId(), parsed.getSubmissionSetPatientId());
+        assertEquals(expected.getDocuments().keySet(), parsed.getDocuments().keySet());
+        assertEquals(expected.getDocumentEntries().size(), parsed.getDocumentEntries().size());
+
+        for (int i = 0; i < expected.getDocumentEntries().size(); i++) {
+            DocumentEntry e = expected.getDocumentEntries().get(i);
+            DocumentEntry p = parsed.getDocumentEntries().get(i);
+            assertEquals(e.getId(), p.getId());
+            assertEquals(e.getMimeType(), p.getMimeType());
+            assertEquals(e.getUniqueId(), p.getUniqueId());
+            assertEquals(e.getPatientId(), p.getPatientId());
+            assertEquals(e.getSlotValues(XDSConstants.SLOT_NAME_SOURCE_PATIENT_INFO), p.getSlotValues(XDSConstants.SLOT_NAME_SOURCE_PATIENT_INFO));
+            assertEquals(e.getClassifications(XDSConstants.UUID_XDSDocumentEntry_author).size(),
+                    p.getClassifications(XDSConstants.UUID_XDSDocumentEntry_author).size());
+            assertEquals(e.getClassification(XDSConstants.UUID_XDSDocumentEntry_classCode).getNodeRepresentation(),
+                    p.getClassification(XDSConstants.UUID_XDSDocumentEntry_classCode).getNodeRepresentation());
+            assertTrue(Arrays.equals(expected.getDocument(e.getId()), parsed.getDocument(p.getId())));
+        }
+    }
+
+    @Test
+    public void getSubmitObjectsRequest_shouldIncludeSlotsAddedToTheEntries() throws Exception {
+        SubmissionMetadata parsed = parse("provideAndRegRequest1.xml");
+        DocumentEntry entry = parsed.getDocumentEntries().get(0);
+        entry.addSlot("size", "42");
+
+        SubmitObjectsRequest sor = parsed.getSubmitObjectsRequest();
+        List<ExtrinsicObjectType> extrinsicObjects = InfosetUtil.getExtrinsicObjects(sor);
+        assertEquals(1, extrinsicObjects.size());
+        assertEquals("42", InfosetUtil.getSlotValue(extrinsicObjects.get(0).getSlot(), "size", null));
+
+        entry.addSlot("hash", "abc");
+        assertEquals("abc", InfosetUtil.getSlotValue(extrinsicObjects.get(0).getSlot(), "hash", null));
+    }
+
+    @Test(expected = XDSException.class)
+    public void parse_shouldThrowXDSExceptionWhenThereIsNoSubmitObjectsRequest() throws Exception {
+        SubmissionMetadataParser.parse(new StreamSource(new StringReader("<a xmlns='urn:x'/>")), null);
+    }
+}
@@ -0,0 +1,65 @@
+package org.openmrs.module.xdsbrepository.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void getValueAtPercentile_shouldBeWithinTheBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.recordNanos(ms * 1000000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxMicros());
+        assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / 16);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 16);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+        assertEquals(500500, histogram.getMeanMicros(), 1);
+    }
+
+    @Test
+    public void getValueAtPercentile_shouldReturnZeroWhenNothingWasRecorded() throws Exception {
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void getCountAtOrBelow_shouldCountDurationsUpToTheBound() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(5000);
+        histogram.recordNanos(5000000);
+        histogram.recordNanos(5000000000L);
+
+        assertEquals(0, histogram.getCountAtOrBelow(4));
+        assertEquals(1, histogram.getCountAtOrBelow(10));
+        assertEquals(2, histogram.getCountAtOrBelow(10000));
+        assertEquals(3, histogram.getCountAtOrBelow(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void getCountsAtOrBelow_shouldMatchTheCountAtOrBelowEachBound() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1000; nanos < 100000000000L; nanos *= 3) {
+            histogram.recordNanos(nanos);
+        }
+
+        long[] bounds = { 0, 10, 1000, 2500, 1000000, 60000000, Long.MAX_VALUE };
+        long[] counts = histogram.getCountsAtOrBelow(bounds);
+        for (int i = 0; i < bounds.length; i++) {
+            assertEquals(histogram.getCountAtOrBelow(bounds[i]), counts[i]);
+        }
+        assertEquals(histogram.getCount(), counts[bounds.length - 1]);
+    }
+
+    @Test
+    public void bucketOf_shouldPlaceEveryValueInABucketThatContainsIt() throws Exception {
+        for (long micros = 0; micros < 1000000; micros += 7) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(micros <= LatencyHistogram.upperBoundOf(bucket));
+            assertTrue(bucket == 0 || micros > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.openmrs.module.xdsbrepository.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PrometheusExpositionTest {
+
+    @After
+    public void tearDown() throws Exception {
+        IngestMetrics.reset();
+    }
+
+    @Test
+    public void write_shouldExportStageTimingsAsCumulativeHistograms() throws Exception {
+        IngestMetrics.failure(IngestStage.REGISTER, System.nanoTime() - 3000000, "XDSRegistryError");
+
+        StringWriter out = new StringWriter();
+        PrometheusExposition.write(out);
+        String text = out.toString();
+
+        String labels = "stage=\"REGISTER\",outcome=\"failure\",error_code=\"XDSRegistryError\"";
+        assertTrue(text.contains("# TYPE xdsb_ingest_stage_seconds histogram\n"));
+        assertTrue(text.contains("xdsb_ingest_stage_seconds_bucket{" + labels + ",le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("xdsb_ingest_stage_seconds_bucket{" + labels + ",le=\"60.0\"} 1\n"));
+        assertTrue(text.contains("xdsb_ingest_stage_seconds_bucket{" + labels + ",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("xdsb_ingest_stage_seconds_count{" + labels + "} 1\n"));
+        assertTrue(text.contains("# TYPE jvm_memory_pool_bytes_used gauge\n"));
+    }
+
+    @Test
+    public void write_shouldWriteTheSamplesOfAFamilyRightAfterItsHeader() throws Exception {
+        IngestMetrics.success(IngestStage.STORE, System.nanoTime() - 1000000);
+
+        StringWriter out = new StringWriter();
+        PrometheusExposition.write(out);
+
+        Set<String> families = new HashSet<String>();
+        String family = null;
+        for (String line : out.toString().split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+                assertTrue("Family " + family + " is written twice", families.add(family));
+            } else if (!line.startsWith("#") && !line.isEmpty()) {
+                String name = line.split("[{ ]")[0];
+                assertTrue(name + " does not follow its header", name.equals(family) || name.startsWith(family + "_"));
+            }
+        }
+    }
+
+    @Test
+    public void escape_shouldEscapeQuotesBackslashesAndNewlines() throws Exception {
+        assertEquals("a\\\\b\\\"c\\nd", PrometheusExposition.escape("a\\b\"c\nd"));
+    }
+}
@@ -0,0 +1,72 @@
+package org.openmrs.module.xdsbrepository.metrics;
+
+import org.junit.Test;
+import org.openmrs.module.xdsbrepository.model.QueueItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class QueueStatisticsTest {
+
+    @Test
+    public void completed_shouldMoveItemsThroughTheStatuses() throws Exception {
+        QueueStatistics statistics = new QueueStatistics("test");
+        statistics.enqueued();
+        statistics.enqueued();
+        statistics.dequeued();
+        statistics.completed(QueueItem.Status.SUCCESSFUL);
+        statistics.dequeued();
+        statistics.completed(QueueItem.Status.QUEUED);
+
+        Map<QueueItem.Status, Long> depth = statistics.getDepth();
+        assertEquals(Long.valueOf(1), depth.get(QueueItem.Status.QUEUED));
+        assertEquals(Long.valueOf(0), depth.get(QueueItem.Status.PROCESSING));
+        assertEquals(Long.valueOf(1), depth.get(QueueItem.Status.SUCCESSFUL));
+        assertEquals(1, statistics.getSucceeded());
+        assertEquals(1, statistics.getFailed());
+    }
+
+    @Test
+    public void reconcile_shouldReplaceTheDepthAndWorkOutRates() throws Exception {
+        QueueStatistics statistics = new QueueStatistics("test");
+        long start = System.currentTimeMillis();
+        statistics.reconcile(new EnumMap<QueueItem.Status, Long>(QueueItem.Status.class), null, start);
+        for (int i = 0; i < 30; i++) {
+            statistics.enqueued();
+        }
+        for (int i = 0; i < 10; i++) {
+            statistics.dequeued();
+        }
+
+        Map<QueueItem.Status, Long> counts = new EnumMap<QueueItem.Status, Long>(QueueItem.Status.class);
+        counts.put(QueueItem.Status.QUEUED, 500L);
+        counts.put(QueueItem.Status.FAILED, 3L);
+        statistics.reconcile(counts, new Date(start - 120000), start + 30000);
+
+        assertEquals(500, statistics.getQueuedCount());
+        assertEquals(Long.valueOf(0), statistics.getDepth().get(QueueItem.Status.PROCESSING));
+        assertEquals(Long.valueOf(3), statistics.getDepth().get(QueueItem.Status.FAILED));
+        assertEquals(60, statistics.getEnqueueRate(), 0.001);
+        assertEquals(20, statistics.getDequeueRate(), 0.001);
+        assertTrue(statistics.getOldestQueuedAge() >= 120000);
+        assertEquals(new Date(start + 30000), statistics.getLastReconciled());
+    }
+
+    @Test
+    public void recordHandler_shouldTimeEachHandlerSeparately() throws Exception {
+        QueueStatistics statistics = new QueueStatistics("test");
+        statistics.recordHandler("b", 2000000, true);
+        statistics.recordHandler("a", 1000000, true);
+        statistics.recordHandler("a", 5000000, false);
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(statistics.getHandlers().keySet()));
+        assertEquals(1, statistics.getHandlers().get("a").getHistogram().getCount());
+        assertEquals(1, statistics.getHandlers().get("a").getFailures());
+        assertEquals(2000, statistics.getHandlers().get("b").getHistogram().getMaxMicros());
+    }
+}
@@ -0,0 +1,54 @@
+package org.openmrs.module.xdsbrepository.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionPolicyTest {
+
+    @Test
+    public void getCodec_shouldApplyTheFirstRuleThatMatchesTheMimeType() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.parse(CompressionPolicy.DEFAULT);
+
+        assertSame(ContentCodecs.DEFLATE, policy.getCodec("text/xml"));
+        assertSame(ContentCodecs.DEFLATE, policy.getCodec("Text/Plain; charset=UTF-8"));
+        assertSame(ContentCodecs.DEFLATE, policy.getCodec("application/xml"));
+        assertSame(ContentCodecs.DEFLATE, policy.getCodec("application/hl7-v3+xml"));
+        assertSame(ContentCodecs.NONE, policy.getCodec("application/pdf"));
+        assertSame(ContentCodecs.NONE, policy.getCodec("image/jpeg"));
+        assertSame(ContentCodecs.NONE, policy.getCodec(null));
+        assertSame(ContentCodecs.NONE, CompressionPolicy.parse("text/*=deflate").getCodec("application/xml"));
+        assertSame(ContentCodecs.NONE, CompressionPolicy.parse("text/plain=none, *=deflate").getCodec("text/plain"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_shouldRejectUnknownCodecs() throws Exception {
+        CompressionPolicy.parse("text/*=lzma");
+    }
+
+    @Test
+    public void decode_shouldGiveTheOriginalBytes() throws Exception {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 7);
+        }
+
+        byte[] encoded = ContentCodecs.DEFLATE.encode(data);
+
+        assertTrue(encoded.length < data.length / 10);
+        assertArrayEquals(data, ContentCodecs.decode(ContentCodecs.DEFLATE, new ByteArrayInputStream(encoded), data.length));
+        assertArrayEquals(data, ContentCodecs.decode(ContentCodecs.forName(null), new ByteArrayInputStream(data), data.length));
+        assertEquals("deflate", ContentCodecs.forName("DEFLATE").getName());
+    }
+
+    @Test(expected = EOFException.class)
+    public void decode_shouldFailIfThePayloadIsShorterThanItsSize() throws Exception {
+        ContentCodecs.decode(ContentCodecs.NONE, new ByteArrayInputStream(new byte[10]), 11);
+    }
+}
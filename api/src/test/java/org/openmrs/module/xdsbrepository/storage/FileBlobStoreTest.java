@@ -0,0 +1,69 @@
+package org.openmrs.module.xdsbrepository.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileBlobStoreTest {
+
+    private static final String KEY = "E543712C0E10501972DE13A5BFCBE826C49FEB75";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void put_shouldStoreTheBlobInADirectoryNamedByTheFirstTwoCharacters() throws Exception {
+        FileBlobStore store = new FileBlobStore(folder.getRoot());
+
+        store.put(KEY, "My test document".getBytes("UTF-8"));
+
+        assertTrue(store.contains(KEY));
+        assertArrayEquals("My test document".getBytes("UTF-8"), store.get(KEY));
+        File[] files = new File(folder.getRoot(), "e5").listFiles();
+        assertEquals(1, files.length);
+        assertEquals(KEY, files[0].getName());
+    }
+
+    @Test
+    public void put_shouldReplaceABlobThatIsAlreadyStored() throws Exception {
+        FileBlobStore store = new FileBlobStore(folder.getRoot());
+
+        store.put(KEY, new byte[] { 1, 2, 3 });
+        store.put(KEY, new byte[] { 1, 2, 3 });
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, store.get(KEY));
+        assertEquals(1, new File(folder.getRoot(), "e5").listFiles().length);
+    }
+
+    @Test
+    public void get_shouldReturnNullIfTheBlobIsNotStored() throws Exception {
+        FileBlobStore store = new FileBlobStore(folder.getRoot());
+
+        assertNull(store.get(KEY));
+        assertFalse(store.contains(KEY));
+    }
+
+    @Test
+    public void delete_shouldRemoveTheBlob() throws Exception {
+        FileBlobStore store = new FileBlobStore(folder.getRoot());
+        store.put(KEY, new byte[] { 1 });
+
+        store.delete(KEY);
+        store.delete(KEY);
+
+        assertFalse(store.contains(KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void get_shouldRejectKeysThatAreNotHashes() throws Exception {
+        new FileBlobStore(folder.getRoot()).get("../../etc/passwd");
+    }
+}
@@ -0,0 +1,182 @@
+package org.openmrs.module.xdsbrepository.storage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentBlobStoreTest {
+
+    private static final String KEY = "E543712C0E10501972DE13A5BFCBE826C49FEB75";
+
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentBlobStore store;
+
+    @After
+    public void close() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private SegmentBlobStore open() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        store = new SegmentBlobStore(folder.getRoot(), SEGMENT_SIZE, 0.5);
+        return store;
+    }
+
+    private static String key(int i) {
+        return String.format("%040X", i);
+    }
+
+    private static byte[] data(int i, int length) {
+        byte[] data = new byte[length];
+        for (int j = 0; j < length; j++) {
+            data[j] = (byte) (i + j);
+        }
+        return data;
+    }
+
+    @Test
+    public void put_shouldStoreTheBlob() throws Exception {
+        open().put(KEY, "My test document".getBytes("UTF-8"));
+
+        assertTrue(store.contains(KEY));
+        assertArrayEquals("My test document".getBytes("UTF-8"), store.get(KEY));
+        assertNull(store.get(key(1)));
+        assertEquals(1, store.getBlobCount());
+    }
+
+    @Test
+    public void open_shouldIndexTheBlobsOfAllSegments() throws Exception {
+        open();
+        for (int i = 0; i < 30; i++) {
+            store.put(key(i), data(i, 100 * 1024));
+        }
+        int segmentCount = store.getSegmentCount();
+        assertTrue(segmentCount > 1);
+
+        open();
+
+        assertEquals(segmentCount, store.getSegmentCount());
+        assertEquals(30, store.getBlobCount());
+        for (int i = 0; i < 30; i++) {
+            assertArrayEquals(data(i, 100 * 1024), store.get(key(i)));
+        }
+    }
+
+    @Test
+    public void delete_shouldRemoveTheBlobAfterTheStoreIsOpenedAgain() throws Exception {
+        open().put(KEY, new byte[] { 1 });
+        store.put(key(1), new byte[] { 2 });
+
+        store.delete(KEY);
+        store.delete(KEY);
+        assertFalse(store.contains(KEY));
+        open();
+
+        assertFalse(store.contains(KEY));
+        assertArrayEquals(new byte[] { 2 }, store.get(key(1)));
+    }
+
+    @Test
+    public void open_shouldTruncateARecordThatWasNotCompletelyWritten() throws Exception {
+        open().put(key(1), data(1, 1000));
+        store.put(key(2), data(2, 1000));
+        store.close();
+        store = null;
+        File segment = folder.getRoot().listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(file.length() - 10);
+        } finally {
+            file.close();
+        }
+
+        open();
+
+        assertArrayEquals(data(1, 1000), store.get(key(1)));
+        assertFalse(store.contains(key(2)));
+        store.put(key(3), data(3, 1000));
+        open();
+        assertArrayEquals(data(3, 1000), store.get(key(3)));
+    }
+
+    @Test
+    public void compact_shouldReclaimSegmentsOfDeletedBlobsAndKeepTheOthers() throws Exception {
+        open();
+        for (int i = 0; i < 30; i++) {
+            store.put(key(i), data(i, 100 * 1024));
+        }
+        // most of the first segment
+        for (int i = 0; i < 8; i++) {
+            store.delete(key(i));
+        }
+        long size = store.getSize();
+
+        assertEquals(1, store.compact());
+
+        assertTrue(store.getSize() < size);
+        assertFalse(new File(folder.getRoot(), "segment-00000001.dat").exists());
+        for (int i = 8; i < 30; i++) {
+            assertArrayEquals(data(i, 100 * 1024), store.get(key(i)));
+        }
+        open();
+        assertEquals(22, store.getBlobCount());
+        assertFalse(store.contains(key(0)));
+        assertArrayEquals(data(9, 100 * 1024), store.get(key(9)));
+    }
+
+    @Test
+    public void put_shouldStoreTheBlobsOfConcurrentWriters() throws Exception {
+        open();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                futures.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        store.put(key(n), data(n, 10 * 1024));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        open();
+
+        assertEquals(200, store.getBlobCount());
+        for (int i = 0; i < 200; i++) {
+            assertArrayEquals(data(i, 10 * 1024), store.get(key(i)));
+        }
+    }
+}
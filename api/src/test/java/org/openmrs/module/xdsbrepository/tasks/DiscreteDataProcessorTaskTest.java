@@ -14,12 +14,15 @@ import org.openmrs.module.shr.contenthandler.api.CodedValue;
 import org.openmrs.module.shr.contenthandler.api.Content;
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
 import org.openmrs.module.shr.contenthandler.api.ContentHandlerService;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
 import org.openmrs.module.xdsbrepository.exceptions.HydrateRoleProviderMapException;
 import org.openmrs.module.xdsbrepository.model.QueueItem;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -46,6 +49,8 @@ public class DiscreteDataProcessorTaskTest extends BaseModuleContextSensitiveTes
         as.saveGlobalProperty(gp3);
         GlobalProperty gp4 = new GlobalProperty(XDSbServiceConstants.XDS_REGISTRY_URL_GP, "http://localhost:8089/ws/xdsregistry");
         as.saveGlobalProperty(gp4);
+        // the test transaction is never committed, reload the configuration to see the properties
+        XDSbRepositoryConfiguration.reset();
     }
 
     @Test
@@ -100,6 +105,14 @@ public class DiscreteDataProcessorTaskTest extends BaseModuleContextSensitiveTes
         assertEquals(1, encounterRoleSetMap.get(iterator.next()).size());
     }
 
+    @Test
+    public void parseRoleProviderMap_shouldSplitTheRoleProviderMapIntoIds() throws Exception {
+        Map<Integer, List<Integer>> providerIdsByRoleId = DiscreteDataProcessorTask.parseRoleProviderMap("311:301,302|312:303");
+        assertEquals(2, providerIdsByRoleId.size());
+        assertEquals(Arrays.asList(301, 302), providerIdsByRoleId.get(311));
+        assertEquals(Arrays.asList(303), providerIdsByRoleId.get(312));
+    }
+
     @Test
     public void hydrateRoleProviderMap_shouldThrowAnExceptionIfProviderDoesNotExist() throws Exception {
         DiscreteDataProcessorTask processor = new DiscreteDataProcessorTask();
@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openmrs.module.xdsbrepository.Identifier;
+import org.openmrs.module.xdsbrepository.hl7.XCN;
+import org.openmrs.module.xdsbrepository.hl7.XPN;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the regex based splitting previously used for CX/XCN/XPN values with the
+ * {@link org.openmrs.module.xdsbrepository.hl7.CompositeField} tokenizer.
+ * <p/>
+ * Run with the GC profiler to see the allocation difference:
+ * <code>java -jar benchmarks/target/benchmarks.jar CompositeFieldBenchmark -prof gc</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeFieldBenchmark {
+
+    private String cx = "1111111111^^^&amp;1.2.3&amp;ISO";
+
+    private String xcn = "pro222^Provider^Jack^^^";
+
+    private String xpn = "Doe^John^^^";
+
+    @Benchmark
+    public void regexCX(Blackhole bh) {
+        // the parsing done by XDSbServiceImpl.parsePatientIdentifier and Identifier before the tokenizer
+        String value = cx.replaceAll("&amp;", "&");
+        String[] tokens = value.split("\\^");
+        bh.consume(tokens[0]);
+        if (tokens.length > 3) {
+            String[] authTokens = tokens[3].split("&");
+            bh.consume(authTokens.length > 1 ? authTokens[1] : null);
+            bh.consume(authTokens.length > 2 ? authTokens[2] : null);
+        }
+    }
+
+    @Benchmark
+    public Identifier tokenizerCX() throws Exception {
+        return new Identifier(cx);
+    }
+
+    @Benchmark
+    public Identifier canonicalCX() throws Exception {
+        return Identifier.valueOf(cx);
+    }
+
+    @Benchmark
+    public void regexXCN(Blackhole bh) {
+        String[] components = xcn.split("\\^", -1);
+        bh.consume(components[0]);
+        bh.consume(components[1]);
+        bh.consume(components[2]);
+    }
+
+    @Benchmark
+    public void tokenizerXCN(Blackhole bh) {
+        XCN parsed = XCN.parse(xcn);
+        bh.consume(parsed.getIdNumber());
+        bh.consume(parsed.getFamilyName());
+        bh.consume(parsed.getGivenName());
+    }
+
+    @Benchmark
+    public void regexXPN(Blackhole bh) {
+        String[] components = xpn.split("\\^", -1);
+        for (String component : components) {
+            bh.consume(component);
+        }
+    }
+
+    @Benchmark
+    public void tokenizerXPN(Blackhole bh) {
+        XPN parsed = XPN.parse(xpn);
+        bh.consume(parsed.getFamilyName());
+        bh.consume(parsed.getGivenName());
+        bh.consume(parsed.getSecondName());
+        bh.consume(parsed.getSuffix());
+        bh.consume(parsed.getPrefix());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.benchmarks;
+
+import org.dcm4chee.xds2.common.exception.XDSException;
+import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.shr.contenthandler.api.CodedValue;
+import org.openmrs.module.shr.contenthandler.api.Content;
+import org.openmrs.module.xdsbrepository.impl.XDSbServiceImpl;
+import org.openmrs.module.xdsbrepository.infoset.InfosetSlots;
+import org.openmrs.module.xdsbrepository.ingest.DocumentEntry;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SHA-1 hashing of document content: checking a submitted hash in
+ * {@link XDSbServiceImpl#validateContent(DocumentEntry, Content)}, adding a missing one in
+ * {@link XDSbServiceImpl#addHashSlot(DocumentEntry, Content)}, and the hex encoding both use.
+ * <p/>
+ * <code>java -jar benchmarks/target/benchmarks.jar HashingBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    private int payloadSize;
+
+    private Content content;
+
+    private DocumentEntry hashedEntry;
+
+    private byte[] digest;
+
+    private ExposedService service = new ExposedService();
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        content = new Content("2009.9.1.1", payload, new CodedValue("34108-1", "LOINC"),
+                new CodedValue("CDAR2/IHE 1.0", "XDS"), "text/xml");
+
+        digest = MessageDigest.getInstance("SHA-1").digest(payload);
+        ExtrinsicObjectType eot = new ExtrinsicObjectType();
+        InfosetSlots.addOrOverwriteSlot(eot, XDSbServiceImpl.SLOT_NAME_HASH, XDSbServiceImpl.bytesToHex(digest));
+        InfosetSlots.addOrOverwriteSlot(eot, XDSbServiceImpl.SLOT_NAME_SIZE, String.valueOf(payloadSize));
+        hashedEntry = DocumentEntry.fromExtrinsicObject(eot);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return XDSbServiceImpl.bytesToHex(digest);
+    }
+
+    @Benchmark
+    public DocumentEntry validateContent() throws Exception {
+        service.validateContent(hashedEntry, content);
+        return hashedEntry;
+    }
+
+    @Benchmark
+    public DocumentEntry addHashSlot() {
+        // a new entry every time, the slot is only computed while it is missing
+        DocumentEntry entry = DocumentEntry.fromExtrinsicObject(new ExtrinsicObjectType());
+        service.addHashSlot(entry, content);
+        return entry;
+    }
+
+    /**
+     * Opens up the service methods under test, none of them touch the OpenMRS context
+     */
+    private static class ExposedService extends XDSbServiceImpl {
+
+        @Override
+        protected void validateContent(DocumentEntry entry, Content content) throws XDSException {
+            super.validateContent(entry, content);
+        }
+
+        @Override
+        protected void addHashSlot(DocumentEntry entry, Content content) {
+            super.addHashSlot(entry, content);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.xdsbrepository.AssigningAuthority;
+import org.openmrs.module.xdsbrepository.Identifier;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.mapper.PatientIdentifierMapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The identifier handling done for every patient id of every submission: parsing CX values, writing
+ * assigning authorities and identifiers back out, and mapping identifier types with
+ * {@link PatientIdentifierMapper}, which searches the configured mappings in order.
+ * <p/>
+ * <code>java -jar benchmarks/target/benchmarks.jar IdentifierBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifierBenchmark {
+
+    @Param({ "1111111111^^^&1.2.3&ISO", "89765a87b^^^&3.4.5&ISO^PI", "1111111111^^^&amp;1.2.3&amp;ISO" })
+    private String cx;
+
+    @Param({ "1", "20" })
+    private int mappings;
+
+    private Identifier identifier;
+
+    private PatientIdentifierMapper mapper;
+
+    private String lastLocalUuid;
+
+    private String lastMpiId;
+
+    @Setup
+    public void setup() throws Exception {
+        identifier = new Identifier(cx);
+
+        Map<String, String> properties = new HashMap<String, String>();
+        for (int i = 0; i < mappings; i++) {
+            properties.put(XDSbServiceConstants.GP_LOCAL_PATIENT_IDENTIFIER_TYPE_MAP + i,
+                    "a3b4c5d6-0000-4000-8000-" + String.format("%012d", i) + ":" + (100 + i) + ":ISO");
+        }
+        XDSbRepositoryConfiguration.install(properties);
+        mapper = new PatientIdentifierMapper();
+        mapper.init();
+        lastLocalUuid = "a3b4c5d6-0000-4000-8000-" + String.format("%012d", mappings - 1);
+        lastMpiId = String.valueOf(100 + mappings - 1);
+    }
+
+    @Benchmark
+    public Identifier parse() throws Exception {
+        return new Identifier(cx);
+    }
+
+    @Benchmark
+    public String toCX() {
+        return identifier.toCX();
+    }
+
+    @Benchmark
+    public String assigningAuthorityToHL7() {
+        return identifier.getAssigningAuthority().toHL7();
+    }
+
+    @Benchmark
+    public String newAssigningAuthorityToHL7() {
+        return new AssigningAuthority(null, "1.2.3", "ISO").toHL7();
+    }
+
+    @Benchmark
+    public String mapToLocalIdentifierType() {
+        return mapper.getMappedLocalIdentifierTypeUuid(lastMpiId);
+    }
+
+    @Benchmark
+    public String mapToMpiIdentifierType() {
+        return mapper.getMappedMpiIdentifierTypeId(lastLocalUuid);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.EncounterRole;
+import org.openmrs.Provider;
+import org.openmrs.module.xdsbrepository.exceptions.HydrateRoleProviderMapException;
+import org.openmrs.module.xdsbrepository.impl.XDSbServiceImpl;
+import org.openmrs.module.xdsbrepository.tasks.DiscreteDataProcessorTask;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The role to providers map that is stored with every queued discrete data item: written by
+ * <code>XDSbServiceImpl.stringifyRoleProvidersMap</code> and read back by
+ * <code>DiscreteDataProcessorTask.hydrateRoleProviderMap</code>. Reading it back is measured up to the
+ * provider and encounter role lookups, which need the database: the format check and the splitting of
+ * <code>DiscreteDataProcessorTask.parseRoleProviderMap</code>.
+ * <p/>
+ * <code>java -jar benchmarks/target/benchmarks.jar RoleProviderMapBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleProviderMapBenchmark {
+
+    @Param({ "1", "5" })
+    private int roles;
+
+    @Param({ "1", "4" })
+    private int providersPerRole;
+
+    private Map<EncounterRole, Set<Provider>> providersByRole;
+
+    private String roleProviderMap;
+
+    private ExposedService service = new ExposedService();
+
+    @Setup
+    public void setup() {
+        providersByRole = new LinkedHashMap<EncounterRole, Set<Provider>>();
+        int providerId = 1;
+        for (int r = 0; r < roles; r++) {
+            EncounterRole role = new EncounterRole(r + 1);
+            Set<Provider> providers = new HashSet<Provider>();
+            for (int p = 0; p < providersPerRole; p++) {
+                providers.add(new Provider(providerId++));
+            }
+            providersByRole.put(role, providers);
+        }
+        roleProviderMap = service.stringifyRoleProvidersMap(providersByRole);
+    }
+
+    @Benchmark
+    public String stringify() {
+        return service.stringifyRoleProvidersMap(providersByRole);
+    }
+
+    @Benchmark
+    public Map<Integer, List<Integer>> parse() throws HydrateRoleProviderMapException {
+        return ExposedTask.parse(roleProviderMap);
+    }
+
+    private static class ExposedService extends XDSbServiceImpl {
+
+        @Override
+        protected String stringifyRoleProvidersMap(Map<EncounterRole, Set<Provider>> providersByRole) {
+            return super.stringifyRoleProvidersMap(providersByRole);
+        }
+    }
+
+    private static class ExposedTask extends DiscreteDataProcessorTask {
+
+        private static Map<Integer, List<Integer>> parse(String roleProviderMap) throws HydrateRoleProviderMapException {
+            return parseRoleProviderMap(roleProviderMap);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.openmrs.module.xdsbrepository.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadataParser;
+import org.w3c.dom.Document;
+
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares unmarshalling a Provide and Register request into the ebRIM object model with reading it using
+ * {@link SubmissionMetadataParser}. Both read the same DOM, which is what the SAAJ message factory hands
+ * the endpoint.
+ * <p/>
+ * <code>java -jar benchmarks/target/benchmarks.jar SubmissionMetadataBenchmark -prof gc</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmissionMetadataBenchmark {
+
+    @Param({ "1", "20" })
+    private int documentCount;
+
+    private Document request;
+
+    @Setup
+    public void setup() throws Exception {
+        InfosetJaxbContext.warmUp();
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        request = factory.newDocumentBuilder().parse(new ByteArrayInputStream(buildRequest(documentCount).getBytes("UTF-8")));
+    }
+
+    @Benchmark
+    public Object unmarshal() throws Exception {
+        Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+        try {
+            return unmarshaller.unmarshal(new DOMSource(request.getDocumentElement()));
+        } finally {
+            InfosetJaxbContext.release(unmarshaller);
+        }
+    }
+
+    @Benchmark
+    public SubmissionMetadata parse() throws Exception {
+        return SubmissionMetadataParser.parse(new DOMSource(request.getDocumentElement()), null);
+    }
+
+    private static String buildRequest(int documentCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<xdsb:ProvideAndRegisterDocumentSetRequest xmlns:xdsb=\"urn:ihe:iti:xds-b:2007\"")
+                .append(" xmlns:lcm=\"urn:oasis:names:tc:ebxml-regrep:xsd:lcm:3.0\"")
+                .append(" xmlns:rim=\"urn:oasis:names:tc:ebxml-regrep:xsd:rim:3.0\">")
+                .append("<lcm:SubmitObjectsRequest><rim:RegistryObjectList>");
+        for (int i = 0; i < documentCount; i++) {
+            String id = "Document" + i;
+            sb.append("<rim:ExtrinsicObject id=\"").append(id)
+                    .append("\" mimeType=\"text/plain\" objectType=\"urn:uuid:7edca82f-054d-47f2-a032-9b2a5b5186c1\">");
+            slot(sb, "creationTime", "20051224");
+            slot(sb, "languageCode", "en-us");
+            slot(sb, "serviceStartTime", "200412230800");
+            slot(sb, "sourcePatientId", "89765a87b^^^&amp;3.4.5&amp;ISO");
+            slot(sb, "sourcePatientInfo", "PID-3|pid1^^^&amp;1.2.3&amp;ISO", "PID-5|Doe^Jane^^^", "PID-7|19860101", "PID-8|F");
+            sb.append("<rim:Name><rim:LocalizedString value=\"Physical\"/></rim:Name>");
+            for (int a = 0; a < 3; a++) {
+                sb.append("<rim:Classification classificationScheme=\"urn:uuid:93606bcf-9494-43ec-9b4e-a7748d1a838d\" classifiedObject=\"")
+                        .append(id).append("\" nodeRepresentation=\"\" id=\"").append(id).append("_author").append(a).append("\">");
+                slot(sb, "authorPerson", "pro11" + a + "^Smitty^Gerald^^^");
+                slot(sb, "authorInstitution", "Cleveland Clinic", "Parma Community");
+                slot(sb, "authorRole", "Attending");
+                sb.append("</rim:Classification>");
+            }
+            classification(sb, id, "urn:uuid:41a5887f-8865-4c09-adf7-e362475b143a", "History and Physical");
+            classification(sb, id, "urn:uuid:f0306f51-975f-434e-a61c-c59651d33983", "34108-1");
+            classification(sb, id, "urn:uuid:a09d5840-386c-46f2-b5ad-9c3699a4309d", "CDAR2/IHE 1.0");
+            sb.append("<rim:ExternalIdentifier identificationScheme=\"urn:uuid:58a6f841-87b3-4a3e-92fd-a8ffeff98427\" value=\"1111111111^^^&amp;1.2.3&amp;ISO\" id=\"")
+                    .append(id).append("_pid\" registryObject=\"").append(id).append("\"/>");
+            sb.append("<rim:ExternalIdentifier identificationScheme=\"urn:uuid:2e82c1f6-a085-4c72-9da3-8640a32e42ab\" value=\"2009.9.1.")
+                    .append(i).append("\" id=\"").append(id).append("_uid\" registryObject=\"").append(id).append("\"/>");
+            sb.append("</rim:ExtrinsicObject>");
+        }
+        sb.append("</rim:RegistryObjectList></lcm:SubmitObjectsRequest>");
+        for (int i = 0; i < documentCount; i++) {
+            sb.append("<xdsb:Document id=\"Document").append(i).append("\">VGhpcyBpcyBteSBkb2N1bWVudC4=</xdsb:Document>");
+        }
+        sb.append("</xdsb:ProvideAndRegisterDocumentSetRequest>");
+        return sb.toString();
+    }
+
+    private static void slot(StringBuilder sb, String name, String... values) {
+        sb.append("<rim:Slot name=\"").append(name).append("\"><rim:ValueList>");
+        for (String value : values) {
+            sb.append("<rim:Value>").append(value).append("</rim:Value>");
+        }
+        sb.append("</rim:ValueList></rim:Slot>");
+    }
+
+    private static void classification(StringBuilder sb, String id, String scheme, String code) {
+        sb.append("<rim:Classification classificationScheme=\"").append(scheme).append("\" classifiedObject=\"").append(id)
+                .append("\" nodeRepresentation=\"").append(code).append("\" id=\"").append(id).append('_').append(code.hashCode()).append("\">");
+        slot(sb, "codingScheme", "LOINC");
+        sb.append("</rim:Classification>");
+    }
+}
@@ -4,6 +4,7 @@ import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
 import org.dcm4chee.xds2.infoset.ihe.RetrieveDocumentSetRequestType;
 import org.dcm4chee.xds2.infoset.ihe.RetrieveDocumentSetResponseType;
 import org.dcm4chee.xds2.infoset.rim.RegistryResponseType;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
 
 /**
  * Interface for the Spring-WS XDS Repository
@@ -14,6 +15,11 @@ public interface XdsDocumentRepositoryService {
 	 * Simple provide and register document
 	 */
 	RegistryResponseType provideAndRegisterDocumentSetB(ProvideAndRegisterDocumentSetRequestType request);
+
+	/**
+	 * Provide and register document, for requests read without unmarshalling the full metadata
+	 */
+	RegistryResponseType provideAndRegisterDocumentSetB(SubmissionMetadata metadata);
 	
 	/**
 	 * Retrieve document set
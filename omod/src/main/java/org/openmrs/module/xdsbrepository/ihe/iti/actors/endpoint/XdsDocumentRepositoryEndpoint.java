@@ -1,19 +1,39 @@
 package org.openmrs.module.xdsbrepository.ihe.iti.actors.endpoint;
 
+import java.io.IOException;
+import java.net.URLDecoder;
+
 import javax.xml.bind.JAXBElement;
 import javax.xml.namespace.QName;
 
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.common.XDSUtil;
+import org.dcm4chee.xds2.common.exception.XDSException;
 import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
 import org.dcm4chee.xds2.infoset.ihe.RetrieveDocumentSetRequestType;
 import org.dcm4chee.xds2.infoset.ihe.RetrieveDocumentSetResponseType;
 import org.dcm4chee.xds2.infoset.rim.RegistryResponseType;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 import org.openmrs.module.xdsbrepository.ihe.iti.actors.XdsDocumentRepositoryService;
+import org.openmrs.module.xdsbrepository.ingest.AttachmentResolver;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadataParser;
+import org.openmrs.module.xdsbrepository.metrics.IngestMetrics;
+import org.openmrs.module.xdsbrepository.metrics.IngestStage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.oxm.Unmarshaller;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.mime.Attachment;
+import org.springframework.ws.mime.MimeMessage;
 import org.springframework.ws.server.endpoint.annotation.Endpoint;
 import org.springframework.ws.server.endpoint.annotation.RequestPayload;
 import org.springframework.ws.server.endpoint.annotation.ResponsePayload;
 import org.springframework.ws.soap.addressing.server.annotation.Action;
 import org.springframework.ws.soap.server.endpoint.annotation.SoapAction;
+import org.springframework.ws.support.MarshallingUtils;
 
 /**
  * Represents the repository endpoint for the XDS.b repository
@@ -24,6 +44,9 @@ public class XdsDocumentRepositoryEndpoint {
 	// The service hosted by the endpoint
 	private XdsDocumentRepositoryService m_service;
 	
+	// Used for Provide and Register requests when the streaming parser is disabled
+	private Unmarshaller m_unmarshaller;
+	
 	/**
 	 * Ctor auto-wires the endpoint to the service
 	 */
@@ -32,19 +55,60 @@ public class XdsDocumentRepositoryEndpoint {
 		this.m_service = service;
 	}
 	
+	@Autowired
+	public void setUnmarshaller(@Qualifier("marshaller") Unmarshaller unmarshaller) {
+		this.m_unmarshaller = unmarshaller;
+	}
+	
 	/**
 	 * 
-	 * Auto generated method comment
+	 * Provide and Register endpoint. The payload is either read by the streaming metadata parser or, when
+	 * xds-b-repository.ingest.streaming is off, unmarshalled as a whole.
 	 * 
-	 * @param request
-	 * @param header
+	 * @param messageContext
 	 * @return
 	 */
 	@Action("urn:ihe:iti:2007:ProvideAndRegisterDocumentSet-b")
 	@ResponsePayload
-	public JAXBElement<RegistryResponseType> provideAndRegisterDocumentSetB(@RequestPayload JAXBElement<ProvideAndRegisterDocumentSetRequestType> request)
+	public JAXBElement<RegistryResponseType> provideAndRegisterDocumentSetB(MessageContext messageContext) throws IOException
 	{
-		return new JAXBElement<RegistryResponseType>(new QName("urn:oasis:names:tc:ebxml-regrep:xsd:rs:3.0","RegistryResponse"), RegistryResponseType.class, this.m_service.provideAndRegisterDocumentSetB(request.getValue()));
+		WebServiceMessage request = messageContext.getRequest();
+		RegistryResponseType response;
+		long start = IngestMetrics.start();
+		if (XDSbRepositoryConfiguration.get().isStreamingIngest()) {
+			try {
+				AttachmentResolver attachments = request instanceof MimeMessage ? new MimeAttachmentResolver((MimeMessage) request) : null;
+				SubmissionMetadata metadata = SubmissionMetadataParser.parse(request.getPayloadSource(), attachments);
+				IngestMetrics.success(IngestStage.UNMARSHAL, start);
+				response = this.m_service.provideAndRegisterDocumentSetB(metadata);
+			}
+			catch (XDSException ex) {
+				// only the parser throws, the service reports its errors in the response
+				IngestMetrics.failure(IngestStage.UNMARSHAL, start, ex);
+				response = new RegistryResponseType();
+				response.setStatus(XDSConstants.XDS_B_STATUS_FAILURE);
+				XDSUtil.addError(response, ex);
+			}
+		} else {
+			JAXBElement<ProvideAndRegisterDocumentSetRequestType> element;
+			try {
+				element = unmarshal(request);
+			} catch (IOException ex) {
+				IngestMetrics.failure(IngestStage.UNMARSHAL, start, ex);
+				throw ex;
+			} catch (RuntimeException ex) {
+				IngestMetrics.failure(IngestStage.UNMARSHAL, start, ex);
+				throw ex;
+			}
+			IngestMetrics.success(IngestStage.UNMARSHAL, start);
+			response = this.m_service.provideAndRegisterDocumentSetB(element.getValue());
+		}
+		return new JAXBElement<RegistryResponseType>(new QName("urn:oasis:names:tc:ebxml-regrep:xsd:rs:3.0","RegistryResponse"), RegistryResponseType.class, response);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private JAXBElement<ProvideAndRegisterDocumentSetRequestType> unmarshal(WebServiceMessage request) throws IOException {
+		return (JAXBElement<ProvideAndRegisterDocumentSetRequestType>) MarshallingUtils.unmarshal(this.m_unmarshaller, request);
 	}
 	
 	/**
@@ -62,4 +126,35 @@ public class XdsDocumentRepositoryEndpoint {
 		return new JAXBElement<RetrieveDocumentSetResponseType>(new QName("urn:ihe:iti:xds-b:2007","RetrieveDocumentSetResponse"), RetrieveDocumentSetResponseType.class, this.m_service.retrieveDocumentSetB(request.getValue()));
 	}
 	
+	/**
+	 * Resolves xop:Include hrefs against the MIME parts of the request
+	 */
+	private static class MimeAttachmentResolver implements AttachmentResolver {
+		
+		private static final String CID = "cid:";
+		
+		private final MimeMessage message;
+		
+		MimeAttachmentResolver(MimeMessage message) {
+			this.message = message;
+		}
+		
+		@Override
+		public byte[] resolve(String href) throws IOException {
+			String contentId = href;
+			if (contentId.startsWith(CID)) {
+				contentId = URLDecoder.decode(contentId.substring(CID.length()), "UTF-8");
+			}
+			// senders differ on whether the Content-ID header is wrapped in angle brackets
+			Attachment attachment = message.getAttachment('<' + contentId + '>');
+			if (attachment == null) {
+				attachment = message.getAttachment(contentId);
+			}
+			if (attachment == null) {
+				return null;
+			}
+			return FileCopyUtils.copyToByteArray(attachment.getInputStream());
+		}
+	}
+	
 }
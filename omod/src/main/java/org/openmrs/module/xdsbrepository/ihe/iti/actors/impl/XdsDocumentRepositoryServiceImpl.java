@@ -21,10 +21,14 @@ import org.openmrs.module.shr.contenthandler.api.Content;
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
 import org.openmrs.module.shr.contenthandler.api.ContentHandlerException;
 import org.openmrs.module.shr.contenthandler.api.ContentHandlerService;
+import org.openmrs.module.xdsbrepository.DocumentContentCache;
 import org.openmrs.module.xdsbrepository.Utils;
 import org.openmrs.module.xdsbrepository.XDSbService;
-import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 import org.openmrs.module.xdsbrepository.ihe.iti.actors.XdsDocumentRepositoryService;
+import org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata;
+import org.openmrs.module.xdsbrepository.metrics.RetrieveMetrics;
+import org.openmrs.module.xdsbrepository.metrics.StageTimer;
 import org.springframework.stereotype.Service;
 
 import javax.activation.DataHandler;
@@ -32,6 +36,7 @@ import javax.mail.util.ByteArrayDataSource;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * XdsDocumentRepository Service Implementation
@@ -55,6 +60,16 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
      */
     @Override
     public RegistryResponseType provideAndRegisterDocumentSetB(ProvideAndRegisterDocumentSetRequestType request) {
+        return provideAndRegisterDocumentSetB(SubmissionMetadata.fromRequest(request));
+    }
+
+    /**
+     * Document repository service implementation for requests read by the streaming parser
+     *
+     * @see XdsDocumentRepositoryService#provideAndRegisterDocumentSetB(org.openmrs.module.xdsbrepository.ingest.SubmissionMetadata)
+     */
+    @Override
+    public RegistryResponseType provideAndRegisterDocumentSetB(SubmissionMetadata metadata) {
         log.info("Start provideAndRegisterDocumentSetB");
         if (!Context.isAuthenticated()) {
             Utils.startSession();
@@ -63,7 +78,7 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
         RegistryResponseType response = new RegistryResponseType();
 
         try {
-            response = Context.getService(XDSbService.class).provideAndRegisterDocumentSetB(request);
+            response = Context.getService(XDSbService.class).provideAndRegisterDocumentSetB(metadata);
 
         } catch (ContentHandlerException ex) {
             response.setStatus(XDSConstants.XDS_B_STATUS_FAILURE);
@@ -95,6 +110,7 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
      */
     @Override
     public RetrieveDocumentSetResponseType retrieveDocumentSetB(RetrieveDocumentSetRequestType req) {
+        long start = RetrieveMetrics.start();
         XDSbService xdsService = Context.getService(XDSbService.class);
         RetrieveDocumentSetResponseType rsp = iheFactory.createRetrieveDocumentSetResponseType();
         RegistryResponseType regRsp = factory.createRegistryResponseType();
@@ -104,11 +120,13 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
                 Utils.startSession();
             }
 
-            String repositoryUID = getRepositoryUniqueId();
+            XDSbRepositoryConfiguration config = XDSbRepositoryConfiguration.get();
+            String repositoryUID = config.getRepositoryUniqueId();
+            String homeCommunityId = config.getHomeCommunityId();
             String docUid, reqRepoUid;
             Content content;
             for (DocumentRequest drq : req.getDocumentRequest()) {
-                drq.setHomeCommunityId(Context.getAdministrationService().getGlobalProperty(XDSbServiceConstants.XDS_HOME_COMMUNITY_ID));
+                drq.setHomeCommunityId(homeCommunityId);
             }
             RetrieveDocumentSetResponseType.DocumentResponse docRsp;
             List<String> retrievedUIDs = new ArrayList<String>();
@@ -125,20 +143,14 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
                 }
                 if (reqRepoUid.equals(repositoryUID)) {
 
-                    Class<? extends ContentHandler> documentHandlerClass;
-                    documentHandlerClass = xdsService.getDocumentHandlerClass(docUid);
-                    ContentHandlerService chs = Context.getService(ContentHandlerService.class);
-                    ContentHandler h = chs.getContentHandlerByClass(documentHandlerClass);
-                    if (h == null) {
-                        h = chs.getDefaultUnstructuredHandler();
-                    }
-                    content = h.fetchContent(docUid);
+                    content = fetchContent(xdsService, docUid);
 
                     if (content != null) {
                         try {
-                            docRsp = getDocumentResponse(content, docUid, getRepositoryUniqueId());
+                            docRsp = getDocumentResponse(content, docUid, repositoryUID);
                             rsp.getDocumentResponse().add(docRsp);
                             retrievedUIDs.add(docUid);
+                            RetrieveMetrics.documentRetrieved(content.getPayload().length);
                         } catch (IOException e) {
                             String msg = "Error in building DocumentResponse for document:" + content;
                             log.error(msg);
@@ -148,6 +160,7 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
                     } else {
                         String msg = "Document not found! document UID:" + docUid;
                         log.warn(msg);
+                        RetrieveMetrics.documentMissing();
                         mainErrors.add(XDSUtil.getRegistryError(XDSException.XDS_ERR_SEVERITY_ERROR,
                                 XDSException.XDS_ERR_MISSING_DOCUMENT, msg, docUid));
                     }
@@ -183,13 +196,38 @@ public class XdsDocumentRepositoryServiceImpl implements XdsDocumentRepositorySe
             XDSAudit.logRepositoryRetrieveExport(req, rsp, new AuditRequestInfo(null, null));
             Context.closeSession();
 
+            if (XDSConstants.XDS_B_STATUS_SUCCESS.equals(regRsp.getStatus())) {
+                RetrieveMetrics.completed(start, StageTimer.SUCCESS);
+            } else if (XDSConstants.XDS_B_STATUS_PARTIAL_SUCCESS.equals(regRsp.getStatus())) {
+                RetrieveMetrics.completed(start, RetrieveMetrics.PARTIAL_SUCCESS);
+            } else {
+                RetrieveMetrics.completed(start, StageTimer.FAILURE);
+            }
             rsp.setRegistryResponse(regRsp);
             return rsp;
         }
     }
 
-    private String getRepositoryUniqueId() {
-        return Context.getAdministrationService().getGlobalProperty(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP);
+    private Content fetchContent(final XDSbService xdsService, final String docUid) throws Exception {
+        return DocumentContentCache.get(docUid, new Callable<Content>() {
+
+            @Override
+            public Content call() throws Exception {
+                // documents in the content-addressed store are still mapped to the unstructured handler
+                Content content = xdsService.getStoredContent(docUid);
+                if (content == null) {
+                    Class<? extends ContentHandler> documentHandlerClass;
+                    documentHandlerClass = xdsService.getDocumentHandlerClass(docUid);
+                    ContentHandlerService chs = Context.getService(ContentHandlerService.class);
+                    ContentHandler h = chs.getContentHandlerByClass(documentHandlerClass);
+                    if (h == null) {
+                        h = chs.getDefaultUnstructuredHandler();
+                    }
+                    content = h.fetchContent(docUid);
+                }
+                return content;
+            }
+        });
     }
 
     private RetrieveDocumentSetResponseType.DocumentResponse getDocumentResponse(Content content, String documentUniqueId, String repositoryUniqueId) throws IOException {
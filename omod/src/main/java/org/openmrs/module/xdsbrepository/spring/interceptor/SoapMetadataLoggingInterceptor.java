@@ -0,0 +1,257 @@
+package org.openmrs.module.xdsbrepository.spring.interceptor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.soap.AttachmentPart;
+import javax.xml.namespace.QName;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.mime.Attachment;
+import org.springframework.ws.mime.MimeMessage;
+import org.springframework.ws.server.EndpointInterceptor;
+import org.springframework.ws.soap.SoapHeader;
+import org.springframework.ws.soap.SoapHeaderElement;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.springframework.ws.transport.TransportContext;
+import org.springframework.ws.transport.TransportContextHolder;
+import org.springframework.ws.transport.http.HttpServletConnection;
+import org.w3c.dom.Node;
+
+/**
+ * Logs a one line summary of SOAP requests and responses: the SOAP action, payload element, header names,
+ * the id, content type and declared size of every MTOM attachment, the request size and the processing time.
+ * <p/>
+ * Unlike Spring's <code>SoapEnvelopeLoggingInterceptor</code> the envelope is never serialized and
+ * attachment content is never read, so diagnostics do not cost a copy of every document. Only a sample of
+ * requests is logged, see {@link XDSbServiceConstants#XDS_REPOSITORY_SOAP_LOGGING_SAMPLE_RATE}, and the
+ * log lines are formatted and written by a background thread. If that thread falls behind, summaries are
+ * dropped rather than queued without bound.
+ */
+public class SoapMetadataLoggingInterceptor implements EndpointInterceptor, DisposableBean {
+
+    private static final String EXCHANGE_PROPERTY = SoapMetadataLoggingInterceptor.class.getName() + ".exchange";
+
+    private final Log log = LogFactory.getLog(this.getClass());
+
+    private final BlockingQueue<Exchange> queue;
+
+    private final Thread writer;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public SoapMetadataLoggingInterceptor() {
+        this(1000);
+    }
+
+    public SoapMetadataLoggingInterceptor(int queueCapacity) {
+        queue = new ArrayBlockingQueue<Exchange>(queueCapacity);
+        writer = new Thread(new Writer(), "xds-b-repository-soap-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the number of summaries discarded because the log writer could not keep up
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public boolean handleRequest(MessageContext messageContext, Object endpoint) {
+        if (log.isDebugEnabled() && sampled()) {
+            Exchange exchange = new Exchange(System.nanoTime());
+            describeRequest(exchange, messageContext.getRequest());
+            messageContext.setProperty(EXCHANGE_PROPERTY, exchange);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean handleResponse(MessageContext messageContext, Object endpoint) {
+        return true;
+    }
+
+    @Override
+    public boolean handleFault(MessageContext messageContext, Object endpoint) {
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(MessageContext messageContext, Object endpoint, Exception ex) {
+        Exchange exchange = (Exchange) messageContext.getProperty(EXCHANGE_PROPERTY);
+        if (exchange == null) {
+            return;
+        }
+        messageContext.removeProperty(EXCHANGE_PROPERTY);
+
+        exchange.elapsedNanos = System.nanoTime() - exchange.startNanos;
+        exchange.exception = ex != null ? ex.getClass().getName() : null;
+        if (messageContext.hasResponse()) {
+            WebServiceMessage response = messageContext.getResponse();
+            exchange.responseFault = response instanceof SoapMessage && ((SoapMessage) response).getSoapBody().hasFault();
+            exchange.responseAttachments = describeAttachments(response);
+        }
+
+        if (!queue.offer(exchange)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        writer.interrupt();
+    }
+
+    boolean sampled() {
+        double rate = XDSbRepositoryConfiguration.get().getSoapLoggingSampleRate();
+        return rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    private void describeRequest(Exchange exchange, WebServiceMessage request) {
+        if (request instanceof SoapMessage) {
+            SoapMessage soapMessage = (SoapMessage) request;
+            exchange.soapAction = soapMessage.getSoapAction();
+
+            SoapHeader header = soapMessage.getSoapHeader();
+            if (header != null) {
+                List<String> headers = new ArrayList<String>();
+                for (Iterator<SoapHeaderElement> it = header.examineAllHeaderElements(); it.hasNext(); ) {
+                    headers.add(it.next().getName().getLocalPart());
+                }
+                exchange.headers = headers.toString();
+            }
+        }
+        exchange.payload = payloadName(request.getPayloadSource());
+        exchange.requestAttachments = describeAttachments(request);
+
+        TransportContext transportContext = TransportContextHolder.getTransportContext();
+        if (transportContext != null && transportContext.getConnection() instanceof HttpServletConnection) {
+            HttpServletRequest httpRequest = ((HttpServletConnection) transportContext.getConnection()).getHttpServletRequest();
+            exchange.requestBytes = httpRequest.getContentLength();
+        }
+    }
+
+    /**
+     * Name of the payload root element, only resolved for DOM sources so the payload is never parsed
+     */
+    private static String payloadName(Source source) {
+        if (source instanceof DOMSource) {
+            Node node = ((DOMSource) source).getNode();
+            if (node != null && node.getLocalName() != null) {
+                return new QName(node.getNamespaceURI(), node.getLocalName()).toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Id, content type and, when the part says, size of every attachment. {@link Attachment#getSize()} is not
+     * used as SAAJ copies the content to count it, so the size comes from the part's Content-Length header.
+     */
+    static String describeAttachments(WebServiceMessage message) {
+        if (!(message instanceof MimeMessage)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("[");
+        if (message instanceof SaajSoapMessage) {
+            for (Iterator<?> it = ((SaajSoapMessage) message).getSaajMessage().getAttachments(); it.hasNext(); ) {
+                AttachmentPart part = (AttachmentPart) it.next();
+                appendAttachment(sb, part.getContentId(), part.getContentType(), part.getMimeHeader("Content-Length"));
+            }
+        } else {
+            for (Iterator<Attachment> it = ((MimeMessage) message).getAttachments(); it.hasNext(); ) {
+                Attachment attachment = it.next();
+                appendAttachment(sb, attachment.getContentId(), attachment.getContentType(), null);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void appendAttachment(StringBuilder sb, String contentId, String contentType, String[] contentLength) {
+        if (sb.length() > 1) {
+            sb.append(", ");
+        }
+        sb.append(contentId).append(' ').append(contentType);
+        if (contentLength != null && contentLength.length > 0) {
+            sb.append(' ').append(contentLength[0].trim()).append('B');
+        }
+    }
+
+    /**
+     * What is known about one request/response exchange, formatted by the writer thread
+     */
+    private static class Exchange {
+
+        final long startNanos;
+        long elapsedNanos;
+        String soapAction;
+        String payload;
+        String headers;
+        String requestAttachments;
+        String responseAttachments;
+        long requestBytes = -1;
+        boolean responseFault;
+        String exception;
+
+        Exchange(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("SOAP exchange");
+            sb.append(" action=").append(soapAction);
+            sb.append(" payload=").append(payload);
+            sb.append(" headers=").append(headers);
+            sb.append(" requestBytes=").append(requestBytes);
+            sb.append(" requestAttachments=").append(requestAttachments);
+            sb.append(" responseAttachments=").append(responseAttachments);
+            sb.append(" fault=").append(responseFault);
+            if (exception != null) {
+                sb.append(" exception=").append(exception);
+            }
+            sb.append(" timeMs=").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            return sb.toString();
+        }
+    }
+
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            long reportedDrops = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Exchange exchange = queue.take();
+                    log.debug(exchange);
+
+                    long drops = dropped.get();
+                    if (drops != reportedDrops) {
+                        log.debug((drops - reportedDrops) + " SOAP exchange summaries dropped, the log writer is falling behind");
+                        reportedDrops = drops;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutting down
+            }
+        }
+    }
+}
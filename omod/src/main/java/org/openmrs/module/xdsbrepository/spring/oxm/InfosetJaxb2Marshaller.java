@@ -0,0 +1,99 @@
+package org.openmrs.module.xdsbrepository.spring.oxm;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+
+import org.openmrs.module.xdsbrepository.infoset.IdlePool;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+import org.springframework.oxm.UncategorizedMappingException;
+import org.springframework.oxm.XmlMappingException;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.springframework.oxm.mime.MimeContainer;
+
+/**
+ * A {@link Jaxb2Marshaller} for the XDS infoset that uses the module's shared, pre-warmed
+ * {@link InfosetJaxbContext} and reuses marshallers and unmarshallers rather than creating new ones for
+ * every SOAP message.
+ * <p/>
+ * Idle instances are pooled by the bean rather than kept per thread, so they go with the module's
+ * application context when the module is stopped. The thread locals below only hold the instance lent for
+ * the message being handled and are always cleared once it is done.
+ */
+public class InfosetJaxb2Marshaller extends Jaxb2Marshaller {
+
+    private static final int MAX_IDLE = 32;
+
+    private final IdlePool<Marshaller> marshallers = new IdlePool<Marshaller>(MAX_IDLE);
+
+    private final IdlePool<Unmarshaller> unmarshallers = new IdlePool<Unmarshaller>(MAX_IDLE);
+
+    private final ThreadLocal<Marshaller> lentMarshaller = new ThreadLocal<Marshaller>();
+
+    private final ThreadLocal<Unmarshaller> lentUnmarshaller = new ThreadLocal<Unmarshaller>();
+
+    public InfosetJaxb2Marshaller() {
+        setContextPath(InfosetJaxbContext.CONTEXT_PATH);
+    }
+
+    @Override
+    public JAXBContext getJaxbContext() {
+        try {
+            return InfosetJaxbContext.getContext();
+        } catch (JAXBException e) {
+            throw new UncategorizedMappingException("Could not create the XDS infoset JAXB context", e);
+        }
+    }
+
+    @Override
+    public void marshal(Object graph, Result result, MimeContainer mimeContainer) throws XmlMappingException {
+        try {
+            super.marshal(graph, result, mimeContainer);
+        } finally {
+            Marshaller marshaller = lentMarshaller.get();
+            if (marshaller != null) {
+                lentMarshaller.remove();
+                // the attachment marshaller is set per message when MTOM is enabled, don't leak it to the next one
+                marshaller.setAttachmentMarshaller(null);
+                marshallers.offer(marshaller);
+            }
+        }
+    }
+
+    @Override
+    public Object unmarshal(Source source, MimeContainer mimeContainer) throws XmlMappingException {
+        try {
+            return super.unmarshal(source, mimeContainer);
+        } finally {
+            Unmarshaller unmarshaller = lentUnmarshaller.get();
+            if (unmarshaller != null) {
+                lentUnmarshaller.remove();
+                unmarshaller.setAttachmentUnmarshaller(null);
+                unmarshallers.offer(unmarshaller);
+            }
+        }
+    }
+
+    @Override
+    protected Marshaller createMarshaller() {
+        Marshaller marshaller = marshallers.poll();
+        if (marshaller == null) {
+            marshaller = super.createMarshaller();
+        }
+        lentMarshaller.set(marshaller);
+        return marshaller;
+    }
+
+    @Override
+    protected Unmarshaller createUnmarshaller() {
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        if (unmarshaller == null) {
+            unmarshaller = super.createUnmarshaller();
+        }
+        lentUnmarshaller.set(unmarshaller);
+        return unmarshaller;
+    }
+}
@@ -0,0 +1,104 @@
+package org.openmrs.module.xdsbrepository.spring.servlet;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.metrics.PrometheusExposition;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Serves the module's metrics to Prometheus at <code>/ms/xdsrepository-metrics</code>, see
+ * {@link PrometheusExposition}. Nothing is read from the database, so it is cheap to scrape often.
+ * <p/>
+ * Only a user with the {@link XDSbServiceConstants#PRIV_VIEW_METRICS} privilege may scrape them. Prometheus
+ * authenticates as that user with basic authentication, which the servlet checks itself as nothing in front of
+ * module servlets does; without credentials the user logged in to the web session is used.
+ */
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String BASIC = "Basic ";
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (!XDSbRepositoryConfiguration.get().isMetricsEnabled()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		String[] credentials = getBasicCredentials(request);
+		if (credentials == null) {
+			// a browser that has logged in to OpenMRS
+			serve(response);
+			return;
+		}
+
+		// authenticate in a session of its own, the user context of the web session is left as it is
+		UserContext previous = Context.isSessionOpen() ? Context.getUserContext() : null;
+		Context.openSession();
+		try {
+			try {
+				Context.authenticate(credentials[0], credentials[1]);
+			} catch (ContextAuthenticationException e) {
+				challenge(response);
+				return;
+			}
+			serve(response);
+		} finally {
+			Context.closeSession();
+			if (previous != null) {
+				Context.setUserContext(previous);
+			}
+		}
+	}
+
+	private void serve(HttpServletResponse response) throws IOException {
+		if (!Context.isAuthenticated()) {
+			challenge(response);
+			return;
+		}
+		if (!Context.hasPrivilege(XDSbServiceConstants.PRIV_VIEW_METRICS)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+
+		response.setContentType(PrometheusExposition.CONTENT_TYPE);
+		response.setHeader("Cache-Control", "no-cache");
+		PrometheusExposition.write(response.getWriter());
+	}
+
+	private void challenge(HttpServletResponse response) throws IOException {
+		response.setHeader("WWW-Authenticate", "Basic realm=\"OpenMRS\"");
+		response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+	}
+
+	/**
+	 * @return the username and password of a basic authorization header, or null if there is none
+	 */
+	private static String[] getBasicCredentials(HttpServletRequest request) {
+		String authorization = request.getHeader("Authorization");
+		if (authorization == null || !authorization.regionMatches(true, 0, BASIC, 0, BASIC.length())) {
+			return null;
+		}
+		String decoded;
+		try {
+			decoded = new String(Base64.getDecoder().decode(authorization.substring(BASIC.length()).trim()), "UTF-8");
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		int colon = decoded.indexOf(':');
+		if (colon < 0) {
+			return null;
+		}
+		return new String[] { decoded.substring(0, colon), decoded.substring(colon + 1) };
+	}
+}
@@ -16,6 +16,8 @@ package org.openmrs.module.xdsbrepository.web.controller;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbService;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -32,6 +34,11 @@ public class  XDSbRepositoryInterfaceManageController {
 	@RequestMapping(value = "/module/xds-b-repository/manage", method = RequestMethod.GET)
 	public void manage(ModelMap model) {
 		model.addAttribute("user", Context.getAuthenticatedUser());
+
+		XDSbService service = Context.getService(XDSbService.class);
+		model.addAttribute("config", XDSbRepositoryConfiguration.get());
+		model.addAttribute("queues", service.getQueueStatistics());
+		model.addAttribute("stageTimers", service.getIngestStageTimers());
 	}
 
 }
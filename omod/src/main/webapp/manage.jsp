@@ -5,4 +5,91 @@
 
 <p>Hello ${user.systemId}!</p>
 
-<%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file
+<h3><spring:message code="xds-b-repository.queues" /></h3>
+<table class="box">
+	<tr>
+		<th><spring:message code="xds-b-repository.queues.queue" /></th>
+		<th>QUEUED</th>
+		<th>PROCESSING</th>
+		<th>FAILED</th>
+		<th>SUCCESSFUL</th>
+		<th><spring:message code="xds-b-repository.queues.oldestAge" /></th>
+		<th><spring:message code="xds-b-repository.queues.enqueueRate" /></th>
+		<th><spring:message code="xds-b-repository.queues.dequeueRate" /></th>
+		<th><spring:message code="xds-b-repository.queues.succeeded" /></th>
+		<th><spring:message code="xds-b-repository.queues.failed" /></th>
+		<th><spring:message code="xds-b-repository.queues.lastReconciled" /></th>
+	</tr>
+	<c:forEach var="queue" items="${queues}">
+		<tr>
+			<td><spring:message code="xds-b-repository.queues.${queue.queue}" /></td>
+			<c:forEach var="depth" items="${queue.depth}">
+				<td>${depth.value}</td>
+			</c:forEach>
+			<td><fmt:formatNumber value="${queue.oldestQueuedAge / 1000}" maxFractionDigits="0" /></td>
+			<td><fmt:formatNumber value="${queue.enqueueRate}" maxFractionDigits="1" /></td>
+			<td><fmt:formatNumber value="${queue.dequeueRate}" maxFractionDigits="1" /></td>
+			<td>${queue.succeeded}</td>
+			<td>${queue.failed}</td>
+			<td><openmrs:formatDate date="${queue.lastReconciled}" type="long" /></td>
+		</tr>
+	</c:forEach>
+</table>
+<p>
+	<spring:message code="xds-b-repository.queues.workers" arguments="${config.discreteHandlerAsync ? config.discreteHandlerAsyncMaxTasks : 0},${config.cdaImportAsync ? config.cdaImportAsyncMaxTasks : 0}" />
+</p>
+
+<h3><spring:message code="xds-b-repository.handlers" /></h3>
+<table class="box">
+	<tr>
+		<th><spring:message code="xds-b-repository.queues.queue" /></th>
+		<th><spring:message code="xds-b-repository.handlers.handler" /></th>
+		<th><spring:message code="xds-b-repository.timings.count" /></th>
+		<th>p50 (ms)</th>
+		<th>p95 (ms)</th>
+		<th>p99 (ms)</th>
+		<th>max (ms)</th>
+		<th><spring:message code="xds-b-repository.queues.failed" /></th>
+	</tr>
+	<c:forEach var="queue" items="${queues}">
+		<c:forEach var="handler" items="${queue.handlers}">
+			<c:set var="histogram" value="${handler.value.histogram}" />
+			<tr>
+				<td><spring:message code="xds-b-repository.queues.${queue.queue}" /></td>
+				<td>${handler.key}</td>
+				<td>${histogram.count}</td>
+				<td><fmt:formatNumber value="${histogram.getValueAtPercentile(50) / 1000}" maxFractionDigits="1" /></td>
+				<td><fmt:formatNumber value="${histogram.getValueAtPercentile(95) / 1000}" maxFractionDigits="1" /></td>
+				<td><fmt:formatNumber value="${histogram.getValueAtPercentile(99) / 1000}" maxFractionDigits="1" /></td>
+				<td><fmt:formatNumber value="${histogram.maxMicros / 1000}" maxFractionDigits="1" /></td>
+				<td>${handler.value.failures}</td>
+			</tr>
+		</c:forEach>
+	</c:forEach>
+</table>
+
+<h3><spring:message code="xds-b-repository.timings" /></h3>
+<table class="box">
+	<tr>
+		<th><spring:message code="xds-b-repository.timings.stage" /></th>
+		<th><spring:message code="xds-b-repository.timings.outcome" /></th>
+		<th><spring:message code="xds-b-repository.timings.count" /></th>
+		<th>p50 (ms)</th>
+		<th>p95 (ms)</th>
+		<th>p99 (ms)</th>
+		<th>max (ms)</th>
+	</tr>
+	<c:forEach var="timer" items="${stageTimers}">
+		<tr>
+			<td>${timer.stage}</td>
+			<td>${timer.outcome}<c:if test="${not empty timer.errorCode}"> (${timer.errorCode})</c:if></td>
+			<td>${timer.histogram.count}</td>
+			<td><fmt:formatNumber value="${timer.histogram.getValueAtPercentile(50) / 1000}" maxFractionDigits="1" /></td>
+			<td><fmt:formatNumber value="${timer.histogram.getValueAtPercentile(95) / 1000}" maxFractionDigits="1" /></td>
+			<td><fmt:formatNumber value="${timer.histogram.getValueAtPercentile(99) / 1000}" maxFractionDigits="1" /></td>
+			<td><fmt:formatNumber value="${timer.histogram.maxMicros / 1000}" maxFractionDigits="1" /></td>
+		</tr>
+	</c:forEach>
+</table>
+
+<%@ include file="/WEB-INF/template/footer.jsp"%>
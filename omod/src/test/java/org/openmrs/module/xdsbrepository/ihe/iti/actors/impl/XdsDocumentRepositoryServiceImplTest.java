@@ -18,6 +18,7 @@ import org.openmrs.module.shr.contenthandler.api.CodedValue;
 import org.openmrs.module.shr.contenthandler.api.Content;
 import org.openmrs.module.shr.contenthandler.api.ContentHandler;
 import org.openmrs.module.shr.contenthandler.api.ContentHandlerService;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
 import org.openmrs.module.xdsbrepository.XDSbService;
 import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
@@ -81,6 +82,8 @@ public class XdsDocumentRepositoryServiceImplTest extends BaseModuleContextSensi
         as.saveGlobalProperty(gp3);
         GlobalProperty gp4 = new GlobalProperty(XDSbServiceConstants.XDS_REGISTRY_URL_GP, "http://localhost:8089/ws/xdsregistry");
         as.saveGlobalProperty(gp4);
+        // the test transaction is never committed, reload the configuration to see the properties
+        XDSbRepositoryConfiguration.reset();
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,347 @@
+package org.openmrs.module.xdsbrepository.loadtest;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dcm4chee.xds2.common.XDSConstants;
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.ihe.RetrieveDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.ihe.RetrieveDocumentSetResponseType;
+import org.dcm4chee.xds2.infoset.rim.RegistryResponseType;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.ihe.iti.actors.impl.XdsDocumentRepositoryServiceImpl;
+import org.openmrs.module.xdsbrepository.metrics.IngestMetrics;
+import org.openmrs.module.xdsbrepository.metrics.StageTimer;
+import org.openmrs.module.xdsbrepository.synthetic.GeneratedSubmission;
+import org.openmrs.module.xdsbrepository.synthetic.SubmissionGenerator;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.openmrs.util.OpenmrsConstants.GLOBAL_PROPERTY_COMPLEX_OBS_DIR;
+
+/**
+ * Runs Provide and Register and then Retrieve Document Set requests from many concurrent clients against the
+ * in-memory test database and a WireMock registry with a configurable latency and error rate, and reports
+ * throughput, latency percentiles, heap usage and database statements per operation.
+ * <p/>
+ * It only runs when asked for, see {@link LoadTestSettings} for the parameters:
+ * <p/>
+ * <code>mvn test -pl omod -Dtest=IngestRetrieveLoadTest -Dxdsb.loadTest=true</code>
+ * <p/>
+ * The clients run on threads of their own, outside of the test transaction, so the test data is committed
+ * rather than rolled back. Run it in a JVM of its own.
+ */
+public class IngestRetrieveLoadTest extends BaseModuleContextSensitiveTest {
+
+    private static final Log log = LogFactory.getLog(IngestRetrieveLoadTest.class);
+
+    private static final String REGISTRY_PATH = "/ws/xdsregistry";
+
+    private static final String REPOSITORY_UNIQUE_ID = "1.19.6.24.109.42.1.5.1";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(8089);
+
+    private LoadTestSettings settings;
+
+    private SessionFactory sessionFactory;
+
+    private static String registryResponse(String status, String errors) {
+        return "<s:Envelope xmlns:s='http://www.w3.org/2003/05/soap-envelope' xmlns:a='http://www.w3.org/2005/08/addressing'>"
+                + "  <s:Header>"
+                + "		<a:Action s:mustUnderstand='1'>urn:ihe:iti:2007:RegisterDocumentSet-bResponse</a:Action>"
+                + "		<a:RelatesTo>urn:uuid:1ec52e14-4aad-4ba1-b7d3-fc9812a21340</a:RelatesTo>"
+                + "	</s:Header>"
+                + "  <s:Body>"
+                + "		<rs:RegistryResponse status='" + status + "' xmlns:rs='urn:oasis:names:tc:ebxml-regrep:xsd:rs:3.0'>"
+                + errors
+                + "		</rs:RegistryResponse>"
+                + "	</s:Body>"
+                + "</s:Envelope>";
+    }
+
+    private void stubRegistry() {
+        stubFor(post(urlEqualTo(REGISTRY_PATH))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/soap+xml")
+                        .withFixedDelay(settings.getRegistryLatency())
+                        .withBody(registryResponse(XDSConstants.XDS_B_STATUS_SUCCESS, ""))));
+        // the stub added last is matched first
+        stubFor(post(urlEqualTo(REGISTRY_PATH))
+                .withRequestBody(containing(SubmissionGenerator.REJECT_MARKER))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/soap+xml")
+                        .withFixedDelay(settings.getRegistryLatency())
+                        .withBody(registryResponse(XDSConstants.XDS_B_STATUS_FAILURE,
+                                "<rs:RegistryErrorList><rs:RegistryError errorCode='XDSRegistryError' codeContext='Injected by the load test'"
+                                        + " severity='urn:oasis:names:tc:ebxml-regrep:ErrorSeverityType:Error'/></rs:RegistryErrorList>"))));
+    }
+
+    @Before
+    public void setup() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("xdsb.loadTest"));
+        settings = new LoadTestSettings();
+
+        executeDataSet("src/test/resources/provideAndRegRequest-dataset.xml");
+
+        AdministrationService as = Context.getAdministrationService();
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.REPOSITORY_UNIQUE_ID_GP, REPOSITORY_UNIQUE_ID));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_AUTOCREATE_PATIENTS, "true"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.XDS_REGISTRY_URL_GP, "http://localhost:8089" + REGISTRY_PATH));
+        // the clients are not authenticated, so the service starts a session as this account
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.WS_USERNAME_GP, "admin"));
+        as.saveGlobalProperty(new GlobalProperty(XDSbServiceConstants.WS_PASSWORD_GP, "test"));
+        as.saveGlobalProperty(new GlobalProperty("shr.contenthandler.cacheConceptsByName", "false"));
+        as.saveGlobalProperty(new GlobalProperty("shr.contenthandler.unstructureddatahandler.key", "ContentObsHandler"));
+        as.saveGlobalProperty(new GlobalProperty(GLOBAL_PROPERTY_COMPLEX_OBS_DIR, "test_complex_obs"));
+
+        // the clients only see committed data
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        XDSbRepositoryConfiguration.reset();
+        IngestMetrics.reset();
+
+        stubRegistry();
+        sessionFactory = (SessionFactory) applicationContext.getBean("sessionFactory");
+        sessionFactory.getStatistics().setStatisticsEnabled(true);
+    }
+
+    @Test
+    public void provideAndRetrieve_shouldReportThroughputLatencyHeapAndStatementsPerOperation() throws Exception {
+        log.info("Load test: " + settings);
+        final XdsDocumentRepositoryServiceImpl service = new XdsDocumentRepositoryServiceImpl();
+        // document unique ids must not repeat across runs against the same database
+        final SubmissionGenerator generator = new SubmissionGenerator()
+                .withSeed(settings.getSeed())
+                .withUniqueIdRoot("1.3.6.1.4.1.21367.2026." + System.currentTimeMillis())
+                .withPatients(settings.getPatients())
+                .withAuthors(settings.getAuthors(), 1)
+                .withDocumentsPerSubmission(settings.getDocumentsPerSubmission(), settings.getDocumentsPerSubmission())
+                .withPayloadSize(settings.getDocumentSize(), settings.getDocumentSize())
+                .withCda(settings.isCda())
+                .withRejectRate(settings.getRegistryErrorRate());
+        final Queue<GeneratedSubmission> stored = new ConcurrentLinkedQueue<GeneratedSubmission>();
+        final AtomicInteger rejected = new AtomicInteger();
+
+        OperationStats ingest = runPhase("provideAndRegisterDocumentSetB", settings.getSubmissions(),
+                new Operation<Ingest>() {
+
+                    @Override
+                    public Ingest prepare(int i) throws Exception {
+                        GeneratedSubmission submission = generator.generate(i);
+                        return new Ingest(submission, submission.toRequest());
+                    }
+
+                    @Override
+                    public boolean execute(Ingest prepared) {
+                        RegistryResponseType response = service.provideAndRegisterDocumentSetB(prepared.request);
+                        if (prepared.submission.isRejected()) {
+                            rejected.incrementAndGet();
+                        }
+                        if (XDSConstants.XDS_B_STATUS_SUCCESS.equals(response.getStatus())) {
+                            stored.add(prepared.submission);
+                            return true;
+                        }
+                        return false;
+                    }
+                });
+
+        final List<GeneratedSubmission> retrievable = new ArrayList<GeneratedSubmission>(stored);
+        final Random random = new Random(settings.getSeed());
+        OperationStats retrieve = runPhase("retrieveDocumentSetB", retrievable.isEmpty() ? 0 : settings.getRetrievals(),
+                new Operation<GeneratedSubmission>() {
+
+                    @Override
+                    public GeneratedSubmission prepare(int i) {
+                        synchronized (random) {
+                            return retrievable.get(random.nextInt(retrievable.size()));
+                        }
+                    }
+
+                    @Override
+                    public boolean execute(GeneratedSubmission submission) {
+                        RetrieveDocumentSetRequestType request = new RetrieveDocumentSetRequestType();
+                        for (String documentUniqueId : submission.getDocumentUniqueIds()) {
+                            RetrieveDocumentSetRequestType.DocumentRequest documentRequest = new RetrieveDocumentSetRequestType.DocumentRequest();
+                            documentRequest.setRepositoryUniqueId(REPOSITORY_UNIQUE_ID);
+                            documentRequest.setDocumentUniqueId(documentUniqueId);
+                            request.getDocumentRequest().add(documentRequest);
+                        }
+                        RetrieveDocumentSetResponseType response = service.retrieveDocumentSetB(request);
+                        return XDSConstants.XDS_B_STATUS_SUCCESS.equals(response.getRegistryResponse().getStatus())
+                                && response.getDocumentResponse().size() == submission.getDocumentUniqueIds().size();
+                    }
+                });
+
+        StringBuilder report = new StringBuilder("Load test: ").append(settings).append('\n')
+                .append(ingest.report()).append('\n')
+                .append(retrieve.report()).append('\n')
+                .append("ingest stages (ms):");
+        for (StageTimer timer : IngestMetrics.getTimers()) {
+            report.append(String.format(Locale.ROOT, "%n  %s %s%s: %d, p50 %.1f, p99 %.1f", timer.getStage(), timer.getOutcome(),
+                    timer.getErrorCode() != null ? " " + timer.getErrorCode() : "", timer.getCount(),
+                    timer.getHistogram().getValueAtPercentile(50) / 1000.0, timer.getHistogram().getValueAtPercentile(99) / 1000.0));
+        }
+        log.info(report);
+        System.out.println(report);
+
+        // every submission the registry did not reject is stored, and every stored document can be retrieved
+        assertEquals(settings.getSubmissions() - rejected.get(), ingest.getSucceeded());
+        assertEquals(0, retrieve.getFailed());
+    }
+
+    private static class Ingest {
+
+        private final GeneratedSubmission submission;
+
+        private final ProvideAndRegisterDocumentSetRequestType request;
+
+        Ingest(GeneratedSubmission submission, ProvideAndRegisterDocumentSetRequestType request) {
+            this.submission = submission;
+            this.request = request;
+        }
+    }
+
+    /**
+     * One kind of request of a phase
+     */
+    private interface Operation<T> {
+
+        /**
+         * Build the i-th request, this is not timed
+         */
+        T prepare(int i) throws Exception;
+
+        /**
+         * @return true if the request succeeded
+         */
+        boolean execute(T request) throws Exception;
+    }
+
+    private <T> OperationStats runPhase(String name, final int operations, final Operation<T> operation) throws Exception {
+        final OperationStats stats = new OperationStats(name);
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService clients = Executors.newFixedThreadPool(settings.getClients());
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int c = 0; c < settings.getClients(); c++) {
+            results.add(clients.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    int i;
+                    while ((i = next.getAndIncrement()) < operations) {
+                        T request = operation.prepare(i);
+                        long allocated = allocatedBytes();
+                        long begin = System.nanoTime();
+                        boolean successful;
+                        try {
+                            successful = operation.execute(request);
+                        } catch (Exception ex) {
+                            log.warn(stats.getOperation() + " failed", ex);
+                            successful = false;
+                        }
+                        stats.record(System.nanoTime() - begin, successful, allocatedBytes() - allocated);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long begin = System.nanoTime();
+
+        start.countDown();
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - begin;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        stats.setPhase(elapsed, statistics.getPrepareStatementCount(), statistics.getQueryExecutionCount(),
+                statistics.getEntityLoadCount(), peakHeap, gcCount() - gcCount, gcMillis() - gcMillis);
+        return stats;
+    }
+
+    /**
+     * @return the bytes the current thread has allocated on the heap, 0 if the JVM does not tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,128 @@
+package org.openmrs.module.xdsbrepository.loadtest;
+
+/**
+ * The parameters of a load test run, read from <code>xdsb.loadTest.*</code> system properties so that a run can
+ * be shaped from the maven command line, e.g.
+ * <p/>
+ * <code>mvn test -pl omod -Dtest=IngestRetrieveLoadTest -Dxdsb.loadTest=true -Dxdsb.loadTest.clients=32
+ * -Dxdsb.loadTest.registryLatency=200</code>
+ */
+public class LoadTestSettings {
+
+    public static final String PREFIX = "xdsb.loadTest.";
+
+    private final int clients;
+
+    private final int submissions;
+
+    private final int documentsPerSubmission;
+
+    private final int documentSize;
+
+    private final int patients;
+
+    private final int authors;
+
+    private final boolean cda;
+
+    private final int retrievals;
+
+    private final int registryLatency;
+
+    private final double registryErrorRate;
+
+    private final long seed;
+
+    public LoadTestSettings() {
+        clients = getInt("clients", 8);
+        submissions = getInt("submissions", 200);
+        documentsPerSubmission = getInt("documentsPerSubmission", 1);
+        documentSize = getInt("documentSize", 4096);
+        patients = getInt("patients", 50);
+        authors = getInt("authors", 20);
+        cda = Boolean.parseBoolean(System.getProperty(PREFIX + "cda", "true"));
+        retrievals = getInt("retrievals", submissions);
+        registryLatency = getInt("registryLatency", 50);
+        registryErrorRate = Double.parseDouble(System.getProperty(PREFIX + "registryErrorRate", "0.0"));
+        seed = Long.parseLong(System.getProperty(PREFIX + "seed", "1"));
+    }
+
+    private static int getInt(String name, int defaultValue) {
+        return Integer.parseInt(System.getProperty(PREFIX + name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * @return the number of threads submitting requests concurrently
+     */
+    public int getClients() {
+        return clients;
+    }
+
+    public int getSubmissions() {
+        return submissions;
+    }
+
+    public int getDocumentsPerSubmission() {
+        return documentsPerSubmission;
+    }
+
+    /**
+     * @return the size of each document in bytes
+     */
+    public int getDocumentSize() {
+        return documentSize;
+    }
+
+    /**
+     * @return the number of distinct patients the submissions are spread over
+     */
+    public int getPatients() {
+        return patients;
+    }
+
+    /**
+     * @return the number of distinct authors the documents are spread over
+     */
+    public int getAuthors() {
+        return authors;
+    }
+
+    /**
+     * @return true for CDA documents, false for plain text
+     */
+    public boolean isCda() {
+        return cda;
+    }
+
+    /**
+     * @return the number of Retrieve Document Set requests, each for all documents of one stored submission
+     */
+    public int getRetrievals() {
+        return retrievals;
+    }
+
+    /**
+     * @return the delay in ms of every response of the stub registry
+     */
+    public int getRegistryLatency() {
+        return registryLatency;
+    }
+
+    /**
+     * @return the fraction of submissions that the stub registry rejects
+     */
+    public double getRegistryErrorRate() {
+        return registryErrorRate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public String toString() {
+        return "clients=" + clients + ", submissions=" + submissions + ", documentsPerSubmission=" + documentsPerSubmission
+                + ", documentSize=" + documentSize + ", patients=" + patients + ", authors=" + authors + ", cda=" + cda + ", retrievals=" + retrievals
+                + ", registryLatency=" + registryLatency + "ms, registryErrorRate=" + registryErrorRate + ", seed=" + seed;
+    }
+}
@@ -0,0 +1,121 @@
+package org.openmrs.module.xdsbrepository.loadtest;
+
+import org.openmrs.module.xdsbrepository.metrics.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What one phase of a load test measured for an operation: the latency and outcome of every call, the heap
+ * allocated by the calling threads, and the statements Hibernate prepared and the heap and GC activity of
+ * the whole phase.
+ */
+public class OperationStats {
+
+    private static final double MB = 1024 * 1024;
+
+    private final String operation;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final AtomicLong succeeded = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private long elapsedNanos;
+
+    private long statements;
+
+    private long queries;
+
+    private long entityLoads;
+
+    private long peakHeapBytes;
+
+    private long gcCount;
+
+    private long gcMillis;
+
+    public OperationStats(String operation) {
+        this.operation = operation;
+    }
+
+    public void record(long nanos, boolean successful, long allocated) {
+        latency.recordNanos(nanos);
+        if (successful) {
+            succeeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        if (allocated > 0) {
+            allocatedBytes.addAndGet(allocated);
+        }
+    }
+
+    void setPhase(long elapsedNanos, long statements, long queries, long entityLoads, long peakHeapBytes, long gcCount, long gcMillis) {
+        this.elapsedNanos = elapsedNanos;
+        this.statements = statements;
+        this.queries = queries;
+        this.entityLoads = entityLoads;
+        this.peakHeapBytes = peakHeapBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getCount() {
+        return succeeded.get() + failed.get();
+    }
+
+    /**
+     * @return operations completed per second over the phase
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getCount() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the JDBC statements prepared per operation
+     */
+    public double getStatementsPerOperation() {
+        return perOperation(statements);
+    }
+
+    public String report() {
+        return String.format(Locale.ROOT,
+                "%s: %d ok, %d failed in %.1f s, %.1f ops/s%n"
+                        + "  latency ms: mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n"
+                        + "  per operation: %.1f statements, %.1f HQL queries, %.1f entity loads, %.2f MB allocated%n"
+                        + "  heap: peak %.1f MB, %d GCs taking %d ms",
+                operation, getSucceeded(), getFailed(), elapsedNanos / 1e9, getThroughput(),
+                latency.getMeanMicros() / 1000, millis(50), millis(90), millis(99), latency.getMaxMicros() / 1000.0,
+                perOperation(statements), perOperation(queries), perOperation(entityLoads), perOperation(allocatedBytes.get()) / MB,
+                peakHeapBytes / MB, gcCount, gcMillis);
+    }
+
+    private double millis(double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private double perOperation(long total) {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total / count;
+    }
+}
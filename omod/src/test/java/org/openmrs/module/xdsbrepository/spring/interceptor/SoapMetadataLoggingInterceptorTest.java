@@ -0,0 +1,128 @@
+package org.openmrs.module.xdsbrepository.spring.interceptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPConstants;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SoapMetadataLoggingInterceptorTest {
+
+    private SoapMetadataLoggingInterceptor interceptor;
+
+    @Before
+    public void setup() {
+        interceptor = new SoapMetadataLoggingInterceptor();
+    }
+
+    @After
+    public void tearDown() {
+        interceptor.destroy();
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    private static void useSampleRate(String rate) {
+        XDSbRepositoryConfiguration.install(Collections.singletonMap(XDSbServiceConstants.XDS_REPOSITORY_SOAP_LOGGING_SAMPLE_RATE, rate));
+    }
+
+    private static int countSampled(SoapMetadataLoggingInterceptor interceptor, int requests) {
+        int sampled = 0;
+        for (int i = 0; i < requests; i++) {
+            if (interceptor.sampled()) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    @Test
+    public void sampled_shouldSampleEveryRequestByDefault() {
+        XDSbRepositoryConfiguration.install(Collections.<String, String>emptyMap());
+
+        assertEquals(1000, countSampled(interceptor, 1000));
+    }
+
+    @Test
+    public void sampled_shouldNotSampleAnyRequestAtARateOfZero() {
+        useSampleRate("0");
+
+        assertEquals(0, countSampled(interceptor, 1000));
+    }
+
+    @Test
+    public void sampled_shouldSampleAboutTheConfiguredShareOfRequests() {
+        useSampleRate("0.1");
+
+        int sampled = countSampled(interceptor, 10000);
+        // far outside of what chance allows for, ten standard deviations either side
+        assertTrue(sampled > 700 && sampled < 1300);
+    }
+
+    @Test
+    public void describeAttachments_shouldDescribeAttachmentsWithoutReadingTheirContent() throws Exception {
+        UnreadableDataSource dataSource = new UnreadableDataSource();
+        SaajSoapMessage message = createMessage();
+        message.addAttachment("<doc1@example.org>", new DataHandler(dataSource));
+        message.addAttachment("<doc2@example.org>", new DataHandler(dataSource));
+        AttachmentPart first = (AttachmentPart) message.getSaajMessage().getAttachments().next();
+        first.setMimeHeader("Content-Length", "1024");
+
+        String description = SoapMetadataLoggingInterceptor.describeAttachments(message);
+
+        assertEquals("[<doc1@example.org> text/xml 1024B, <doc2@example.org> text/xml]", description);
+        assertFalse(dataSource.read);
+    }
+
+    @Test
+    public void describeAttachments_shouldDescribeAMessageWithoutAttachments() throws Exception {
+        assertEquals("[]", SoapMetadataLoggingInterceptor.describeAttachments(createMessage()));
+    }
+
+    private static SaajSoapMessage createMessage() throws Exception {
+        SaajSoapMessageFactory factory = new SaajSoapMessageFactory(MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL));
+        factory.afterPropertiesSet();
+        return factory.createWebServiceMessage();
+    }
+
+    private static class UnreadableDataSource implements DataSource {
+
+        boolean read;
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            read = true;
+            throw new IOException("attachment content must not be read");
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("read only");
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/xml";
+        }
+
+        @Override
+        public String getName() {
+            return "document";
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.openmrs.module.xdsbrepository.spring.servlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.xdsbrepository.XDSbRepositoryConfiguration;
+import org.openmrs.module.xdsbrepository.XDSbServiceConstants;
+import org.openmrs.module.xdsbrepository.metrics.PrometheusExposition;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsServletTest extends BaseModuleContextSensitiveTest {
+
+    private MetricsServlet servlet = new MetricsServlet();
+
+    @Before
+    public void setup() throws Exception {
+        Context.getAdministrationService().saveGlobalProperty(
+                new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_METRICS_ENABLED, "true"));
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    @After
+    public void tearDown() {
+        XDSbRepositoryConfiguration.reset();
+    }
+
+    private MockHttpServletResponse scrape(String username, String password) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ms/xdsrepository-metrics");
+        if (username != null) {
+            String credentials = Base64.getEncoder().encodeToString((username + ":" + password).getBytes("UTF-8"));
+            request.addHeader("Authorization", "Basic " + credentials);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        servlet.doGet(request, response);
+        return response;
+    }
+
+    @Test
+    public void doGet_shouldServeTheMetricsToAUserAuthenticatedWithBasicCredentials() throws Exception {
+        Context.logout();
+
+        MockHttpServletResponse response = scrape("admin", "test");
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(PrometheusExposition.CONTENT_TYPE, response.getContentType());
+        assertTrue(response.getContentAsString().contains("# TYPE"));
+        // the credentials only hold for the scrape
+        assertFalse(Context.isAuthenticated());
+    }
+
+    @Test
+    public void doGet_shouldChallengeForCredentialsWhenThePasswordIsWrong() throws Exception {
+        Context.logout();
+
+        MockHttpServletResponse response = scrape("admin", "wrong");
+
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        assertEquals("Basic realm=\"OpenMRS\"", response.getHeader("WWW-Authenticate"));
+    }
+
+    @Test
+    public void doGet_shouldChallengeForCredentialsWhenThereAreNone() throws Exception {
+        Context.logout();
+
+        MockHttpServletResponse response = scrape(null, null);
+
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        assertEquals("Basic realm=\"OpenMRS\"", response.getHeader("WWW-Authenticate"));
+    }
+
+    @Test
+    public void doGet_shouldServeTheMetricsToTheUserOfTheWebSession() throws Exception {
+        MockHttpServletResponse response = scrape(null, null);
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+    }
+
+    @Test
+    public void doGet_shouldNotServeTheMetricsWhenTheyAreDisabled() throws Exception {
+        Context.getAdministrationService().saveGlobalProperty(
+                new GlobalProperty(XDSbServiceConstants.XDS_REPOSITORY_METRICS_ENABLED, "false"));
+        XDSbRepositoryConfiguration.reset();
+
+        MockHttpServletResponse response = scrape("admin", "test");
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+    }
+}
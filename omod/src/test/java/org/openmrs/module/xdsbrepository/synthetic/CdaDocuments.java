@@ -0,0 +1,68 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+import java.util.Random;
+
+/**
+ * Writes CDA R2 documents for generated document entries, with the patient and author of the entry in the
+ * header and narrative sections added until the document reaches the requested size.
+ */
+class CdaDocuments {
+
+    private static final String[] SECTIONS = { "History of Present Illness", "Past Medical History", "Medications",
+            "Allergies", "Physical Examination", "Assessment and Plan" };
+
+    private static final String[] WORDS = { "patient", "reports", "no", "history", "of", "pain", "mild", "chronic",
+            "presents", "with", "fever", "blood", "pressure", "within", "normal", "limits", "follow", "up", "in", "two",
+            "weeks", "prescribed", "daily", "dose", "review", "results", "stable", "denies", "cough", "examination" };
+
+    private CdaDocuments() {
+    }
+
+    /**
+     * @param size - the size in bytes to pad the document to, a document is never smaller than its header
+     */
+    static String generate(Random random, SyntheticPatient patient, SyntheticAuthor author, String documentUniqueId,
+                           DocumentType type, String effectiveTime, int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<ClinicalDocument xmlns=\"urn:hl7-org:v3\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n")
+                .append("<typeId root=\"2.16.840.1.113883.1.3\" extension=\"POCD_HD000040\"/>\n")
+                .append("<templateId root=\"1.3.6.1.4.1.19376.1.5.3.1.1.1\"/>\n")
+                .append("<id root=\"").append(documentUniqueId).append("\"/>\n")
+                .append("<code code=\"").append(type.getTypeCode()).append("\" codeSystem=\"2.16.840.1.113883.6.1\" displayName=\"")
+                .append(type.getTypeName()).append("\"/>\n")
+                .append("<title>").append(type.getTypeName()).append("</title>\n")
+                .append("<effectiveTime value=\"").append(effectiveTime).append("\"/>\n")
+                .append("<confidentialityCode code=\"N\" codeSystem=\"2.16.840.1.113883.5.25\"/>\n")
+                .append("<languageCode code=\"en-US\"/>\n")
+                .append("<recordTarget><patientRole><id extension=\"ECID").append(patient.getIndex()).append("\"/>")
+                .append("<addr><streetAddressLine>").append(patient.getStreet()).append("</streetAddressLine><city>")
+                .append(patient.getCity()).append("</city></addr>")
+                .append("<patient><name><given>").append(patient.getGivenName()).append("</given><family>")
+                .append(patient.getFamilyName()).append("</family></name>")
+                .append("<administrativeGenderCode code=\"").append(patient.getGender()).append("\" codeSystem=\"2.16.840.1.113883.5.1\"/>")
+                .append("<birthTime value=\"").append(patient.getBirthDate()).append("\"/></patient></patientRole></recordTarget>\n")
+                .append("<author><time value=\"").append(effectiveTime).append("\"/><assignedAuthor><id extension=\"")
+                .append(author.getProviderId()).append("\"/><assignedPerson><name><given>").append(author.getGivenName())
+                .append("</given><family>").append(author.getFamilyName()).append("</family></name></assignedPerson>")
+                .append("<representedOrganization><name>").append(author.getInstitution())
+                .append("</name></representedOrganization></assignedAuthor></author>\n")
+                .append("<custodian><assignedCustodian><representedCustodianOrganization><name>").append(author.getInstitution())
+                .append("</name></representedCustodianOrganization></assignedCustodian></custodian>\n")
+                .append("<component><structuredBody>\n");
+
+        String end = "</structuredBody></component>\n</ClinicalDocument>\n";
+        int section = 0;
+        do {
+            sb.append("<component><section><title>").append(SECTIONS[section % SECTIONS.length]).append("</title><text>");
+            int sectionEnd = Math.min(size - end.length() - "</text></section></component>\n".length(), sb.length() + 2048);
+            do {
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            } while (sb.length() < sectionEnd);
+            sb.append("</text></section></component>\n");
+            section++;
+        } while (sb.length() + end.length() < size);
+        sb.append(end);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+/**
+ * The class and type codes of a kind of generated document. The classCode becomes the name of the encounter
+ * type when the encounter type in the entry id is not known.
+ */
+public class DocumentType {
+
+    public static final DocumentType HISTORY_AND_PHYSICAL = new DocumentType("History and Physical", "34117-2", "History and physical note");
+
+    public static final DocumentType CONSULT = new DocumentType("Consult", "11488-4", "Consult note");
+
+    public static final DocumentType DISCHARGE_SUMMARY = new DocumentType("Discharge Summary", "18842-5", "Discharge summary");
+
+    public static final DocumentType PROGRESS_NOTE = new DocumentType("Progress Note", "11506-3", "Progress note");
+
+    private final String classCode;
+
+    private final String typeCode;
+
+    private final String typeName;
+
+    /**
+     * @param typeCode - a LOINC code
+     */
+    public DocumentType(String classCode, String typeCode, String typeName) {
+        this.classCode = classCode;
+        this.typeCode = typeCode;
+        this.typeName = typeName;
+    }
+
+    public String getClassCode() {
+        return classCode;
+    }
+
+    public String getTypeCode() {
+        return typeCode;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+}
@@ -0,0 +1,90 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A generated Provide and Register request, kept as the XML it is generated as so that it can be written to
+ * disk, along with what a test needs to know about it
+ */
+public class GeneratedSubmission {
+
+    private final int index;
+
+    private final String xml;
+
+    private final String submissionSetUniqueId;
+
+    private final SyntheticPatient patient;
+
+    private final List<String> documentUniqueIds;
+
+    private final boolean rejected;
+
+    GeneratedSubmission(int index, String xml, String submissionSetUniqueId, SyntheticPatient patient,
+                        List<String> documentUniqueIds, boolean rejected) {
+        this.index = index;
+        this.xml = xml;
+        this.submissionSetUniqueId = submissionSetUniqueId;
+        this.patient = patient;
+        this.documentUniqueIds = Collections.unmodifiableList(documentUniqueIds);
+        this.rejected = rejected;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the ProvideAndRegisterDocumentSetRequest element, with the documents inline in base64
+     */
+    public String getXml() {
+        return xml;
+    }
+
+    public String getSubmissionSetUniqueId() {
+        return submissionSetUniqueId;
+    }
+
+    public SyntheticPatient getPatient() {
+        return patient;
+    }
+
+    public List<String> getDocumentUniqueIds() {
+        return documentUniqueIds;
+    }
+
+    /**
+     * @return true if the submission set is named {@link SubmissionGenerator#REJECT_MARKER}, for a stub registry
+     * to reject
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    public ProvideAndRegisterDocumentSetRequestType toRequest() throws Exception {
+        return SubmissionGenerator.parse(xml);
+    }
+
+    /**
+     * Write the request to <code>submission-&lt;index&gt;.xml</code> in the given directory
+     *
+     * @return the file written
+     */
+    public File writeTo(File directory) throws IOException {
+        File file = new File(directory, String.format("submission-%06d.xml", index));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(xml.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
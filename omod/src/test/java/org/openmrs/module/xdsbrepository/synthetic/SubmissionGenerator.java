@@ -0,0 +1,430 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.openmrs.module.xdsbrepository.infoset.InfosetJaxbContext;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generates Provide and Register requests with complete document entry metadata for capacity tests: patientId
+ * and sourcePatientId CX values, sourcePatientInfo PID fields, author classifications with XCN persons,
+ * roles, institutions and specialties, service times, class, type, format and other codes, and entry ids in
+ * the <code>location/.../encounterType/form</code> form that the repository reads the encounter from. The
+ * documents are CDA R2 documents of the patient and author of the entry, or plain text.
+ * <p/>
+ * Submission i depends only on the settings and on i, so the same seed always gives the same submissions and
+ * {@link #generate(int)} can be called from many threads once the generator is set up. Patients and authors
+ * are drawn from pools of a fixed size, the same index always giving the same demographics.
+ * <p/>
+ * To write submissions to disk for replay:
+ * <p/>
+ * <code>java -cp ... org.openmrs.module.xdsbrepository.synthetic.SubmissionGenerator &lt;directory&gt; &lt;count&gt; [seed]</code>
+ */
+public class SubmissionGenerator {
+
+    /**
+     * The name given to the submission sets picked by {@link #withRejectRate(double)}, for a stub registry to
+     * reject
+     */
+    public static final String REJECT_MARKER = "synthetic-registry-reject";
+
+    private static final String DOCUMENT_ENTRY = "urn:uuid:7edca82f-054d-47f2-a032-9b2a5b5186c1";
+    private static final String DOCUMENT_ENTRY_AUTHOR = "urn:uuid:93606bcf-9494-43ec-9b4e-a7748d1a838d";
+    private static final String DOCUMENT_ENTRY_CLASS_CODE = "urn:uuid:41a5887f-8865-4c09-adf7-e362475b143a";
+    private static final String DOCUMENT_ENTRY_CONFIDENTIALITY_CODE = "urn:uuid:f4f85eac-e6cb-4883-b524-f2705394840f";
+    private static final String DOCUMENT_ENTRY_FORMAT_CODE = "urn:uuid:a09d5840-386c-46f2-b5ad-9c3699a4309d";
+    private static final String DOCUMENT_ENTRY_FACILITY_TYPE_CODE = "urn:uuid:f33fb8ac-18af-42cc-ae0e-ed0b0bdb91e1";
+    private static final String DOCUMENT_ENTRY_PRACTICE_SETTING_CODE = "urn:uuid:cccf5598-8b07-4b77-a05e-ae952c785ead";
+    private static final String DOCUMENT_ENTRY_TYPE_CODE = "urn:uuid:f0306f51-975f-434e-a61c-c59651d33983";
+    private static final String DOCUMENT_ENTRY_PATIENT_ID = "urn:uuid:58a6f841-87b3-4a3e-92fd-a8ffeff98427";
+    private static final String DOCUMENT_ENTRY_UNIQUE_ID = "urn:uuid:2e82c1f6-a085-4c72-9da3-8640a32e42ab";
+    private static final String SUBMISSION_SET = "urn:uuid:a54d6aa5-d40d-43f9-88c5-b4633d873bdd";
+    private static final String SUBMISSION_SET_AUTHOR = "urn:uuid:a7058bb9-b4e4-4307-ba5b-e3f0ab85e12d";
+    private static final String SUBMISSION_SET_CONTENT_TYPE_CODE = "urn:uuid:aa543740-bdda-424e-8c96-df4873be8500";
+    private static final String SUBMISSION_SET_UNIQUE_ID = "urn:uuid:96fdda7c-d067-4183-912e-bf5ee74998a8";
+    private static final String SUBMISSION_SET_SOURCE_ID = "urn:uuid:554ac39e-e3fe-47fe-b233-965d2a147832";
+    private static final String SUBMISSION_SET_PATIENT_ID = "urn:uuid:6b5aea1a-874d-4603-a4bc-96a0a7b38446";
+
+    // service times fall in the year from this instant, 2025-01-01T00:00Z
+    private static final long SERVICE_TIME_START = 1735689600000L;
+
+    private static final long MINUTES_PER_YEAR = 365L * 24 * 60;
+
+    private long seed = 1;
+
+    private String uniqueIdRoot = "1.3.6.1.4.1.21367.2026.1";
+
+    private int patients = 100;
+
+    private int authors = 20;
+
+    private int authorsPerDocument = 1;
+
+    private int minDocuments = 1;
+
+    private int maxDocuments = 1;
+
+    private int minPayloadSize = 4096;
+
+    private int maxPayloadSize = 4096;
+
+    private boolean cda = true;
+
+    private boolean hashAndSize;
+
+    private double rejectRate;
+
+    private String enterpriseAuthority = "1.2.3";
+
+    private String sourceAuthority = "3.4.5";
+
+    // the location, encounter type and form of the standard and module test datasets
+    private List<String> locations = Arrays.asList("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+
+    private List<String> encounterTypes = Arrays.asList("27eef570-1405-4ffb-88f5-570f31630734");
+
+    private List<String> forms = Arrays.asList("d9218f76-6c39-45f4-8efa-4c5c6c199f50");
+
+    private List<DocumentType> documentTypes = Arrays.asList(DocumentType.HISTORY_AND_PHYSICAL, DocumentType.CONSULT,
+            DocumentType.DISCHARGE_SUMMARY, DocumentType.PROGRESS_NOTE);
+
+    public SubmissionGenerator withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param uniqueIdRoot - the OID the submission set and document unique ids are generated under, use a
+     * different one for every run against the same database
+     */
+    public SubmissionGenerator withUniqueIdRoot(String uniqueIdRoot) {
+        this.uniqueIdRoot = uniqueIdRoot;
+        return this;
+    }
+
+    /**
+     * @param patients - the number of distinct patients the submissions are spread over
+     */
+    public SubmissionGenerator withPatients(int patients) {
+        this.patients = patients;
+        return this;
+    }
+
+    /**
+     * @param authors - the number of distinct authors the documents are spread over
+     * @param authorsPerDocument - the number of author classifications of each document
+     */
+    public SubmissionGenerator withAuthors(int authors, int authorsPerDocument) {
+        this.authors = authors;
+        this.authorsPerDocument = authorsPerDocument;
+        return this;
+    }
+
+    public SubmissionGenerator withDocumentsPerSubmission(int min, int max) {
+        this.minDocuments = min;
+        this.maxDocuments = max;
+        return this;
+    }
+
+    /**
+     * @param min - the smallest document in bytes, a CDA document is never smaller than its header
+     * @param max - the largest document in bytes
+     */
+    public SubmissionGenerator withPayloadSize(int min, int max) {
+        this.minPayloadSize = min;
+        this.maxPayloadSize = max;
+        return this;
+    }
+
+    /**
+     * @param cda - true for CDA R2 documents, false for plain text
+     */
+    public SubmissionGenerator withCda(boolean cda) {
+        this.cda = cda;
+        return this;
+    }
+
+    /**
+     * @param hashAndSize - true to add the hash and size slots that the repository verifies
+     */
+    public SubmissionGenerator withHashAndSize(boolean hashAndSize) {
+        this.hashAndSize = hashAndSize;
+        return this;
+    }
+
+    /**
+     * @param rejectRate - the fraction of submission sets to name {@link #REJECT_MARKER}
+     */
+    public SubmissionGenerator withRejectRate(double rejectRate) {
+        this.rejectRate = rejectRate;
+        return this;
+    }
+
+    /**
+     * @param enterpriseAuthority - the assigning authority of the patientId, the name of a patient identifier type
+     * @param sourceAuthority - the assigning authority of the sourcePatientId
+     */
+    public SubmissionGenerator withAssigningAuthorities(String enterpriseAuthority, String sourceAuthority) {
+        this.enterpriseAuthority = enterpriseAuthority;
+        this.sourceAuthority = sourceAuthority;
+        return this;
+    }
+
+    /**
+     * Set the uuids the entry ids are made up of, each document gets one of each at random
+     */
+    public SubmissionGenerator withEncounterIds(List<String> locations, List<String> encounterTypes, List<String> forms) {
+        this.locations = new ArrayList<String>(locations);
+        this.encounterTypes = new ArrayList<String>(encounterTypes);
+        this.forms = new ArrayList<String>(forms);
+        return this;
+    }
+
+    public SubmissionGenerator withDocumentTypes(DocumentType... documentTypes) {
+        this.documentTypes = Arrays.asList(documentTypes);
+        return this;
+    }
+
+    public SyntheticPatient getPatient(int index) {
+        return new SyntheticPatient(index, seed, enterpriseAuthority, sourceAuthority);
+    }
+
+    public SyntheticAuthor getAuthor(int index) {
+        return new SyntheticAuthor(index, seed);
+    }
+
+    /**
+     * @return the index-th submission of this generator
+     */
+    public GeneratedSubmission generate(int index) throws Exception {
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + index);
+        SyntheticPatient patient = getPatient(random.nextInt(patients));
+        boolean rejected = random.nextDouble() < rejectRate;
+        int documentCount = between(random, minDocuments, maxDocuments);
+        String submissionSetUniqueId = uniqueIdRoot + "." + index;
+        Date serviceTime = new Date(SERVICE_TIME_START + random.nextInt((int) MINUTES_PER_YEAR) * 60000L);
+
+        List<String> documentUniqueIds = new ArrayList<String>();
+        List<String> entryIds = new ArrayList<String>();
+        List<byte[]> documents = new ArrayList<byte[]>();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<xdsb:ProvideAndRegisterDocumentSetRequest xmlns:xdsb=\"urn:ihe:iti:xds-b:2007\"")
+                .append(" xmlns:lcm=\"urn:oasis:names:tc:ebxml-regrep:xsd:lcm:3.0\"")
+                .append(" xmlns:rim=\"urn:oasis:names:tc:ebxml-regrep:xsd:rim:3.0\">\n")
+                .append("<lcm:SubmitObjectsRequest><rim:RegistryObjectList>\n");
+
+        for (int i = 0; i < documentCount; i++) {
+            String id = pick(random, locations) + "/" + i + "/" + pick(random, encounterTypes) + "/" + pick(random, forms);
+            String documentUniqueId = submissionSetUniqueId + "." + i;
+            DocumentType type = pick(random, documentTypes);
+            List<SyntheticAuthor> documentAuthors = new ArrayList<SyntheticAuthor>();
+            for (int a = 0; a < authorsPerDocument; a++) {
+                documentAuthors.add(getAuthor(random.nextInt(authors)));
+            }
+            Date start = new Date(serviceTime.getTime() + i * 15 * 60000L);
+            Date stop = new Date(start.getTime() + (5 + random.nextInt(55)) * 60000L);
+
+            byte[] document;
+            if (cda) {
+                document = CdaDocuments.generate(random, patient, documentAuthors.get(0), documentUniqueId, type,
+                        format("yyyyMMddHHmmss", start), between(random, minPayloadSize, maxPayloadSize)).getBytes("UTF-8");
+            } else {
+                document = text(random, between(random, minPayloadSize, maxPayloadSize));
+            }
+            entryIds.add(id);
+            documentUniqueIds.add(documentUniqueId);
+            documents.add(document);
+
+            sb.append("<rim:ExtrinsicObject id=\"").append(escape(id)).append("\" mimeType=\"").append(cda ? "text/xml" : "text/plain")
+                    .append("\" objectType=\"").append(DOCUMENT_ENTRY).append("\">\n");
+            slot(sb, "creationTime", format("yyyyMMddHHmmss", stop));
+            slot(sb, "languageCode", "en-us");
+            slot(sb, "serviceStartTime", format("yyyyMMddHHmm", start));
+            slot(sb, "serviceStopTime", format("yyyyMMddHHmm", stop));
+            slot(sb, "sourcePatientId", patient.getSourceId());
+            slot(sb, "sourcePatientInfo", patient.getSourcePatientInfo());
+            if (hashAndSize) {
+                slot(sb, "hash", sha1(document));
+                slot(sb, "size", String.valueOf(document.length));
+            }
+            sb.append("<rim:Name><rim:LocalizedString value=\"").append(escape(type.getTypeName())).append("\"/></rim:Name>\n");
+            for (int a = 0; a < documentAuthors.size(); a++) {
+                SyntheticAuthor author = documentAuthors.get(a);
+                sb.append("<rim:Classification classificationScheme=\"").append(DOCUMENT_ENTRY_AUTHOR).append("\" classifiedObject=\"")
+                        .append(escape(id)).append("\" nodeRepresentation=\"\" id=\"author").append(i).append('.').append(a).append("\">");
+                slot(sb, "authorPerson", author.getPerson());
+                slot(sb, "authorInstitution", author.getInstitution());
+                slot(sb, "authorRole", author.getRole());
+                slot(sb, "authorSpecialty", author.getSpecialty());
+                sb.append("</rim:Classification>\n");
+            }
+            classification(sb, id, DOCUMENT_ENTRY_CLASS_CODE, type.getClassCode(), "Connect-a-thon classCodes", "classCode" + i);
+            classification(sb, id, DOCUMENT_ENTRY_CONFIDENTIALITY_CODE, "N", "2.16.840.1.113883.5.25", "confidentialityCode" + i);
+            if (cda) {
+                classification(sb, id, DOCUMENT_ENTRY_FORMAT_CODE, "urn:ihe:pcc:xphr:2007", "1.3.6.1.4.1.19376.1.2.3", "formatCode" + i);
+            } else {
+                classification(sb, id, DOCUMENT_ENTRY_FORMAT_CODE, "urn:ihe:iti:xds:2017:mimeTypeSufficient", "1.3.6.1.4.1.19376.1.2.3", "formatCode" + i);
+            }
+            classification(sb, id, DOCUMENT_ENTRY_FACILITY_TYPE_CODE, "Outpatient", "Connect-a-thon healthcareFacilityTypeCodes", "facilityTypeCode" + i);
+            classification(sb, id, DOCUMENT_ENTRY_PRACTICE_SETTING_CODE, documentAuthors.get(0).getSpecialty(), "Connect-a-thon practiceSettingCodes", "practiceSettingCode" + i);
+            classification(sb, id, DOCUMENT_ENTRY_TYPE_CODE, type.getTypeCode(), "LOINC", "typeCode" + i);
+            externalIdentifier(sb, id, DOCUMENT_ENTRY_PATIENT_ID, patient.getEnterpriseId(), "patientId" + i);
+            externalIdentifier(sb, id, DOCUMENT_ENTRY_UNIQUE_ID, documentUniqueId, "uniqueId" + i);
+            sb.append("</rim:ExtrinsicObject>\n");
+        }
+
+        SyntheticAuthor submissionAuthor = getAuthor(random.nextInt(authors));
+        sb.append("<rim:RegistryPackage id=\"SubmissionSet\" objectType=\"urn:oasis:names:tc:ebxml-regrep:ObjectType:RegistryObject:RegistryPackage\">\n");
+        slot(sb, "submissionTime", format("yyyyMMddHHmmss", serviceTime));
+        sb.append("<rim:Name><rim:LocalizedString value=\"").append(rejected ? REJECT_MARKER : "Synthetic submission").append("\"/></rim:Name>\n");
+        sb.append("<rim:Classification classificationScheme=\"").append(SUBMISSION_SET_AUTHOR)
+                .append("\" classifiedObject=\"SubmissionSet\" nodeRepresentation=\"\" id=\"submissionSetAuthor\">");
+        slot(sb, "authorPerson", submissionAuthor.getPerson());
+        slot(sb, "authorInstitution", submissionAuthor.getInstitution());
+        slot(sb, "authorRole", submissionAuthor.getRole());
+        sb.append("</rim:Classification>\n");
+        classification(sb, "SubmissionSet", SUBMISSION_SET_CONTENT_TYPE_CODE, "History and Physical", "Connect-a-thon contentTypeCodes", "contentTypeCode");
+        externalIdentifier(sb, "SubmissionSet", SUBMISSION_SET_UNIQUE_ID, submissionSetUniqueId, "submissionSetUniqueId");
+        externalIdentifier(sb, "SubmissionSet", SUBMISSION_SET_SOURCE_ID, uniqueIdRoot, "submissionSetSourceId");
+        externalIdentifier(sb, "SubmissionSet", SUBMISSION_SET_PATIENT_ID, patient.getEnterpriseId(), "submissionSetPatientId");
+        sb.append("</rim:RegistryPackage>\n");
+        sb.append("<rim:Classification classifiedObject=\"SubmissionSet\" classificationNode=\"").append(SUBMISSION_SET)
+                .append("\" id=\"submissionSetNode\"/>\n");
+        for (int i = 0; i < entryIds.size(); i++) {
+            sb.append("<rim:Association associationType=\"urn:oasis:names:tc:ebxml-regrep:AssociationType:HasMember\"")
+                    .append(" sourceObject=\"SubmissionSet\" targetObject=\"").append(escape(entryIds.get(i)))
+                    .append("\" id=\"association").append(i).append("\">");
+            slot(sb, "SubmissionSetStatus", "Original");
+            sb.append("</rim:Association>\n");
+        }
+        sb.append("</rim:RegistryObjectList></lcm:SubmitObjectsRequest>\n");
+
+        for (int i = 0; i < entryIds.size(); i++) {
+            sb.append("<xdsb:Document id=\"").append(escape(entryIds.get(i))).append("\">")
+                    .append(DatatypeConverter.printBase64Binary(documents.get(i)))
+                    .append("</xdsb:Document>\n");
+        }
+        sb.append("</xdsb:ProvideAndRegisterDocumentSetRequest>\n");
+
+        return new GeneratedSubmission(index, sb.toString(), submissionSetUniqueId, patient, documentUniqueIds, rejected);
+    }
+
+    /**
+     * Write submissions from..from + count - 1 to the given directory
+     *
+     * @return the files written
+     */
+    public List<File> writeTo(File directory, int from, int count) throws Exception {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        List<File> files = new ArrayList<File>();
+        for (int i = from; i < from + count; i++) {
+            files.add(generate(i).writeTo(directory));
+        }
+        return files;
+    }
+
+    /**
+     * Read a request written by {@link GeneratedSubmission#writeTo(File)}
+     */
+    public static ProvideAndRegisterDocumentSetRequestType read(File file) throws Exception {
+        return unmarshal(new StreamSource(file));
+    }
+
+    static ProvideAndRegisterDocumentSetRequestType parse(String xml) throws Exception {
+        return unmarshal(new StreamSource(new StringReader(xml)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ProvideAndRegisterDocumentSetRequestType unmarshal(StreamSource source) throws Exception {
+        Unmarshaller unmarshaller = InfosetJaxbContext.borrowUnmarshaller();
+        try {
+            return ((JAXBElement<ProvideAndRegisterDocumentSetRequestType>) unmarshaller.unmarshal(source)).getValue();
+        } finally {
+            InfosetJaxbContext.release(unmarshaller);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SubmissionGenerator <directory> <count> [seed]");
+            System.exit(1);
+        }
+        SubmissionGenerator generator = new SubmissionGenerator();
+        if (args.length > 2) {
+            generator.withSeed(Long.parseLong(args[2]));
+        }
+        List<File> files = generator.writeTo(new File(args[0]), 0, Integer.parseInt(args[1]));
+        System.out.println("Wrote " + files.size() + " submissions to " + args[0]);
+    }
+
+    private static int between(Random random, int min, int max) {
+        return max <= min ? min : min + random.nextInt(max - min + 1);
+    }
+
+    private static <T> T pick(Random random, List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private static String format(String pattern, Date date) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static byte[] text(Random random, int size) {
+        String characters = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789.\n";
+        byte[] text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            text[i] = (byte) characters.charAt(random.nextInt(characters.length()));
+        }
+        return text;
+    }
+
+    private static String sha1(byte[] document) throws Exception {
+        return DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-1").digest(document)).toLowerCase();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static void slot(StringBuilder sb, String name, String... values) {
+        sb.append("<rim:Slot name=\"").append(name).append("\"><rim:ValueList>");
+        for (String value : values) {
+            sb.append("<rim:Value>").append(escape(value)).append("</rim:Value>");
+        }
+        sb.append("</rim:ValueList></rim:Slot>");
+    }
+
+    private static void classification(StringBuilder sb, String classifiedObject, String scheme, String code,
+                                       String codingScheme, String id) {
+        sb.append("<rim:Classification classificationScheme=\"").append(scheme).append("\" classifiedObject=\"")
+                .append(escape(classifiedObject)).append("\" nodeRepresentation=\"").append(escape(code)).append("\" id=\"")
+                .append(id).append("\">");
+        slot(sb, "codingScheme", codingScheme);
+        sb.append("<rim:Name><rim:LocalizedString value=\"").append(escape(code)).append("\"/></rim:Name>");
+        sb.append("</rim:Classification>\n");
+    }
+
+    private static void externalIdentifier(StringBuilder sb, String registryObject, String scheme, String value, String id) {
+        sb.append("<rim:ExternalIdentifier identificationScheme=\"").append(scheme).append("\" value=\"").append(escape(value))
+                .append("\" id=\"").append(id).append("\" registryObject=\"").append(escape(registryObject)).append("\"/>\n");
+    }
+}
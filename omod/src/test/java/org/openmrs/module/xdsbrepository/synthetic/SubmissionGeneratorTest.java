@@ -0,0 +1,75 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
+import org.dcm4chee.xds2.infoset.rim.ExtrinsicObjectType;
+import org.dcm4chee.xds2.infoset.util.InfosetUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubmissionGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generate_shouldGiveTheSameSubmissionForTheSameSeedAndIndex() throws Exception {
+        SubmissionGenerator generator = new SubmissionGenerator().withSeed(42).withDocumentsPerSubmission(1, 5);
+
+        assertEquals(generator.generate(7).getXml(), new SubmissionGenerator().withSeed(42).withDocumentsPerSubmission(1, 5).generate(7).getXml());
+        assertFalse(generator.generate(7).getXml().equals(new SubmissionGenerator().withSeed(43).withDocumentsPerSubmission(1, 5).generate(7).getXml()));
+    }
+
+    @Test
+    public void generate_shouldProduceRequestsWithTheConfiguredDocuments() throws Exception {
+        SubmissionGenerator generator = new SubmissionGenerator().withDocumentsPerSubmission(3, 3).withAuthors(5, 2)
+                .withPayloadSize(1000, 2000).withHashAndSize(true);
+
+        GeneratedSubmission submission = generator.generate(0);
+        ProvideAndRegisterDocumentSetRequestType request = submission.toRequest();
+
+        assertEquals(3, request.getDocument().size());
+        assertEquals(3, submission.getDocumentUniqueIds().size());
+        List<ExtrinsicObjectType> entries = InfosetUtil.getExtrinsicObjects(request.getSubmitObjectsRequest());
+        assertEquals(3, entries.size());
+        for (ExtrinsicObjectType entry : entries) {
+            // location/.../encounterType/form
+            assertEquals(4, entry.getId().split("/").length);
+            assertEquals("text/xml", entry.getMimeType());
+        }
+        for (ProvideAndRegisterDocumentSetRequestType.Document document : request.getDocument()) {
+            assertTrue(new String(document.getValue(), "UTF-8").contains("<ClinicalDocument"));
+            assertTrue(document.getValue().length >= 1000);
+        }
+    }
+
+    @Test
+    public void getPatient_shouldGiveTheSameDemographicsForTheSameIndex() throws Exception {
+        SyntheticPatient patient = new SubmissionGenerator().withSeed(3).getPatient(12);
+        SyntheticPatient again = new SubmissionGenerator().withSeed(3).getPatient(12);
+
+        assertEquals(patient.getFamilyName(), again.getFamilyName());
+        assertEquals(patient.getGivenName(), again.getGivenName());
+        assertEquals(patient.getBirthDate(), again.getBirthDate());
+        assertEquals("ECID12^^^&1.2.3&ISO", patient.getEnterpriseId());
+    }
+
+    @Test
+    public void writeTo_shouldWriteSubmissionsThatCanBeReadBack() throws Exception {
+        SubmissionGenerator generator = new SubmissionGenerator().withCda(false).withDocumentsPerSubmission(2, 2);
+
+        List<File> files = generator.writeTo(folder.getRoot(), 10, 3);
+
+        assertEquals(3, files.size());
+        assertEquals("submission-000010.xml", files.get(0).getName());
+        ProvideAndRegisterDocumentSetRequestType request = SubmissionGenerator.read(files.get(0));
+        assertEquals(2, request.getDocument().size());
+    }
+}
@@ -0,0 +1,83 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+import java.util.Random;
+
+/**
+ * A generated document author. The same seed and index always give the same author, so a provider that is
+ * auto-created by one submission is found by the next.
+ */
+public class SyntheticAuthor {
+
+    private static final String[] FAMILY_NAMES = { "Adams", "Mthembu", "Chetty", "Fourie", "Zulu", "Patel", "Erasmus",
+            "Molefe", "Clarke", "Govender" };
+
+    private static final String[] GIVEN_NAMES = { "Anele", "Chris", "Deepa", "Frans", "Hlengiwe", "Imran", "Karin",
+            "Lwazi", "Nadia", "Ruan" };
+
+    private static final String[] ROLES = { "Attending", "Primary Surgeon", "Consultant", "Nurse" };
+
+    private static final String[] SPECIALTIES = { "General Medicine", "Orthopedic", "Paediatrics", "Obstetrics", "Cardiology" };
+
+    private final int index;
+
+    private final String providerId;
+
+    private final String familyName;
+
+    private final String givenName;
+
+    private final String role;
+
+    private final String specialty;
+
+    private final String institution;
+
+    SyntheticAuthor(int index, long seed) {
+        Random random = new Random(seed * 7919 + index);
+        this.index = index;
+        this.providerId = "prov" + index;
+        this.familyName = FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)];
+        this.givenName = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+        this.role = ROLES[random.nextInt(ROLES.length)];
+        this.specialty = SPECIALTIES[random.nextInt(SPECIALTIES.length)];
+        this.institution = "Clinic " + (1 + random.nextInt(25));
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getProviderId() {
+        return providerId;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    /**
+     * @return the authorPerson XCN value
+     */
+    public String getPerson() {
+        return providerId + "^" + familyName + "^" + givenName + "^^^";
+    }
+
+    /**
+     * @return the authorRole, which becomes the encounter role
+     */
+    public String getRole() {
+        return role;
+    }
+
+    public String getSpecialty() {
+        return specialty;
+    }
+
+    public String getInstitution() {
+        return institution;
+    }
+}
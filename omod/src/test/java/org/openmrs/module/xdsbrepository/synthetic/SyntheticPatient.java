@@ -0,0 +1,114 @@
+package org.openmrs.module.xdsbrepository.synthetic;
+
+import java.util.Random;
+
+/**
+ * A generated patient. The same seed and index always give the same patient, so every submission for a
+ * patient carries the same demographics.
+ */
+public class SyntheticPatient {
+
+    private static final String[] FAMILY_NAMES = { "Dlamini", "Nkosi", "Smith", "Naidoo", "Botha", "Mokoena", "Jones",
+            "Pillay", "van der Merwe", "Khumalo", "Williams", "Mahlangu", "Brown", "Ndlovu", "Taylor", "Sithole" };
+
+    private static final String[] GIVEN_NAMES_F = { "Thandi", "Jane", "Precious", "Ayesha", "Lerato", "Mary", "Zanele",
+            "Sarah", "Nomsa", "Emily" };
+
+    private static final String[] GIVEN_NAMES_M = { "Sipho", "John", "Thabo", "Rajesh", "Pieter", "David", "Bongani",
+            "Michael", "Kagiso", "James" };
+
+    private static final String[] CITIES = { "Cape Town", "Durban", "Johannesburg", "Pretoria", "Gqeberha", "Bloemfontein" };
+
+    private final int index;
+
+    private final String enterpriseId;
+
+    private final String sourceId;
+
+    private final String familyName;
+
+    private final String givenName;
+
+    private final String gender;
+
+    private final String birthDate;
+
+    private final String street;
+
+    private final String city;
+
+    SyntheticPatient(int index, long seed, String enterpriseAuthority, String sourceAuthority) {
+        Random random = new Random(seed * 1000003 + index);
+        this.index = index;
+        this.enterpriseId = "ECID" + index + "^^^&" + enterpriseAuthority + "&ISO";
+        this.sourceId = "SRC" + index + "^^^&" + sourceAuthority + "&ISO";
+        this.familyName = FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)];
+        this.gender = random.nextBoolean() ? "F" : "M";
+        String[] givenNames = "F".equals(gender) ? GIVEN_NAMES_F : GIVEN_NAMES_M;
+        this.givenName = givenNames[random.nextInt(givenNames.length)];
+        this.birthDate = String.format("%04d%02d%02d", 1930 + random.nextInt(90), 1 + random.nextInt(12), 1 + random.nextInt(28));
+        this.street = (1 + random.nextInt(400)) + " " + FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)] + " Street";
+        this.city = CITIES[random.nextInt(CITIES.length)];
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the XDSDocumentEntry.patientId CX value
+     */
+    public String getEnterpriseId() {
+        return enterpriseId;
+    }
+
+    /**
+     * @return the sourcePatientId CX value
+     */
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    /**
+     * @return F or M
+     */
+    public String getGender() {
+        return gender;
+    }
+
+    /**
+     * @return the date of birth as yyyyMMdd
+     */
+    public String getBirthDate() {
+        return birthDate;
+    }
+
+    public String getStreet() {
+        return street;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    /**
+     * @return the values of the sourcePatientInfo slot
+     */
+    public String[] getSourcePatientInfo() {
+        return new String[] {
+                "PID-3|" + sourceId,
+                "PID-5|" + familyName + "^" + givenName + "^^^",
+                "PID-7|" + birthDate,
+                "PID-8|" + gender,
+                "PID-11|" + street + "^^" + city + "^^^ZAF"
+        };
+    }
+}